@@ -47,6 +47,7 @@ public class CredentialFileWatcher {
     private final Set<CredentialChangeListener> listeners = new CopyOnWriteArraySet<>();
 
     void onStart(@Observes @Priority(Interceptor.Priority.LIBRARY_BEFORE) StartupEvent ev) {
+        CredentialVerifier.configure(configHandler);
         String pathStr = configHandler.get(CREDENTIAL_PATH_KEY);
         if (pathStr == null) {
             logger.warn("Credential watcher disabled: No path defined for '{}'", CREDENTIAL_PATH_KEY);
@@ -148,6 +149,7 @@ public class CredentialFileWatcher {
 
         try {
             validCredentials = CredentialFileParser.loadAndParse(file.toPath());
+            CredentialVerifier.invalidate();
             logger.info("Credential configuration reloaded successfully. Total credentials loaded: {}", validCredentials.size());
             notifyListeners(validCredentials);
         } catch (Exception e) {
@@ -0,0 +1,378 @@
+package gr.cytech.sendium.auth;
+
+import gr.cytech.sendium.conf.SendiumConfigurationHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.io.BufferedReader;
+import java.io.Console;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Verifies the passwords presented by HTTP and SMPP clients against their credentials.
+ *
+ * <p>
+ * The password of a credential is either plaintext, or a salted PBKDF2 hash such as {@link #hash} makes, in the form
+ * {@code $pbkdf2-sha256$<iterations>$<salt>$<hash>} with the salt and the hash Base64 encoded. A hash is meant to be
+ * slow to compute, which would make every request and bind a CPU hotspot, so a successful verification of a hash is
+ * kept for {@code auth.cache.ttlMillis}, and the same credentials presented again within that time are
+ * accepted without computing it again.
+ *
+ * <p>
+ * The verifications are kept by a SHA-256 digest of the presented credentials, the stored hash and a random secret of
+ * the process, so neither the passwords nor digests that could be checked against guesses outside the process are
+ * kept. At most {@code auth.cache.maxEntries} are kept, and {@link CredentialFileWatcher} forgets them all when
+ * it reloads the credentials. It also reads these parameters, with {@link #configure}, when Sendium starts.
+ *
+ * <p>
+ * Hashes are computed by a pool of {@code auth.hashing.threads} threads, with at most {@code auth.hashing.maxQueued}
+ * waiting, so that HTTP requests and SMPP binds never use more CPU for hashing than that, and a password presented while
+ * the queue is full is rejected. Requests that present the same credentials while their hash is computed wait for that
+ * hash rather than compute their own.
+ *
+ * <p>
+ * Failed verifications are not cached, so guessing would compute a hash per guess. After {@code auth.failures.max}
+ * failed verifications of the hash of a credential from one source address within {@code auth.failures.windowMillis},
+ * the rest of that window rejects every password of the credential from that address that is not cached, without
+ * computing its hash. The hashes of the credential from that address still being computed count as failures, so a burst
+ * of guesses starts no more hashes than that. Other addresses are not locked out.
+ */
+public final class CredentialVerifier {
+    public static final String[][] prms = {
+            {"auth.cache.ttlMillis", "60000"}
+            , {"auth.cache.maxEntries", "10000"}
+            , {"auth.failures.max", "10"}
+            , {"auth.failures.windowMillis", "60000"}
+            , {"auth.hashing.threads", "2"}
+            , {"auth.hashing.maxQueued", "100"}
+    };
+    public static final String[] _cacheTtl = prms[0];
+    public static final String[] _cacheMaxEntries = prms[1];
+    public static final String[] _maxFailures = prms[2];
+    public static final String[] _failureWindow = prms[3];
+    public static final String[] _hashingThreads = prms[4];
+    public static final String[] _hashingMaxQueued = prms[5];
+    public static final String HASH_PREFIX = "$pbkdf2-sha256$";
+    public static final int DEFAULT_ITERATIONS = 600_000;
+
+    private static final Logger logger = LoggerFactory.getLogger(CredentialVerifier.class);
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final byte[] SECRET = randomBytes(32);
+    private static final ThreadLocal<MessageDigest> DIGEST = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+    /**
+     * the expiry time of each cached verification, by its digest
+     */
+    private static final Map<ByteBuffer, Long> VERIFIED = new ConcurrentHashMap<>();
+    /**
+     * the verifications whose hash is being computed, by their digest
+     */
+    private static final Map<ByteBuffer, CompletableFuture<Boolean>> HASHING = new ConcurrentHashMap<>();
+    /**
+     * the failed and running verifications of the hash of each credential from each source in its current window
+     */
+    private static final Map<String, Failures> FAILURES = new ConcurrentHashMap<>();
+
+    private static volatile long cacheTtlMillis = Long.parseLong(_cacheTtl[1]);
+    private static volatile int maxCached = Integer.parseInt(_cacheMaxEntries[1]);
+    private static volatile int maxFailures = Integer.parseInt(_maxFailures[1]);
+    private static volatile long failureWindowMillis = Long.parseLong(_failureWindow[1]);
+    private static volatile ThreadPoolExecutor hashingExecutor = newHashingExecutor(Integer.parseInt(_hashingThreads[1]),
+            Integer.parseInt(_hashingMaxQueued[1]));
+
+    private CredentialVerifier() {
+    }
+
+    /**
+     * Print the hash of a password to put in {@code credentials.yml}. The password is read from the console, or from the
+     * first line of the standard input when there is no console, never from the arguments, which other users of the
+     * host can see.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 0) {
+            System.err.println("usage: CredentialVerifier, with the password typed when prompted or given on the standard input");
+            System.exit(2);
+            return;
+        }
+        Console console = System.console();
+        char[] password;
+        if (console != null) {
+            password = console.readPassword("Password: ");
+        } else {
+            String line = new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8)).readLine();
+            password = line == null ? null : line.toCharArray();
+        }
+        if (password == null || password.length == 0) {
+            System.err.println("No password given");
+            System.exit(2);
+            return;
+        }
+        System.out.println(hash(password, DEFAULT_ITERATIONS));
+        Arrays.fill(password, '\0');
+    }
+
+    /**
+     * Read the settings of the cache of verifications, of the hashing pool and of the throttling of failures from
+     * {@code configurationHandler}.
+     */
+    public static void configure(SendiumConfigurationHandler configurationHandler) {
+        configurationHandler.loadDefaultParams(prms);
+        cacheTtlMillis = Math.max(0, configurationHandler.getLongPrpt(_cacheTtl));
+        maxCached = (int) Math.clamp(configurationHandler.getLongPrpt(_cacheMaxEntries), 1, Integer.MAX_VALUE);
+        maxFailures = (int) Math.clamp(configurationHandler.getLongPrpt(_maxFailures), 0, Integer.MAX_VALUE);
+        failureWindowMillis = Math.max(0, configurationHandler.getLongPrpt(_failureWindow));
+        ThreadPoolExecutor previous = hashingExecutor;
+        hashingExecutor = newHashingExecutor((int) Math.clamp(configurationHandler.getLongPrpt(_hashingThreads), 1, 1024),
+                (int) Math.clamp(configurationHandler.getLongPrpt(_hashingMaxQueued), 1, Integer.MAX_VALUE));
+        previous.shutdown();
+    }
+
+    /**
+     * Verify {@code password}, waiting for its hash if it has to be computed. Callers that must not block, as an event
+     * loop, use {@link #verifyAsync} instead.
+     *
+     * @param source the address the password was presented from, or {@code null} if unknown
+     * @return whether {@code password} is the password of {@code credential}
+     */
+    public static boolean verify(CredentialFileWatcher.Credential credential, String password, String source) {
+        return verifyAsync(credential, password, source).join();
+    }
+
+    static boolean verify(CredentialFileWatcher.Credential credential, String password, long now) {
+        return verifyAsync(credential, password, null, now).join();
+    }
+
+    /**
+     * Verify {@code password}. The result is complete at once unless the hash has to be computed, which happens on the
+     * hashing pool.
+     *
+     * @param source the address the password was presented from, or {@code null} if unknown
+     * @return whether {@code password} is the password of {@code credential}
+     */
+    public static CompletableFuture<Boolean> verifyAsync(CredentialFileWatcher.Credential credential, String password, String source) {
+        return verifyAsync(credential, password, source, System.currentTimeMillis());
+    }
+
+    static CompletableFuture<Boolean> verifyAsync(CredentialFileWatcher.Credential credential, String password, String source, long now) {
+        if (credential == null || password == null || credential.password() == null) {
+            return CompletableFuture.completedFuture(false);
+        }
+        String stored = credential.password();
+        if (!isHash(stored)) {
+            return CompletableFuture.completedFuture(
+                    MessageDigest.isEqual(password.getBytes(StandardCharsets.UTF_8), stored.getBytes(StandardCharsets.UTF_8)));
+        }
+        ByteBuffer key = cacheKey(credential.getLookupKey(), stored, password);
+        Long expiresAt = VERIFIED.get(key);
+        if (expiresAt != null && expiresAt > now) {
+            return CompletableFuture.completedFuture(true);
+        }
+        CompletableFuture<Boolean> running = HASHING.get(key);
+        if (running != null) {
+            return running;
+        }
+        String failuresKey = source == null ? credential.getLookupKey() : credential.getLookupKey() + "@" + source;
+        if (!startHashing(failuresKey, now)) {
+            logger.debug("Too many failed verifications of {}, rejected without computing the hash", failuresKey);
+            return CompletableFuture.completedFuture(false);
+        }
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        running = HASHING.putIfAbsent(key, result);
+        if (running != null) {
+            hashed(failuresKey, now, null);
+            return running;
+        }
+        try {
+            hashingExecutor.execute(() -> {
+                Boolean matched = null;
+                try {
+                    matched = matchesHash(password, stored);
+                    if (matched) {
+                        cache(key, now);
+                    }
+                } finally {
+                    hashed(failuresKey, now, matched);
+                    HASHING.remove(key, result);
+                    if (matched == null) {
+                        result.completeExceptionally(new IllegalStateException("Failed to compute the hash of " + credential.getLookupKey()));
+                    } else {
+                        result.complete(matched);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            logger.warn("Too many password hashes waiting, rejected the password of {}", failuresKey);
+            hashed(failuresKey, now, null);
+            HASHING.remove(key, result);
+            result.complete(false);
+        }
+        return result;
+    }
+
+    /**
+     * @return whether {@code stored} is a hash rather than a plaintext password
+     */
+    public static boolean isHash(String stored) {
+        return stored != null && stored.startsWith(HASH_PREFIX);
+    }
+
+    /**
+     * @return the salted hash of {@code password} with a new random salt, to be stored instead of the password
+     */
+    public static String hash(char[] password, int iterations) {
+        byte[] salt = randomBytes(SALT_BYTES);
+        Base64.Encoder encoder = Base64.getEncoder().withoutPadding();
+        return HASH_PREFIX + iterations + "$" + encoder.encodeToString(salt) + "$" + encoder.encodeToString(pbkdf2(password, salt, iterations, HASH_BITS));
+    }
+
+    /**
+     * Forget every cached verification and failure, as when the credentials change.
+     */
+    static void invalidate() {
+        VERIFIED.clear();
+        FAILURES.clear();
+    }
+
+    static int cached() {
+        return VERIFIED.size();
+    }
+
+    static ThreadPoolExecutor hashingExecutor() {
+        return hashingExecutor;
+    }
+
+    private static void cache(ByteBuffer key, long now) {
+        int max = maxCached;
+        if (VERIFIED.size() >= max) {
+            VERIFIED.values().removeIf(expiry -> expiry <= now);
+            if (VERIFIED.size() >= max) {
+                VERIFIED.clear();
+            }
+        }
+        VERIFIED.put(key, now + cacheTtlMillis);
+    }
+
+    /**
+     * Count a hash about to be computed for {@code failuresKey}, unless its failures and the hashes still being computed
+     * reached {@code auth.failures.max} in the current window.
+     *
+     * @return whether the hash may be computed
+     */
+    private static boolean startHashing(String failuresKey, long now) {
+        boolean[] started = new boolean[1];
+        FAILURES.compute(failuresKey, (k, failures) -> {
+            Failures current = inWindow(failures, now);
+            int max = maxFailures;
+            if (max > 0 && current.count() + current.hashing() >= max) {
+                return current;
+            }
+            started[0] = true;
+            return new Failures(current.since(), current.count(), current.hashing() + 1);
+        });
+        return started[0];
+    }
+
+    /**
+     * Count a hash of {@code failuresKey} that is no longer being computed.
+     *
+     * @param matched whether the password matched, or {@code null} if the hash was not computed
+     */
+    private static void hashed(String failuresKey, long now, Boolean matched) {
+        FAILURES.computeIfPresent(failuresKey, (k, failures) -> {
+            Failures current = inWindow(failures, now);
+            int count = matched == null ? current.count() : matched ? 0 : current.count() + 1;
+            int hashing = Math.max(0, current.hashing() - 1);
+            return count == 0 && hashing == 0 ? null : new Failures(current.since(), count, hashing);
+        });
+    }
+
+    private static Failures inWindow(Failures failures, long now) {
+        if (failures == null) {
+            return new Failures(now, 0, 0);
+        }
+        return now - failures.since() >= failureWindowMillis ? new Failures(now, 0, failures.hashing()) : failures;
+    }
+
+    private static ThreadPoolExecutor newHashingExecutor(int threads, int maxQueued) {
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(maxQueued),
+                Thread.ofPlatform().daemon().name("auth-hashing-", 1).factory());
+    }
+
+    private static boolean matchesHash(String password, String stored) {
+        String[] parts = stored.substring(HASH_PREFIX.length()).split("\\$");
+        try {
+            if (parts.length != 3) {
+                throw new IllegalArgumentException("expected iterations, salt and hash");
+            }
+            int iterations = Integer.parseInt(parts[0]);
+            byte[] salt = Base64.getDecoder().decode(parts[1]);
+            byte[] expected = Base64.getDecoder().decode(parts[2]);
+            return MessageDigest.isEqual(expected, pbkdf2(password.toCharArray(), salt, iterations, expected.length * 8));
+        } catch (IllegalArgumentException e) {
+            logger.warn("Malformed password hash, the credential cannot be used: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    private static byte[] pbkdf2(char[] password, byte[] salt, int iterations, int bits) {
+        PBEKeySpec spec = new PBEKeySpec(password, salt, iterations, bits);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(ALGORITHM + " is not available", e);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    private static byte[] randomBytes(int length) {
+        byte[] bytes = new byte[length];
+        RANDOM.nextBytes(bytes);
+        return bytes;
+    }
+
+    private static ByteBuffer cacheKey(String lookupKey, String stored, String password) {
+        MessageDigest digest = DIGEST.get();
+        digest.update(SECRET);
+        digest.update(lookupKey.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(stored.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(password.getBytes(StandardCharsets.UTF_8));
+        return ByteBuffer.wrap(digest.digest());
+    }
+
+    /**
+     * @param since   the start of the window
+     * @param count   the failures since then
+     * @param hashing the hashes being computed
+     */
+    private record Failures(long since, int count, int hashing) {
+    }
+}
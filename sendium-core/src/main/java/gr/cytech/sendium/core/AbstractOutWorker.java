@@ -154,6 +154,7 @@ public abstract class AbstractOutWorker<M extends StandardMessage> implements He
     private long alertMaxQueueSize;
     private PropertyChangeListener propertyChangeListener;
     private String fullName;
+    private final ThreadLocal<Long> deferral = new ThreadLocal<>();
     private final Thread delayQDrainer = Thread.ofVirtual().unstarted(new Runnable() {
         @Override
         public void run() {
@@ -720,6 +721,15 @@ public abstract class AbstractOutWorker<M extends StandardMessage> implements He
         }
     }
 
+    /**
+     * Called from {@code doMessage} when the message cannot be handled right now for a reason that is
+     * not a failure (e.g. backpressure from the receiving side). The worker puts the message back on the delay queue once
+     * {@code doMessage} returns {@code null}, without counting a retry or running the success/failure filters.
+     */
+    protected final void deferMessage(long delayMillis) {
+        deferral.set(delayMillis);
+    }
+
     public Queue<M> getRouterQueue() {
         return routerQueue;
     }
@@ -1449,6 +1459,14 @@ public abstract class AbstractOutWorker<M extends StandardMessage> implements He
                     //Handle the message
                     m = doMessage(id, msg);
 
+                    Long deferredFor = deferral.get();
+                    if (m == null && deferredFor != null) {
+                        //Not a failure: the message goes back to the delay queue as it was, without using up a retry
+                        msg.body = originalMessageBody;
+                        enqueueDelayed(msg, deferredFor);
+                        return;
+                    }
+
                     //If the message has been consumed, call the post consumption filters
                     if (m == null && isMessageHandlingSynchronous()) {
                         failedMsgCounter.remove(msg.msgId);
@@ -1485,6 +1503,7 @@ public abstract class AbstractOutWorker<M extends StandardMessage> implements He
                 } catch (Exception e) {
                     logger.error("Exception caught in worker", e);
                 } finally {
+                    deferral.remove();
                     if (m != null) {
                         m.body = originalMessageBody;
                     }
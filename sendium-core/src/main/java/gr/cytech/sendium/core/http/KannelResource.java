@@ -1,41 +1,83 @@
 package gr.cytech.sendium.core.http;
 
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 import com.google.common.base.Strings;
 import gr.cytech.sendium.auth.CredentialFileWatcher;
+import gr.cytech.sendium.auth.CredentialVerifier;
 import gr.cytech.sendium.conf.SendiumConfigurationHandler;
 import gr.cytech.sendium.core.message.StandardMessage;
 import gr.cytech.sendium.core.queue.InMemoryQueueProvider;
+import gr.cytech.sendium.core.queue.Queue;
+import gr.cytech.sendium.core.worker.IdempotencyService;
 import gr.cytech.sendium.core.worker.InMemoryDlrService;
 import gr.cytech.sendium.core.worker.MessageState;
 import gr.cytech.sendium.util.MessageTrace;
+import io.smallrye.common.annotation.NonBlocking;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServerRequest;
+import jakarta.annotation.PostConstruct;
 import jakarta.annotation.security.PermitAll;
 import jakarta.inject.Inject;
+import jakarta.ws.rs.Consumes;
 import jakarta.ws.rs.GET;
+import jakarta.ws.rs.HeaderParam;
+import jakarta.ws.rs.POST;
 import jakarta.ws.rs.Path;
 import jakarta.ws.rs.Produces;
 import jakarta.ws.rs.QueryParam;
 import jakarta.ws.rs.WebApplicationException;
+import jakarta.ws.rs.core.Context;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import org.eclipse.microprofile.openapi.annotations.Operation;
 import org.eclipse.microprofile.openapi.annotations.media.Content;
 import org.eclipse.microprofile.openapi.annotations.media.Schema;
 import org.eclipse.microprofile.openapi.annotations.parameters.Parameter;
+import org.eclipse.microprofile.openapi.annotations.parameters.RequestBody;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponse;
 import org.eclipse.microprofile.openapi.annotations.responses.APIResponses;
 import org.eclipse.microprofile.openapi.annotations.tags.Tag;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 @Path("/sendsms")
 @Tag(name = "sendsms", description = "Operations for sending SMS messages via a Kannel-compatible HTTP interface")
 public class KannelResource {
+    public static final String[][] prms = {
+            {"http.bulk.maxMessages", "10000"}
+    };
+    public static final String[] _bulkMaxMessages = prms[0];
+    public static final String NDJSON = "application/x-ndjson";
+    public static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+    /**
+     * set on the answer to a duplicate submission, which was not enqueued again
+     */
+    public static final String IDEMPOTENT_REPLAYED = "Idempotent-Replayed";
+
     private static final Logger logger = LoggerFactory.getLogger(KannelResource.class);
+    private static final String IDEMPOTENCY_SCOPE = "http:";
+    private static final ObjectReader SUBMISSION_READER = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false)
+            .readerFor(SmsSubmission.class);
 
     @Inject
     InMemoryQueueProvider queueProvider;
@@ -49,10 +91,24 @@ public class KannelResource {
     @Inject
     SendiumConfigurationHandler configurationHandler;
 
+    @Inject
+    IdempotencyService idempotencyService;
+
+    @PostConstruct
+    void init() {
+        if (configurationHandler != null) {
+            configurationHandler.loadDefaultParams(prms);
+        }
+    }
+
     @Operation(
             operationId = "sendSms",
             summary = "Send an SMS message",
-            description = "Enqueues an SMS message for delivery. Expects Kannel-compatible GET parameters for authentication, routing, and message payload."
+            description = "Enqueues an SMS message for delivery. Expects Kannel-compatible GET parameters for authentication, routing, and message payload." +
+                    " Handled on the event loop, without waiting for the DLR store; a hashed password that is not cached is verified on the hashing pool." +
+                    " A retry with the idempotency key of a submission accepted" +
+                    " within the deduplication window is answered with the serial of that submission and the Idempotent-Replayed header," +
+                    " and not sent again."
     )
     @APIResponses(value = {
             @APIResponse(
@@ -78,14 +134,15 @@ public class KannelResource {
             ),
             @APIResponse(
                     responseCode = "503",
-                    description = "Service Unavailable. Temporal failure, usually due to a queue enqueue interruption.",
+                    description = "Service Unavailable. Temporal failure, when the DLR store falls behind or a queue enqueue is interrupted.",
                     content = @Content(mediaType = MediaType.TEXT_PLAIN, schema = @Schema(examples = "Temporal failure, try again later."))
             )
     })
     @GET
     @PermitAll
+    @NonBlocking
     @Produces(MediaType.TEXT_PLAIN)
-    public Response receiveSms(
+    public CompletionStage<Response> receiveSms(
             @Parameter(description = "Username for authentication (preferred over 'user')", required = true) @QueryParam("username") String username,
             @Parameter(description = "Password for authentication (preferred over 'pass')", required = true) @QueryParam("password") String password,
             @Parameter(description = "Sender ID (phone number or alphanumeric string)", required = true) @QueryParam("from") String from,
@@ -107,48 +164,74 @@ public class KannelResource {
             @Parameter(description = "Billing information") @QueryParam("binfo") String binfo,
             @Parameter(description = "Message priority (e.g., 0, 1, 2, 3)") @QueryParam("priority") Integer priority,
             @Parameter(description = "Username for authentication (alternative to 'username') ") @QueryParam("user") String user,
-            @Parameter(description = "Password for authentication (alternative to 'password') ") @QueryParam("pass") String pass) {
+            @Parameter(description = "Password for authentication (alternative to 'password') ") @QueryParam("pass") String pass,
+            @Parameter(description = "Idempotency key of the submission, unique per message of the user (alternative to the Idempotency-Key header)")
+            @QueryParam("idempotency-key") String idempotencyKeyParam,
+            @Parameter(description = "Idempotency key of the submission, unique per message of the user (preferred over 'idempotency-key')")
+            @HeaderParam(IDEMPOTENCY_KEY) String idempotencyKeyHeader,
+            @Context HttpServerRequest request) {
 
         String usr = Strings.isNullOrEmpty(user) ? username : user;
         String passwrd = Strings.isNullOrEmpty(pass) ? password : pass;
-        validateKannelAuth(usr, passwrd);
+        String idempotencyKey = Strings.isNullOrEmpty(idempotencyKeyHeader) ? idempotencyKeyParam : idempotencyKeyHeader;
+        SmsSubmission submission = new SmsSubmission(from, to, text, udh, smsc, mclass, coding, validity, deferred, dlrUrl, pid, altDcs, rpi,
+                account, binfo, priority, idempotencyKey);
+        CompletableFuture<Boolean> authorized = authorize(usr, passwrd, sourceOf(request));
+        if (!authorized.isDone()) {
+            // the hash is computed on the hashing pool, far too long to block the event loop for; carry on on the
+            // context of the request once it is done
+            var context = Vertx.currentContext();
+            Executor resume = context == null ? Runnable::run : task -> context.runOnContext(ignored -> task.run());
+            return authorized.thenComposeAsync(ok -> ok ? receiveSms(usr, submission, charset) : CompletableFuture.completedFuture(unauthorized()),
+                    resume);
+        }
+        if (!authorized.join()) {
+            return CompletableFuture.completedFuture(unauthorized());
+        }
+        return receiveSms(usr, submission, charset);
+    }
+
+    /**
+     * Send a message of an authenticated user, as {@code GET /sendsms} does.
+     *
+     * @param submission the message, with its text URL encoded in {@code charset}
+     */
+    private CompletionStage<Response> receiveSms(String usr, SmsSubmission submission, String charset) {
+        String to = submission.to();
+        String from = submission.from();
+        String text = submission.text();
         if (to == null || to.isEmpty()) {
-            return Response.status(Response.Status.BAD_REQUEST)
+            return CompletableFuture.completedFuture(Response.status(Response.Status.BAD_REQUEST)
                     .entity("Missing 'to' parameter")
-                    .build();
+                    .build());
         }
 
         if (from == null || from.isEmpty()) {
-            return Response.status(Response.Status.BAD_REQUEST)
+            return CompletableFuture.completedFuture(Response.status(Response.Status.BAD_REQUEST)
                     .entity("Missing 'from' parameter")
-                    .build();
+                    .build());
         }
 
         if (text == null || text.isEmpty()) {
-            return Response.status(Response.Status.BAD_REQUEST)
+            return CompletableFuture.completedFuture(Response.status(Response.Status.BAD_REQUEST)
                     .entity("Missing 'text' parameter")
-                    .build();
+                    .build());
         }
 
+        String idempotencyKey = submission.idempotencyKey();
+        String serial = UUID.randomUUID().toString();
+        String original = claimIdempotencyKey(usr, idempotencyKey, serial);
+        if (original != null) {
+            return CompletableFuture.completedFuture(duplicate(original));
+        }
         try {
-            StandardMessage msg = new StandardMessage();
-
-            msg.from = from;
-            msg.to = to;
-            msg.message_center = smsc;
-            if (Strings.isNullOrEmpty(account)) {
-                msg.owner_id = usr;
-            } else {
-                msg.owner_id = account;
-            }
-
             // Determine the effective charset based on Kannel specifications
             String effectiveCharset = charset;
             if (effectiveCharset == null || effectiveCharset.isEmpty()) {
                 int effectiveCoding = 0; // Default to 7 bits
-                if (coding != null) {
-                    effectiveCoding = coding;
-                } else if (udh != null && !udh.isEmpty()) {
+                if (submission.coding() != null) {
+                    effectiveCoding = submission.coding();
+                } else if (submission.udh() != null && !submission.udh().isEmpty()) {
                     effectiveCoding = 1; // Sets coding to 8bits if udh is defined
                 }
 
@@ -160,100 +243,331 @@ public class KannelResource {
             }
 
             // Decode the message body using the determined charset
-            msg.body = decodeTextParam(text, effectiveCharset);
-
-            if (priority != null) {
-                msg.priority = priority;
-            } else {
-                msg.priority = StandardMessage.NORMAL_PRIORITY;
+            StandardMessage msg = newMessage(usr, submission.withText(decodeTextParam(text, effectiveCharset)), serial);
+            // save the state before routing, so that it is already there when the operator id is linked
+            MessageState state = new MessageState(msg.serial, usr, msg.from, msg.to, submission.dlrUrl());
+            CompletionStage<Response> response = dlrService.saveInitialStateAsync(state)
+                    .thenApply(saved -> route(msg))
+                    .exceptionally(e -> {
+                        if (e instanceof RejectedExecutionException || e.getCause() instanceof RejectedExecutionException) {
+                            return unavailable();
+                        }
+                        logger.error("Error processing SMS", e);
+                        return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                                .entity("Error processing SMS")
+                                .build();
+                    });
+            if (Strings.isNullOrEmpty(idempotencyKey)) {
+                return response;
             }
+            return response.thenApply(r -> {
+                if (r.getStatus() != Response.Status.ACCEPTED.getStatusCode()) {
+                    releaseIdempotencyKey(usr, idempotencyKey, serial);
+                }
+                return r;
+            });
+        } catch (Exception e) {
+            logger.error("Error processing SMS", e);
+            releaseIdempotencyKey(usr, idempotencyKey, serial);
+            return CompletableFuture.completedFuture(Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .entity("Error processing SMS")
+                    .build());
+        }
+    }
 
-            if (mclass != null) {
-                msg.mclass = mclass;
-            }
+    /**
+     * Insert an accepted message into the router queue, which is unbounded, so that this does not block the event loop.
+     */
+    private Response route(StandardMessage msg) {
+        try {
+            queueProvider.getRouterQueue().enqueue(msg);
+        } catch (InterruptedException e) {
+            logger.error("Failed to enqueue message", e);
+            return unavailable();
+        }
+        return Response.status(Response.Status.ACCEPTED)
+                .entity(msg.serial)
+                .build();
+    }
 
-            if (coding != null) {
-                msg.dcs = switch (coding) {
-                    case 0 -> StandardMessage.DCS_7BIT;
-                    case 1 -> StandardMessage.DCS_8BIT;
-                    case 2 -> StandardMessage.DCS_16BIT;
-                    default -> StandardMessage.DCS_7BIT;
-                };
-            }
+    private static Response unavailable() {
+        return Response.status(503)
+                .entity("Temporal failure, try again later.")
+                .build();
+    }
 
-            if (validity != null && validity > 0) {
-                msg.ttl = validity;
-            }
+    /**
+     * Claim the idempotency key of a submission of the user for the message with {@code serial}.
+     *
+     * @return the serial of the earlier submission with the same key, or null if the message should be accepted
+     */
+    private String claimIdempotencyKey(String usr, String idempotencyKey, String serial) {
+        if (Strings.isNullOrEmpty(idempotencyKey)) {
+            return null;
+        }
+        String original = idempotencyService.claim(IDEMPOTENCY_SCOPE + usr, idempotencyKey, serial);
+        if (original != null && MessageTrace.shouldLog(configurationHandler, MessageTrace.EVENT_DUPLICATE)) {
+            logger.info("message.duplicate ingress=http serial={} user={}", original, MessageTrace.value(usr));
+        }
+        return original;
+    }
 
-            if (deferred != null && deferred > 0) {
-                msg.ddt = deferred;
-            }
+    /**
+     * Forget the claim of a submission that was not accepted, so that its retry is.
+     */
+    private void releaseIdempotencyKey(String usr, String idempotencyKey, String serial) {
+        if (!Strings.isNullOrEmpty(idempotencyKey)) {
+            idempotencyService.release(IDEMPOTENCY_SCOPE + usr, idempotencyKey, serial);
+        }
+    }
 
-            if (udh != null && !udh.isEmpty()) {
-                msg.binheader = udh;
-            }
+    private static Response duplicate(String serial) {
+        return Response.status(Response.Status.ACCEPTED)
+                .header(IDEMPOTENT_REPLAYED, "true")
+                .entity(serial)
+                .build();
+    }
 
-            if (pid != null) {
-                msg.field1 = pid;
-            }
+    @Operation(
+            operationId = "sendSmsBulk",
+            summary = "Send SMS messages in bulk",
+            description = "Enqueues many SMS messages under one authentication. The body is a JSON array of messages, or with the " +
+                    "application/x-ndjson content type one message per line. Each message has the fields of the GET parameters, " +
+                    "with the text as it is rather than URL encoded. Invalid messages are rejected one by one, the rest are enqueued " +
+                    "together. A message with the idempotency-key of a submission accepted within the deduplication window is answered " +
+                    "with the serial of that submission and not enqueued again."
+    )
+    @APIResponses(value = {
+            @APIResponse(
+                    responseCode = "202",
+                    description = "At least one message was accepted and enqueued, or was a duplicate. Returns the serial or the error of " +
+                            "each message, by its index in the body.",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = BulkResult.class))
+            ),
+            @APIResponse(
+                    responseCode = "400",
+                    description = "Bad Request. The body is not valid JSON, or none of its messages is valid, as told by the results.",
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = BulkResult.class))
+            ),
+            @APIResponse(
+                    responseCode = "401",
+                    description = "Unauthorized. Invalid or missing username/password credentials.",
+                    content = @Content(mediaType = MediaType.TEXT_PLAIN, schema = @Schema(examples = "Invalid credentials"))
+            ),
+            @APIResponse(
+                    responseCode = "413",
+                    description = "Payload Too Large. The body has more than http.bulk.maxMessages messages, none was enqueued.",
+                    content = @Content(mediaType = MediaType.TEXT_PLAIN, schema = @Schema(examples = "More than 10000 messages"))
+            ),
+            @APIResponse(
+                    responseCode = "500",
+                    description = "Internal Server Error while processing the messages.",
+                    content = @Content(mediaType = MediaType.TEXT_PLAIN, schema = @Schema(examples = "Error processing SMS"))
+            )
+    })
+    @POST
+    @Path("/bulk")
+    @PermitAll
+    @Consumes({MediaType.APPLICATION_JSON, NDJSON})
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response receiveSmsBulk(
+            @Parameter(description = "Username for authentication (preferred over 'user')", required = true) @QueryParam("username") String username,
+            @Parameter(description = "Password for authentication (preferred over 'pass')", required = true) @QueryParam("password") String password,
+            @Parameter(description = "Username for authentication (alternative to 'username') ") @QueryParam("user") String user,
+            @Parameter(description = "Password for authentication (alternative to 'password') ") @QueryParam("pass") String pass,
+            @RequestBody(description = "The messages, as a JSON array or as newline-delimited JSON", required = true,
+                    content = @Content(mediaType = MediaType.APPLICATION_JSON, schema = @Schema(implementation = SmsSubmission[].class)))
+            InputStream body,
+            @Context HttpServerRequest request) {
 
-            if (altDcs != null) {
-                msg.field2 = altDcs;
-            }
+        String usr = Strings.isNullOrEmpty(user) ? username : user;
+        String passwrd = Strings.isNullOrEmpty(pass) ? password : pass;
+        validateKannelAuth(usr, passwrd, sourceOf(request));
 
-            if (rpi != null) {
-                msg.field3 = rpi;
+        long maxMessages = configurationHandler.getLongPrpt(_bulkMaxMessages);
+        List<SmsSubmission> submissions = new ArrayList<>();
+        // a JSON array is read one element at a time, like newline-delimited JSON, without holding the whole body
+        try (MappingIterator<SmsSubmission> items = SUBMISSION_READER.readValues(body)) {
+            while (items.hasNextValue()) {
+                if (submissions.size() >= maxMessages) {
+                    return Response.status(Response.Status.REQUEST_ENTITY_TOO_LARGE)
+                            .type(MediaType.TEXT_PLAIN)
+                            .entity("More than " + maxMessages + " messages")
+                            .build();
+                }
+                submissions.add(items.nextValue());
             }
+        } catch (JsonProcessingException e) {
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .type(MediaType.TEXT_PLAIN)
+                    .entity("Invalid message " + submissions.size() + ": " + e.getOriginalMessage())
+                    .build();
+        } catch (IOException e) {
+            logger.error("Failed to read bulk messages", e);
+            return Response.status(Response.Status.BAD_REQUEST)
+                    .type(MediaType.TEXT_PLAIN)
+                    .entity("Failed to read the messages")
+                    .build();
+        }
 
-            if (binfo != null && !binfo.isEmpty()) {
-                msg.field4 = binfo;
-            }
-            msg.acked = true;
-            msg.serial = UUID.randomUUID().toString();
-            if (MessageTrace.shouldLog(configurationHandler, MessageTrace.EVENT_ACCEPTED)) {
-                logger.info("message.accepted ingress=http {}", MessageTrace.identifiers(msg));
+        List<StandardMessage> messages = new ArrayList<>(submissions.size());
+        List<String> idempotencyKeys = new ArrayList<>(submissions.size());
+        try {
+            List<ItemResult> results = new ArrayList<>(submissions.size());
+            List<MessageState> states = new ArrayList<>(submissions.size());
+            int duplicates = 0;
+            for (int i = 0; i < submissions.size(); i++) {
+                SmsSubmission submission = submissions.get(i);
+                String error = submission == null ? "Missing message" : submission.validate();
+                if (error != null) {
+                    results.add(new ItemResult(i, null, error, null));
+                    continue;
+                }
+                String serial = UUID.randomUUID().toString();
+                String original = claimIdempotencyKey(usr, submission.idempotencyKey(), serial);
+                if (original != null) {
+                    duplicates++;
+                    results.add(new ItemResult(i, original, null, true));
+                    continue;
+                }
+                idempotencyKeys.add(submission.idempotencyKey());
+                StandardMessage msg = newMessage(usr, submission, serial);
+                messages.add(msg);
+                states.add(new MessageState(msg.serial, usr, msg.from, msg.to, submission.dlrUrl()));
+                results.add(new ItemResult(i, msg.serial, null, null));
             }
-            queueProvider.getRouterQueue().enqueue(msg);
-            MessageState state = new MessageState(msg.serial, usr, msg.from, msg.to, dlrUrl);
-            dlrService.saveInitialState(state);
-
-            return Response.status(Response.Status.ACCEPTED)
-                    .entity(msg.serial)
-                    .build();
+            // save the states before routing, so that they are already there when the operator ids are linked
+            dlrService.saveInitialStates(states);
+            Queue<StandardMessage> routerQueue = queueProvider.getRouterQueue();
+            routerQueue.addAll(messages);
 
-        } catch (InterruptedException e) {
-            logger.error("Failed to enqueue message", e);
-            return Response.status(503)
-                    .entity("Temporal failure, try again later.")
+            return Response.status(messages.isEmpty() && duplicates == 0 ? Response.Status.BAD_REQUEST : Response.Status.ACCEPTED)
+                    .entity(new BulkResult(messages.size(), duplicates, results.size() - messages.size() - duplicates, results))
                     .build();
         } catch (Exception e) {
-            logger.error("Error processing SMS", e);
+            logger.error("Error processing bulk SMS", e);
+            for (int i = 0; i < messages.size(); i++) {
+                releaseIdempotencyKey(usr, idempotencyKeys.get(i), messages.get(i).serial);
+            }
             return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+                    .type(MediaType.TEXT_PLAIN)
                     .entity("Error processing SMS")
                     .build();
         }
     }
 
-    public void validateKannelAuth(String username, String password) {
+    /**
+     * @return a new message of the user, accepted with {@code serial}
+     */
+    private StandardMessage newMessage(String usr, SmsSubmission submission, String serial) {
+        StandardMessage msg = new StandardMessage();
+
+        msg.from = submission.from();
+        msg.to = submission.to();
+        msg.message_center = submission.smsc();
+        if (Strings.isNullOrEmpty(submission.account())) {
+            msg.owner_id = usr;
+        } else {
+            msg.owner_id = submission.account();
+        }
+        msg.body = submission.text();
+
+        if (submission.priority() != null) {
+            msg.priority = submission.priority();
+        } else {
+            msg.priority = StandardMessage.NORMAL_PRIORITY;
+        }
+
+        if (submission.mclass() != null) {
+            msg.mclass = submission.mclass();
+        }
+
+        if (submission.coding() != null) {
+            msg.dcs = switch (submission.coding()) {
+                case 0 -> StandardMessage.DCS_7BIT;
+                case 1 -> StandardMessage.DCS_8BIT;
+                case 2 -> StandardMessage.DCS_16BIT;
+                default -> StandardMessage.DCS_7BIT;
+            };
+        }
+
+        if (submission.validity() != null && submission.validity() > 0) {
+            msg.ttl = submission.validity();
+        }
+
+        if (submission.deferred() != null && submission.deferred() > 0) {
+            msg.ddt = submission.deferred();
+        }
+
+        if (submission.udh() != null && !submission.udh().isEmpty()) {
+            msg.binheader = submission.udh();
+        }
+
+        if (submission.pid() != null) {
+            msg.field1 = submission.pid();
+        }
+
+        if (submission.altDcs() != null) {
+            msg.field2 = submission.altDcs();
+        }
+
+        if (submission.rpi() != null) {
+            msg.field3 = submission.rpi();
+        }
+
+        if (submission.binfo() != null && !submission.binfo().isEmpty()) {
+            msg.field4 = submission.binfo();
+        }
+        msg.acked = true;
+        msg.serial = serial;
+        if (MessageTrace.shouldLog(configurationHandler, MessageTrace.EVENT_ACCEPTED)) {
+            logger.info("message.accepted ingress=http {}", MessageTrace.identifiers(msg));
+        }
+        return msg;
+    }
+
+    /**
+     * Check the credentials of a request, waiting for the hash of the password if it has to be computed.
+     *
+     * @param source the address of the client, or {@code null} if unknown
+     */
+    public void validateKannelAuth(String username, String password, String source) {
+        if (!authorize(username, password, source).join()) {
+            throw new WebApplicationException(unauthorized());
+        }
+    }
+
+    /**
+     * Check the credentials of a request. The result is complete at once unless the hash of the password has to be computed.
+     *
+     * @return whether the credentials are those of an HTTP user
+     */
+    private CompletableFuture<Boolean> authorize(String username, String password, String source) {
         if (Strings.isNullOrEmpty(username) || Strings.isNullOrEmpty(password)) {
-            throw new WebApplicationException(Response.status(Response.Status.UNAUTHORIZED)
-                    .entity("Invalid credentials")
-                    .build());
+            return CompletableFuture.completedFuture(false);
         }
         CredentialFileWatcher.Credential cred = credentialFileWatcher.getValidCredentials().get(username);
         if (cred == null || cred.type() != CredentialFileWatcher.CredentialType.HTTP) {
             logger.warn("No username found:{}", username);
-            throw new WebApplicationException(Response.status(Response.Status.UNAUTHORIZED)
-                    .entity("Invalid credentials")
-                    .build());
+            return CompletableFuture.completedFuture(false);
         }
 
-        if (!password.equals(cred.password())) {
-            logger.warn("Invalid password for username:{}", username);
-            throw new WebApplicationException(Response.status(Response.Status.UNAUTHORIZED)
-                    .entity("Invalid credentials")
-                    .build());
-        }
+        return CredentialVerifier.verifyAsync(cred, password, source).thenApply(verified -> {
+            if (!verified) {
+                logger.warn("Invalid password for username:{} from:{}", username, source);
+            }
+            return verified;
+        });
+    }
+
+    private static String sourceOf(HttpServerRequest request) {
+        return request == null || request.remoteAddress() == null ? null : request.remoteAddress().hostAddress();
+    }
+
+    private static Response unauthorized() {
+        return Response.status(Response.Status.UNAUTHORIZED)
+                .entity("Invalid credentials")
+                .build();
     }
 
     /**
@@ -271,4 +585,71 @@ public class KannelResource {
             return URLDecoder.decode(value, StandardCharsets.UTF_8);
         }
     }
+
+    /**
+     * One message to send, with the fields of the {@code GET /sendsms} parameters. The text is as it is, not URL
+     * encoded.
+     */
+    public record SmsSubmission(
+            String from,
+            String to,
+            String text,
+            String udh,
+            String smsc,
+            Integer mclass,
+            Integer coding,
+            Integer validity,
+            Integer deferred,
+            @JsonProperty("dlr-url") String dlrUrl,
+            Integer pid,
+            @JsonProperty("alt-dcs") Integer altDcs,
+            Integer rpi,
+            String account,
+            String binfo,
+            Integer priority,
+            @JsonProperty("idempotency-key") String idempotencyKey) {
+
+        /**
+         * @return this message with {@code decoded} as its text
+         */
+        SmsSubmission withText(String decoded) {
+            return new SmsSubmission(from, to, decoded, udh, smsc, mclass, coding, validity, deferred, dlrUrl, pid, altDcs, rpi, account,
+                    binfo, priority, idempotencyKey);
+        }
+
+        /**
+         * @return why the message cannot be sent, or null if it can
+         */
+        String validate() {
+            if (to == null || to.isEmpty()) {
+                return "Missing 'to' parameter";
+            }
+            if (from == null || from.isEmpty()) {
+                return "Missing 'from' parameter";
+            }
+            if (text == null || text.isEmpty()) {
+                return "Missing 'text' parameter";
+            }
+            return null;
+        }
+    }
+
+    /**
+     * @param accepted   the messages enqueued
+     * @param duplicates the messages not enqueued because a submission with their idempotency key was accepted earlier
+     * @param rejected   the messages not enqueued, as told by their error
+     * @param results    the result of each message, in the order of the body
+     */
+    public record BulkResult(int accepted, int duplicates, int rejected, List<ItemResult> results) {
+    }
+
+    /**
+     * @param index     the index of the message in the body
+     * @param serial    the serial of the message if it was enqueued, or of the earlier submission it duplicates
+     * @param error     why it was not, otherwise
+     * @param duplicate true if the message duplicates an earlier submission and was not enqueued again
+     */
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public record ItemResult(int index, String serial, String error, Boolean duplicate) {
+    }
 }
@@ -0,0 +1,13 @@
+package gr.cytech.sendium.core.message;
+
+/**
+ * Concatenation information of one part of a long message, as carried in its UDH.
+ * It is filled in when the UDH is parsed on ingress, so that reassembly does not parse
+ * {@link StandardMessage#binheader} again for every part and every comparison.
+ *
+ * @param reference the reference number of the concatenated message, as the hex digits found in the UDH
+ * @param total     the number of parts of the concatenated message
+ * @param part      the sequence number of this part, starting from 1
+ */
+public record MessagePartInfo(String reference, int total, int part) {
+}
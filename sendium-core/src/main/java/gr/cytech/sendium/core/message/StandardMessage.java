@@ -253,6 +253,10 @@ public class StandardMessage implements Comparable<StandardMessage>, CoreMessage
     public int rtxCnt;
     public String binbody;
     public String binheader;
+    /**
+     * the concatenation information of {@link #binheader}, when it was parsed on ingress. Not persisted.
+     */
+    public transient MessagePartInfo partInfo;
     public boolean flash;
     public int mclass;
     public int ttl;
@@ -535,7 +539,7 @@ public class StandardMessage implements Comparable<StandardMessage>, CoreMessage
             case 11: expr = Long.parseLong(pvalue); break;
             case 12: rtxCnt = Integer.parseInt(pvalue); break;
             case 13: binbody = pvalue; break;
-            case 14: binheader = pvalue; break;
+            case 14: binheader = pvalue; partInfo = null; break;
             case 15: flash = Boolean.parseBoolean(pvalue); break;
             case 16: ttl = Integer.parseInt(pvalue); break;
             case 17: ddt = Integer.parseInt(pvalue); break;
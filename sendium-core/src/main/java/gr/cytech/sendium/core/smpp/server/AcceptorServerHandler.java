@@ -0,0 +1,47 @@
+package gr.cytech.sendium.core.smpp.server;
+
+import com.cloudhopper.smpp.SmppServerHandler;
+import com.cloudhopper.smpp.SmppServerSession;
+import com.cloudhopper.smpp.SmppSessionConfiguration;
+import com.cloudhopper.smpp.pdu.BaseBind;
+import com.cloudhopper.smpp.pdu.BaseBindResp;
+import com.cloudhopper.smpp.type.SmppProcessingException;
+
+/**
+ * Server handler of one of several acceptors listening on the same port.
+ * Every cloudhopper server numbers its sessions from 1, so the session ids are spread as
+ * {@code id * acceptors + index} before they reach the shared {@link SmppServerBindHandler}, where they key the
+ * pending bind contexts.
+ */
+public class AcceptorServerHandler implements SmppServerHandler {
+    private final SmppServerHandler delegate;
+    private final int index;
+    private final int acceptors;
+
+    public AcceptorServerHandler(SmppServerHandler delegate, int index, int acceptors) {
+        this.delegate = delegate;
+        this.index = index;
+        this.acceptors = acceptors;
+    }
+
+    public Long toSharedSessionId(Long sessionId) {
+        return sessionId * acceptors + index;
+    }
+
+    /**
+     * The bind request is raw because {@link SmppServerHandler} declares it so.
+     */
+    @SuppressWarnings("rawtypes")
+    public void sessionBindRequested(Long sessionId, SmppSessionConfiguration sessionConfiguration, BaseBind bindRequest)
+            throws SmppProcessingException {
+        delegate.sessionBindRequested(toSharedSessionId(sessionId), sessionConfiguration, bindRequest);
+    }
+
+    public void sessionCreated(Long sessionId, SmppServerSession session, BaseBindResp preparedBindResponse) throws SmppProcessingException {
+        delegate.sessionCreated(toSharedSessionId(sessionId), session, preparedBindResponse);
+    }
+
+    public void sessionDestroyed(Long sessionId, SmppServerSession session) {
+        delegate.sessionDestroyed(toSharedSessionId(sessionId), session);
+    }
+}
@@ -5,33 +5,39 @@ import gr.cytech.sendium.core.smpp.SmppConnectionManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-public class AccountConnections extends SmppConnectionManager<SmppServerSessionHandler> {
+public class AccountConnections extends SmppConnectionManager<SmppServerSessionHandler<?>> {
     protected static final Logger logger = LoggerFactory.getLogger(AccountConnections.class);
     private final ServerConnections serverConnections;
+    private final String accountId;
 
     public AccountConnections() {
-        super();
-        serverConnections = new ServerConnections();
+        this(new ServerConnections(), null);
     }
 
     public AccountConnections(ServerConnections serverConnections) {
+        this(serverConnections, null);
+    }
+
+    public AccountConnections(ServerConnections serverConnections, String accountId) {
         super();
         this.serverConnections = serverConnections;
+        this.accountId = accountId;
     }
 
-    public void configMaxRate(String accountId) {
-        try {
-            for (SmppServerSessionHandler handler : handlers) {
-                handler.configMaxRate(accountId);
-            }
-        } catch (Exception e) {
-            logger.warn("maxRate configuration failed", e);
-        }
+    @Override
+    public String getStatistics() {
+        var accountRate = serverConnections.accountRates.get(accountId);
+        return "  Account[Id=" + accountId +
+                " TransactionsPerSec=" + (accountRate != null ? accountRate.bucket().getRate() : serverConnections.getAccountMaxRate(accountId)) +
+                " Burst=" + (accountRate != null ? accountRate.bucket().getBurst() : serverConnections.getAccountMaxBurst(accountId)) +
+                " Throttled=" + serverConnections.getThrottledCount(accountId) +
+                "]\n" +
+                super.getStatistics();
     }
 
     // Override the inactivity check to include the server logic
     @Override
-    protected void checkHandlerForInactivity(SmppServerSessionHandler handler, long now, int maxInactivityTime) {
+    protected void checkHandlerForInactivity(SmppServerSessionHandler<?> handler, long now, int maxInactivityTime) {
         int currentInactiveTime = (int) (now - handler.getLastPduTimestamp()) / 60000;
         if (currentInactiveTime >= maxInactivityTime) {
             logger.warn("Destroying SERVER session {} because of inactivity time {}",
@@ -3,6 +3,7 @@ package gr.cytech.sendium.core.smpp.server;
 import com.cloudhopper.smpp.SmppConstants;
 import com.cloudhopper.smpp.type.SmppProcessingException;
 import gr.cytech.sendium.auth.CredentialFileWatcher;
+import gr.cytech.sendium.auth.CredentialVerifier;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import java.util.Map;
@@ -30,16 +31,20 @@ public class BasicSmppAuthenticationProvider implements SmppAuthenticationProvid
             throw new SmppProcessingException(SmppConstants.STATUS_INVSYSID);
         }
 
-        if (!password.equals(cred.password())) {
-            logger.warn("SMPP Bind failed: Invalid password for systemId '{}' from IP [{}]", systemId, ipAddress);
-            throw new SmppProcessingException(SmppConstants.STATUS_INVPASWD);
-        }
-
+        // checked before the password, so that a client that may not bind from its address never gets a hash computed
         if (!cred.isIpAllowed(ipAddress)) {
             logger.warn("SMPP Bind failed: IP [{}] is not whitelisted for systemId '{}'", ipAddress, systemId);
             throw new SmppProcessingException(SmppConstants.STATUS_BINDFAIL);
         }
 
+        // cloudhopper answers the bind synchronously on the I/O thread of the session, so a hash that is not cached is waited
+        // for here; it is computed on the bounded hashing pool of the verifier, once for concurrent binds with the same
+        // credentials, and repeated failures from the address are throttled without computing it
+        if (!CredentialVerifier.verify(cred, password, ipAddress)) {
+            logger.warn("SMPP Bind failed: Invalid password for systemId '{}' from IP [{}]", systemId, ipAddress);
+            throw new SmppProcessingException(SmppConstants.STATUS_INVPASWD);
+        }
+
         logger.info("Successfully authenticated SMPP Bind for systemId '{}' from IP [{}]", systemId, ipAddress);
 
         return new BasicSmppSessionContext(worker, cred);
@@ -40,6 +40,7 @@ public class BasicSubmitSmProcessor<M extends StandardMessage> implements Submit
         pMsg.body = bodyInfo.text();
         pMsg.type = bodyInfo.smType();
         pMsg.binheader = bodyInfo.udh();
+        pMsg.partInfo = bodyInfo.partInfo();
         pMsg.owner_id = context.getAccountId();
         pMsg.systemId = context.getSystemId();
         pMsg.acked = submitSm.getRegisteredDelivery() != SmppConstants.REGISTERED_DELIVERY_SMSC_RECEIPT_NOT_REQUESTED;
@@ -1,8 +1,10 @@
 package gr.cytech.sendium.core.smpp.server;
 
+import com.google.common.util.concurrent.RateLimiter;
 import gr.cytech.sendium.core.message.StandardMessage;
 import gr.cytech.sendium.core.worker.InMemoryDlrService;
 import gr.cytech.sendium.core.worker.MessageState;
+import gr.cytech.sendium.core.worker.UnpushedDlrPage;
 import gr.cytech.sendium.util.MessageTrace;
 import gr.cytech.sendium.util.SensitiveLogSanitizer;
 import jakarta.inject.Inject;
@@ -11,12 +13,21 @@ import org.slf4j.LoggerFactory;
 
 import java.util.List;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class InMemorySmppServerMessageStore implements SmppServerMessageStore<StandardMessage> {
     private static final Logger logger = LoggerFactory.getLogger(InMemorySmppServerMessageStore.class);
+    private static final int DEFAULT_REPLAY_PAGE_SIZE = 500;
+    private static final long REPLAY_BACKPRESSURE_WAIT_MILLIS = 100;
 
     private final SmppServerWorker<StandardMessage> worker;
+    /**
+     * shared by the replays of all sessions of a systemId, so that binding more sessions does not multiply the rate
+     */
+    private final ConcurrentMap<String, RateLimiter> replayPacers = new ConcurrentHashMap<>();
 
     @Inject
     public InMemorySmppServerMessageStore(SmppServerWorker<StandardMessage> worker) {
@@ -74,27 +85,109 @@ public class InMemorySmppServerMessageStore implements SmppServerMessageStore<St
         }
     }
 
+    /**
+     * Stream the unpushed DLR backlog of a reconnected systemId back to the worker. DLRs are claimed a page at a
+     * time, each page continuing from the cursor of the previous one, and paced by {@code replay.rate} across all
+     * sessions of the systemId; replay also
+     * holds back while the worker queue is above
+     * {@code replay.maxQueued} and stops as soon as the systemId has no bound session left. Whatever is not
+     * replayed stays in the store for the next reconnect.
+     */
     @Override
     public void onClientConnected(String systemId) {
         InMemoryDlrService dlrService = getDlrService();
-        List<StandardMessage> unpushedDlrs = dlrService.claimUnpushedDlrs(systemId);
-        if (unpushedDlrs.isEmpty()) {
+        int pageSize = worker.getReplayPageSize() > 0 ? worker.getReplayPageSize() : DEFAULT_REPLAY_PAGE_SIZE;
+        RateLimiter pacer = replayPacer(systemId);
+
+        long replayed = 0;
+        String cursor = null;
+        try {
+            while (true) {
+                UnpushedDlrPage page = dlrService.claimUnpushedDlrs(systemId, cursor, pageSize);
+                if (page.messages().isEmpty()) {
+                    break;
+                }
+                int sent = replayPage(dlrService, systemId, page.messages(), pacer);
+                replayed += sent;
+                if (sent < page.messages().size() || page.nextCursor() == null) {
+                    break;
+                }
+                cursor = page.nextCursor();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.warn("Interrupted while replaying unpushed DLR(s) for systemId:{}", systemId);
+        }
+
+        if (replayed == 0) {
             logger.info("Unpushed DLR(s) not found for systemId:{}", systemId);
-            return;
+        } else {
+            logger.info("Re-enqueued {} unpushed DLR(s) for systemId:{}", replayed, systemId);
+        }
+    }
+
+    /**
+     * @return the pacer of the replays of the systemId at the current {@code replay.rate}, or null if it is unlimited
+     */
+    RateLimiter replayPacer(String systemId) {
+        double rate = worker.getReplayRate();
+        if (rate <= 0) {
+            replayPacers.remove(systemId);
+            return null;
+        }
+        RateLimiter pacer = replayPacers.computeIfAbsent(systemId, k -> RateLimiter.create(rate));
+        if (pacer.getRate() != rate) {
+            pacer.setRate(rate);
         }
+        return pacer;
+    }
 
-        logger.info("Re-enqueuing {} unpushed DLR(s) for systemId:{}", unpushedDlrs.size(), systemId);
-        for (StandardMessage msg : unpushedDlrs) {
+    /**
+     * @return the number of DLRs handed to the worker; any shortfall means replay must stop and the remaining
+     *     claims of the page have been released
+     */
+    private int replayPage(InMemoryDlrService dlrService, String systemId, List<StandardMessage> page, RateLimiter pacer)
+            throws InterruptedException {
+        for (int i = 0; i < page.size(); i++) {
+            StandardMessage msg = page.get(i);
+            if (!awaitReplayCapacity(systemId, i == 0)) {
+                releaseClaims(dlrService, page.subList(i, page.size()));
+                return i;
+            }
+            if (pacer != null) {
+                pacer.acquire();
+            }
             try {
                 if (worker.enqueueNoExceptions(msg)) {
                     dlrService.removeUnpushedDlr(msg);
-                } else {
-                    dlrService.releaseUnpushedDlrClaim(msg);
+                    continue;
                 }
             } catch (Exception e) {
-                dlrService.releaseUnpushedDlrClaim(msg);
                 logger.warn("Failed to re-enqueue unpushed DLR {}", MessageTrace.identifiers(msg), e);
             }
+            releaseClaims(dlrService, page.subList(i, page.size()));
+            return i;
+        }
+        return page.size();
+    }
+
+    private boolean awaitReplayCapacity(String systemId, boolean checkBound) throws InterruptedException {
+        while (true) {
+            if (checkBound && !worker.getReachableSystemIds().contains(systemId)) {
+                logger.info("Stopping unpushed DLR replay, systemId:{} is no longer bound", systemId);
+                return false;
+            }
+            if (!worker.isReplayBackpressured()) {
+                return true;
+            }
+            TimeUnit.MILLISECONDS.sleep(REPLAY_BACKPRESSURE_WAIT_MILLIS);
+            checkBound = true;
+        }
+    }
+
+    private void releaseClaims(InMemoryDlrService dlrService, List<StandardMessage> messages) {
+        for (StandardMessage msg : messages) {
+            dlrService.releaseUnpushedDlrClaim(msg);
         }
     }
 
@@ -0,0 +1,90 @@
+package gr.cytech.sendium.core.smpp.server;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.EpollChannelOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Method;
+
+/**
+ * Socket and buffer options of the netty channels of an SMPP server.
+ *
+ * <p>
+ * The cloudhopper server creates its {@link ServerBootstrap} in its constructor, so the options are set on the
+ * bootstrap it exposes after the server is constructed and before it is started. Only newer cloudhopper releases expose
+ * it, with a public {@code getServerBootstrap()}, so it is looked up when the server is created. With a release that does
+ * not expose it the server keeps the cloudhopper defaults and {@link #applyTo(Object)} returns false.
+ *
+ * <p>
+ * Sizes of zero or less leave the netty/OS default in place.
+ *
+ * @param reusePort                bind with {@code SO_REUSEPORT}, so that several acceptors can listen on the same port
+ *                                 (epoll only)
+ * @param writeBufferHighWaterMark bytes pending in a channel's outbound buffer above which it stops being writable.
+ *                                 The low water mark defaults to half of it
+ * @param pooledDirectBuffers      allocate channel buffers from a pooled allocator that prefers direct memory
+ */
+public record ServerChannelOptions(boolean reusePort, boolean tcpNoDelay, int receiveBufferSize, int sendBufferSize,
+                                   int writeBufferLowWaterMark, int writeBufferHighWaterMark, boolean pooledDirectBuffers,
+                                   int acceptBacklog) {
+    private static final Logger logger = LoggerFactory.getLogger(ServerChannelOptions.class);
+    private static final ByteBufAllocator POOLED_DIRECT_ALLOCATOR = new PooledByteBufAllocator(true);
+
+    /**
+     * @return whether the options were set on the bootstrap of {@code server}
+     */
+    public boolean applyTo(Object server) {
+        ServerBootstrap bootstrap = bootstrapOf(server);
+        if (bootstrap == null) {
+            logger.warn("{} does not expose its netty server bootstrap, socket options are left to the cloudhopper defaults",
+                    server.getClass().getName());
+            return false;
+        }
+        applyTo(bootstrap);
+        return true;
+    }
+
+    public void applyTo(ServerBootstrap bootstrap) {
+        if (reusePort) {
+            bootstrap.option(EpollChannelOption.SO_REUSEPORT, true);
+        }
+        if (acceptBacklog > 0) {
+            bootstrap.option(ChannelOption.SO_BACKLOG, acceptBacklog);
+        }
+        bootstrap.childOption(ChannelOption.TCP_NODELAY, tcpNoDelay);
+        if (receiveBufferSize > 0) {
+            bootstrap.childOption(ChannelOption.SO_RCVBUF, receiveBufferSize);
+        }
+        if (sendBufferSize > 0) {
+            bootstrap.childOption(ChannelOption.SO_SNDBUF, sendBufferSize);
+        }
+        if (writeBufferHighWaterMark > 0) {
+            int low = writeBufferLowWaterMark > 0 ? Math.min(writeBufferLowWaterMark, writeBufferHighWaterMark) : writeBufferHighWaterMark / 2;
+            bootstrap.childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, new WriteBufferWaterMark(low, writeBufferHighWaterMark));
+        }
+        if (pooledDirectBuffers) {
+            bootstrap.option(ChannelOption.ALLOCATOR, POOLED_DIRECT_ALLOCATOR);
+            bootstrap.childOption(ChannelOption.ALLOCATOR, POOLED_DIRECT_ALLOCATOR);
+        }
+    }
+
+    /**
+     * @return the bootstrap {@code server} exposes with a public {@code getServerBootstrap()}, or null if it has none
+     */
+    static ServerBootstrap bootstrapOf(Object server) {
+        try {
+            Method getter = server.getClass().getMethod("getServerBootstrap");
+            return getter.invoke(server) instanceof ServerBootstrap bootstrap ? bootstrap : null;
+        } catch (NoSuchMethodException e) {
+            return null;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            logger.warn("cannot get the server bootstrap of {}", server.getClass().getName(), e);
+            return null;
+        }
+    }
+}
@@ -1,8 +1,10 @@
 package gr.cytech.sendium.core.smpp.server;
 
+import com.cloudhopper.smpp.SmppConstants;
 import com.cloudhopper.smpp.SmppServerSession;
 import com.cloudhopper.smpp.SmppSession;
 import com.google.common.base.Strings;
+import gr.cytech.sendium.util.TokenBucket;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -10,60 +12,188 @@ import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 public class ServerConnections {
     public final ConcurrentMap<String, AccountConnections> connections;
     public final ConcurrentMap<String, AtomicInteger> conPerIPCounters;
+    public final ConcurrentMap<String, AtomicInteger> conPerAccountCounters;
+    public final ConcurrentMap<String, TokenBucket> ipRateBuckets;
+    /**
+     * kept after the last session of an account is gone, so that rebinding neither refills the burst of the account
+     * nor resets its throttle counter
+     */
+    public final ConcurrentMap<String, AccountRate> accountRates;
 
     protected Logger logger = LoggerFactory.getLogger(this.getClass());
 
+    private final SmppServerWorker<?> worker;
+    private final TokenBucket serverRateBucket;
+    /**
+     * the sessions of the server over all its acceptors, limited to {@code srv.maxConnections}
+     */
+    private final AtomicInteger totalConnections = new AtomicInteger();
+
     public ServerConnections() {
+        this(null);
+    }
+
+    public ServerConnections(SmppServerWorker<?> worker) {
+        this.worker = worker;
         connections = new ConcurrentHashMap<>(8);
         conPerIPCounters = new ConcurrentHashMap<>(8);
+        conPerAccountCounters = new ConcurrentHashMap<>(8);
+        ipRateBuckets = new ConcurrentHashMap<>(8);
+        accountRates = new ConcurrentHashMap<>(8);
+        serverRateBucket = worker != null ? new TokenBucket(worker.getServerMaxRate(), worker.getServerMaxBurst()) : TokenBucket.unlimited();
     }
 
-    public synchronized void addConnection(String accountId, SmppServerSessionHandler handler) {
-        if (connections.get(accountId) == null) {
-            connections.putIfAbsent(accountId, new AccountConnections(this));
-        }
-        boolean added = connections.get(accountId).add(handler);
-        logger.info("new session handler for account:{} was added:{}", accountId, added);
+    public void addConnection(String accountId, SmppServerSessionHandler<?> handler) {
+        addConnection(accountId, handler, 0, 0);
+    }
 
-        //increase the connections counter for this specific IP
+    /**
+     * Register the handler of a newly bound session, enforcing the server, per-IP and per-account connection limits.
+     * Slots are reserved with a compare-and-set on the counters before the handler is added, so a bind storm cannot
+     * overshoot a limit. The server limit is enforced here rather than by each acceptor, as the kernel does not spread
+     * the connections evenly across the acceptors. A limit of zero or less means unlimited.
+     *
+     * @return {@link SmppConstants#STATUS_OK} if the handler was registered, otherwise the command status the bind
+     *     must be rejected with
+     */
+    public int addConnection(String accountId, SmppServerSessionHandler<?> handler, int maxConnectionsPerIp, int maxConnectionsPerAccount) {
         String ip = handler.getSession().getConfiguration().getHost();
-        conPerIPCounters.putIfAbsent(ip, new AtomicInteger());
-        conPerIPCounters.get(ip).incrementAndGet();
+        if (!tryReserveTotal(worker != null ? worker.getMaxConnections() : 0)) {
+            return SmppConstants.STATUS_BINDFAIL;
+        }
+        if (!tryReserve(conPerIPCounters, ip, maxConnectionsPerIp)) {
+            totalConnections.decrementAndGet();
+            return VendorSpecificConstants.STATUS_MAXCONSPERIP;
+        }
+        if (!tryReserve(conPerAccountCounters, accountId, maxConnectionsPerAccount)) {
+            totalConnections.decrementAndGet();
+            releaseIp(ip);
+            return VendorSpecificConstants.STATUS_MAXCONSPERUSER;
+        }
+
+        boolean[] added = new boolean[1];
+        connections.compute(accountId, (k, accountConnections) -> {
+            var target = accountConnections != null ? accountConnections : new AccountConnections(this, k);
+            added[0] = target.add(handler);
+            return target.isEmpty() ? null : target;
+        });
+        logger.info("new session handler for account:{} was added:{}", accountId, added[0]);
+        if (!added[0]) {
+            // nothing to remove later, so give the reserved slots back right away
+            totalConnections.decrementAndGet();
+            release(conPerAccountCounters, accountId);
+            releaseIp(ip);
+            return SmppConstants.STATUS_OK;
+        }
+
+        if (worker != null && worker.getMaxRatePerIP() > 0) {
+            ipRateBuckets.computeIfAbsent(ip, k -> new TokenBucket(worker.getMaxRatePerIP(), worker.getMaxBurstPerIP()));
+        }
+        logger.debug("Count of connections per ip for ip:{} {}", ip, getConnectionsSizeForIP(ip));
+        return SmppConstants.STATUS_OK;
+    }
+
+    /**
+     * Apply the server, per-IP and per-account rate limits to one incoming request of the given session.
+     * Limits are checked from the widest to the narrowest and permits taken by a wider limit are returned if a
+     * narrower one rejects, so a throttled request does not eat into the quota of other accounts.
+     * This is lock-free and is called on the Netty thread for every submit/data/deliver request.
+     *
+     * @return true if the request may be processed, false if it must be throttled
+     */
+    public boolean tryAcquireRate(SmppServerSessionHandler<?> handler) {
+        AccountRate accountRate = getAccountRateState(handler.getAccountId());
+        if (!serverRateBucket.tryAcquire()) {
+            accountRate.throttled().increment();
+            return false;
+        }
+        TokenBucket ipBucket = ipRateBuckets.isEmpty() ? null : ipRateBuckets.get(handler.getSession().getConfiguration().getHost());
+        if (ipBucket != null && !ipBucket.tryAcquire()) {
+            serverRateBucket.release(1);
+            accountRate.throttled().increment();
+            return false;
+        }
+        if (!accountRate.bucket().tryAcquire()) {
+            serverRateBucket.release(1);
+            if (ipBucket != null) {
+                ipBucket.release(1);
+            }
+            accountRate.throttled().increment();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @return the rate bucket and throttle counter of the account, created with the configured limits on first use
+     */
+    public AccountRate getAccountRateState(String accountId) {
+        return accountRates.computeIfAbsent(accountId,
+                k -> new AccountRate(new TokenBucket(getAccountMaxRate(k), getAccountMaxBurst(k)), new LongAdder()));
+    }
+
+    public double getAccountMaxRate(String accountId) {
+        return worker != null ? worker.getMaxRate(accountId) : 0;
+    }
+
+    public double getAccountMaxBurst(String accountId) {
+        return worker != null ? worker.getMaxBurst(accountId) : 0;
+    }
+
+    public double getAccountRate(String accountId) {
+        AccountRate accountRate = accountRates.get(accountId);
+        return accountRate != null ? accountRate.bucket().getRate() : getAccountMaxRate(accountId);
+    }
 
-        logger.debug("Count of connections per ip for ip:{} {}", ip, conPerIPCounters.get(ip).get());
+    public long getThrottledCount(String accountId) {
+        AccountRate accountRate = accountRates.get(accountId);
+        return accountRate != null ? accountRate.throttled().sum() : 0;
     }
 
-    public synchronized boolean removeConnection(SmppServerSessionHandler handler, SmppSession session) {
+    public void configServerRates() {
+        if (worker == null) {
+            return;
+        }
+        serverRateBucket.configure(worker.getServerMaxRate(), worker.getServerMaxBurst());
+        double ipRate = worker.getMaxRatePerIP();
+        if (ipRate <= 0) {
+            ipRateBuckets.clear();
+            return;
+        }
+        for (String ip : conPerIPCounters.keySet()) {
+            ipRateBuckets.computeIfAbsent(ip, k -> new TokenBucket(ipRate, worker.getMaxBurstPerIP()))
+                    .configure(ipRate, worker.getMaxBurstPerIP());
+        }
+    }
+
+    public boolean removeConnection(SmppServerSessionHandler<?> handler, SmppSession session) {
         if (session == null) {
             logger.warn("trying to remove a null session from account connections, rejecting");
             return false;
         }
 
-        boolean removed = false;
+        boolean[] removed = new boolean[1];
         String accountId = session.getConfiguration().getName();
-        AccountConnections accountConnections = connections.get(accountId);
-        if (accountConnections != null) {
-            removed = accountConnections.remove(handler);
-            if (accountConnections.isEmpty()) {
-                connections.remove(accountId);
-            }
-        }
-        String ip = session.getConfiguration().getHost();
-        if (conPerIPCounters.containsKey(ip)) {
-            int cons = conPerIPCounters.get(ip).decrementAndGet();
-            if (cons <= 0) {
-                conPerIPCounters.remove(ip);
-            }
+        connections.computeIfPresent(accountId, (k, accountConnections) -> {
+            removed[0] = accountConnections.remove(handler);
+            return accountConnections.isEmpty() ? null : accountConnections;
+        });
+        // the handler may be removed both on channel close and on session destroy, only the first one releases its slots
+        if (removed[0]) {
+            totalConnections.decrementAndGet();
+            release(conPerAccountCounters, accountId);
+            releaseIp(session.getConfiguration().getHost());
         }
 
-        return removed;
+        return removed[0];
     }
 
-    public boolean removeConnection(SmppServerSessionHandler handler) {
+    public boolean removeConnection(SmppServerSessionHandler<?> handler) {
         return handler != null && handler.getSession() != null && removeConnection(handler, handler.getSession());
     }
 
@@ -91,7 +221,7 @@ public class ServerConnections {
         return connections.get(accountId);
     }
 
-    public SmppServerSessionHandler getHandlerForSending(String accountId, String systemId) {
+    public SmppServerSessionHandler<?> getHandlerForSending(String accountId, String systemId) {
         var accountConnections = connections.get(accountId);
         if (accountConnections == null) {
             return null;
@@ -102,14 +232,16 @@ public class ServerConnections {
         return accountConnections.getAvailableHandlerSystemIdForSending(systemId);
     }
 
+    public int getConnectionsSize() {
+        return totalConnections.get();
+    }
+
     public int getConnectionsSizeForIP(String ip) {
-        return conPerIPCounters.containsKey(ip) ?
-                conPerIPCounters.get(ip).get() : 0;
+        return count(conPerIPCounters, ip);
     }
 
     public int getConnectionsSizeFromAccount(String accountId) {
-        return connections.containsKey(accountId) ?
-                connections.get(accountId).size() : 0;
+        return count(conPerAccountCounters, accountId);
     }
 
     public int getTransmittableConnectionsSizeFromAccount(String accountId) {
@@ -127,6 +259,76 @@ public class ServerConnections {
                 connections.get(accountId).hasTransmittableConnections();
     }
 
+    private void releaseIp(String ip) {
+        if (release(conPerIPCounters, ip)) {
+            // keep the bucket if a new connection from the same ip reserved a slot in the meantime
+            ipRateBuckets.computeIfPresent(ip, (k, bucket) -> conPerIPCounters.containsKey(k) ? bucket : null);
+        }
+    }
+
+    /**
+     * Take one slot of the counter of the given key if that does not exceed {@code max}.
+     * A counter that drops to zero is retired by setting it to -1 before it is removed from the map, so a concurrent
+     * reservation that still holds the retired instance retries on a fresh counter instead of losing its increment.
+     */
+    private static boolean tryReserve(ConcurrentMap<String, AtomicInteger> counters, String key, int max) {
+        while (true) {
+            AtomicInteger counter = counters.computeIfAbsent(key, k -> new AtomicInteger());
+            int current = counter.get();
+            if (current < 0) {
+                counters.remove(key, counter);
+                continue;
+            }
+            if (max > 0 && current >= max) {
+                return false;
+            }
+            if (counter.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private boolean tryReserveTotal(int max) {
+        while (true) {
+            int current = totalConnections.get();
+            if (max > 0 && current >= max) {
+                return false;
+            }
+            if (totalConnections.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * @return true if this was the last slot and the counter of the key has been removed
+     */
+    private static boolean release(ConcurrentMap<String, AtomicInteger> counters, String key) {
+        AtomicInteger counter = counters.get(key);
+        if (counter == null) {
+            return false;
+        }
+        while (true) {
+            int current = counter.get();
+            if (current <= 0) {
+                return false;
+            }
+            int next = current == 1 ? -1 : current - 1;
+            if (counter.compareAndSet(current, next)) {
+                if (next < 0) {
+                    counters.remove(key, counter);
+                    return true;
+                }
+                return false;
+            }
+        }
+    }
+
+    private static int count(ConcurrentMap<String, AtomicInteger> counters, String key) {
+        AtomicInteger counter = counters.get(key);
+        return counter != null ? Math.max(0, counter.get()) : 0;
+    }
+
     public String getStatistics() {
         StringBuilder statistics = new StringBuilder();
 
@@ -150,20 +352,34 @@ public class ServerConnections {
 
     public void configMaxRate(String accountId) {
         if (accountId == null) {
-            for (String account : connections.keySet()) {
-                connections.get(account).configMaxRate(account);
-            }
+            accountRates.forEach(this::configMaxRate);
         } else {
-            var uc = connections.get(accountId);
-            if (uc != null) {
-                uc.configMaxRate(accountId);
+            var accountRate = accountRates.get(accountId);
+            if (accountRate != null) {
+                configMaxRate(accountId, accountRate);
             }
         }
     }
 
+    private void configMaxRate(String accountId, AccountRate accountRate) {
+        try {
+            accountRate.bucket().configure(getAccountMaxRate(accountId), getAccountMaxBurst(accountId));
+            logger.debug("configured rate limit of account:{} to {}", accountId, accountRate.bucket());
+        } catch (Exception e) {
+            logger.warn("maxRate configuration failed", e);
+        }
+    }
+
     public void checkInactivityTime(int maxInactivityTime) {
         for (var connection : connections.values()) {
             connection.checkInactivityTime(maxInactivityTime);
         }
     }
+
+    /**
+     * The rate limit of an account, shared by all its sessions so that the contracted rate does not grow with the
+     * number of binds, and the requests it throttled.
+     */
+    public record AccountRate(TokenBucket bucket, LongAdder throttled) {
+    }
 }
@@ -29,7 +29,7 @@ public class SmppServerBindHandler<M extends StandardMessage> implements SmppSer
     public SmppServerBindHandler(SmppServerWorker<M> worker, SmppAuthenticationProvider smppAuthenticationProvider, SubmitSmProcessor processor) {
         this.worker = worker;
         authProvider = smppAuthenticationProvider;
-        connections = new ServerConnections();
+        connections = new ServerConnections(worker);
         pendingSessionContexts = new ConcurrentHashMap<>();
         submitSmProcessor = processor;
     }
@@ -79,10 +79,12 @@ public class SmppServerBindHandler<M extends StandardMessage> implements SmppSer
             handler.setApiProduct(smppSessionContext.getProduct());
         }
 
-        String ip = handler.getSession().getConfiguration().getHost();
-        synchronized (connections) {
-            checkIfConnectionFromIpIsOverLimit(ip);
-            connections.addConnection(accountId, handler);
+        int maxConnectionsPerAccount = smppSessionContext != null ? smppSessionContext.getMaxConnections() : 0;
+        int status = connections.addConnection(accountId, handler, worker.getMaxConnectionsPerIP(), maxConnectionsPerAccount);
+        if (status != SmppConstants.STATUS_OK) {
+            logger.warn("Rejecting session of account:{} from ip:{} due to connection limits, status:{}",
+                    accountId, session.getConfiguration().getHost(), status);
+            throw new SmppProcessingException(status, null);
         }
 
         logger.info("Session created for account ID: {}", accountId);
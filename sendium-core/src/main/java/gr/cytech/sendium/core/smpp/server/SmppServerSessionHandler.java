@@ -1,6 +1,5 @@
 package gr.cytech.sendium.core.smpp.server;
 
-import com.cloudhopper.commons.util.HexUtil;
 import com.cloudhopper.smpp.PduAsyncResponse;
 import com.cloudhopper.smpp.SmppConstants;
 import com.cloudhopper.smpp.SmppSession;
@@ -20,6 +19,7 @@ import com.cloudhopper.smpp.util.SmppUtil;
 import com.google.common.util.concurrent.RateLimiter;
 import gr.cytech.sendium.core.message.StandardMessage;
 import gr.cytech.sendium.core.smpp.SmsgSmppSessionHandler;
+import gr.cytech.sendium.core.smpp.util.ShortMessageView;
 import gr.cytech.sendium.core.smpp.util.SmppServerUtil;
 import gr.cytech.sendium.util.Constants;
 import gr.cytech.sendium.util.MessageTrace;
@@ -33,6 +33,7 @@ import java.time.Instant;
 import java.time.format.DateTimeFormatter;
 import java.time.format.DateTimeFormatterBuilder;
 import java.time.temporal.ChronoField;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class SmppServerSessionHandler<M extends StandardMessage> implements SmsgSmppSessionHandler {
     public static final String DATE_FORMAT = "yyyy-MMM-dd HH:mm:ss.SS+z";
@@ -46,10 +47,13 @@ public class SmppServerSessionHandler<M extends StandardMessage> implements Smsg
     private final SmppSession session;
     private final Long sessionId;
     private final SmppServerWorker<M> worker;
-    private final RateLimiter rateController;
+    private final ServerConnections serverConnections;
+    private final RateLimiter pushRateController;
+    private final AtomicInteger pushInFlight = new AtomicInteger();
     private final SmppSessionContext sessionContext;
     private final SubmitSmProcessor<M> submitProcessor;
     private String apiProduct;
+    private volatile int pushWindow;
 
     public SmppServerSessionHandler(SmppServerWorker<M> worker,
                                     Long sessionId,
@@ -61,8 +65,10 @@ public class SmppServerSessionHandler<M extends StandardMessage> implements Smsg
         this.session = session;
         this.sessionContext = sessionContext;
         this.submitProcessor = submitProcessor;
-        double rateLimit = worker.getMaxRate(getAccountId());
-        this.rateController = RateLimiter.create(rateLimit > 0 ? rateLimit : Double.MAX_VALUE);
+        this.serverConnections = worker.getServerConnections();
+        double pushRate = worker.getPushRate(getAccountId());
+        this.pushRateController = RateLimiter.create(pushRate > 0 ? pushRate : Double.MAX_VALUE);
+        this.pushWindow = resolvePushWindow(getAccountId());
         this.lastPduTimestamp = System.currentTimeMillis();
     }
 
@@ -74,8 +80,10 @@ public class SmppServerSessionHandler<M extends StandardMessage> implements Smsg
         this.session = session;
         this.sessionContext = null;
         this.submitProcessor = null;
-        double rateLimit = worker.getMaxRate(getAccountId());
-        this.rateController = RateLimiter.create(rateLimit > 0 ? rateLimit : Double.MAX_VALUE);
+        this.serverConnections = worker.getServerConnections();
+        double pushRate = worker.getPushRate(getAccountId());
+        this.pushRateController = RateLimiter.create(pushRate > 0 ? pushRate : Double.MAX_VALUE);
+        this.pushWindow = resolvePushWindow(getAccountId());
         this.lastPduTimestamp = System.currentTimeMillis();
     }
 
@@ -134,6 +142,7 @@ public class SmppServerSessionHandler<M extends StandardMessage> implements Smsg
         logger.info("{}: received expired request PDU {}", this, MessageTrace.pdu(pduRequest));
 
         if (pduRequest.getCommandId() == SmppConstants.CMD_ID_DELIVER_SM) {
+            releasePushCredit();
             try {
                 Object[] arr = (Object[]) pduRequest.getReferenceObject();
                 M original = (M) arr[1];
@@ -171,6 +180,9 @@ public class SmppServerSessionHandler<M extends StandardMessage> implements Smsg
      */
     public void fireExpectedPduResponseReceived(PduAsyncResponse pduAsyncResponse) {
         logger.trace("{}: received expected response PDU: {}", this, pduAsyncResponse.getResponse());
+        if (pduAsyncResponse.getRequest().getCommandId() == SmppConstants.CMD_ID_DELIVER_SM) {
+            releasePushCredit();
+        }
 
         /*
          * Its possible the response PDU really isn't the correct PDU we were waiting for,
@@ -285,15 +297,15 @@ public class SmppServerSessionHandler<M extends StandardMessage> implements Smsg
         // Accept pdu for processing up chain
         logger.trace("{}: firePduReceived {} ", this, pdu);
 
-        //if the pdu is a submit / data /deliver request, try to apply rate limit
+        //if the pdu is a submit / data /deliver request, try to apply the server, ip and account rate limits
         if (pdu.isRequest() &&
                 (pdu.getCommandId() == SmppConstants.CMD_ID_SUBMIT_SM ||
                         pdu.getCommandId() == SmppConstants.CMD_ID_DATA_SM ||
                         pdu.getCommandId() == SmppConstants.CMD_ID_DELIVER_SM)
         ) {
-            if (!rateController.tryAcquire()) {
+            if (serverConnections != null && !serverConnections.tryAcquireRate(this)) {
                 pdu.setReferenceObject(new Object[]{this, System.currentTimeMillis()});
-                logger.warn("{}: PDU throttled rate={} {}", this, rateController.getRate(), MessageTrace.pdu(pdu));
+                logger.warn("{}: PDU throttled rate={} {}", this, getRate(), MessageTrace.pdu(pdu));
                 GenericNack nack = SmppServerUtil.createGenericNack((PduRequest<?>) pdu, SmppConstants.STATUS_THROTTLED);
                 worker.enqueueOut(nack);
                 return false;
@@ -364,6 +376,50 @@ public class SmppServerSessionHandler<M extends StandardMessage> implements Smsg
         return true;
     }
 
+    /**
+     * Reserve push credits for {@code count} deliver_sm requests about to be sent on this session.
+     * Credits bound the number of deliver_sm awaiting a response to the push window and are returned when the
+     * response arrives, the request expires or the send fails. A request larger than the whole window is only
+     * admitted on an idle session, so that multipart MOs cannot get stuck.
+     *
+     * @return true if the requests may be sent now, false if the caller should back off and retry later
+     */
+    public boolean tryAcquirePushCredits(int count) {
+        int window = pushWindow;
+        if (window > 0) {
+            int inFlight;
+            do {
+                inFlight = pushInFlight.get();
+                if (inFlight > 0 && inFlight + count > window) {
+                    return false;
+                }
+            } while (!pushInFlight.compareAndSet(inFlight, inFlight + count));
+        } else {
+            pushInFlight.addAndGet(count);
+        }
+        if (!pushRateController.tryAcquire(count)) {
+            releasePushCredits(count);
+            return false;
+        }
+        return true;
+    }
+
+    public void releasePushCredit() {
+        releasePushCredits(1);
+    }
+
+    public void releasePushCredits(int count) {
+        pushInFlight.updateAndGet(v -> Math.max(0, v - count));
+    }
+
+    public int getPushInFlight() {
+        return pushInFlight.get();
+    }
+
+    public int getPushWindow() {
+        return pushWindow;
+    }
+
     public SmppServerWorker<M> getWorker() {
         return worker;
     }
@@ -418,17 +474,14 @@ public class SmppServerSessionHandler<M extends StandardMessage> implements Smsg
             data = submitSm.getShortMessage();
         }
 
-        String udh = null;
-        if (SmppUtil.isUserDataHeaderIndicatorEnabled(submitSm.getEsmClass())) {
-            int udhLength = data[0];
-            byte[] udhBytes = new byte[udhLength + 1];
-            System.arraycopy(data, 0, udhBytes, 0, udhBytes.length);
-            udh = HexUtil.toHexString(udhBytes);
-            byte[] bodyBytes = new byte[data.length - udhBytes.length];
-            System.arraycopy(data, udhBytes.length, bodyBytes, 0, bodyBytes.length);
-
-            data = bodyBytes;
+        // the UDH and body are read in place, they are copied only by charsets that cannot decode a range
+        var view = ShortMessageView.of(data, SmppUtil.isUserDataHeaderIndicatorEnabled(submitSm.getEsmClass()));
+        if (view == null) {
+            SubmitSmResp resp = SmppServerUtil.createSubmitRsp(submitSm, SmppConstants.STATUS_INVMSGLEN, null);
+            worker.enqueueOut(resp);
+            return null;
         }
+        String udh = view.getUdhHex();
 
         int maxLength;
         int smtype;
@@ -437,23 +490,23 @@ public class SmppServerSessionHandler<M extends StandardMessage> implements Smsg
             case SmppConstants.DATA_CODING_UCS2:  // UNICODE MESSAGE
                 smtype = StandardMessage.MSG_UCS2;
                 maxLength = Constants.UCS_LENGTH;
-                text = SmppServerUtil.getMessageBody(data, worker.getCharsetUcs2());
+                text = view.decodeBody(worker.getCharsetUcs2());
                 break;
             case SmppConstants.DATA_CODING_8BIT:
                 smtype = StandardMessage.MSG_BINARY;
                 maxLength = Constants.BINARY_LENGTH;
-                text = HexUtil.toHexString(data);
+                text = view.getBodyHex();
                 break;
             case SmppConstants.DATA_CODING_DEFAULT:
             case SmppConstants.DATA_CODING_GSM:
                 smtype = StandardMessage.MSG_TEXT;
                 maxLength = Constants.GSM_LENGTH;
-                text = SmppServerUtil.getMessageBody(data, worker.getCharsetGsm());
+                text = view.decodeBody(worker.getCharsetGsm());
                 break;
             case SmppConstants.DATA_CODING_LATIN1:
                 smtype = StandardMessage.MSG_TEXT;
                 maxLength = Constants.GSM_LENGTH;
-                text = SmppServerUtil.getMessageBody(data, worker.getCharsetLatin1());
+                text = view.decodeBody(worker.getCharsetLatin1());
                 break;
             default:
                 SubmitSmResp resp = SmppServerUtil.createSubmitRsp(submitSm, VendorSpecificConstants.STATUS_RINVDCS, null);
@@ -468,7 +521,7 @@ public class SmppServerSessionHandler<M extends StandardMessage> implements Smsg
         }
         text = MessageUtil.validateText(udh, text, smtype, maxLength);
         text = text.replace("\0", "");
-        return new SmppServerUtil.ValidatedMessageBody(text, udh, smtype);
+        return new SmppServerUtil.ValidatedMessageBody(text, udh, smtype, view.getPartInfo());
     }
 
     public Timestamp validateScheduleDeliveryTime(SubmitSm submitSm) {
@@ -523,10 +576,34 @@ public class SmppServerSessionHandler<M extends StandardMessage> implements Smsg
         return s.getConfiguration().getSystemId();
     }
 
+    /**
+     * The request rate is limited per account, so this reconfigures the bucket shared by all sessions of the account.
+     */
     public void configMaxRate(String accountId) {
-        double rate = worker.getMaxRate(accountId);
-        logger.debug("setting rate for handler:{} of user:{} to:{}", this, getAccountId(), rate);
-        this.rateController.setRate(rate);
+        if (serverConnections != null) {
+            serverConnections.configMaxRate(accountId);
+        }
+    }
+
+    public void configPushLimits(String accountId) {
+        double rate = worker.getPushRate(accountId);
+        this.pushRateController.setRate(rate > 0 ? rate : Double.MAX_VALUE);
+        this.pushWindow = resolvePushWindow(accountId);
+        logger.debug("setting push limits for handler:{} of user:{} to window:{} rate:{}", this, getAccountId(), pushWindow, rate);
+    }
+
+    /**
+     * The push window is the configured one, capped by the window negotiated for the session, since cloudhopper
+     * blocks the sending thread once the session window is full.
+     */
+    private int resolvePushWindow(String accountId) {
+        int configured = worker.getPushWindow(accountId);
+        SmppSession s = getSession();
+        int sessionWindow = s != null && s.getConfiguration() != null ? s.getConfiguration().getWindowSize() : 0;
+        if (configured <= 0) {
+            return sessionWindow;
+        }
+        return sessionWindow > 0 ? Math.min(configured, sessionWindow) : configured;
     }
 
     public String toString() {
@@ -538,7 +615,7 @@ public class SmppServerSessionHandler<M extends StandardMessage> implements Smsg
     }
 
     public double getRate() {
-        return rateController.getRate();
+        return serverConnections != null ? serverConnections.getAccountRate(getAccountId()) : worker.getMaxRate(getAccountId());
     }
 
     @Override
@@ -6,9 +6,11 @@ import com.cloudhopper.commons.util.HexUtil;
 import com.cloudhopper.smpp.SmppConstants;
 import com.cloudhopper.smpp.SmppServer;
 import com.cloudhopper.smpp.SmppServerConfiguration;
+import com.cloudhopper.smpp.SmppServerHandler;
 import com.cloudhopper.smpp.impl.DefaultSmppServer;
 import com.cloudhopper.smpp.pdu.DeliverSm;
 import com.cloudhopper.smpp.pdu.Pdu;
+import com.cloudhopper.smpp.pdu.SubmitSm;
 import com.cloudhopper.smpp.ssl.SslConfiguration;
 import com.cloudhopper.smpp.tlv.Tlv;
 import com.cloudhopper.smpp.type.Address;
@@ -28,11 +30,13 @@ import gr.cytech.sendium.core.smpp.server.tasks.PrintStatisticsTask;
 import gr.cytech.sendium.core.smpp.util.SmppServerUtil;
 import gr.cytech.sendium.core.worker.FailDelayPolicy;
 import gr.cytech.sendium.core.worker.FailDelayPolicyAction;
+import gr.cytech.sendium.core.worker.IdempotencyService;
 import gr.cytech.sendium.core.worker.WorkerType;
 import gr.cytech.sendium.external.filter.FilterException;
 import gr.cytech.sendium.external.filter.FilterStatusCodes;
 import gr.cytech.sendium.external.filter.InMessageFiltering;
 import gr.cytech.sendium.util.MessageTrace;
+import gr.cytech.sendium.util.MessageUtil;
 import io.netty.channel.EventLoopGroup;
 import io.netty.channel.epoll.Epoll;
 import io.netty.channel.epoll.EpollEventLoopGroup;
@@ -47,7 +51,9 @@ import java.time.ZoneOffset;
 import java.time.ZonedDateTime;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.UUID;
@@ -68,6 +74,7 @@ import java.util.stream.Collectors;
 public class SmppServerWorker<M extends StandardMessage> extends AbstractOutWorker<M> implements InMessageFiltering {
     public static final String TYPE_SMPP_SERVER = "smppserver";
     public static final Logger statsLogger = LoggerFactory.getLogger(SmppServerWorker.class.getCanonicalName() + ".statistics");
+    private static final String IDEMPOTENCY_SCOPE = "smpp:";
     public boolean flagReverseDlrSrcDst;
     public volatile ScheduledFuture<?> inactivityTimeFuture;
     public InTask<M> inExecutorRunnable;
@@ -90,11 +97,23 @@ public class SmppServerWorker<M extends StandardMessage> extends AbstractOutWork
     protected final String[] _srvJmxEnabled = {"srv.jmx.enabled", "false"};
     protected final String[] _srvJmxDomain = {"srv.jmx.domain", "gr.cytech.sendium"};
     protected final String[] _srvMaxConnections = {"srv.maxConnections", "1000"};
+    protected final String[] _srvAcceptors = {"srv.acceptors", "1"};
+    protected final String[] _srvAcceptBacklog = {"srv.acceptBacklog", "0"};
+    protected final String[] _srvTcpNoDelay = {"srv.tcpNoDelay", "true"};
+    protected final String[] _srvSoRcvBuf = {"srv.soRcvBuf", "0"};
+    protected final String[] _srvSoSndBuf = {"srv.soSndBuf", "0"};
+    protected final String[] _srvWriteBufferLowWaterMark = {"srv.writeBufferLowWaterMark", "0"};
+    protected final String[] _srvWriteBufferHighWaterMark = {"srv.writeBufferHighWaterMark", "0"};
+    protected final String[] _srvPooledDirectBuffers = {"srv.pooledDirectBuffers", "false"};
     protected final String[] _srvBindTimeout = {"srv.bindTimeout", "5000"};
     protected final String[] _srvStatsPrintPeriod = {"srv.printStatsPeriod", "300"};
     protected final String[] _srvRatePrintPeriod = {"srv.printRatePeriod", "60"};
     protected final String[] _srvRatePrintCount = {"srv.printRateCount", "0"};
     protected final String[] _srvMaxConnectionsPerIp = {"srv.maxConnectionsPerIP", "0"};
+    protected final String[] _srvMaxRate = {"srv.maxRate", "0"};
+    protected final String[] _srvMaxBurst = {"srv.maxBurst", "0"};
+    protected final String[] _srvMaxRatePerIp = {"srv.maxRatePerIP", "0"};
+    protected final String[] _srvMaxBurstPerIp = {"srv.maxBurstPerIP", "0"};
     protected final String[] _srvTlsEnabled = {"srv.tls.enabled", "false"};
     protected final String[] _srvTlsPort = {"srv.tls.port", "0"};
     protected final String[] _srvTlsHost = {"srv.tls.host", "localhost"};
@@ -111,15 +130,26 @@ public class SmppServerWorker<M extends StandardMessage> extends AbstractOutWork
     protected final String[] _charsetUcs2 = {"charset.ucs2", CharsetUtil.NAME_UCS_2};
     protected final String[] _ccat8bit = {"ccat.8bit", "true"};
     protected final String[] _defaultMaxRate = {"conf.maxRate.default", "0"};
+    protected final String[] _defaultMaxBurst = {"conf.maxBurst.default", "0"};
     protected final String[] _defaultMaxConnectionsPerUser = {"conf.maxConnectionsPerUser.default", "0"};
     protected final String[] _defaultWindowMonitorInterval = {"conf.windowMonitorInterval.default", "15000"};
     protected final String[] _defaultResponseTimeout = {"conf.responseTout.default", "30000"};
     protected final String[] _defaultMaxPending = {"conf.maxPending.default", "1000"};
     protected final String[] _defaultWriteTimeout = {"conf.writeTimeout.default", "30000"};
+    protected final String[] _defaultPushWindow = {"conf.pushWindow.default", "0"};
+    protected final String[] _defaultPushRate = {"conf.pushRate.default", "0"};
+    protected final String[] _pushBackoffMillis = {"push.backoffMillis", "100"};
+    protected final String[] _replayPageSize = {"replay.pageSize", "500"};
+    protected final String[] _replayRate = {"replay.rate", "200"};
+    protected final String[] _replayMaxQueued = {"replay.maxQueued", "1000"};
     protected final String[] _logPdusExclude = {"log.pdus.exclude", SmppConstants.CMD_ID_ENQUIRE_LINK + "," + SmppConstants.CMD_ID_ENQUIRE_LINK_RESP};
     protected final String[] _filtersBeforeInsertMessage = {"filters.beforeInsertMessage", ""};
     protected final String[] _flagReverseDlrSrcDst = {"flag.reverseDlrSrcDst", "true"};
     protected final String[] _timeoutMillis = {"reassembling.timeoutMillis", "30000"};
+    /**
+     * the tag of the optional parameter of submit_sm that carries its idempotency key, in decimal or 0x hex, none if empty
+     */
+    protected final String[] _idempotencyTag = {"idempotency.tag", ""};
 
     protected SmppAuthenticationProvider authProvider;
     protected SubmitSmProcessor<M> submitProcessor;
@@ -127,6 +157,10 @@ public class SmppServerWorker<M extends StandardMessage> extends AbstractOutWork
     protected SmppServer server;
     protected SmppServer tlsServer;
     protected SmppServer proxyServer;
+    /**
+     * acceptors beyond the first one of each server type, listening on the same port with SO_REUSEPORT
+     */
+    protected final Map<ServerType, List<SmppServer>> extraAcceptors = new EnumMap<>(ServerType.class);
     protected volatile ScheduledFuture<?> serverStatsScheduledFuture;
     protected ScheduledThreadPoolExecutor statsManager;
     protected ScheduledThreadPoolExecutor monitorExecutor;
@@ -138,6 +172,10 @@ public class SmppServerWorker<M extends StandardMessage> extends AbstractOutWork
     protected SmppServerSessionCounters totalCounters;
     protected MessagePartsHandler<M> messagePartsHandler;
     protected boolean isFastUnsafeStop = false;
+    /**
+     * the parsed {@code idempotency.tag}, or -1
+     */
+    protected volatile int idempotencyTag = -1;
 
     public SmppServerWorker() {
         this.authProvider = new BasicSmppAuthenticationProvider(this);
@@ -169,7 +207,10 @@ public class SmppServerWorker<M extends StandardMessage> extends AbstractOutWork
                 _charsetGsm, _charsetLatin1, _charsetUcs2, _ccat8bit, _defaultMaxRate,
                 _defaultMaxConnectionsPerUser, _defaultWindowMonitorInterval, _defaultResponseTimeout,
                 _defaultMaxPending, _defaultWriteTimeout, _logPdusExclude, _filtersBeforeInsertMessage,
-                _flagReverseDlrSrcDst, _timeoutMillis
+                _flagReverseDlrSrcDst, _timeoutMillis, _defaultPushWindow, _defaultPushRate, _pushBackoffMillis, _replayPageSize,
+                _replayRate, _replayMaxQueued, _defaultMaxBurst, _srvMaxRate, _srvMaxBurst, _srvMaxRatePerIp,
+                _srvMaxBurstPerIp, _srvAcceptors, _srvAcceptBacklog, _srvTcpNoDelay, _srvSoRcvBuf, _srvSoSndBuf,
+                _srvWriteBufferLowWaterMark, _srvWriteBufferHighWaterMark, _srvPooledDirectBuffers, _idempotencyTag
         };
         this.authProvider = new BasicSmppAuthenticationProvider(this);
         this.submitProcessor = new BasicSubmitSmProcessor(this);
@@ -185,6 +226,7 @@ public class SmppServerWorker<M extends StandardMessage> extends AbstractOutWork
         configPtrnReceiver();
         configFlagReverseDlrSrcDst();
         configReassemblingTimeout();
+        configIdempotencyTag();
     }
 
     public void setMessageStore(SmppServerMessageStore<M> messageStore) {
@@ -257,6 +299,8 @@ public class SmppServerWorker<M extends StandardMessage> extends AbstractOutWork
         destroyServer(server);
         destroyServer(tlsServer);
         destroyServer(proxyServer);
+        extraAcceptors.values().forEach(acceptors -> acceptors.forEach(this::destroyServer));
+        extraAcceptors.clear();
         if (serverStatsScheduledFuture != null) {
             try {
                 serverStatsScheduledFuture.cancel(true);
@@ -319,24 +363,34 @@ public class SmppServerWorker<M extends StandardMessage> extends AbstractOutWork
                 return;
             } else {
                 var config = createSmppServerConfiguration(type);
-                EventLoopGroup boss;
-                EventLoopGroup worker;
-                if (Epoll.isAvailable()) {
-                    logger.info("Epoll is available! Using epoll event loop group");
-                    boss = new EpollEventLoopGroup(configurationProvider.getIntPrpt(_srvThreads),
-                            Thread.ofPlatform().name(getFullName() + "-" + prefix + "boss", 1).factory());
-                    worker = new EpollEventLoopGroup(configurationProvider.getIntPrpt(_srvWorkerThreads),
-                            Thread.ofPlatform().name(getFullName() + "-" + prefix + "worker", 1).factory());
-                } else {
-                    boss = new NioEventLoopGroup(configurationProvider.getIntPrpt(_srvThreads));
-                    worker = new NioEventLoopGroup(configurationProvider.getIntPrpt(_srvWorkerThreads));
-                }
-                srv = new DefaultSmppServer(config, bindHandler, monitorExecutor, boss, worker);
-                try {
-                    srv.start();
-                } catch (Exception e) {
-                    logger.error("ERROR starting {}server", prefix, e);
+                // every acceptor may take all of srv.maxConnections, the kernel does not spread connections evenly across
+                // them, and ServerConnections enforces the total across all of them
+                int acceptors = getAcceptorCount();
+                var channelOptions = createServerChannelOptions(acceptors > 1);
+                EventLoopGroup worker = createEventLoopGroup(_srvWorkerThreads, prefix + "worker");
+                List<SmppServer> extras = new ArrayList<>();
+                for (int i = 0; i < acceptors; i++) {
+                    EventLoopGroup boss = createEventLoopGroup(_srvThreads, prefix + "boss" + (acceptors > 1 ? i + "-" : ""));
+                    SmppServerHandler handler = acceptors > 1 ? new AcceptorServerHandler(bindHandler, i, acceptors) : bindHandler;
+                    var acceptor = new DefaultSmppServer(config, handler, monitorExecutor, boss, worker);
+                    if (!channelOptions.applyTo(acceptor) && acceptors > 1) {
+                        // without SO_REUSEPORT a second acceptor cannot bind the port
+                        logger.warn("cannot set SO_REUSEPORT on the {}server, starting a single acceptor", prefix);
+                        acceptors = 1;
+                    }
+                    try {
+                        acceptor.start();
+                    } catch (Exception e) {
+                        logger.error("ERROR starting {}server acceptor:{}", prefix, i, e);
+                    }
+                    if (i == 0) {
+                        srv = acceptor;
+                    } else {
+                        extras.add(acceptor);
+                    }
                 }
+                extraAcceptors.put(type, extras);
+                logger.info("{}server started with {} acceptor(s)", prefix, acceptors);
             }
         } else {
             if (srv != null) {
@@ -347,6 +401,10 @@ public class SmppServerWorker<M extends StandardMessage> extends AbstractOutWork
                 }
                 srv = null;
             }
+            var extras = extraAcceptors.remove(type);
+            if (extras != null) {
+                extras.forEach(this::destroyServer);
+            }
         }
 
         if (type == ServerType.TLS) {
@@ -358,6 +416,41 @@ public class SmppServerWorker<M extends StandardMessage> extends AbstractOutWork
         }
     }
 
+    /**
+     * Several acceptors need SO_REUSEPORT, which is only available with the epoll transport.
+     */
+    protected int getAcceptorCount() {
+        int acceptors = Math.max(1, configurationProvider.getIntPrpt(_srvAcceptors));
+        if (acceptors > 1 && !Epoll.isAvailable()) {
+            logger.warn("{} acceptors configured, but epoll is not available for SO_REUSEPORT. Using a single acceptor", acceptors);
+            return 1;
+        }
+        return acceptors;
+    }
+
+    protected ServerChannelOptions createServerChannelOptions(boolean reusePort) {
+        return new ServerChannelOptions(reusePort,
+                configurationProvider.getBlnPrpt(_srvTcpNoDelay),
+                configurationProvider.getIntPrpt(_srvSoRcvBuf),
+                configurationProvider.getIntPrpt(_srvSoSndBuf),
+                configurationProvider.getIntPrpt(_srvWriteBufferLowWaterMark),
+                configurationProvider.getIntPrpt(_srvWriteBufferHighWaterMark),
+                configurationProvider.getBlnPrpt(_srvPooledDirectBuffers),
+                configurationProvider.getIntPrpt(_srvAcceptBacklog));
+    }
+
+    /**
+     * A thread count of zero uses the netty default of twice the available cores.
+     */
+    protected EventLoopGroup createEventLoopGroup(String[] threadsParam, String name) {
+        int threads = configurationProvider.getIntPrpt(threadsParam);
+        if (Epoll.isAvailable()) {
+            logger.info("Epoll is available! Using epoll event loop group for {}", name);
+            return new EpollEventLoopGroup(threads, Thread.ofPlatform().name(getFullName() + "-" + name, 1).factory());
+        }
+        return new NioEventLoopGroup(threads);
+    }
+
     protected SmppServerConfiguration createSmppServerConfiguration(ServerType type) {
         var configuration = new SmppServerConfiguration();
         configuration.setName(getFullName() + (type == ServerType.NORMAL ? "" : type == ServerType.TLS ? ".TLS" : ".PROXY"));
@@ -499,7 +592,8 @@ public class SmppServerWorker<M extends StandardMessage> extends AbstractOutWork
 
     private void configMaxRate(String userId, String newValue) {
         try {
-            double newRate = Double.parseDouble(newValue);
+            // an account value that is removed falls back to the default
+            double newRate = userId != null && Strings.isNullOrEmpty(newValue) ? getMaxRate(userId) : Double.parseDouble(newValue);
             bindHandler.configMaxRate(userId);
             logger.debug("configured max rate of user:{} to {}", (userId == null ? "all" : userId), newRate);
         } catch (Exception e) {
@@ -507,6 +601,16 @@ public class SmppServerWorker<M extends StandardMessage> extends AbstractOutWork
         }
     }
 
+    private void configPushLimits(String accountId) {
+        bindHandler.connections.connections.forEach((account, ac) -> {
+            if (accountId == null || accountId.equals(account)) {
+                ac.getAllHandlers().forEach(h -> h.configPushLimits(h.getAccountId()));
+            }
+        });
+        logger.debug("configured push window:{} rate:{} of account:{}", getAccountPrpt(_defaultPushWindow, accountId),
+                getAccountPrpt(_defaultPushRate, accountId), accountId == null ? "all" : accountId);
+    }
+
     protected void configMaxConnectionsPerUser(String accountId, String newValue) {
         try {
             int newMax = Integer.parseInt(newValue);
@@ -532,6 +636,25 @@ public class SmppServerWorker<M extends StandardMessage> extends AbstractOutWork
         }
     }
 
+    protected void configIdempotencyTag() {
+        String tag = configurationProvider.getPrpt(_idempotencyTag);
+        if (Strings.isNullOrEmpty(tag)) {
+            idempotencyTag = -1;
+            return;
+        }
+        try {
+            int parsed = Integer.decode(tag.trim());
+            if (parsed < 0 || parsed > 0xFFFF) {
+                throw new NumberFormatException("not a 16-bit tag");
+            }
+            idempotencyTag = parsed;
+            logger.debug("setting idempotency.tag to 0x{}", Integer.toHexString(parsed));
+        } catch (NumberFormatException e) {
+            idempotencyTag = -1;
+            logger.warn("Invalid idempotency.tag:{}, submissions will not be deduplicated", tag);
+        }
+    }
+
     public void setMessagePartsHandler(MessagePartsHandler<M> messagePartsHandler) {
         this.messagePartsHandler = messagePartsHandler;
     }
@@ -553,10 +676,19 @@ public class SmppServerWorker<M extends StandardMessage> extends AbstractOutWork
             configServerRatePrintCount();
         } else if (key.equals(_ptrnVreceiver[0])) {
             configPtrnReceiver();
-        } else if (key.equals(_defaultMaxRate[0])) {
+        } else if (key.equals(_defaultMaxRate[0]) || key.equals(_defaultMaxBurst[0])) {
             configMaxRate(null, newValue);
+        } else if (accountOfKey(key, _defaultMaxRate, _defaultMaxBurst) != null) {
+            configMaxRate(accountOfKey(key, _defaultMaxRate, _defaultMaxBurst), newValue);
+        } else if (key.equals(_srvMaxRate[0]) || key.equals(_srvMaxBurst[0]) || key.equals(_srvMaxRatePerIp[0]) ||
+                key.equals(_srvMaxBurstPerIp[0])) {
+            bindHandler.connections.configServerRates();
         } else if (key.equals(_defaultMaxConnectionsPerUser[0])) {
             configMaxConnectionsPerUser(null, newValue);
+        } else if (key.equals(_defaultPushWindow[0]) || key.equals(_defaultPushRate[0])) {
+            configPushLimits(null);
+        } else if (accountOfKey(key, _defaultPushWindow, _defaultPushRate) != null) {
+            configPushLimits(accountOfKey(key, _defaultPushWindow, _defaultPushRate));
         }  else if (key.equals(_srvEnabled[0])) {
             startStopServer(ServerType.NORMAL);
         } else if (key.equals(_srvTlsEnabled[0])) {
@@ -569,6 +701,8 @@ public class SmppServerWorker<M extends StandardMessage> extends AbstractOutWork
             configFlagReverseDlrSrcDst();
         } else if (key.equals(_timeoutMillis[0])) {
             configReassemblingTimeout();
+        } else if (key.equals(_idempotencyTag[0])) {
+            configIdempotencyTag();
         } else if (key.equals(_logPdus[0]) || key.equals(_logBytes[0]) || key.equals(_logPdusExclude[0])) {
             try {
                 final boolean logPdus = getLogPdus();
@@ -625,6 +759,13 @@ public class SmppServerWorker<M extends StandardMessage> extends AbstractOutWork
             return isDlr ? null : pMsg;
         }
 
+        if (!handler.tryAcquirePushCredits(requests.size())) {
+            //push window full or push rate exceeded for this session: back off without using up a retry
+            logger.debug("no push credit on {} for {}", handler, MessageTrace.identifiers(pMsg));
+            deferMessage(configurationProvider.getLongPrpt(_pushBackoffMillis));
+            return null;
+        }
+
         for (DeliverSm deliverSm : requests) {
             Object deliverMsgId = deliverSm.getReferenceObject();
             if (deliverMsgId instanceof String msgId) {
@@ -834,6 +975,16 @@ public class SmppServerWorker<M extends StandardMessage> extends AbstractOutWork
             return;
         }
         filtered.pMsg.serial = UUID.randomUUID().toString();
+        String idempotencyKey = segmentIdempotencyKey(idempotencyKey(filtered.submitSm), filtered.pMsg);
+        String original = claimIdempotencyKey(filtered.pMsg, idempotencyKey);
+        if (original != null) {
+            if (MessageTrace.shouldLog(configurationProvider, MessageTrace.EVENT_DUPLICATE)) {
+                logger.info("message.duplicate ingress=smppserver worker={} serial={} systemId={}", getFullName(), original,
+                        MessageTrace.value(filtered.pMsg.systemId));
+            }
+            enqueueOut(SmppServerUtil.createSubmitRsp(filtered.submitSm, SmppConstants.STATUS_OK, original));
+            return;
+        }
         if (MessageTrace.shouldLog(configurationProvider, MessageTrace.EVENT_ACCEPTED)) {
             logger.info("message.accepted ingress=smppserver worker={} {}", getFullName(), MessageTrace.identifiers(filtered.pMsg));
         }
@@ -852,12 +1003,59 @@ public class SmppServerWorker<M extends StandardMessage> extends AbstractOutWork
             enqueueOut(SmppServerUtil.createSubmitRsp(filtered.submitSm, SmppConstants.STATUS_OK, filtered.pMsg.serial));
         } catch (InterruptedException e) {
             logger.error("Interrupted while waiting for submit RSP", e);
+            releaseIdempotencyKey(filtered.pMsg, idempotencyKey);
             enqueueOut(SmppServerUtil.createSubmitRsp(filtered.submitSm, SmppConstants.STATUS_UNKNOWNERR, filtered.pMsg.serial));
             throw new RuntimeException(e);
         }
         inEventQueue.add(ine);
     }
 
+    /**
+     * @return the value of the {@code idempotency.tag} optional parameter of a submit_sm in hex, or null
+     */
+    protected String idempotencyKey(SubmitSm submitSm) {
+        int tag = idempotencyTag;
+        if (tag < 0 || submitSm == null) {
+            return null;
+        }
+        Tlv tlv = submitSm.getOptionalParameter((short) tag);
+        if (tlv == null || tlv.getValue() == null || tlv.getValue().length == 0) {
+            return null;
+        }
+        return HexUtil.toHexString(tlv.getValue());
+    }
+
+    /**
+     * The parts of a concatenated message are submitted separately, each with the idempotency key of the whole message.
+     * Each part claims the key scoped to its reference and part number, so only a resent part is a duplicate.
+     *
+     * @return the idempotency key of the message part, or the key itself if the message is not a part
+     */
+    protected String segmentIdempotencyKey(String idempotencyKey, M msg) {
+        if (idempotencyKey == null || !(MessageUtil.is8BitMessagePart(msg) || MessageUtil.is16BitMessagePart(msg))) {
+            return idempotencyKey;
+        }
+        return idempotencyKey + ":" + MessageUtil.getMessageReference(msg) + ":" + MessageUtil.getNumberOfCurrentPart(msg);
+    }
+
+    /**
+     * @return the serial of the earlier submission of the systemId with the same idempotency key, or null
+     */
+    private String claimIdempotencyKey(M msg, String idempotencyKey) {
+        IdempotencyService idempotency = workerResources == null ? null : workerResources.getIdempotencyService();
+        if (idempotencyKey == null || idempotency == null) {
+            return null;
+        }
+        return idempotency.claim(IDEMPOTENCY_SCOPE + Strings.nullToEmpty(msg.systemId), idempotencyKey, msg.serial);
+    }
+
+    private void releaseIdempotencyKey(M msg, String idempotencyKey) {
+        IdempotencyService idempotency = workerResources == null ? null : workerResources.getIdempotencyService();
+        if (idempotencyKey != null && idempotency != null) {
+            idempotency.release(IDEMPOTENCY_SCOPE + Strings.nullToEmpty(msg.systemId), idempotencyKey, msg.serial);
+        }
+    }
+
     protected boolean checkReassembling(M msg) {
         if (!this.keepOnRunning) {
             return true;
@@ -948,6 +1146,10 @@ public class SmppServerWorker<M extends StandardMessage> extends AbstractOutWork
         return "UTF-8";
     }
 
+    public int getMaxConnections() {
+        return configurationProvider.getIntPrpt(_srvMaxConnections);
+    }
+
     public int getMaxConnectionsPerIP() {
         try {
             return configurationProvider.getIntPrpt(_srvMaxConnectionsPerIp);
@@ -960,7 +1162,7 @@ public class SmppServerWorker<M extends StandardMessage> extends AbstractOutWork
 
     public double getMaxRate(String accountId) {
         double res;
-        res = Double.valueOf(configurationProvider.getPrpt(_defaultMaxRate));
+        res = Double.valueOf(getAccountPrpt(_defaultMaxRate, accountId));
         if (res <= 0) {
             logger.debug("Translating negative/zero max rate to MAX_VALUE");
             res = Double.MAX_VALUE;
@@ -969,6 +1171,78 @@ public class SmppServerWorker<M extends StandardMessage> extends AbstractOutWork
         return res;
     }
 
+    public double getMaxBurst(String accountId) {
+        return Double.parseDouble(getAccountPrpt(_defaultMaxBurst, accountId));
+    }
+
+    public double getServerMaxRate() {
+        return Double.parseDouble(configurationProvider.getPrpt(_srvMaxRate));
+    }
+
+    public double getServerMaxBurst() {
+        return Double.parseDouble(configurationProvider.getPrpt(_srvMaxBurst));
+    }
+
+    public double getMaxRatePerIP() {
+        return Double.parseDouble(configurationProvider.getPrpt(_srvMaxRatePerIp));
+    }
+
+    public double getMaxBurstPerIP() {
+        return Double.parseDouble(configurationProvider.getPrpt(_srvMaxBurstPerIp));
+    }
+
+    public int getPushWindow(String accountId) {
+        return Integer.parseInt(getAccountPrpt(_defaultPushWindow, accountId));
+    }
+
+    public double getPushRate(String accountId) {
+        return Double.parseDouble(getAccountPrpt(_defaultPushRate, accountId));
+    }
+
+    /**
+     * @return the value of a {@code .default} parameter for the account, e.g. {@code conf.pushRate.<accountId>}, or
+     *     the default if the account has none
+     */
+    protected String getAccountPrpt(String[] param, String accountId) {
+        String value = accountId != null ? configurationProvider.getPrpt(accountKey(param, accountId)) : null;
+        return Strings.isNullOrEmpty(value) ? configurationProvider.getPrpt(param) : value.trim();
+    }
+
+    /**
+     * @return the account whose value of one of the {@code .default} parameters is set by the key, or null if the key
+     *     is not such a parameter or sets the default
+     */
+    protected static String accountOfKey(String key, String[]... params) {
+        for (String[] param : params) {
+            String prefix = accountKey(param, "");
+            if (key.startsWith(prefix) && key.length() > prefix.length() && !key.equals(param[0])) {
+                return key.substring(prefix.length());
+            }
+        }
+        return null;
+    }
+
+    private static String accountKey(String[] param, String accountId) {
+        return param[0].substring(0, param[0].length() - "default".length()) + accountId;
+    }
+
+    public int getReplayPageSize() {
+        return configurationProvider.getIntPrpt(_replayPageSize);
+    }
+
+    public double getReplayRate() {
+        return Double.parseDouble(configurationProvider.getPrpt(_replayRate));
+    }
+
+    /**
+     * Whether reconnect replay should hold back because this worker still has a backlog of messages to push.
+     */
+    public boolean isReplayBackpressured() {
+        int maxQueued = configurationProvider.getIntPrpt(_replayMaxQueued);
+        var queue = getMsgQueue();
+        return maxQueued > 0 && queue != null && queue.size() >= maxQueued;
+    }
+
     public int getMaxPending() {
         try {
             return Integer.parseInt(configurationProvider.getPrpt(_defaultMaxPending[0]));
@@ -1046,6 +1320,9 @@ public class SmppServerWorker<M extends StandardMessage> extends AbstractOutWork
 
     public String getServerTotalStatistics() {
         String totals = server.getCounters().toString();
+        for (var acceptor : extraAcceptors.getOrDefault(ServerType.NORMAL, List.of())) {
+            totals += "\n" + acceptor.getCounters().toString();
+        }
         if (tlsServer != null) {
             totals += "\nTLS: " + tlsServer.getCounters().toString();
         }
@@ -1150,6 +1427,7 @@ public class SmppServerWorker<M extends StandardMessage> extends AbstractOutWork
                 M message = parts.getFirst();
                 //we make sure that the filter will not process again the reassembled message
                 message.binheader = null;
+                message.partInfo = null;
                 message.body = parts.stream().map(m -> m.body).collect(Collectors.joining(""));
                 message.reassembledParts = parts.stream().map(m -> m.serial).collect(Collectors.toCollection(ArrayList::new));
 
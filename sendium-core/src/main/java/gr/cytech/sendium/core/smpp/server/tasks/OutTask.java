@@ -25,6 +25,7 @@ public class OutTask<M extends StandardMessage> implements Runnable {
     @Override
     public void run() {
         boolean success;
+        SmppServerSessionHandler requestHandler = null;
         try {
             if (pdu.isResponse()) {
                 //for responses, the pdu contains the handler as a reference object
@@ -41,10 +42,10 @@ public class OutTask<M extends StandardMessage> implements Runnable {
             } else {
                 //for requests, the pdu contains an array with the handler and possibly the original message (dlr/mo)
                 Object[] arr = (Object[]) pdu.getReferenceObject();
-                SmppServerSessionHandler handler = (SmppServerSessionHandler) arr[0];
+                requestHandler = (SmppServerSessionHandler) arr[0];
                 msg = (M) arr[1];
                 deliverMsgId = arr.length > 2 && arr[2] instanceof String id ? id : null;
-                success = handler.sendPduRequest((PduRequest) pdu);
+                success = requestHandler.sendPduRequest((PduRequest) pdu);
             }
         } catch (Exception e) {
             success = false;
@@ -52,6 +53,10 @@ public class OutTask<M extends StandardMessage> implements Runnable {
         }
 
         if (!success) {
+            if (requestHandler != null) {
+                //the request never made it to the session window, so no response will return its push credit
+                requestHandler.releasePushCredit();
+            }
             worker.outTaskFailed(pdu, msg);
         } else if (!pdu.isResponse() && msg != null) {
             if (MessageTrace.shouldLog(worker.getConfigurationProvider(), MessageTrace.EVENT_DELIVER_SENT)) {
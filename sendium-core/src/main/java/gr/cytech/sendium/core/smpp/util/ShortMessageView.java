@@ -0,0 +1,96 @@
+package gr.cytech.sendium.core.smpp.util;
+
+import com.cloudhopper.commons.charset.CharsetUtil;
+import com.cloudhopper.commons.charset.ISO88591Charset;
+import com.cloudhopper.commons.charset.UCS2Charset;
+import com.cloudhopper.commons.util.HexUtil;
+import gr.cytech.sendium.core.message.MessagePartInfo;
+
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Read-only view over the user data of a submit_sm, either the short_message or the message_payload TLV.
+ * The UDH and the body are addressed by offsets into the PDU's own array, so validating a message does not copy them.
+ * The body is decoded straight from the array when the charset is a plain java charset, and only the charsets of
+ * cloudhopper that cannot decode a range get a copy of the body bytes.
+ */
+public final class ShortMessageView {
+    private static final Charset UCS2 = Charset.forName("ISO-10646-UCS-2");
+    private static final int IEI_CONCAT_8BIT = 0x00;
+    private static final int IEI_CONCAT_16BIT = 0x08;
+
+    private final byte[] data;
+    private final int bodyOffset;
+
+    private ShortMessageView(byte[] data, int bodyOffset) {
+        this.data = data;
+        this.bodyOffset = bodyOffset;
+    }
+
+    /**
+     * @param data the user data as received
+     * @param udhi whether the UDH indicator of the esm_class is set
+     * @return the view, or null if the UDH length does not fit in the user data
+     */
+    public static ShortMessageView of(byte[] data, boolean udhi) {
+        if (!udhi) {
+            return new ShortMessageView(data, 0);
+        }
+        if (data.length == 0) {
+            return null;
+        }
+        int udhLength = (data[0] & 0xFF) + 1;
+        return udhLength > data.length ? null : new ShortMessageView(data, udhLength);
+    }
+
+    public boolean hasUdh() {
+        return bodyOffset > 0;
+    }
+
+    public int getBodyLength() {
+        return data.length - bodyOffset;
+    }
+
+    /**
+     * @return the UDH, including its length octet, as an upper case hex string, or null if there is no UDH
+     */
+    public String getUdhHex() {
+        return hasUdh() ? HexUtil.toHexString(data, 0, bodyOffset) : null;
+    }
+
+    public String getBodyHex() {
+        return HexUtil.toHexString(data, bodyOffset, getBodyLength());
+    }
+
+    public String decodeBody(String charsetName) {
+        var charset = CharsetUtil.map(charsetName);
+        // exact classes only, subclasses such as VFGRCharset override decoding
+        if (charset != null && charset.getClass() == UCS2Charset.class) {
+            return new String(data, bodyOffset, getBodyLength(), UCS2);
+        }
+        if (charset != null && charset.getClass() == ISO88591Charset.class) {
+            return new String(data, bodyOffset, getBodyLength(), StandardCharsets.ISO_8859_1);
+        }
+        byte[] body = hasUdh() ? Arrays.copyOfRange(data, bodyOffset, data.length) : data;
+        return SmppServerUtil.getMessageBody(body, charsetName);
+    }
+
+    /**
+     * Read the concatenation information element, in the same layouts that
+     * {@link gr.cytech.sendium.util.MessageUtil#is8BitMessagePart} and
+     * {@link gr.cytech.sendium.util.MessageUtil#is16BitMessagePart} accept, i.e. a UDH that consists of that element only.
+     *
+     * @return the part information, or null if the UDH does not describe a part of a concatenated message
+     */
+    public MessagePartInfo getPartInfo() {
+        if (bodyOffset == 6 && data[1] == IEI_CONCAT_8BIT && data[2] == 3) {
+            return new MessagePartInfo(HexUtil.toHexString(data, 3, 1), data[4] & 0xFF, data[5] & 0xFF);
+        }
+        if (bodyOffset == 7 && data[1] == IEI_CONCAT_16BIT && data[2] == 4) {
+            return new MessagePartInfo(HexUtil.toHexString(data, 3, 2), data[5] & 0xFF, data[6] & 0xFF);
+        }
+        return null;
+    }
+}
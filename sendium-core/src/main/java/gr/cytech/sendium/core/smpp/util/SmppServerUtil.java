@@ -6,6 +6,7 @@ import com.cloudhopper.smpp.pdu.GenericNack;
 import com.cloudhopper.smpp.pdu.PduRequest;
 import com.cloudhopper.smpp.pdu.SubmitSm;
 import com.cloudhopper.smpp.pdu.SubmitSmResp;
+import gr.cytech.sendium.core.message.MessagePartInfo;
 import gr.cytech.sendium.core.message.StandardMessage;
 
 public class SmppServerUtil {
@@ -274,6 +275,12 @@ public class SmppServerUtil {
         return new byte[][]{bodyBytes, udhBytes};
     }
 
-    public record ValidatedMessageBody(String text, String udh, int smType) {
+    /**
+     * @param partInfo the concatenation information read from the UDH, null if the message is not a part of a long one
+     */
+    public record ValidatedMessageBody(String text, String udh, int smType, MessagePartInfo partInfo) {
+        public ValidatedMessageBody(String text, String udh, int smType) {
+            this(text, udh, smType, null);
+        }
     }
 }
@@ -0,0 +1,248 @@
+package gr.cytech.sendium.core.worker;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A configured callback URL template, such as the MO forwarding URL of a worker, parsed once into its literal segments
+ * and the placeholders between them.
+ *
+ * <p>
+ * A placeholder is a {@code %} followed by one of the characters of the {@link Syntax} it was compiled with, and the
+ * syntax tells for each whether its value is URL-encoded, as {@link java.net.URLEncoder} does with UTF-8, or inserted
+ * as it is. {@link #render} replaces every placeholder in one pass into a buffer that is reused by the thread, so a
+ * callback costs a single copy of the template and its values instead of a replace, and a copy, per placeholder.
+ *
+ * <p>
+ * {@link Syntax#compile} keeps the compiled templates by their text, so a template is compiled again only when its text
+ * changes, as when its configuration does. At most {@link #MAX_CACHED} are kept per syntax, the cache is cleared when
+ * it has that many. A template that differs per message, such as the {@code forwardDlrUrl} of a message, is rendered
+ * with {@link Syntax#render} instead, in the same single pass but without being compiled or kept.
+ */
+final class CallbackTemplate {
+    /**
+     * templates kept per syntax
+     */
+    static final int MAX_CACHED = 1024;
+    /**
+     * characters that are never URL-encoded, as in {@link java.net.URLEncoder}
+     */
+    private static final boolean[] UNRESERVED = new boolean[128];
+    private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+    /**
+     * a rendered template shorter than this keeps the buffer of its thread for the next one
+     */
+    private static final int MAX_BUFFER = 8192;
+    private static final ThreadLocal<StringBuilder> BUFFER = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+    static {
+        for (char c = 'a'; c <= 'z'; c++) {
+            UNRESERVED[c] = true;
+            UNRESERVED[Character.toUpperCase(c)] = true;
+        }
+        for (char c = '0'; c <= '9'; c++) {
+            UNRESERVED[c] = true;
+        }
+        for (char c : ".-*_".toCharArray()) {
+            UNRESERVED[c] = true;
+        }
+    }
+
+    private final String[] literals;
+    private final int[] placeholders;
+    private final boolean[] encoded;
+    private final int literalLength;
+
+    private CallbackTemplate(String[] literals, int[] placeholders, boolean[] encoded) {
+        this.literals = literals;
+        this.placeholders = placeholders;
+        this.encoded = encoded;
+        int length = 0;
+        for (String literal : literals) {
+            length += literal.length();
+        }
+        this.literalLength = length;
+    }
+
+    /**
+     * @param values the value of each placeholder of the syntax, by its index there; a null value is left out
+     * @return the template with its placeholders replaced
+     */
+    String render(String... values) {
+        StringBuilder sb = buffer(literalLength + 16 * placeholders.length);
+        sb.append(literals[0]);
+        for (int i = 0; i < placeholders.length; i++) {
+            appendValue(sb, values[placeholders[i]], encoded[i]);
+            sb.append(literals[i + 1]);
+        }
+        return release(sb);
+    }
+
+    /**
+     * @return the emptied buffer of this thread, with room for at least {@code capacity} characters
+     */
+    private static StringBuilder buffer(int capacity) {
+        StringBuilder sb = BUFFER.get();
+        sb.setLength(0);
+        sb.ensureCapacity(capacity);
+        return sb;
+    }
+
+    /**
+     * @return the contents of the buffer of this thread, which is dropped if it grew too large to keep
+     */
+    private static String release(StringBuilder sb) {
+        String rendered = sb.toString();
+        if (sb.capacity() > MAX_BUFFER) {
+            BUFFER.remove();
+        }
+        return rendered;
+    }
+
+    private static void appendValue(StringBuilder sb, String value, boolean encode) {
+        if (value == null) {
+            return;
+        }
+        if (encode) {
+            appendEncoded(sb, value);
+        } else {
+            sb.append(value);
+        }
+    }
+
+    /**
+     * Append {@code value} URL-encoded as {@link java.net.URLEncoder#encode(String, java.nio.charset.Charset)} does with
+     * UTF-8: unreserved characters as they are, a space as {@code +}, and the UTF-8 bytes of anything else as
+     * {@code %XX}, a malformed surrogate being encoded as {@code ?}.
+     */
+    static void appendEncoded(StringBuilder sb, String value) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 128 && UNRESERVED[c]) {
+                sb.append(c);
+            } else if (c == ' ') {
+                sb.append('+');
+            } else if (c < 0x80) {
+                appendByte(sb, c);
+            } else if (c < 0x800) {
+                appendByte(sb, 0xC0 | c >> 6);
+                appendByte(sb, 0x80 | c & 0x3F);
+            } else if (!Character.isSurrogate(c)) {
+                appendByte(sb, 0xE0 | c >> 12);
+                appendByte(sb, 0x80 | c >> 6 & 0x3F);
+                appendByte(sb, 0x80 | c & 0x3F);
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                appendByte(sb, 0xF0 | codePoint >> 18);
+                appendByte(sb, 0x80 | codePoint >> 12 & 0x3F);
+                appendByte(sb, 0x80 | codePoint >> 6 & 0x3F);
+                appendByte(sb, 0x80 | codePoint & 0x3F);
+            } else {
+                appendByte(sb, '?');
+            }
+        }
+    }
+
+    private static void appendByte(StringBuilder sb, int b) {
+        sb.append('%').append(HEX[b >> 4 & 0xF]).append(HEX[b & 0xF]);
+    }
+
+    /**
+     * The placeholders a template may have, each a {@code %} and a character, and whether their values are URL-encoded.
+     */
+    static final class Syntax {
+        private final String characters;
+        private final boolean[] encoded;
+        private final Map<String, CallbackTemplate> compiled = new ConcurrentHashMap<>();
+
+        /**
+         * @param characters the character after the {@code %} of each placeholder, the index of each being the index of
+         *                   its value in {@link CallbackTemplate#render}
+         * @param raw        the characters of the placeholders whose values are inserted as they are, the values of the
+         *                   others are URL-encoded
+         */
+        Syntax(String characters, String raw) {
+            for (int i = 0; i < raw.length(); i++) {
+                if (characters.indexOf(raw.charAt(i)) < 0) {
+                    throw new IllegalArgumentException("%" + raw.charAt(i) + " is not one of the placeholders " + characters);
+                }
+            }
+            this.characters = characters;
+            this.encoded = new boolean[characters.length()];
+            for (int i = 0; i < encoded.length; i++) {
+                encoded[i] = raw.indexOf(characters.charAt(i)) < 0;
+            }
+        }
+
+        /**
+         * @return the template compiled, the one compiled before if the same template was
+         */
+        CallbackTemplate compile(String template) {
+            CallbackTemplate cached = compiled.get(template);
+            if (cached != null) {
+                return cached;
+            }
+            if (compiled.size() >= MAX_CACHED) {
+                compiled.clear();
+            }
+            return compiled.computeIfAbsent(template, this::parse);
+        }
+
+        /**
+         * Render {@code template} as {@link #compile} and {@link CallbackTemplate#render} would, without compiling it, for
+         * a template that is used once.
+         */
+        String render(String template, String... values) {
+            StringBuilder sb = buffer(template.length() + 16 * values.length);
+            int start = 0;
+            for (int i = 0; i < template.length() - 1; i++) {
+                int placeholder = placeholderAt(template, i);
+                if (placeholder >= 0) {
+                    sb.append(template, start, i);
+                    appendValue(sb, values[placeholder], encoded[placeholder]);
+                    start = i + 2;
+                    i++;
+                }
+            }
+            sb.append(template, start, template.length());
+            return release(sb);
+        }
+
+        int cached() {
+            return compiled.size();
+        }
+
+        /**
+         * @return the index of the placeholder at {@code i} of {@code template}, or -1 if there is none
+         */
+        private int placeholderAt(String template, int i) {
+            return template.charAt(i) == '%' ? characters.indexOf(template.charAt(i + 1)) : -1;
+        }
+
+        private CallbackTemplate parse(String template) {
+            List<String> literals = new ArrayList<>();
+            List<Integer> placeholders = new ArrayList<>();
+            int start = 0;
+            for (int i = 0; i < template.length() - 1; i++) {
+                int placeholder = placeholderAt(template, i);
+                if (placeholder >= 0) {
+                    literals.add(template.substring(start, i));
+                    placeholders.add(placeholder);
+                    start = i + 2;
+                    i++;
+                }
+            }
+            literals.add(template.substring(start));
+            int[] indexes = new int[placeholders.size()];
+            boolean[] encodings = new boolean[placeholders.size()];
+            for (int i = 0; i < indexes.length; i++) {
+                indexes[i] = placeholders.get(i);
+                encodings[i] = encoded[indexes[i]];
+            }
+            return new CallbackTemplate(literals.toArray(new String[0]), indexes, encodings);
+        }
+    }
+}
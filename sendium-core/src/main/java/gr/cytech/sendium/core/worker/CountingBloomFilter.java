@@ -0,0 +1,105 @@
+package gr.cytech.sendium.core.worker;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counting Bloom filter of strings. It answers whether a key may have been added, and keys can be removed again.
+ *
+ * <p>
+ * A key that was added and not removed is always reported as possibly present. Any other key is reported absent,
+ * except for false positives at about the rate the filter was sized for, while it holds no more than the expected
+ * number of keys. Counters are 4 bits wide, 16 to a word, and updated with compare-and-set, so the filter is safe to
+ * use from any thread without locking. A counter that reaches 15 is never decremented again, which only adds false
+ * positives. Only keys that were added may be removed, once for each time they were added.
+ */
+final class CountingBloomFilter {
+    private static final int COUNTERS_PER_WORD = 16;
+    private static final int COUNTER_BITS = 4;
+    private static final long MAX_COUNT = 15;
+
+    private final AtomicLongArray words;
+    private final int counters;
+    private final int hashes;
+
+    CountingBloomFilter(long expectedEntries, double falsePositiveRate) {
+        double optimalCounters = -Math.max(1, expectedEntries) * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2));
+        counters = (int) Math.clamp(Math.ceil(optimalCounters), COUNTERS_PER_WORD, Integer.MAX_VALUE - COUNTERS_PER_WORD);
+        hashes = (int) Math.clamp(Math.round(optimalCounters / Math.max(1, expectedEntries) * Math.log(2)), 1, 16);
+        words = new AtomicLongArray((counters + COUNTERS_PER_WORD - 1) / COUNTERS_PER_WORD);
+    }
+
+    void add(String key) {
+        long hash = hash(key);
+        for (int i = 0; i < hashes; i++) {
+            update(counter(hash, i), 1);
+        }
+    }
+
+    void remove(String key) {
+        long hash = hash(key);
+        for (int i = 0; i < hashes; i++) {
+            update(counter(hash, i), -1);
+        }
+    }
+
+    boolean mightContain(String key) {
+        long hash = hash(key);
+        for (int i = 0; i < hashes; i++) {
+            int counter = counter(hash, i);
+            if ((words.get(counter / COUNTERS_PER_WORD) >>> shift(counter) & MAX_COUNT) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the size of the filter in bytes
+     */
+    long sizeInBytes() {
+        return (long) words.length() * Long.BYTES;
+    }
+
+    private void update(int counter, int delta) {
+        int word = counter / COUNTERS_PER_WORD;
+        int shift = shift(counter);
+        while (true) {
+            long current = words.get(word);
+            long count = current >>> shift & MAX_COUNT;
+            if (count == MAX_COUNT || delta < 0 && count == 0) {
+                return;
+            }
+            if (words.compareAndSet(word, current, current + ((long) delta << shift))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return the counter of the {@code i}th hash, derived from the two halves of {@code hash} by double hashing
+     */
+    private int counter(long hash, int i) {
+        int combined = (int) hash + i * (int) (hash >>> 32);
+        return Math.floorMod(combined, counters);
+    }
+
+    private static int shift(int counter) {
+        return counter % COUNTERS_PER_WORD * COUNTER_BITS;
+    }
+
+    /**
+     * 64-bit FNV-1a of the chars of {@code key}, finished with the MurmurHash3 mix so that both halves are usable.
+     */
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        return hash ^ hash >>> 33;
+    }
+}
@@ -0,0 +1,15 @@
+package gr.cytech.sendium.core.worker;
+
+/**
+ * The stored state of one submitted message, from {@link InMemoryDlrService#saveInitialState} until its DLR is resolved
+ * or it expires. The correlation index only maps operator message ids to gateway message ids, so everything else
+ * about a message, including the times used for expiry, lives in this one row.
+ *
+ * @param state         the message state; the operator message id is set once the message is linked
+ * @param createdAt     when the initial state was saved, in epoch millis
+ * @param linkedAt      when the operator message id was linked, in epoch millis, or 0 if it is not linked yet
+ * @param expiresAt     when the record expires, in epoch millis, or 0 if it was saved before expiry times were stored
+ * @param linkExpiresAt when the correlation of the operator message id expires, in epoch millis, or 0 if not linked
+ */
+public record DlrRecord(MessageState state, long createdAt, long linkedAt, long expiresAt, long linkExpiresAt) {
+}
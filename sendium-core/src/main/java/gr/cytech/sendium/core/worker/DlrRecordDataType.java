@@ -0,0 +1,293 @@
+package gr.cytech.sendium.core.worker;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.BasicDataType;
+import org.h2.mvstore.type.ObjectDataType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * MVStore value type of the DLR records of {@link InMemoryDlrService}.
+ *
+ * <p>
+ * A record is written as a format byte followed by its fields in a fixed order: strings as a var-int length plus one
+ * (zero for null) and their UTF-8 bytes, numbers as var-ints. A newer format only appends fields, and a row of an
+ * older format reads with the appended fields unset. The format bytes are outside the range of the type tags
+ * of {@link ObjectDataType}, which wrote the JSON strings of earlier versions. Such legacy rows are read through
+ * {@link ObjectDataType} and parsed as JSON, and they are stored in the binary format the next time they are written.
+ * A legacy row that cannot be parsed is read as null, which the service handles like a missing row.
+ */
+public abstract class DlrRecordDataType<T> extends BasicDataType<T> {
+    public static final DlrRecordDataType<MessageState> MESSAGE_STATE = new MessageStateType();
+    public static final DlrRecordDataType<UnpushedDlr> UNPUSHED_DLR = new UnpushedDlrType();
+    public static final DlrRecordDataType<DlrRecord> DLR_RECORD = new DlrRecordType();
+
+    static final byte FORMAT_V1 = (byte) 0xF1;
+    /**
+     * adds {@link UnpushedDlr#savedAt}
+     */
+    static final byte FORMAT_V2 = (byte) 0xF2;
+    /**
+     * adds {@link UnpushedDlr#expiresAt}, {@link DlrRecord#expiresAt()} and {@link DlrRecord#linkExpiresAt()}
+     */
+    static final byte FORMAT_V3 = (byte) 0xF3;
+    /**
+     * adds {@link UnpushedDlr#sequence}
+     */
+    static final byte FORMAT_V4 = (byte) 0xF4;
+
+    private static final Logger logger = LoggerFactory.getLogger(DlrRecordDataType.class);
+    private static final ObjectMapper mapper = new ObjectMapper()
+            .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    private static final ObjectDataType LEGACY_TYPE = new ObjectDataType();
+    private static final MessageState.MessageStatus[] STATUSES = MessageState.MessageStatus.values();
+
+    private final Class<T> recordType;
+    private final byte format;
+
+    DlrRecordDataType(Class<T> recordType, byte format) {
+        this.recordType = recordType;
+        this.format = format;
+    }
+
+    protected abstract void writeRecord(WriteBuffer buff, T record);
+
+    protected abstract T readRecord(ByteBuffer buff, byte recordFormat);
+
+    @Override
+    public void write(WriteBuffer buff, T record) {
+        buff.put(format);
+        writeRecord(buff, record);
+    }
+
+    @Override
+    public T read(ByteBuffer buff) {
+        byte recordFormat = buff.get(buff.position());
+        if (recordFormat >= FORMAT_V1 && recordFormat <= FORMAT_V4) {
+            buff.get();
+            return readRecord(buff, recordFormat);
+        }
+        Object legacy = LEGACY_TYPE.read(buff);
+        if (!(legacy instanceof String json)) {
+            logger.error("Unexpected legacy DLR record of type: {}", legacy == null ? null : legacy.getClass().getName());
+            return null;
+        }
+        try {
+            return mapper.readValue(json, recordType);
+        } catch (JsonProcessingException e) {
+            logger.error("Failed to parse legacy JSON DLR record as {}", recordType.getSimpleName(), e);
+            return null;
+        }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T[] createStorage(int size) {
+        return (T[]) Array.newInstance(recordType, size);
+    }
+
+    static void writeString(WriteBuffer buff, String value) {
+        if (value == null) {
+            buff.putVarInt(0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buff.putVarInt(bytes.length + 1).put(bytes);
+    }
+
+    static String readString(ByteBuffer buff) {
+        int length = DataUtils.readVarInt(buff) - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (!buff.hasArray()) {
+            byte[] bytes = new byte[length];
+            buff.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+        String value = new String(buff.array(), buff.arrayOffset() + buff.position(), length, StandardCharsets.UTF_8);
+        buff.position(buff.position() + length);
+        return value;
+    }
+
+    static void writeStringList(WriteBuffer buff, List<String> values) {
+        if (values == null) {
+            buff.putVarInt(0);
+            return;
+        }
+        buff.putVarInt(values.size() + 1);
+        for (String value : values) {
+            writeString(buff, value);
+        }
+    }
+
+    static List<String> readStringList(ByteBuffer buff) {
+        int size = DataUtils.readVarInt(buff) - 1;
+        if (size < 0) {
+            return null;
+        }
+        List<String> values = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            values.add(readString(buff));
+        }
+        return values;
+    }
+
+    static int stringMemory(String value) {
+        return value == null ? 0 : 40 + 2 * value.length();
+    }
+
+    static int listMemory(List<String> values) {
+        if (values == null) {
+            return 0;
+        }
+        int memory = 40 + 8 * values.size();
+        for (String value : values) {
+            memory += stringMemory(value);
+        }
+        return memory;
+    }
+
+    private static final class MessageStateType extends DlrRecordDataType<MessageState> {
+        MessageStateType() {
+            super(MessageState.class, FORMAT_V1);
+        }
+
+        @Override
+        public int getMemory(MessageState state) {
+            return 64 + stringMemory(state.getGatewayMsgId()) + stringMemory(state.getAccountId()) + stringMemory(state.getSystemId()) +
+                    stringMemory(state.getSourceAddr()) + stringMemory(state.getDestAddr()) + stringMemory(state.getOperatorMsgId()) +
+                    stringMemory(state.getForwardDlrUrl()) + listMemory(state.getReassembledParts());
+        }
+
+        @Override
+        protected void writeRecord(WriteBuffer buff, MessageState state) {
+            writeString(buff, state.getGatewayMsgId());
+            writeString(buff, state.getAccountId());
+            writeString(buff, state.getSystemId());
+            writeString(buff, state.getSourceAddr());
+            writeString(buff, state.getDestAddr());
+            writeString(buff, state.getOperatorMsgId());
+            writeString(buff, state.getForwardDlrUrl());
+            buff.put((byte) (state.getStatus() == null ? 0 : state.getStatus().ordinal() + 1));
+            buff.putVarLong(state.getTimestamp());
+            writeStringList(buff, state.getReassembledParts());
+        }
+
+        @Override
+        protected MessageState readRecord(ByteBuffer buff, byte recordFormat) {
+            String gatewayMsgId = readString(buff);
+            String accountId = readString(buff);
+            String systemId = readString(buff);
+            String sourceAddr = readString(buff);
+            String destAddr = readString(buff);
+            String operatorMsgId = readString(buff);
+            String forwardDlrUrl = readString(buff);
+            var state = new MessageState(gatewayMsgId, accountId, systemId, sourceAddr, destAddr, forwardDlrUrl);
+            state.setOperatorMsgId(operatorMsgId);
+            int status = buff.get();
+            state.setStatus(status == 0 ? null : STATUSES[status - 1]);
+            state.setTimestamp(DataUtils.readVarLong(buff));
+            state.setReassembledParts(readStringList(buff));
+            return state;
+        }
+    }
+
+    private static final class UnpushedDlrType extends DlrRecordDataType<UnpushedDlr> {
+        UnpushedDlrType() {
+            super(UnpushedDlr.class, FORMAT_V4);
+        }
+
+        @Override
+        public int getMemory(UnpushedDlr dlr) {
+            return 64 + stringMemory(dlr.systemId) + stringMemory(dlr.accountId) + stringMemory(dlr.from) + stringMemory(dlr.to) +
+                    stringMemory(dlr.serial) + stringMemory(dlr.errcode) + listMemory(dlr.reassembledParts);
+        }
+
+        @Override
+        protected void writeRecord(WriteBuffer buff, UnpushedDlr dlr) {
+            writeString(buff, dlr.systemId);
+            writeString(buff, dlr.accountId);
+            writeString(buff, dlr.from);
+            writeString(buff, dlr.to);
+            writeString(buff, dlr.serial);
+            buff.putVarInt(dlr.msgId);
+            buff.putVarInt(dlr.state);
+            writeString(buff, dlr.errcode);
+            buff.put((byte) (dlr.acked ? 1 : 0));
+            buff.putVarInt(dlr.priority);
+            writeStringList(buff, dlr.reassembledParts);
+            buff.putVarLong(dlr.savedAt);
+            buff.putVarLong(dlr.expiresAt);
+            buff.putVarLong(dlr.sequence);
+        }
+
+        @Override
+        protected UnpushedDlr readRecord(ByteBuffer buff, byte recordFormat) {
+            var dlr = new UnpushedDlr();
+            dlr.systemId = readString(buff);
+            dlr.accountId = readString(buff);
+            dlr.from = readString(buff);
+            dlr.to = readString(buff);
+            dlr.serial = readString(buff);
+            dlr.msgId = DataUtils.readVarInt(buff);
+            dlr.state = DataUtils.readVarInt(buff);
+            dlr.errcode = readString(buff);
+            dlr.acked = buff.get() != 0;
+            dlr.priority = DataUtils.readVarInt(buff);
+            dlr.reassembledParts = readStringList(buff);
+            if (recordFormat != FORMAT_V1) {
+                dlr.savedAt = DataUtils.readVarLong(buff);
+            }
+            if (recordFormat == FORMAT_V3 || recordFormat == FORMAT_V4) {
+                dlr.expiresAt = DataUtils.readVarLong(buff);
+            }
+            if (recordFormat == FORMAT_V4) {
+                dlr.sequence = DataUtils.readVarLong(buff);
+            }
+            return dlr;
+        }
+    }
+
+    private static final class DlrRecordType extends DlrRecordDataType<DlrRecord> {
+        DlrRecordType() {
+            super(DlrRecord.class, FORMAT_V3);
+        }
+
+        @Override
+        public int getMemory(DlrRecord dlrRecord) {
+            return 32 + MESSAGE_STATE.getMemory(dlrRecord.state());
+        }
+
+        @Override
+        protected void writeRecord(WriteBuffer buff, DlrRecord dlrRecord) {
+            buff.putVarLong(dlrRecord.createdAt());
+            buff.putVarLong(dlrRecord.linkedAt());
+            MESSAGE_STATE.writeRecord(buff, dlrRecord.state());
+            buff.putVarLong(dlrRecord.expiresAt());
+            buff.putVarLong(dlrRecord.linkExpiresAt());
+        }
+
+        @Override
+        protected DlrRecord readRecord(ByteBuffer buff, byte recordFormat) {
+            long createdAt = DataUtils.readVarLong(buff);
+            long linkedAt = DataUtils.readVarLong(buff);
+            MessageState state = MESSAGE_STATE.readRecord(buff, FORMAT_V1);
+            if (recordFormat != FORMAT_V3) {
+                return new DlrRecord(state, createdAt, linkedAt, 0, 0);
+            }
+            long expiresAt = DataUtils.readVarLong(buff);
+            return new DlrRecord(state, createdAt, linkedAt, expiresAt, DataUtils.readVarLong(buff));
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package gr.cytech.sendium.core.worker;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Moves a DLR store to another number of shards while Sendium is stopped:
+ * {@code java -cp "quarkus-app/lib/main/*:quarkus-app/app/*" gr.cytech.sendium.core.worker.DlrStoreResharder <sendium.dlr.db.path> <shards>}.
+ *
+ * <p>
+ * Every record, correlation and unpushed DLR is copied to the shard that owns it under the new count. Once all shards
+ * are written, the old files are renamed with a {@code .resharded} suffix, so that Sendium starts with
+ * {@code dlr.shards} set to the new count, and they can be deleted after checking it. The expiry index of each new
+ * shard is rebuilt by {@link InMemoryDlrService} when it starts. A store file still in use is locked and cannot be
+ * opened, and a store of an earlier version has to be upgraded by starting Sendium once before it is resharded.
+ */
+public final class DlrStoreResharder {
+    private static final Logger logger = LoggerFactory.getLogger(DlrStoreResharder.class);
+    private static final List<String> LEGACY_MAPS = List.of("primaryStore", "primaryTimestamps", "correlationTimestamps",
+            "unpushedDlrTimestamps", "unpushedDlrIndex");
+    private static final int COMMIT_EVERY = 10_000;
+
+    private DlrStoreResharder() {
+    }
+
+    public static void main(String[] args) {
+        if (args.length != 2) {
+            System.err.println("usage: DlrStoreResharder <sendium.dlr.db.path> <shards>");
+            System.exit(2);
+        }
+        long copied = reshard(new File(args[0]), Integer.parseInt(args[1]));
+        System.out.println("Copied " + copied + " DLR store entries to " + args[1] + " shards");
+    }
+
+    /**
+     * Copy the store of {@code dbFile} to {@code shards} shards and rename the old files.
+     *
+     * @return the number of records, correlations and unpushed DLRs copied
+     * @throws IllegalStateException if there is no store, the store is in use or of an earlier version, or the copy
+     *                               fails. The old files are kept and any new ones removed
+     */
+    public static long reshard(File dbFile, int shards) {
+        if (shards < 1) {
+            throw new IllegalArgumentException("shards must be at least 1, was " + shards);
+        }
+        int sourceShards = DlrStoreShard.existingShards(dbFile);
+        if (sourceShards == 0) {
+            throw new IllegalStateException("No DLR store found at " + dbFile);
+        }
+        if (sourceShards == shards) {
+            logger.info("The DLR store {} already has {} shards", dbFile, shards);
+            return 0;
+        }
+
+        DlrStoreShard[] sources = new DlrStoreShard[sourceShards];
+        DlrStoreShard[] targets = new DlrStoreShard[shards];
+        long copied;
+        try {
+            for (int i = 0; i < sourceShards; i++) {
+                sources[i] = new DlrStoreShard(i, sourceShards);
+                sources[i].open(DlrStoreShard.shardFile(dbFile, i, sourceShards));
+                for (String legacyMap : LEGACY_MAPS) {
+                    if (sources[i].store.hasMap(legacyMap)) {
+                        throw new IllegalStateException("Shard " + i + " of " + dbFile + " has the " + legacyMap +
+                                " map of an earlier version, start Sendium once to upgrade it before resharding");
+                    }
+                }
+            }
+            for (int i = 0; i < shards; i++) {
+                targets[i] = new DlrStoreShard(i, shards);
+                targets[i].open(DlrStoreShard.shardFile(dbFile, i, shards));
+            }
+            copied = copy(sources, targets);
+        } catch (RuntimeException e) {
+            close(sources);
+            close(targets);
+            for (int i = 0; i < shards; i++) {
+                delete(DlrStoreShard.shardFile(dbFile, i, shards));
+            }
+            throw e;
+        }
+        close(sources);
+        close(targets);
+
+        for (int i = 0; i < sourceShards; i++) {
+            File source = DlrStoreShard.shardFile(dbFile, i, sourceShards);
+            Path moved = Path.of(source.getPath() + ".resharded");
+            try {
+                Files.move(source.toPath(), moved);
+            } catch (IOException e) {
+                throw new IllegalStateException("Resharded " + dbFile + " but cannot rename " + source + " to " + moved, e);
+            }
+        }
+        logger.info("Resharded the DLR store {} from {} to {} shards, copied {} entries", dbFile, sourceShards, shards, copied);
+        return copied;
+    }
+
+    private static long copy(DlrStoreShard[] sources, DlrStoreShard[] targets) {
+        long copied = 0;
+        for (DlrStoreShard source : sources) {
+            for (var entry : source.dlrRecords.entrySet()) {
+                targetOf(targets, entry.getKey()).dlrRecords.put(entry.getKey(), entry.getValue());
+                copied = committed(targets, copied + 1);
+            }
+            for (var entry : source.correlationIndex.entrySet()) {
+                targetOf(targets, entry.getKey()).correlationIndex.put(entry.getKey(), entry.getValue());
+                copied = committed(targets, copied + 1);
+            }
+            for (var entry : source.unpushedDlrStore.entrySet()) {
+                UnpushedDlr dlr = entry.getValue();
+                if (dlr == null || dlr.systemId == null) {
+                    continue;
+                }
+                DlrStoreShard target = targetOf(targets, dlr.systemId);
+                target.unpushedDlrStore.put(entry.getKey(), dlr);
+                target.unpushedDlrQueue.put(InMemoryDlrService.queueKey(dlr, entry.getKey()), Boolean.TRUE);
+                copied = committed(targets, copied + 1);
+            }
+            logger.info("Copied shard {} of {}", source.index + 1, sources.length);
+        }
+        return copied;
+    }
+
+    private static DlrStoreShard targetOf(DlrStoreShard[] targets, String key) {
+        return targets[DlrStoreShard.shardOf(key, targets.length)];
+    }
+
+    /**
+     * Commit the targets every {@link #COMMIT_EVERY} entries, which keeps the uncommitted changes held in memory small.
+     */
+    private static long committed(DlrStoreShard[] targets, long copied) {
+        if (copied % COMMIT_EVERY == 0) {
+            for (DlrStoreShard target : targets) {
+                target.commit();
+            }
+        }
+        return copied;
+    }
+
+    private static void close(DlrStoreShard[] shards) {
+        for (DlrStoreShard shard : shards) {
+            if (shard != null) {
+                shard.close();
+            }
+        }
+    }
+
+    private static void delete(File file) {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException e) {
+            logger.warn("Cannot delete {}", file, e);
+        }
+    }
+}
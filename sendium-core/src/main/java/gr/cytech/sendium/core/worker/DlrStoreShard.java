@@ -0,0 +1,397 @@
+package gr.cytech.sendium.core.worker;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Timer;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * One shard of the DLR store: an MVStore file with the DLR maps, the lock that keeps a write batch out of a commit,
+ * and the committer that groups its commits. The maps fall back to in-memory maps if the file cannot be opened.
+ *
+ * <p>
+ * Recent records and correlations are first kept in the hot tier, {@code hotRecords} and {@code hotCorrelations},
+ * and written to the maps once they are older than {@code dlr.hotTier.writeBehindMillis}, each with its expiry
+ * index entry. Most DLRs arrive before that, so their records never reach the maps. The hot queues hold the keys in
+ * the order they became hot.
+ *
+ * <p>
+ * A key belongs to shard {@link #shardOf(String, int)}. With one shard the store is the configured
+ * {@code sendium.dlr.db.path}; with {@code n} shards shard {@code i} is that path with {@code -i-of-n} before its
+ * extension, e.g. {@code dlr-mvstore-2-of-4.db}. Each file records its place in the layout, and a file opened as
+ * another shard is refused, so that a store is never read with a different routing than it was written with.
+ * {@link DlrStoreResharder} moves a store to another shard count.
+ */
+final class DlrStoreShard {
+    private static final Logger logger = LoggerFactory.getLogger(DlrStoreShard.class);
+    private static final String LAYOUT_MAP = "dlrStoreLayout";
+    /**
+     * smaller files are not compacted, their chunks hardly get fuller than the pages every commit rewrites
+     */
+    private static final long MIN_COMPACTION_FILE_BYTES = 1024 * 1024;
+
+    final int index;
+    final int shards;
+    final Object unpushedDlrStateLock = new Object();
+    final Set<String> claimedUnpushedDlrKeys = ConcurrentHashMap.newKeySet();
+    final Lock batchLock;
+    final Map<String, DlrRecord> hotRecords = new ConcurrentHashMap<>();
+    final Map<String, HotCorrelation> hotCorrelations = new ConcurrentHashMap<>();
+    final ConcurrentLinkedQueue<HotKey> hotRecordQueue = new ConcurrentLinkedQueue<>();
+    final ConcurrentLinkedQueue<HotKey> hotCorrelationQueue = new ConcurrentLinkedQueue<>();
+
+    Map<String, DlrRecord> dlrRecords;
+    Map<String, String> correlationIndex;
+    Map<String, UnpushedDlr> unpushedDlrStore;
+    Map<String, Boolean> unpushedDlrQueue;
+    Map<String, Boolean> expiryIndex;
+    MVStore store;
+
+    private final Lock commitLock;
+    private final ReentrantLock commitSignalLock = new ReentrantLock();
+    private final Condition commitSignal = commitSignalLock.newCondition();
+    private final AtomicInteger pendingWrites = new AtomicInteger();
+    private final AtomicReference<CompletableFuture<Void>> nextCommit = new AtomicReference<>(new CompletableFuture<>());
+
+    private Thread committer;
+    private volatile boolean committerRunning;
+    private volatile boolean commitRequested;
+    private long commitMaxDelayNanos;
+    private long commitBatchSize;
+    private Timer commitTimer;
+    private DistributionSummary commitBatchSizes;
+
+    DlrStoreShard(int index, int shards) {
+        this.index = index;
+        this.shards = shards;
+        ReentrantReadWriteLock storeLock = new ReentrantReadWriteLock();
+        batchLock = storeLock.readLock();
+        commitLock = storeLock.writeLock();
+    }
+
+    /**
+     * The shard of a key depends only on {@link String#hashCode()}, which is the same on every JVM, so a key stays in
+     * its shard across restarts.
+     *
+     * @return the shard of {@code key} among {@code shards}
+     */
+    static int shardOf(String key, int shards) {
+        if (shards <= 1) {
+            return 0;
+        }
+        int hash = key.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), shards);
+    }
+
+    static File shardFile(File dbFile, int shard, int shards) {
+        if (shards <= 1) {
+            return dbFile;
+        }
+        String name = dbFile.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        return new File(dbFile.getAbsoluteFile().getParentFile(), base + "-" + shard + "-of-" + shards + extension);
+    }
+
+    /**
+     * @return the shard count of the store files found for {@code dbFile}, or 0 if there are none
+     * @throws IllegalStateException if files of more than one shard count are found
+     */
+    static int existingShards(File dbFile) {
+        int found = dbFile.isFile() && dbFile.length() > 0 ? 1 : 0;
+        String name = dbFile.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String extension = dot > 0 ? name.substring(dot) : "";
+        Pattern shardName = Pattern.compile(Pattern.quote(base) + "-\\d+-of-(\\d+)" + Pattern.quote(extension));
+        File[] files = dbFile.getAbsoluteFile().getParentFile().listFiles();
+        for (File file : files == null ? new File[0] : files) {
+            Matcher matcher = shardName.matcher(file.getName());
+            if (!matcher.matches()) {
+                continue;
+            }
+            int shards = Integer.parseInt(matcher.group(1));
+            if (found != 0 && found != shards) {
+                throw new IllegalStateException("DLR store files of " + found + " and of " + shards + " shards found next to " + dbFile);
+            }
+            found = shards;
+        }
+        return found;
+    }
+
+    /**
+     * Open the maps of this shard in {@code file}.
+     *
+     * @throws IllegalStateException if the file was written as another shard
+     */
+    void open(File file) {
+        store = new MVStore.Builder()
+                .fileName(file.getAbsolutePath())
+                .autoCommitDisabled()
+                .open();
+        try {
+            MVMap<String, Integer> layout = store.openMap(LAYOUT_MAP);
+            Integer storedIndex = layout.get("shard");
+            Integer storedShards = layout.get("shards");
+            if (storedIndex == null) {
+                layout.put("shard", index);
+                layout.put("shards", shards);
+            } else if (storedIndex != index || storedShards == null || storedShards != shards) {
+                throw new IllegalStateException(file + " is shard " + storedIndex + " of " + storedShards +
+                        " of a DLR store, not shard " + index + " of " + shards);
+            }
+            dlrRecords = store.openMap("dlrRecords", new MVMap.Builder<String, DlrRecord>()
+                    .valueType(DlrRecordDataType.DLR_RECORD));
+            correlationIndex = store.openMap("correlationIndex");
+            unpushedDlrStore = store.openMap("unpushedDlrStore", new MVMap.Builder<String, UnpushedDlr>()
+                    .valueType(DlrRecordDataType.UNPUSHED_DLR));
+            unpushedDlrQueue = store.openMap("unpushedDlrQueue");
+            expiryIndex = store.openMap("dlrExpiryIndex");
+        } catch (RuntimeException e) {
+            store.closeImmediately();
+            store = null;
+            throw e;
+        }
+    }
+
+    void useInMemoryMaps() {
+        if (store != null && !store.isClosed()) {
+            store.closeImmediately();
+        }
+        store = null;
+        dlrRecords = new ConcurrentHashMap<>();
+        correlationIndex = new ConcurrentHashMap<>();
+        unpushedDlrStore = new ConcurrentHashMap<>();
+        unpushedDlrQueue = new ConcurrentSkipListMap<>();
+        expiryIndex = new ConcurrentSkipListMap<>();
+    }
+
+    void startCommitter(long maxDelayNanos, long batchSize, Timer timer, DistributionSummary batchSizes) {
+        if (store == null) {
+            return;
+        }
+        commitMaxDelayNanos = maxDelayNanos;
+        commitBatchSize = batchSize;
+        commitTimer = timer;
+        commitBatchSizes = batchSizes;
+        committerRunning = true;
+        committer = Thread.ofPlatform().daemon().name("dlr-store-committer-" + index).start(this::runCommitter);
+    }
+
+    /**
+     * Have the committer commit the writes made before this call. Without {@code waitForCommit} the commit happens
+     * within {@code dlr.commit.maxDelayMillis}, or earlier once {@code dlr.commit.batchSize} writes are pending.
+     *
+     * @throws IllegalStateException if {@code waitForCommit} is set and the commit failed, so the writes are not durable
+     */
+    void requestCommit(boolean waitForCommit) {
+        // taken before the write is counted, so the commit it completes is never one that missed the write
+        CompletableFuture<Void> commit = nextCommit.get();
+        long pending = pendingWrites.incrementAndGet();
+        if (!committerRunning) {
+            return;
+        }
+        if (waitForCommit || pending >= commitBatchSize) {
+            signalCommit();
+        }
+        if (waitForCommit) {
+            try {
+                commit.join();
+            } catch (CompletionException e) {
+                throw new IllegalStateException("Failed to commit DLR database shard " + index, e.getCause());
+            }
+        }
+    }
+
+    private void signalCommit() {
+        if (commitRequested) {
+            return;
+        }
+        commitSignalLock.lock();
+        try {
+            commitRequested = true;
+            commitSignal.signal();
+        } finally {
+            commitSignalLock.unlock();
+        }
+    }
+
+    private void runCommitter() {
+        while (committerRunning) {
+            commitSignalLock.lock();
+            try {
+                long remaining = commitMaxDelayNanos;
+                while (!commitRequested && committerRunning && remaining > 0) {
+                    remaining = commitSignal.awaitNanos(remaining);
+                }
+                commitRequested = false;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } finally {
+                commitSignalLock.unlock();
+            }
+            groupCommit();
+        }
+        groupCommit();
+    }
+
+    /**
+     * Commit everything written so far and release the writers waiting for it, with the exception if the commit failed.
+     */
+    private void groupCommit() {
+        int writes = pendingWrites.getAndSet(0);
+        CompletableFuture<Void> commit = nextCommit.getAndSet(new CompletableFuture<>());
+        try {
+            if (store != null && !store.isClosed() && store.hasUnsavedChanges()) {
+                long start = System.nanoTime();
+                commit();
+                commitTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                commitBatchSizes.record(writes);
+            }
+            commit.complete(null);
+        } catch (Exception e) {
+            logger.warn("Failed to commit DLR database shard {}", index, e);
+            commit.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Commit the store once no write batch is in progress.
+     *
+     * @throws RuntimeException if the store failed to commit
+     */
+    void commit() {
+        if (store == null || store.isClosed()) {
+            return;
+        }
+        commitLock.lock();
+        try {
+            store.commit();
+        } finally {
+            commitLock.unlock();
+        }
+    }
+
+    private void stopCommitter() {
+        if (committer == null) {
+            return;
+        }
+        committerRunning = false;
+        commitSignalLock.lock();
+        try {
+            commitSignal.signal();
+        } finally {
+            commitSignalLock.unlock();
+        }
+        try {
+            committer.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        committer = null;
+    }
+
+    void close() {
+        stopCommitter();
+        if (store != null && !store.isClosed()) {
+            try {
+                commit();
+            } catch (Exception e) {
+                logger.warn("Failed to commit DLR database shard {}", index, e);
+            }
+            try {
+                store.close();
+            } catch (Exception e) {
+                logger.warn("Failed to close DLR database shard {}: {}", index, e.getMessage());
+            }
+        }
+    }
+
+    boolean isPersistent() {
+        return store != null && !store.isClosed();
+    }
+
+    boolean hasUncommittedChanges() {
+        return isPersistent() && store.hasUnsavedChanges();
+    }
+
+    long getFileSize() {
+        return isPersistent() ? store.getFileStore().size() : 0;
+    }
+
+    /**
+     * Rewrite up to {@code writeBytes} of the live pages of the least full chunks and commit them, if the chunks are
+     * less than {@code targetFillRate} percent full. Only chunks older than the store's retention time are rewritten,
+     * and the chunks left empty are reused, or cut off the end of the file, a few commits later.
+     *
+     * @return whether any pages were rewritten
+     */
+    boolean compact(int targetFillRate, int writeBytes) {
+        if (!isPersistent() || store.getFileStore().size() < MIN_COMPACTION_FILE_BYTES ||
+                store.getFileStore().getChunksFillRate() >= targetFillRate) {
+            return false;
+        }
+        // only marks the pages as changed, so a rewrite is committed like any other write and never splits a batch
+        if (!store.compact(targetFillRate, writeBytes)) {
+            return false;
+        }
+        commit();
+        return true;
+    }
+
+    /**
+     * @return the percentage of the space of the chunks taken by live pages, 100 when the shard is in memory
+     */
+    int getChunksFillRate() {
+        return isPersistent() ? store.getFileStore().getChunksFillRate() : 100;
+    }
+
+    int getChunkCount() {
+        if (!isPersistent()) {
+            return 0;
+        }
+        int chunks = 0;
+        for (String key : store.getLayoutMap().keySet()) {
+            if (key.startsWith("chunk.")) {
+                chunks++;
+            }
+        }
+        return chunks;
+    }
+
+    /**
+     * A correlation in the hot tier.
+     *
+     * @param linkedAt when it was linked, which orders it in {@code hotCorrelationQueue}
+     */
+    record HotCorrelation(String gatewayMsgId, long linkedAt, long linkExpiresAt) {
+    }
+
+    /**
+     * A key of the hot tier and the time it became hot, which identifies the entry it was queued for.
+     */
+    record HotKey(String key, long since) {
+    }
+}
@@ -1,39 +1,55 @@
 package gr.cytech.sendium.core.worker;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gr.cytech.sendium.conf.SendiumConfigurationHandler;
+import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.io.IOException;
-import java.net.URI;
-import java.net.http.HttpClient;
-import java.net.http.HttpRequest;
-import java.net.http.HttpResponse;
-import java.time.Duration;
-
+/**
+ * Forwards DLRs to the {@code forwardDlrUrl} of their message, through the {@link WebhookOutbox}.
+ *
+ * <p>
+ * An account with {@code dlr.forward.batch.url.<accountId>} set gets its DLRs batched instead: each is a JSON item,
+ * which carries the expanded {@code forwardDlrUrl} as {@code url}, posted to that URL along with the other DLRs queued
+ * for it, as a JSON array or, if {@code dlr.forward.batch.format.<accountId>} is {@code ndjson}, as newline-delimited
+ * JSON.
+ */
 @ApplicationScoped
 public class ForwardDlrService {
-    private static final Logger logger = LoggerFactory.getLogger(ForwardDlrService.class);
+    public static final String[][] prms = {
+            {"dlr.forward.batch.url", ""}
+            , {"dlr.forward.batch.format", WebhookDelivery.JSON_BATCH}
+    };
+    public static final String[] _batchUrl = prms[0];
+    public static final String[] _batchFormat = prms[1];
 
-    private static final int MAX_RETRIES = 10;
-    private static final long RETRY_INTERVAL_MS = 120_000;
-    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(5);
+    private static final Logger logger = LoggerFactory.getLogger(ForwardDlrService.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
 
     private static final int DLR_DELIVERED = 1;
     private static final int DLR_FAILED = 2;
     private static final int DLR_BUFFERED = 4;
     private static final int DLR_SMSC_SUBMIT = 8;
 
-    private static final String DLR_TYPE_PLACEHOLDER = "%d";
-    private static final String MSG_ID_PLACEHOLDER = "%s";
+    /**
+     * the placeholders of a {@code forwardDlrUrl}: %d the DLR type and %s the gateway message id, inserted as they are
+     */
+    private static final CallbackTemplate.Syntax URL_SYNTAX = new CallbackTemplate.Syntax("ds", "ds");
 
-    private final HttpClient httpClient;
+    @Inject
+    WebhookOutbox webhookOutbox;
+    @Inject
+    SendiumConfigurationHandler configurationHandler;
 
-    public ForwardDlrService() {
-        this.httpClient = HttpClient.newBuilder()
-                .connectTimeout(REQUEST_TIMEOUT)
-                .followRedirects(HttpClient.Redirect.NORMAL)
-                .build();
+    @PostConstruct
+    void init() {
+        if (configurationHandler != null) {
+            configurationHandler.loadDefaultParams(prms);
+        }
     }
 
     public void forwardDlr(MessageState state) {
@@ -43,15 +59,20 @@ public class ForwardDlrService {
         }
 
         int kannelType = mapToKannelType(state.getStatus());
-
-        Thread.startVirtualThread(() -> {
-            try {
-                String finalUrl = buildForwardUrl(forwardUrl, state.getGatewayMsgId(), kannelType);
-                doForward(finalUrl, state.getGatewayMsgId(), 1);
-            } catch (Exception e) {
-                logger.error("Failed to initialize DLR forwarding for gatewayMsgId: {}", state.getGatewayMsgId(), e);
+        try {
+            String finalUrl = buildForwardUrl(forwardUrl, state.getGatewayMsgId(), kannelType);
+            String ref = "gatewayMsgId: " + state.getGatewayMsgId();
+            String batchUrl = getAccountConfig(_batchUrl, state.getAccountId());
+            if (batchUrl == null || batchUrl.isBlank()) {
+                webhookOutbox.enqueue(WebhookDelivery.get("DLR", ref, finalUrl));
+            } else {
+                boolean ndjson = WebhookDelivery.NDJSON_BATCH.equalsIgnoreCase(getAccountConfig(_batchFormat, state.getAccountId()));
+                String format = ndjson ? WebhookDelivery.NDJSON_BATCH : WebhookDelivery.JSON_BATCH;
+                webhookOutbox.enqueue(WebhookDelivery.batchItem("DLR", ref, batchUrl.trim(), format, buildBatchItem(state, kannelType, finalUrl)));
             }
-        });
+        } catch (RuntimeException e) {
+            logger.error("Failed to initialize DLR forwarding for gatewayMsgId: {}", state.getGatewayMsgId(), e);
+        }
     }
 
     int mapToKannelType(MessageState.MessageStatus status) {
@@ -66,54 +87,47 @@ public class ForwardDlrService {
         };
     }
 
-    String buildForwardUrl(String baseUrl, String msgId, int kannelType) {
-        String result = baseUrl.replace(DLR_TYPE_PLACEHOLDER, String.valueOf(kannelType));
-        result = result.replace(MSG_ID_PLACEHOLDER, msgId != null ? msgId : "");
-        return result;
-    }
-
-    private void doForward(String url, String gatewayMsgId, int attempt) {
+    String buildBatchItem(MessageState state, int kannelType, String url) {
+        DlrItem item = new DlrItem(state.getGatewayMsgId(), kannelType, state.getStatus() != null ? state.getStatus().name() : null,
+                state.getSourceAddr(), state.getDestAddr(), state.getTimestamp(), url);
         try {
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create(url))
-                    .timeout(REQUEST_TIMEOUT)
-                    .GET()
-                    .build();
-
-            HttpResponse<Void> response = httpClient.send(request, HttpResponse.BodyHandlers.discarding());
-            int statusCode = response.statusCode();
-
-            if (statusCode >= 200 && statusCode < 400) {
-                logger.info("DLR forwarded successfully for gatewayMsgId: {}", gatewayMsgId);
-            } else {
-                handleFailure(url, gatewayMsgId, attempt, "HTTP " + statusCode);
-            }
-        } catch (IOException | InterruptedException | RuntimeException e) {
-            if (e instanceof InterruptedException) {
-                Thread.currentThread().interrupt();
-            }
-            handleFailure(url, gatewayMsgId, attempt, e.getClass().getSimpleName() + ": " + e.getMessage());
+            return MAPPER.writeValueAsString(item);
+        } catch (JsonProcessingException e) {
+            // the DLR cannot be forwarded in a batch, forwardDlr logs it
+            throw new RuntimeException("Failed to serialize DlrItem to JSON", e);
         }
     }
 
-    private void handleFailure(String url, String gatewayMsgId, int attempt, String error) {
-        if (attempt >= MAX_RETRIES) {
-            logger.error("DLR forward failed completely after {} retries for gatewayMsgId: {}. Last error: {}",
-                    MAX_RETRIES, gatewayMsgId, error);
-        } else {
-            logger.warn("DLR forward attempt {} failed for gatewayMsgId: {}. Error: {}. Scheduling retry.",
-                    attempt, gatewayMsgId, error);
-            scheduleRetry(url, gatewayMsgId, attempt);
+    /**
+     * @return {@code <param>.<accountId>} if configured, or else {@code param}
+     */
+    String getAccountConfig(String[] param, String accountId) {
+        if (configurationHandler == null) {
+            return param[1];
+        }
+        String value = configurationHandler.getPrpt(param);
+        if (accountId == null || accountId.isEmpty()) {
+            return value;
         }
+        return configurationHandler.getPrpt(param[0] + "." + accountId, value);
     }
 
-    private void scheduleRetry(String url, String gatewayMsgId, int attempt) {
-        try {
-            Thread.sleep(RETRY_INTERVAL_MS);
-            doForward(url, gatewayMsgId, attempt + 1);
-        } catch (InterruptedException e) {
-            Thread.currentThread().interrupt();
-            logger.error("Retry sleep interrupted for gatewayMsgId: {}", gatewayMsgId);
-        }
+    String buildForwardUrl(String baseUrl, String msgId, int kannelType) {
+        // the URL differs per message, so it is rendered without being compiled and cached
+        return URL_SYNTAX.render(baseUrl, String.valueOf(kannelType), msgId);
+    }
+
+    /**
+     * One DLR of a batch.
+     *
+     * @param id        the gateway message id
+     * @param type      the Kannel DLR type, as in the {@code %d} of a {@code forwardDlrUrl}
+     * @param status    the message status
+     * @param from      the source address
+     * @param to        the destination address
+     * @param timestamp when the message reached the status, in epoch millis
+     * @param url       the {@code forwardDlrUrl} of the message with its placeholders replaced
+     */
+    public record DlrItem(String id, int type, String status, String from, String to, long timestamp, String url) {
     }
-}
\ No newline at end of file
+}
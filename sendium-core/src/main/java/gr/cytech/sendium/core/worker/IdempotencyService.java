@@ -0,0 +1,135 @@
+package gr.cytech.sendium.core.worker;
+
+import com.google.common.base.Strings;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import gr.cytech.sendium.conf.SendiumConfigurationHandler;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Deduplicates submissions that carry an idempotency key, so that a client retrying a submission after a timeout does
+ * not send the message twice.
+ *
+ * <p>
+ * The first submission with a key claims it for its serial, and a submission with the same key within
+ * {@code idempotency.windowMillis} is a duplicate: it is answered with the serial of the first and not enqueued. Keys
+ * are scoped, by the ingress and the credential of the client, so that clients cannot collide with each other. They
+ * are kept as 128-bit murmur3 hashes of the scope and the key in an {@link IdempotencyWindow} of at most
+ * {@code idempotency.maxEntries}, so any key length costs the same. Submissions without a key are not deduplicated.
+ *
+ * <p>
+ * The window is sized when the service starts, so changes to {@code idempotency.windowMillis},
+ * {@code idempotency.maxEntries} and {@code idempotency.shards} apply after a restart, while
+ * {@code idempotency.enabled} applies to the next submission.
+ */
+@ApplicationScoped
+public class IdempotencyService {
+    public static final String[][] prms = {
+            {"idempotency.enabled", "true"}
+            , {"idempotency.windowMillis", "600000"}
+            , {"idempotency.maxEntries", "1000000"}
+            , {"idempotency.shards", "16"}
+    };
+    public static final String[] _enabled = prms[0];
+    public static final String[] _windowMillis = prms[1];
+    public static final String[] _maxEntries = prms[2];
+    public static final String[] _shards = prms[3];
+
+    private static final HashFunction KEY_HASH = Hashing.murmur3_128();
+
+    @Inject
+    SendiumConfigurationHandler configurationHandler;
+    @Inject
+    MeterRegistry meterRegistry;
+
+    private IdempotencyWindow window;
+    private Counter duplicates;
+
+    @PostConstruct
+    void init() {
+        if (configurationHandler != null) {
+            configurationHandler.loadDefaultParams(prms);
+        }
+        window = new IdempotencyWindow(longPrpt(_windowMillis), longPrpt(_maxEntries), (int) longPrpt(_shards));
+        MeterRegistry registry = meterRegistry != null ? meterRegistry : Metrics.globalRegistry;
+        duplicates = Counter.builder("sendium.idempotency.duplicates")
+                .description("Submissions answered with the serial of an earlier submission with the same idempotency key").register(registry);
+        FunctionCounter.builder("sendium.idempotency.evicted", window, IdempotencyWindow::evicted)
+                .description("Idempotency keys forgotten before the end of the window because it was full").register(registry);
+        Gauge.builder("sendium.idempotency.entries", window, IdempotencyWindow::size)
+                .description("Idempotency keys remembered").register(registry);
+        Gauge.builder("sendium.idempotency.size", window, IdempotencyWindow::sizeInBytes).baseUnit("bytes")
+                .description("Memory taken by the remembered idempotency keys").register(registry);
+    }
+
+    /**
+     * @return whether submissions with an idempotency key are deduplicated
+     */
+    public boolean isEnabled() {
+        return configurationHandler == null || configurationHandler.getBlnPrpt(_enabled);
+    }
+
+    /**
+     * Claim {@code key} in {@code scope} for the message with {@code serial}, which must be a UUID, unless an earlier
+     * submission claimed it within the window.
+     *
+     * @return the serial of the earlier submission, or null if the message is not a duplicate and should be accepted,
+     *     also when {@code key} is empty or deduplication is disabled
+     */
+    public String claim(String scope, String key, String serial) {
+        if (Strings.isNullOrEmpty(key) || !isEnabled()) {
+            return null;
+        }
+        ByteBuffer hash = hash(scope, key);
+        UUID original = window.claim(hash.getLong(0), hash.getLong(Long.BYTES), UUID.fromString(serial), System.currentTimeMillis());
+        if (original == null) {
+            return null;
+        }
+        duplicates.increment();
+        return original.toString();
+    }
+
+    /**
+     * Forget the claim of {@code key} in {@code scope} by the message with {@code serial}, when the message could not
+     * be accepted after all, so that a retry is accepted.
+     */
+    public void release(String scope, String key, String serial) {
+        if (Strings.isNullOrEmpty(key)) {
+            return;
+        }
+        ByteBuffer hash = hash(scope, key);
+        window.release(hash.getLong(0), hash.getLong(Long.BYTES), UUID.fromString(serial), System.currentTimeMillis());
+    }
+
+    /**
+     * @return the idempotency keys remembered
+     */
+    public long getSize() {
+        return window.size();
+    }
+
+    private long longPrpt(String[] param) {
+        return configurationHandler != null ? configurationHandler.getLongPrpt(param) : Long.parseLong(param[1]);
+    }
+
+    private static ByteBuffer hash(String scope, String key) {
+        HashCode hash = KEY_HASH.newHasher()
+                .putString(scope, StandardCharsets.UTF_8)
+                .putByte((byte) 0)
+                .putString(key, StandardCharsets.UTF_8)
+                .hash();
+        return ByteBuffer.wrap(hash.asBytes());
+    }
+}
@@ -0,0 +1,265 @@
+package gr.cytech.sendium.core.worker;
+
+import java.util.UUID;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, time-windowed set of idempotency keys, each with the serial of the message first submitted with it.
+ *
+ * <p>
+ * Keys are 128-bit hashes, and the window is split into shards, each with its own lock. A shard is a timing wheel of
+ * {@link #GENERATIONS} generations, each an open-addressing table of primitive longs that holds the keys claimed during
+ * one tick of {@code windowMillis / (GENERATIONS - 1)}. A key is therefore remembered for at least {@code windowMillis}
+ * and at most one tick longer, and expiry drops a whole generation at once rather than visiting its keys. Ticks are
+ * advanced by the calls themselves, so there is no background thread.
+ *
+ * <p>
+ * Each key takes 32 bytes in a table kept at most three quarters full, with no objects per key. A shard that holds its
+ * share of {@code maxEntries} drops its oldest generation early, so under overload the window shrinks instead of the
+ * memory growing; such keys are counted by {@link #evicted()}.
+ */
+final class IdempotencyWindow {
+    static final int GENERATIONS = 8;
+
+    private final Shard[] shards;
+    private final long tickMillis;
+    private final int maxPerShard;
+    private final LongAdder evicted = new LongAdder();
+
+    IdempotencyWindow(long windowMillis, long maxEntries, int shardCount) {
+        int count = Integer.highestOneBit(Math.clamp(shardCount, 1, 1024));
+        shards = new Shard[count];
+        for (int i = 0; i < count; i++) {
+            shards[i] = new Shard();
+        }
+        tickMillis = Math.max(1, (windowMillis + GENERATIONS - 2) / (GENERATIONS - 1));
+        maxPerShard = (int) Math.clamp(maxEntries / count, 1, Integer.MAX_VALUE / 2);
+    }
+
+    /**
+     * Claim a key for the message with {@code serial}, unless it was claimed within the window.
+     *
+     * @return the serial of the message that claimed the key earlier, or null if it is claimed now
+     */
+    UUID claim(long keyHigh, long keyLow, UUID serial, long now) {
+        return shard(keyHigh).claim(keyHigh, nonZero(keyLow), serial, now / tickMillis);
+    }
+
+    /**
+     * Forget the claim of a key by the message with {@code serial}, as when the message could not be accepted after
+     * all, so that a retry is accepted.
+     *
+     * @return whether the key was claimed by that message
+     */
+    boolean release(long keyHigh, long keyLow, UUID serial, long now) {
+        return shard(keyHigh).release(keyHigh, nonZero(keyLow), serial, now / tickMillis);
+    }
+
+    /**
+     * @return the keys remembered, some of which may have expired since the last call on their shard
+     */
+    long size() {
+        long size = 0;
+        for (Shard shard : shards) {
+            size += shard.size();
+        }
+        return size;
+    }
+
+    /**
+     * @return the keys forgotten before the end of the window, because their shard was full
+     */
+    long evicted() {
+        return evicted.sum();
+    }
+
+    /**
+     * @return the bytes taken by the tables of all shards
+     */
+    long sizeInBytes() {
+        long bytes = 0;
+        for (Shard shard : shards) {
+            bytes += shard.sizeInBytes();
+        }
+        return bytes;
+    }
+
+    private Shard shard(long keyHigh) {
+        return shards[(int) (keyHigh ^ keyHigh >>> 32) & (shards.length - 1)];
+    }
+
+    /**
+     * An all-zero key marks an empty slot.
+     */
+    private static long nonZero(long keyLow) {
+        return keyLow == 0 ? 1 : keyLow;
+    }
+
+    private final class Shard {
+        private final Generation[] wheel = new Generation[GENERATIONS];
+        private int size;
+
+        synchronized UUID claim(long keyHigh, long keyLow, UUID serial, long tick) {
+            expire(tick);
+            for (Generation generation : wheel) {
+                int slot = generation == null ? -1 : generation.find(keyHigh, keyLow);
+                if (slot >= 0 && generation.isLive(slot)) {
+                    return generation.serial(slot);
+                }
+            }
+            while (size >= maxPerShard) {
+                evictOldest();
+            }
+            int index = (int) (tick % GENERATIONS);
+            if (wheel[index] == null) {
+                wheel[index] = new Generation(tick);
+            }
+            wheel[index].put(keyHigh, keyLow, serial);
+            size++;
+            return null;
+        }
+
+        synchronized boolean release(long keyHigh, long keyLow, UUID serial, long tick) {
+            expire(tick);
+            for (Generation generation : wheel) {
+                int slot = generation == null ? -1 : generation.find(keyHigh, keyLow);
+                if (slot >= 0 && generation.isLive(slot) && generation.serial(slot).equals(serial)) {
+                    generation.remove(slot);
+                    size--;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        synchronized int size() {
+            return size;
+        }
+
+        synchronized long sizeInBytes() {
+            long bytes = 0;
+            for (Generation generation : wheel) {
+                bytes += generation == null ? 0 : (long) generation.table.length * Long.BYTES;
+            }
+            return bytes;
+        }
+
+        /**
+         * Drop the generations that fell out of the window by {@code tick}.
+         */
+        private void expire(long tick) {
+            for (int i = 0; i < GENERATIONS; i++) {
+                if (wheel[i] != null && wheel[i].tick <= tick - GENERATIONS) {
+                    size -= wheel[i].live;
+                    wheel[i] = null;
+                }
+            }
+        }
+
+        private void evictOldest() {
+            int oldest = -1;
+            for (int i = 0; i < GENERATIONS; i++) {
+                if (wheel[i] != null && (oldest < 0 || wheel[i].tick < wheel[oldest].tick)) {
+                    oldest = i;
+                }
+            }
+            evicted.add(wheel[oldest].live);
+            size -= wheel[oldest].live;
+            wheel[oldest] = null;
+        }
+    }
+
+    /**
+     * The keys claimed during one tick, in a linear-probing table of four longs per slot: the key and the serial. A
+     * released key keeps its slot with an all-zero serial, which no random UUID has, so that probing stays correct.
+     */
+    private static final class Generation {
+        private static final int SLOT_LONGS = 4;
+        private static final int MIN_SLOTS = 16;
+
+        final long tick;
+        long[] table = new long[MIN_SLOTS * SLOT_LONGS];
+        /**
+         * slots taken, by live and released keys
+         */
+        int used;
+        int live;
+
+        Generation(long tick) {
+            this.tick = tick;
+        }
+
+        /**
+         * @return the slot of the key, or -1
+         */
+        int find(long keyHigh, long keyLow) {
+            int mask = table.length / SLOT_LONGS - 1;
+            for (int slot = start(keyHigh, keyLow, mask); ; slot = slot + 1 & mask) {
+                int i = slot * SLOT_LONGS;
+                if (table[i] == 0 && table[i + 1] == 0) {
+                    return -1;
+                }
+                if (table[i] == keyHigh && table[i + 1] == keyLow) {
+                    return slot;
+                }
+            }
+        }
+
+        boolean isLive(int slot) {
+            int i = slot * SLOT_LONGS;
+            return table[i + 2] != 0 || table[i + 3] != 0;
+        }
+
+        UUID serial(int slot) {
+            int i = slot * SLOT_LONGS;
+            return new UUID(table[i + 2], table[i + 3]);
+        }
+
+        void put(long keyHigh, long keyLow, UUID serial) {
+            int slot = find(keyHigh, keyLow);
+            if (slot < 0) {
+                if ((used + 1) * 4 > table.length / SLOT_LONGS * 3) {
+                    resize();
+                }
+                int mask = table.length / SLOT_LONGS - 1;
+                slot = start(keyHigh, keyLow, mask);
+                while (table[slot * SLOT_LONGS] != 0 || table[slot * SLOT_LONGS + 1] != 0) {
+                    slot = slot + 1 & mask;
+                }
+                table[slot * SLOT_LONGS] = keyHigh;
+                table[slot * SLOT_LONGS + 1] = keyLow;
+                used++;
+            }
+            table[slot * SLOT_LONGS + 2] = serial.getMostSignificantBits();
+            table[slot * SLOT_LONGS + 3] = serial.getLeastSignificantBits();
+            live++;
+        }
+
+        void remove(int slot) {
+            table[slot * SLOT_LONGS + 2] = 0;
+            table[slot * SLOT_LONGS + 3] = 0;
+            live--;
+        }
+
+        /**
+         * Rehash the live keys, into a table twice as large unless released keys took much of this one.
+         */
+        private void resize() {
+            long[] old = table;
+            int slots = old.length / SLOT_LONGS;
+            table = new long[(live * 2 >= slots ? slots * 2 : slots) * SLOT_LONGS];
+            used = 0;
+            live = 0;
+            for (int i = 0; i < old.length; i += SLOT_LONGS) {
+                if (old[i + 2] != 0 || old[i + 3] != 0) {
+                    put(old[i], old[i + 1], new UUID(old[i + 2], old[i + 3]));
+                }
+            }
+        }
+
+        private static int start(long keyHigh, long keyLow, int mask) {
+            long mixed = keyLow ^ keyHigh >>> 17;
+            return (int) (mixed ^ mixed >>> 32) & mask;
+        }
+    }
+}
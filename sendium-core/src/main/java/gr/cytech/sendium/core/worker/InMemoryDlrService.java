@@ -4,76 +4,238 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import gr.cytech.sendium.conf.SendiumConfigurationHandler;
 import gr.cytech.sendium.core.message.StandardMessage;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import io.micrometer.core.instrument.Timer;
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import org.h2.mvstore.MVMap;
 import org.h2.mvstore.MVStore;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Optional;
-import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.ToIntFunction;
 
 /**
  * Stores DLR correlation state and unpushed SMPP DLRs.
  *
  * <p>
  * The service uses H2 MVStore when available and falls back to in-memory maps if the store cannot be opened.
- * The primary/correlation maps track submitted messages until operator DLRs arrive. The unpushed-DLR maps
- * persist DLRs that could not be delivered to a disconnected SMPP client, then replay them when the matching
- * systemId reconnects.
+ * Each submitted message is one {@link DlrRecord}, holding its state and the times used for expiry, and the correlation
+ * index maps the operator message id to it until the operator DLR arrives. The unpushed-DLR maps persist DLRs that
+ * could not be delivered to a disconnected SMPP client, then replay them when the matching systemId reconnects.
+ * {@code unpushedDlrQueue} orders them by systemId and save time, so a systemId's DLRs are a key range that replay
+ * claims page by page from a cursor.
+ * Records are stored in the compact binary format of {@link DlrRecordDataType}. The separate timestamp maps and the
+ * JSON rows of earlier versions are migrated when the store is opened.
  *
  * <p>
- * This is an application-scoped singleton. The primary/correlation state follows the existing model of map-level
- * concurrency: each operation is safe to call from worker threads, but multi-step updates are not globally serialized.
- * Unpushed DLRs have stronger consistency requirements because each entry is split across payload, timestamp, and
- * systemId index maps. Those compound operations are guarded by {@code unpushedDlrLock}. Replay also claims keys
- * before returning them so concurrent reconnect callbacks for the same systemId cannot enqueue the same DLR twice.
+ * The store is split into {@code dlr.shards} shards, each a {@link DlrStoreShard} with its own file, lock and
+ * committer, so that writes to different shards do not contend. A record belongs to the shard of its gateway message
+ * id, a correlation to the shard of its operator message id and an unpushed DLR to the shard of its systemId, so that
+ * every lookup goes to one shard and replay still scans one key range. Linking, resolving and expiring a record can
+ * span two shards; each shard's part is its own write batch.
+ *
+ * <p>
+ * An operator message id is often known before the initial state is saved, e.g. when the SMSC responds before the
+ * batched SMPP server store has persisted the submitted message. Such a link is parked in {@code pendingLinks} and
+ * whichever of {@link #saveInitialState} and {@link #linkOperatorId} comes second completes it, without either
+ * caller waiting. Parked links are bounded by {@code dlr.pendingLinks.max} and dropped after
+ * {@code dlr.pendingLinks.ttlMillis}.
+ *
+ * <p>
+ * An update that spans two maps of a shard, such as linking a record and indexing it, runs as a write batch: it holds
+ * the shard's {@code batchLock}, and the shard is only committed once no batch holds it. Auto-commit is disabled, so
+ * a commit, and therefore the state found after a crash, never falls between the writes of a batch.
+ *
+ * <p>
+ * Commits are grouped by the {@code dlr-store-committer} thread of each shard. A writer that waits for its write to be durable, like
+ * {@link #saveUnpushedDlr} by default, wakes the committer and every writer waiting meanwhile shares its next commit.
+ * Writes nobody waits for are committed within {@code dlr.commit.maxDelayMillis}, or once
+ * {@code dlr.commit.batchSize} of them are pending.
+ *
+ * <p>
+ * Records, correlations and unpushed DLRs store when they expire, and each has an entry in {@code expiryIndex},
+ * whose keys sort by that time. A background expirer removes what is due from the head of the index, at most
+ * {@code dlr.expiry.batchSize} entries and {@code dlr.expiry.budgetMillis} per shard and run, so expiry never scans the store
+ * nor holds up callers. Retention is set by {@code dlr.retention.*} and can be overridden per account with
+ * {@code dlr.retention.*.<accountId>}.
+ *
+ * <p>
+ * Removed entries leave chunks of the store files partly empty. The {@code dlr-store-compactor} thread rewrites the
+ * live pages of the least full chunks every {@code dlr.compaction.intervalMillis}, rate limited and within
+ * {@code dlr.compaction.window}, so that the emptied chunks are reused and the files stop growing.
+ *
+ * <p>
+ * This is an application-scoped singleton. Each operation is safe to call from worker threads, but operations on the
+ * same message are not serialized against each other. Unpushed DLRs are also guarded by their shard's {@code unpushedDlrStateLock},
+ * which keeps a DLR, its queue entry and its claim in step. Replay also claims keys before returning them so
+ * concurrent reconnect callbacks for the same systemId cannot enqueue the same DLR twice.
  */
 @ApplicationScoped
 public class InMemoryDlrService {
+    public static final String[][] prms = {
+            {"dlr.retention.recordMillis", "604800000"}
+            , {"dlr.retention.correlationMillis", "259200000"}
+            , {"dlr.retention.unpushedMillis", "604800000"}
+            , {"dlr.expiry.intervalMillis", "1000"}
+            , {"dlr.expiry.batchSize", "1000"}
+            , {"dlr.expiry.budgetMillis", "20"}
+            , {"dlr.commit.maxDelayMillis", "1000"}
+            , {"dlr.commit.batchSize", "1000"}
+            , {"dlr.unpushed.waitForCommit", "true"}
+            , {"dlr.shards", "1"}
+            , {"dlr.hotTier.maxEntries", "0"}
+            , {"dlr.hotTier.writeBehindMillis", "1000"}
+            , {"dlr.bloom.expectedEntries", "1000000"}
+            , {"dlr.compaction.intervalMillis", "60000"}
+            , {"dlr.compaction.targetFillRate", "50"}
+            , {"dlr.compaction.maxWriteBytesPerSecond", "4194304"}
+            , {"dlr.compaction.maxDurationMillis", "10000"}
+            , {"dlr.compaction.window", ""}
+            , {"dlr.ingest.maxPendingSaves", "10000"}
+            , {"dlr.pendingLinks.max", "100000"}
+            , {"dlr.pendingLinks.ttlMillis", "600000"}
+    };
+    public static final String[] _recordRetention = prms[0];
+    public static final String[] _correlationRetention = prms[1];
+    public static final String[] _unpushedRetention = prms[2];
+    public static final String[] _expiryInterval = prms[3];
+    public static final String[] _expiryBatchSize = prms[4];
+    public static final String[] _expiryBudget = prms[5];
+    public static final String[] _commitMaxDelay = prms[6];
+    public static final String[] _commitBatchSize = prms[7];
+    public static final String[] _unpushedWaitForCommit = prms[8];
+    public static final String[] _shards = prms[9];
+    public static final String[] _hotTierMaxEntries = prms[10];
+    public static final String[] _hotTierWriteBehind = prms[11];
+    public static final String[] _bloomExpectedEntries = prms[12];
+    public static final String[] _compactionInterval = prms[13];
+    public static final String[] _compactionTargetFillRate = prms[14];
+    public static final String[] _compactionMaxWriteRate = prms[15];
+    public static final String[] _compactionMaxDuration = prms[16];
+    public static final String[] _compactionWindow = prms[17];
+    public static final String[] _maxPendingSaves = prms[18];
+    public static final String[] _maxPendingLinks = prms[19];
+    public static final String[] _pendingLinksTtl = prms[20];
+
     private static final Logger logger = LoggerFactory.getLogger(InMemoryDlrService.class);
-    private static final long SEVEN_DAYS_MILLIS = TimeUnit.DAYS.toMillis(7);
-    private static final long THREE_DAYS_MILLIS = TimeUnit.DAYS.toMillis(3);
-    private static final long EXPIRY_CHECK_INTERVAL = TimeUnit.HOURS.toMillis(1);
+    /**
+     * expiry index keys start with the expiry time zero-padded to this many digits, so that they sort by it
+     */
+    private static final int EXPIRY_TIME_DIGITS = 13;
+    private static final long MAX_EXPIRES_AT = 9_999_999_999_999L;
+    private static final char RECORD_EXPIRY = 'R';
+    private static final char CORRELATION_EXPIRY = 'C';
+    private static final char UNPUSHED_EXPIRY = 'U';
+    /**
+     * unpushed DLR queue keys are the systemId, this separator, the save time and sequence of the DLR, and its key
+     */
+    private static final char QUEUE_SEPARATOR = '\u0000';
+    private static final int SEQUENCE_DIGITS = 19;
+    private static final int QUEUE_POSITION_LENGTH = EXPIRY_TIME_DIGITS + 1 + SEQUENCE_DIGITS + 1;
+
+    private static final int MAX_SHARDS = 256;
+    private static final double BLOOM_FALSE_POSITIVE_RATE = 0.01;
+    /**
+     * compaction writes at most a tenth of {@code dlr.compaction.maxWriteBytesPerSecond} per step
+     */
+    private static final int COMPACTION_STEPS_PER_SECOND = 10;
+    private static final int MIN_COMPACTION_STEP_BYTES = 64 * 1024;
 
     private static final String DB_PATH_PROPERTY = "sendium.dlr.db.path";
     private static final String DEFAULT_DB_PATH = "data/dlr-mvstore.db";
     private static final ObjectMapper mapper = new ObjectMapper()
             .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+    /**
+     * most queued initial states the ingest thread saves in one batch
+     */
+    private static final int MAX_SAVE_BATCH = 1000;
     private static final TypeReference<List<String>> STRING_LIST_TYPE = new TypeReference<>() {
     };
 
     @Inject
     ForwardDlrService forwardDlrService;
+    @Inject
+    SendiumConfigurationHandler configurationHandler;
+    @Inject
+    MeterRegistry meterRegistry;
+    DlrStoreShard[] shards;
 
-    private final Object unpushedDlrStateLock = new Object();
-    private final Set<String> claimedUnpushedDlrKeys = ConcurrentHashMap.newKeySet();
-
-    private MVStore store;
-
-    private Map<String, String> primaryStore;
-    private Map<String, String> correlationIndex;
-    private Map<String, Long> primaryTimestamps;
-    private Map<String, Long> correlationTimestamps;
-    private Map<String, String> unpushedDlrStore;
-    private Map<String, Long> unpushedDlrTimestamps;
-    private Map<String, String> unpushedDlrIndex;
-
-    private volatile long lastExpiryCheck = 0;
+    private final Map<String, PendingLink> pendingLinks = new ConcurrentHashMap<>();
+    /**
+     * the links parked in {@link #pendingLinks}, in the order they were parked, so that the expired ones are at its head;
+     * links completed meanwhile are dropped from it once they reach the head
+     */
+    private final Queue<PendingLink> pendingLinksByAge = new ConcurrentLinkedQueue<>();
+    private final AtomicLong unpushedDlrSequence = new AtomicLong();
+    private final Queue<PendingSave> pendingSaves = new ConcurrentLinkedQueue<>();
+    /**
+     * size of {@link #pendingSaves}, whose own size() walks the whole queue
+     */
+    private final AtomicInteger pendingSaveCount = new AtomicInteger();
+    private final AtomicBoolean savesScheduled = new AtomicBoolean();
+
+    private ScheduledExecutorService maintenance;
+    private ExecutorService ingest;
+    private ScheduledExecutorService compactor;
+    private CountingBloomFilter operatorIdFilter;
+    private long hotTierMaxEntries;
+    private long hotTierWriteBehindMillis;
+    private long maxPendingSaves;
+
+    private Counter hotLookups;
+    private Counter storeLookups;
+    private Counter missedLookups;
+    private Counter filteredLookups;
+    private Counter expiredRecords;
+    private Counter expiredCorrelations;
+    private Counter expiredUnpushedDlrs;
+    private Timer commitTimer;
+    private Timer compactionTimer;
+    private DistributionSummary commitBatchSizes;
+    private int maxPendingLinks;
+    private long pendingLinksTtlMillis;
     @SuppressWarnings("unused")
     private volatile boolean initialized = false;
 
     @PostConstruct
     void init() {
+        if (configurationHandler != null) {
+            configurationHandler.loadDefaultParams(prms);
+        }
+        maxPendingLinks = (int) Math.clamp(getConfigLong(_maxPendingLinks), 0, Integer.MAX_VALUE);
+        pendingLinksTtlMillis = Math.max(0, getConfigLong(_pendingLinksTtl));
         String dbPath = System.getProperty(DB_PATH_PROPERTY, DEFAULT_DB_PATH);
         File dbFile = new File(dbPath);
         File dbDir = dbFile.getParentFile();
@@ -85,36 +247,42 @@ public class InMemoryDlrService {
             }
         }
 
+        int shardCount = (int) Math.clamp(getConfigLong(_shards), 1, MAX_SHARDS);
+        shards = new DlrStoreShard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new DlrStoreShard(i, shardCount);
+        }
         try {
-            if (dbFile.exists() && dbFile.length() > 0) {
-                store = new MVStore.Builder()
-                        .fileName(dbFile.getAbsolutePath())
-                        .autoCommitBufferSize(1024)
-                        .open();
-                logger.info("Opened existing DLR database: " + dbPath);
-            } else {
-                store = new MVStore.Builder()
-                        .fileName(dbFile.getAbsolutePath())
-                        .open();
-                logger.info("Created new DLR database: " + dbPath);
-            }
-
-            primaryStore = store.openMap("primaryStore");
-            correlationIndex = store.openMap("correlationIndex");
-            primaryTimestamps = store.openMap("primaryTimestamps");
-            correlationTimestamps = store.openMap("correlationTimestamps");
-            unpushedDlrStore = store.openMap("unpushedDlrStore");
-            unpushedDlrTimestamps = store.openMap("unpushedDlrTimestamps");
-            unpushedDlrIndex = store.openMap("unpushedDlrIndex");
-
-            if (primaryStore == null || correlationIndex == null || unpushedDlrStore == null || unpushedDlrIndex == null) {
-                logger.error("Failed to load maps from DB, falling back to in-memory");
-                fallbackToInMemory();
-            } else {
-                logger.info("Loaded from DB - primaryStore: {}, correlationIndex: {}, unpushedDlrStore: {}, unpushedDlrIndex: {}",
-                        primaryStore.size(), correlationIndex.size(), unpushedDlrStore.size(), unpushedDlrIndex.size());
-                initialized = true;
+            int existingShards = DlrStoreShard.existingShards(dbFile);
+            if (existingShards != 0 && existingShards != shardCount) {
+                throw new IllegalStateException("The DLR store " + dbPath + " has " + existingShards + " shards, not the " + shardCount +
+                        " of " + _shards[0] + ". Reshard it offline with " + DlrStoreResharder.class.getName());
+            }
+            for (DlrStoreShard shard : shards) {
+                File shardFile = DlrStoreShard.shardFile(dbFile, shard.index, shardCount);
+                boolean existed = shardFile.exists() && shardFile.length() > 0;
+                shard.open(shardFile);
+                logger.info("{} DLR database: {}", existed ? "Opened existing" : "Created new", shardFile.getPath());
+            }
+            for (DlrStoreShard shard : shards) {
+                migrateLegacyMaps(shard);
+            }
+            for (DlrStoreShard shard : shards) {
+                if (shard.expiryIndex.isEmpty() && (!shard.dlrRecords.isEmpty() || !shard.correlationIndex.isEmpty() ||
+                        !shard.unpushedDlrStore.isEmpty())) {
+                    rebuildExpiryIndex(shard);
+                }
+            }
+            logger.info("Loaded from DB ({} shards) - dlrRecords: {}, correlationIndex: {}, unpushedDlrStore: {}, unpushedDlrQueue: {}, expiryIndex: {}",
+                    shardCount, getPrimaryStoreSize(), getCorrelationIndexSize(), getUnpushedDlrStoreSize(), getUnpushedDlrQueueSize(),
+                    getExpiryIndexSize());
+            initialized = true;
+        } catch (IllegalStateException e) {
+            // a store of another layout is a configuration error, starting without its state would lose the DLRs it holds
+            for (DlrStoreShard shard : shards) {
+                shard.useInMemoryMaps();
             }
+            throw e;
         } catch (Exception e) {
             logger.warn("Failed to initialize MVStore, falling back to in-memory: ", e);
             fallbackToInMemory();
@@ -123,17 +291,223 @@ public class InMemoryDlrService {
         if (!initialized) {
             fallbackToInMemory();
         }
+
+        hotTierMaxEntries = Math.max(0, getConfigLong(_hotTierMaxEntries));
+        hotTierWriteBehindMillis = Math.max(0, getConfigLong(_hotTierWriteBehind));
+        maxPendingSaves = Math.max(1, getConfigLong(_maxPendingSaves));
+        long bloomExpectedEntries = getConfigLong(_bloomExpectedEntries);
+        if (bloomExpectedEntries > 0) {
+            operatorIdFilter = new CountingBloomFilter(bloomExpectedEntries, BLOOM_FALSE_POSITIVE_RATE);
+            for (DlrStoreShard shard : shards) {
+                shard.correlationIndex.keySet().forEach(operatorIdFilter::add);
+            }
+            int correlations = getCorrelationIndexSize();
+            if (correlations > bloomExpectedEntries) {
+                logger.warn("{} correlations exceed {}={}, the operator message id filter will answer less often", correlations,
+                        _bloomExpectedEntries[0], bloomExpectedEntries);
+            }
+            logger.info("Operator message id filter of {}KB holds {} correlations", operatorIdFilter.sizeInBytes() / 1024, correlations);
+        }
+
+        registerMetrics();
+        maintenance = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("dlr-store-maintenance").factory());
+        ingest = Executors.newSingleThreadExecutor(Thread.ofPlatform().daemon().name("dlr-store-ingest").factory());
+        long commitMaxDelayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, getConfigLong(_commitMaxDelay)));
+        long commitBatchSize = Math.max(1, getConfigLong(_commitBatchSize));
+        for (DlrStoreShard shard : shards) {
+            shard.startCommitter(commitMaxDelayNanos, commitBatchSize, commitTimer, commitBatchSizes);
+        }
+        long expiryInterval = Math.max(1, getConfigLong(_expiryInterval));
+        maintenance.scheduleWithFixedDelay(this::runExpiry, expiryInterval, expiryInterval, TimeUnit.MILLISECONDS);
+        if (hotTierMaxEntries > 0) {
+            long flushInterval = Math.max(10, hotTierWriteBehindMillis / 4);
+            maintenance.scheduleWithFixedDelay(this::runHotTierFlush, flushInterval, flushInterval, TimeUnit.MILLISECONDS);
+        }
+        long compactionInterval = getConfigLong(_compactionInterval);
+        if (compactionInterval > 0 && isPersistent()) {
+            compactor = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().daemon().name("dlr-store-compactor").factory());
+            compactor.scheduleWithFixedDelay(this::runCompaction, compactionInterval, compactionInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void registerMetrics() {
+        MeterRegistry registry = meterRegistry != null ? meterRegistry : Metrics.globalRegistry;
+        hotLookups = Counter.builder("sendium.dlr.lookups").tag("result", "hot")
+                .description("DLR lookups answered from the hot tier").register(registry);
+        storeLookups = Counter.builder("sendium.dlr.lookups").tag("result", "store")
+                .description("DLR lookups answered from the store").register(registry);
+        missedLookups = Counter.builder("sendium.dlr.lookups").tag("result", "miss")
+                .description("DLR lookups of unknown ids that passed the operator message id filter").register(registry);
+        filteredLookups = Counter.builder("sendium.dlr.lookups").tag("result", "filtered")
+                .description("DLR lookups of unknown ids answered by the operator message id filter").register(registry);
+        expiredRecords = Counter.builder("sendium.dlr.expired").tag("type", "record")
+                .description("DLR records removed because they expired").register(registry);
+        expiredCorrelations = Counter.builder("sendium.dlr.expired").tag("type", "correlation")
+                .description("Operator message id correlations removed because they expired").register(registry);
+        expiredUnpushedDlrs = Counter.builder("sendium.dlr.expired").tag("type", "unpushed")
+                .description("Unpushed DLRs removed because they expired").register(registry);
+        Gauge.builder("sendium.dlr.store.entries", this, InMemoryDlrService::getPrimaryStoreSize).tag("type", "record")
+                .description("Entries in the DLR store").register(registry);
+        Gauge.builder("sendium.dlr.store.entries", this, InMemoryDlrService::getCorrelationIndexSize).tag("type", "correlation")
+                .description("Entries in the DLR store").register(registry);
+        Gauge.builder("sendium.dlr.store.entries", this, InMemoryDlrService::getUnpushedDlrStoreSize).tag("type", "unpushed")
+                .description("Entries in the DLR store").register(registry);
+        Gauge.builder("sendium.dlr.store.entries", this, InMemoryDlrService::getExpiryIndexSize).tag("type", "expiry")
+                .description("Entries in the DLR store").register(registry);
+        Gauge.builder("sendium.dlr.store.entries", this, InMemoryDlrService::getPendingLinksSize).tag("type", "pendingLink")
+                .description("Entries in the DLR store").register(registry);
+        Gauge.builder("sendium.dlr.store.entries", this, InMemoryDlrService::getHotTierSize).tag("type", "hot")
+                .description("Entries in the DLR store").register(registry);
+        Gauge.builder("sendium.dlr.store.entries", this, InMemoryDlrService::getPendingSavesSize).tag("type", "pendingSave")
+                .description("Entries in the DLR store").register(registry);
+        Gauge.builder("sendium.dlr.store.file.size", this, InMemoryDlrService::getStoreFileSize).baseUnit("bytes")
+                .description("Size of the DLR store file").register(registry);
+        Gauge.builder("sendium.dlr.store.fill.rate", this, InMemoryDlrService::getStoreFillRate).baseUnit("percent")
+                .description("Share of the chunks of the least full DLR store shard taken by live data").register(registry);
+        Gauge.builder("sendium.dlr.store.chunks", this, InMemoryDlrService::getStoreChunkCount)
+                .description("Chunks in the DLR store files").register(registry);
+        compactionTimer = Timer.builder("sendium.dlr.compaction")
+                .description("Compaction runs of the DLR store that rewrote chunks").register(registry);
+        commitTimer = Timer.builder("sendium.dlr.commit")
+                .description("Commits of the DLR store that had changes to write").register(registry);
+        commitBatchSizes = DistributionSummary.builder("sendium.dlr.commit.batch.size")
+                .description("Writes that requested a commit and were made durable by one commit").register(registry);
+    }
+
+    /**
+     * Move the rows of the primaryStore, primaryTimestamps and correlationTimestamps maps of earlier versions into
+     * {@link DlrRecord}s, and the unpushedDlrTimestamps into the unpushed DLRs, then drop the old maps. These maps are
+     * only found in a store of a single shard, which holds every key.
+     */
+    private void migrateLegacyMaps(DlrStoreShard shard) {
+        MVStore store = shard.store;
+        long now = System.currentTimeMillis();
+        if (store.hasMap("primaryStore")) {
+            MVMap<String, MessageState> primaryStore = store.openMap("primaryStore", new MVMap.Builder<String, MessageState>()
+                    .valueType(DlrRecordDataType.MESSAGE_STATE));
+            MVMap<String, Long> primaryTimestamps = store.openMap("primaryTimestamps");
+            MVMap<String, Long> correlationTimestamps = store.openMap("correlationTimestamps");
+            int migrated = 0;
+            for (var entry : primaryStore.entrySet()) {
+                MessageState state = entry.getValue();
+                if (state == null) {
+                    continue;
+                }
+                long createdAt = primaryTimestamps.getOrDefault(entry.getKey(), now);
+                long linkedAt = state.getOperatorMsgId() == null ? 0 : correlationTimestamps.getOrDefault(state.getOperatorMsgId(), createdAt);
+                shard.dlrRecords.put(entry.getKey(), new DlrRecord(state, createdAt, linkedAt, 0, 0));
+                migrated++;
+            }
+            for (var entry : shard.correlationIndex.entrySet()) {
+                if (!shard.dlrRecords.containsKey(entry.getValue())) {
+                    shard.correlationIndex.remove(entry.getKey());
+                }
+            }
+            store.removeMap(primaryStore);
+            store.removeMap(primaryTimestamps);
+            store.removeMap(correlationTimestamps);
+            logger.info("Migrated {} DLR records from the primaryStore and timestamp maps", migrated);
+        }
+        if (store.hasMap("unpushedDlrTimestamps")) {
+            MVMap<String, Long> unpushedDlrTimestamps = store.openMap("unpushedDlrTimestamps");
+            for (var entry : shard.unpushedDlrStore.entrySet()) {
+                UnpushedDlr dlr = entry.getValue();
+                if (dlr != null) {
+                    dlr.savedAt = unpushedDlrTimestamps.getOrDefault(entry.getKey(), now);
+                    shard.unpushedDlrStore.put(entry.getKey(), dlr);
+                }
+            }
+            store.removeMap(unpushedDlrTimestamps);
+            logger.info("Migrated the timestamps of {} unpushed DLRs", shard.unpushedDlrStore.size());
+        }
+        if (store.hasMap("unpushedDlrIndex")) {
+            MVMap<String, String> unpushedDlrIndex = store.openMap("unpushedDlrIndex");
+            int queued = 0;
+            for (var entry : unpushedDlrIndex.entrySet()) {
+                for (String key : readLegacyUnpushedDlrKeys(entry.getKey(), entry.getValue())) {
+                    UnpushedDlr dlr = shard.unpushedDlrStore.get(key);
+                    if (dlr != null && entry.getKey().equals(dlr.systemId)) {
+                        dlr.sequence = unpushedDlrSequence.incrementAndGet();
+                        shard.unpushedDlrStore.put(key, dlr);
+                        shard.unpushedDlrQueue.put(queueKey(dlr, key), Boolean.TRUE);
+                        queued++;
+                    }
+                }
+            }
+            store.removeMap(unpushedDlrIndex);
+            logger.info("Migrated {} unpushed DLRs from the unpushedDlrIndex lists", queued);
+        }
+        store.commit();
+    }
+
+    private List<String> readLegacyUnpushedDlrKeys(String systemId, String keysJson) {
+        if (keysJson == null || keysJson.isBlank()) {
+            return List.of();
+        }
+        try {
+            return mapper.readValue(keysJson, STRING_LIST_TYPE);
+        } catch (JsonProcessingException e) {
+            logger.error("Failed to deserialize unpushed DLR index for systemId: {}. Skipping corrupt index", systemId, e);
+            return List.of();
+        }
+    }
+
+    /**
+     * Add every record, correlation and unpushed DLR of the shard to its expiry index, which is missing in a store of
+     * an earlier version or a resharded store. Rows of earlier versions do not store when they expire, so it is set
+     * from their timestamps first.
+     */
+    private void rebuildExpiryIndex(DlrStoreShard shard) {
+        long now = System.currentTimeMillis();
+        int indexed = 0;
+        for (var entry : shard.dlrRecords.entrySet()) {
+            DlrRecord stored = entry.getValue();
+            if (stored == null) {
+                continue;
+            }
+            if (stored.expiresAt() == 0) {
+                String accountId = stored.state().getAccountId();
+                long expiresAt = expiresAt(stored.createdAt(), getRetentionMillis(_recordRetention, accountId));
+                long linkExpiresAt = stored.state().getOperatorMsgId() == null || stored.linkedAt() == 0 ? 0 :
+                        expiresAt(stored.linkedAt(), getRetentionMillis(_correlationRetention, accountId));
+                stored = new DlrRecord(stored.state(), stored.createdAt(), stored.linkedAt(), expiresAt, linkExpiresAt);
+                shard.dlrRecords.put(entry.getKey(), stored);
+            }
+            shard.expiryIndex.put(expiryKey(stored.expiresAt(), RECORD_EXPIRY, entry.getKey()), Boolean.TRUE);
+            indexed++;
+        }
+        for (var entry : shard.correlationIndex.entrySet()) {
+            String operatorMsgId = entry.getKey();
+            DlrRecord stored = shardFor(entry.getValue()).dlrRecords.get(entry.getValue());
+            long linkExpiresAt;
+            if (stored != null && operatorMsgId.equals(stored.state().getOperatorMsgId()) && stored.linkExpiresAt() > 0) {
+                linkExpiresAt = stored.linkExpiresAt();
+            } else {
+                linkExpiresAt = expiresAt(now, getRetentionMillis(_correlationRetention, stored == null ? null : stored.state().getAccountId()));
+            }
+            shard.expiryIndex.put(expiryKey(linkExpiresAt, CORRELATION_EXPIRY, operatorMsgId), Boolean.TRUE);
+            indexed++;
+        }
+        for (var entry : shard.unpushedDlrStore.entrySet()) {
+            UnpushedDlr dlr = entry.getValue();
+            if (dlr == null) {
+                continue;
+            }
+            if (dlr.expiresAt == 0) {
+                dlr.expiresAt = expiresAt(dlr.savedAt, getRetentionMillis(_unpushedRetention, dlr.accountId));
+                shard.unpushedDlrStore.put(entry.getKey(), dlr);
+            }
+            shard.expiryIndex.put(expiryKey(dlr.expiresAt, UNPUSHED_EXPIRY, entry.getKey()), Boolean.TRUE);
+            indexed++;
+        }
+        shard.store.commit();
+        logger.info("Indexed the expiry of {} DLR records, correlations and unpushed DLRs of shard {}", indexed, shard.index);
     }
 
     private void fallbackToInMemory() {
-        store = null;
-        primaryStore = new ConcurrentHashMap<>();
-        correlationIndex = new ConcurrentHashMap<>();
-        primaryTimestamps = new ConcurrentHashMap<>();
-        correlationTimestamps = new ConcurrentHashMap<>();
-        unpushedDlrStore = new ConcurrentHashMap<>();
-        unpushedDlrTimestamps = new ConcurrentHashMap<>();
-        unpushedDlrIndex = new ConcurrentHashMap<>();
+        for (DlrStoreShard shard : shards) {
+            shard.useInMemoryMaps();
+        }
         initialized = true;
         logger.info("Using in-memory mode (no persistence)");
     }
@@ -145,122 +519,452 @@ public class InMemoryDlrService {
     }
 
     private synchronized void saveAndClose() {
-        if (store != null && !store.isClosed()) {
-            try {
-                store.commit();
-                logger.info("Saved DLR database");
-            } catch (Exception e) {
-                logger.warn("Failed to commit DB: {}", e.getMessage());
+        if (ingest != null) {
+            // saves queued before now are written before the store is closed, later ones by their callers
+            shutdown(ingest, "ingest");
+        }
+        if (compactor != null) {
+            // a run stops between steps once the compactor is shut down
+            shutdown(compactor, "compaction");
+            compactor = null;
+        }
+        if (maintenance != null) {
+            shutdown(maintenance, "maintenance");
+            maintenance = null;
+        }
+        if (shards == null) {
+            return;
+        }
+        boolean persistent = isPersistent();
+        flushHotTier(Long.MAX_VALUE);
+        for (DlrStoreShard shard : shards) {
+            shard.close();
+        }
+        if (persistent) {
+            logger.info("Saved and closed DLR database");
+        }
+    }
+
+    private static void shutdown(ExecutorService executor, String name) {
+        // not interrupted, an interrupt closes the store's file channel
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(5, TimeUnit.SECONDS)) {
+                logger.warn("DLR store {} did not finish within 5 seconds", name);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @return the shard that owns {@code key}
+     */
+    private DlrStoreShard shardFor(String key) {
+        return shards[DlrStoreShard.shardOf(key, shards.length)];
+    }
+
+    public void saveInitialState(MessageState context) {
+        if (shards != null) {
+            String gatewayMsgId = context.getGatewayMsgId();
+            DlrStoreShard shard = shardFor(gatewayMsgId);
+            long now = System.currentTimeMillis();
+            DlrRecord record = initialRecord(context, now);
+            if (!saveHot(shard, gatewayMsgId, record, now)) {
+                shard.batchLock.lock();
+                try {
+                    storeInitialRecord(shard, gatewayMsgId, record);
+                } finally {
+                    shard.batchLock.unlock();
+                }
+            }
+            completePendingLink(gatewayMsgId);
+        }
+    }
+
+    /**
+     * Save the initial states of several messages, such as those of one bulk submission. The records that do not fit
+     * in the hot tier are written to the store of their shard in one write batch per shard, rather than one each.
+     */
+    public void saveInitialStates(List<MessageState> contexts) {
+        if (shards == null || contexts.isEmpty()) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        List<List<DlrRecord>> stored = new ArrayList<>(Collections.nCopies(shards.length, null));
+        for (MessageState context : contexts) {
+            String gatewayMsgId = context.getGatewayMsgId();
+            int shardIndex = DlrStoreShard.shardOf(gatewayMsgId, shards.length);
+            DlrRecord record = initialRecord(context, now);
+            if (!saveHot(shards[shardIndex], gatewayMsgId, record, now)) {
+                if (stored.get(shardIndex) == null) {
+                    stored.set(shardIndex, new ArrayList<>());
+                }
+                stored.get(shardIndex).add(record);
             }
+        }
+        for (int i = 0; i < shards.length; i++) {
+            List<DlrRecord> records = stored.get(i);
+            if (records != null) {
+                shards[i].batchLock.lock();
+                try {
+                    for (DlrRecord record : records) {
+                        storeInitialRecord(shards[i], record.state().getGatewayMsgId(), record);
+                    }
+                } finally {
+                    shards[i].batchLock.unlock();
+                }
+            }
+        }
+        for (MessageState context : contexts) {
+            completePendingLink(context.getGatewayMsgId());
+        }
+    }
+
+    /**
+     * Save the initial state of a message without waiting for the store, for callers that must not block, such as the
+     * HTTP ingress on the event loop. A record that fits in the hot tier is saved right away. Any other is queued for
+     * the ingest thread, which saves the queued records with {@link #saveInitialStates}, so that the records that
+     * arrive while it writes are written together in the next batch. At most {@code dlr.ingest.maxPendingSaves} records
+     * are queued, so that a store that falls behind pushes back on its callers instead of filling the heap.
+     *
+     * @return a stage that completes once the state is saved, or fails with a {@link RejectedExecutionException} if the
+     *     queue is full
+     */
+    public CompletableFuture<Void> saveInitialStateAsync(MessageState context) {
+        if (shards == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        String gatewayMsgId = context.getGatewayMsgId();
+        long now = System.currentTimeMillis();
+        if (saveHot(shardFor(gatewayMsgId), gatewayMsgId, initialRecord(context, now), now)) {
+            completePendingLink(gatewayMsgId);
+            return CompletableFuture.completedFuture(null);
+        }
+        if (pendingSaveCount.incrementAndGet() > maxPendingSaves) {
+            pendingSaveCount.decrementAndGet();
+            return CompletableFuture.failedFuture(new RejectedExecutionException(pendingSaveCount.get() +
+                    " initial states are waiting to be saved, the most " + _maxPendingSaves[0] + " allows"));
+        }
+        PendingSave save = new PendingSave(context, new CompletableFuture<>());
+        pendingSaves.add(save);
+        scheduleSaves();
+        return save.saved();
+    }
+
+    private void scheduleSaves() {
+        if (!pendingSaves.isEmpty() && savesScheduled.compareAndSet(false, true)) {
             try {
-                store.close();
-                logger.info("Closed DLR database");
-            } catch (Exception e) {
-                logger.warn("Failed to close DB: {}", e.getMessage());
+                ingest.execute(this::runSaves);
+            } catch (RejectedExecutionException e) {
+                // stopping, the state is saved by the caller instead
+                runSaves();
             }
         }
     }
 
-    public void saveInitialState(MessageState context) {
-        if (primaryStore != null) {
-            checkExpiry();
+    private void runSaves() {
+        try {
+            List<PendingSave> batch = new ArrayList<>();
+            PendingSave save;
+            while (batch.size() < MAX_SAVE_BATCH && (save = pendingSaves.poll()) != null) {
+                batch.add(save);
+            }
+            pendingSaveCount.addAndGet(-batch.size());
             try {
-                String json = mapper.writeValueAsString(context);
-                primaryStore.put(context.getGatewayMsgId(), json);
-                primaryTimestamps.put(context.getGatewayMsgId(), System.currentTimeMillis());
-            } catch (JsonProcessingException e) {
-                logger.error("Failed to serialize MessageState for gatewayMsgId: {}", context.getGatewayMsgId(), e);
+                saveInitialStates(batch.stream().map(PendingSave::state).toList());
+                batch.forEach(saved -> saved.saved().complete(null));
+            } catch (RuntimeException e) {
+                logger.error("Failed to save the initial state of {} messages", batch.size(), e);
+                batch.forEach(failed -> failed.saved().completeExceptionally(e));
             }
+        } finally {
+            savesScheduled.set(false);
         }
+        scheduleSaves();
+    }
+
+    private DlrRecord initialRecord(MessageState context, long now) {
+        long expiresAt = expiresAt(now, getRetentionMillis(_recordRetention, context.getAccountId()));
+        return new DlrRecord(new MessageState(context), now, 0, expiresAt, 0);
+    }
+
+    /**
+     * @return whether the record was saved to the hot tier, which it is while that has room
+     */
+    private boolean saveHot(DlrStoreShard shard, String gatewayMsgId, DlrRecord record, long now) {
+        if (shard.hotRecords.size() >= hotTierMaxEntries) {
+            return false;
+        }
+        shard.hotRecords.put(gatewayMsgId, record);
+        shard.hotRecordQueue.add(new DlrStoreShard.HotKey(gatewayMsgId, now));
+        return true;
+    }
+
+    /**
+     * Write a new record to the store of its shard, within a write batch.
+     */
+    private static void storeInitialRecord(DlrStoreShard shard, String gatewayMsgId, DlrRecord record) {
+        shard.dlrRecords.put(gatewayMsgId, record);
+        shard.expiryIndex.put(expiryKey(record.expiresAt(), RECORD_EXPIRY, gatewayMsgId), Boolean.TRUE);
     }
 
+    private void completePendingLink(String gatewayMsgId) {
+        PendingLink pending = pendingLinks.remove(gatewayMsgId);
+        if (pending != null) {
+            applyLink(gatewayMsgId, pending.operatorMsgId());
+        }
+    }
+
+    /**
+     * Link the operator message id to a submitted message. If its initial state is not saved yet, the link is parked
+     * and completed by {@link #saveInitialState}.
+     */
     public void linkOperatorId(String gatewayMsgId, String operatorMsgId) {
-        checkExpiry();
-        if (primaryStore == null || correlationIndex == null) {
+        if (shards == null) {
+            return;
+        }
+        if (applyLink(gatewayMsgId, operatorMsgId)) {
             return;
         }
 
-        int maxRetries = 20;
-        long retryIntervalMs = 200;
-        MessageState state = null;
+        long now = System.currentTimeMillis();
+        expirePendingLinks(now);
+        if (pendingLinks.size() >= maxPendingLinks) {
+            logger.warn("Too many pending operator id links ({}), dropping link of gatewayMsgId: {}", pendingLinks.size(), gatewayMsgId);
+            return;
+        }
+        PendingLink pending = new PendingLink(gatewayMsgId, operatorMsgId, now);
+        pendingLinks.put(gatewayMsgId, pending);
+        pendingLinksByAge.add(pending);
+        // the state may have been saved after the first lookup and before the link was parked
+        if (findRecord(gatewayMsgId) != null && pendingLinks.remove(gatewayMsgId, pending)) {
+            applyLink(gatewayMsgId, operatorMsgId);
+        } else {
+            logger.debug("Parked link of gatewayMsgId: {} until its state is saved", gatewayMsgId);
+        }
+    }
 
-        for (int i = 0; i < maxRetries; i++) {
-            String stateJson = primaryStore.get(gatewayMsgId);
-            if (stateJson != null) {
-                try {
-                    // Deserialize back to object
-                    state = mapper.readValue(stateJson, MessageState.class);
-                    break; // State found and parsed, exit the retry loop
-                } catch (JsonProcessingException e) {
-                    logger.error("Failed to deserialize MessageState for gatewayMsgId: {}", gatewayMsgId, e);
-                    break;
+    /**
+     * Link a hot record in the hot tier, or a stored record in the store.
+     */
+    private boolean applyLink(String gatewayMsgId, String operatorMsgId) {
+        DlrStoreShard recordShard = shardFor(gatewayMsgId);
+        DlrRecord hot;
+        while ((hot = recordShard.hotRecords.get(gatewayMsgId)) != null) {
+            long now = System.currentTimeMillis();
+            DlrRecord linked = linked(hot, operatorMsgId, now);
+            // fails if the record was linked, resolved or written to the store meanwhile
+            if (recordShard.hotRecords.replace(gatewayMsgId, hot, linked)) {
+                unlinkPrevious(hot, gatewayMsgId, operatorMsgId);
+                DlrStoreShard correlationShard = shardFor(operatorMsgId);
+                addToFilter(operatorMsgId);
+                if (correlationShard.hotCorrelations.put(operatorMsgId,
+                        new DlrStoreShard.HotCorrelation(gatewayMsgId, now, linked.linkExpiresAt())) != null) {
+                    removeFromFilter(operatorMsgId);
                 }
+                correlationShard.hotCorrelationQueue.add(new DlrStoreShard.HotKey(operatorMsgId, now));
+                return true;
             }
+        }
+
+        DlrRecord stored = recordShard.dlrRecords.get(gatewayMsgId);
+        if (stored == null) {
+            return false;
+        }
+        DlrRecord linked = linked(stored, operatorMsgId, System.currentTimeMillis());
+        unlinkPrevious(stored, gatewayMsgId, operatorMsgId);
+        DlrStoreShard correlationShard = shardFor(operatorMsgId);
+        recordShard.batchLock.lock();
+        try {
+            recordShard.dlrRecords.put(gatewayMsgId, linked);
+            if (correlationShard == recordShard) {
+                indexCorrelation(correlationShard, operatorMsgId, gatewayMsgId, linked.linkExpiresAt());
+            }
+        } finally {
+            recordShard.batchLock.unlock();
+        }
+        if (correlationShard != recordShard) {
+            correlationShard.batchLock.lock();
             try {
-                Thread.sleep(retryIntervalMs);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                logger.warn("Thread interrupted while retrying for gatewayMsgId: {}", gatewayMsgId);
-                break;
+                indexCorrelation(correlationShard, operatorMsgId, gatewayMsgId, linked.linkExpiresAt());
+            } finally {
+                correlationShard.batchLock.unlock();
             }
         }
+        return true;
+    }
 
-        // Check if we successfully found the state after the retries
-        if (state != null) {
-            state.setOperatorMsgId(operatorMsgId);
-            state.setStatus(MessageState.MessageStatus.SENT);
-            state.setTimestamp(System.currentTimeMillis());
-            try {
-                primaryStore.put(gatewayMsgId, mapper.writeValueAsString(state));
-                correlationIndex.put(operatorMsgId, gatewayMsgId);
-                correlationTimestamps.put(operatorMsgId, System.currentTimeMillis());
-            } catch (JsonProcessingException e) {
-                logger.error("Failed to serialize updated MessageState", e);
+    private DlrRecord linked(DlrRecord stored, String operatorMsgId, long now) {
+        MessageState state = new MessageState(stored.state());
+        state.setOperatorMsgId(operatorMsgId);
+        state.setStatus(MessageState.MessageStatus.SENT);
+        state.setTimestamp(now);
+        long linkExpiresAt = expiresAt(now, getRetentionMillis(_correlationRetention, state.getAccountId()));
+        return new DlrRecord(state, stored.createdAt(), now, stored.expiresAt(), linkExpiresAt);
+    }
+
+    /**
+     * Drop the correlation of the operator message id a record was linked to before, unless it is linked to the same
+     * id again. Its expiry index entry is dropped either way, a link to the same id within the same millisecond has
+     * the same expiry key.
+     */
+    private void unlinkPrevious(DlrRecord stored, String gatewayMsgId, String operatorMsgId) {
+        String previousOperatorMsgId = stored.state().getOperatorMsgId();
+        if (previousOperatorMsgId == null) {
+            return;
+        }
+        DlrStoreShard previousShard = shardFor(previousOperatorMsgId);
+        boolean relinked = previousOperatorMsgId.equals(operatorMsgId);
+        DlrStoreShard.HotCorrelation hot = previousShard.hotCorrelations.get(previousOperatorMsgId);
+        if (!relinked && hot != null && gatewayMsgId.equals(hot.gatewayMsgId()) && previousShard.hotCorrelations.remove(previousOperatorMsgId, hot)) {
+            removeFromFilter(previousOperatorMsgId);
+        }
+        previousShard.batchLock.lock();
+        try {
+            previousShard.expiryIndex.remove(expiryKey(stored.linkExpiresAt(), CORRELATION_EXPIRY, previousOperatorMsgId));
+            if (!relinked && previousShard.correlationIndex.remove(previousOperatorMsgId, gatewayMsgId)) {
+                removeFromFilter(previousOperatorMsgId);
+            }
+        } finally {
+            previousShard.batchLock.unlock();
+        }
+    }
+
+    private void indexCorrelation(DlrStoreShard shard, String operatorMsgId, String gatewayMsgId, long linkExpiresAt) {
+        addToFilter(operatorMsgId);
+        if (shard.correlationIndex.put(operatorMsgId, gatewayMsgId) != null) {
+            removeFromFilter(operatorMsgId);
+        }
+        shard.expiryIndex.put(expiryKey(linkExpiresAt, CORRELATION_EXPIRY, operatorMsgId), Boolean.TRUE);
+    }
+
+    /**
+     * Count a correlation in the operator message id filter. It is counted before it is visible, so a lookup never
+     * misses it, and once per entry in the hot tier or the store, so that it is removed exactly as often.
+     */
+    private void addToFilter(String operatorMsgId) {
+        if (operatorIdFilter != null) {
+            operatorIdFilter.add(operatorMsgId);
+        }
+    }
+
+    private void removeFromFilter(String operatorMsgId) {
+        if (operatorIdFilter != null) {
+            operatorIdFilter.remove(operatorMsgId);
+        }
+    }
+
+    /**
+     * Drop the parked links older than {@code dlr.pendingLinks.ttlMillis}, from the head of {@link #pendingLinksByAge},
+     * so that only the expired and completed links are visited.
+     */
+    private void expirePendingLinks(long now) {
+        for (PendingLink oldest = pendingLinksByAge.peek(); oldest != null; oldest = pendingLinksByAge.peek()) {
+            boolean parked = pendingLinks.get(oldest.gatewayMsgId()) == oldest;
+            if (parked && now - oldest.createdAt() <= pendingLinksTtlMillis) {
+                return;
+            }
+            // another caller may have taken the head meanwhile
+            if (pendingLinksByAge.remove(oldest) && parked && pendingLinks.remove(oldest.gatewayMsgId(), oldest)) {
+                logger.warn("GatewayMsgId not found for linking within {}ms: {}", pendingLinksTtlMillis, oldest.gatewayMsgId());
             }
-        } else {
-            logger.warn("GatewayMsgId not found for linking after {} retries: {}", maxRetries, gatewayMsgId);
         }
     }
 
     public Optional<MessageState> resolveAndRemoveDlr(String operatorMsgId, int dlrState) {
-        checkExpiry();
-        if (correlationIndex == null || primaryStore == null) {
+        if (shards == null) {
             return Optional.empty();
         }
-        String gatewayMsgId = correlationIndex.get(operatorMsgId);
-        if (gatewayMsgId == null) {
+        if (operatorIdFilter != null && !operatorIdFilter.mightContain(operatorMsgId)) {
+            filteredLookups.increment();
             logger.warn("No gatewayMsgId found for operatorMsgId: {} (expired or unknown)", operatorMsgId);
             return Optional.empty();
         }
-
-        String stateJson = primaryStore.get(gatewayMsgId);
-        if (stateJson != null) {
+        DlrStoreShard correlationShard = shardFor(operatorMsgId);
+        String gatewayMsgId;
+        DlrRecord stored = null;
+        boolean recordTaken = false;
+        DlrStoreShard.HotCorrelation hot = correlationShard.hotCorrelations.remove(operatorMsgId);
+        if (hot != null) {
+            gatewayMsgId = hot.gatewayMsgId();
+            hotLookups.increment();
+        } else {
+            correlationShard.batchLock.lock();
             try {
-                MessageState state = mapper.readValue(stateJson, MessageState.class);
-                state.setTimestamp(System.currentTimeMillis());
-                state.setStatus(mapDlrStateToMessageStatus(dlrState));
-
-                primaryStore.remove(gatewayMsgId);
-                primaryTimestamps.remove(gatewayMsgId);
-                correlationIndex.remove(operatorMsgId);
-                correlationTimestamps.remove(operatorMsgId);
-                logger.debug("Resolved and removed DLR for gatewayMsgId: {}", gatewayMsgId);
-
-                String forwardUrl = state.getForwardDlrUrl();
-                if (forwardUrl != null && !forwardUrl.isEmpty()) {
-                    forwardDlrService.forwardDlr(state);
+                gatewayMsgId = correlationShard.correlationIndex.remove(operatorMsgId);
+                if (gatewayMsgId != null && shardFor(gatewayMsgId) == correlationShard) {
+                    // the correlation and the record are removed in one batch
+                    stored = takeRecord(gatewayMsgId);
+                    recordTaken = true;
                 }
+            } finally {
+                correlationShard.batchLock.unlock();
+            }
+            if (gatewayMsgId == null) {
+                missedLookups.increment();
+                logger.warn("No gatewayMsgId found for operatorMsgId: {} (expired or unknown)", operatorMsgId);
+                return Optional.empty();
+            }
+            storeLookups.increment();
+        }
+        removeFromFilter(operatorMsgId);
+        if (!recordTaken) {
+            stored = takeRecord(gatewayMsgId);
+        }
+
+        if (stored != null) {
+            if (hot == null) {
+                correlationShard.expiryIndex.remove(expiryKey(stored.linkExpiresAt(), CORRELATION_EXPIRY, operatorMsgId));
+            }
+            MessageState state = new MessageState(stored.state());
+            state.setTimestamp(System.currentTimeMillis());
+            state.setStatus(mapDlrStateToMessageStatus(dlrState));
+            logger.debug("Resolved and removed DLR for gatewayMsgId: {}", gatewayMsgId);
 
-                return Optional.of(state);
-            } catch (JsonProcessingException e) {
-                logger.error("Failed to deserialize MessageState during resolve", e);
+            String forwardUrl = state.getForwardDlrUrl();
+            if (forwardUrl != null && !forwardUrl.isEmpty()) {
+                forwardDlrService.forwardDlr(state);
             }
+
+            return Optional.of(state);
         }
 
         logger.warn("MessageState not found for gatewayMsgId: {}", gatewayMsgId);
         return Optional.empty();
     }
 
+    /**
+     * @return the record of the message from the hot tier or else the store, or null
+     */
+    private DlrRecord findRecord(String gatewayMsgId) {
+        DlrStoreShard shard = shardFor(gatewayMsgId);
+        // a record is written to the store before it leaves the hot tier
+        DlrRecord hot = shard.hotRecords.get(gatewayMsgId);
+        return hot != null ? hot : shard.dlrRecords.get(gatewayMsgId);
+    }
+
+    /**
+     * Remove the record of the message from the hot tier, or else from the store as a write batch of its shard.
+     */
+    private DlrRecord takeRecord(String gatewayMsgId) {
+        DlrStoreShard shard = shardFor(gatewayMsgId);
+        DlrRecord hot = shard.hotRecords.remove(gatewayMsgId);
+        if (hot != null) {
+            return hot;
+        }
+        shard.batchLock.lock();
+        try {
+            DlrRecord stored = shard.dlrRecords.remove(gatewayMsgId);
+            if (stored != null) {
+                shard.expiryIndex.remove(expiryKey(stored.expiresAt(), RECORD_EXPIRY, gatewayMsgId));
+            }
+            return stored;
+        } finally {
+            shard.batchLock.unlock();
+        }
+    }
+
     private MessageState.MessageStatus mapDlrStateToMessageStatus(int dlrState) {
         return switch (dlrState) {
             case 1 -> MessageState.MessageStatus.DELIVERED;
@@ -272,168 +976,216 @@ public class InMemoryDlrService {
     }
 
     public Optional<MessageState> getState(String gatewayMsgId) {
-        checkExpiry();
-        if (primaryStore == null) {
+        if (shards == null) {
             return Optional.empty();
         }
 
-        String stateJson = primaryStore.get(gatewayMsgId);
-        if (stateJson != null) {
-            try {
-                return Optional.of(mapper.readValue(stateJson, MessageState.class));
-            } catch (JsonProcessingException e) {
-                logger.error("Failed to deserialize MessageState in getState", e);
-            }
-        }
-        return Optional.empty();
+        DlrRecord stored = findRecord(gatewayMsgId);
+        return stored == null ? Optional.empty() : Optional.of(new MessageState(stored.state()));
     }
 
     public boolean markAsFailed(String gatewayMsgId) {
-        checkExpiry();
-        if (primaryStore == null) {
+        if (shards == null) {
             return false;
         }
 
-        String stateJson = primaryStore.get(gatewayMsgId);
-        if (stateJson != null) {
-            try {
-                MessageState state = mapper.readValue(stateJson, MessageState.class);
-                state.setStatus(MessageState.MessageStatus.FAILED);
-                state.setTimestamp(System.currentTimeMillis());
-                primaryStore.put(gatewayMsgId, mapper.writeValueAsString(state));
+        DlrStoreShard shard = shardFor(gatewayMsgId);
+        DlrRecord hot;
+        while ((hot = shard.hotRecords.get(gatewayMsgId)) != null) {
+            if (shard.hotRecords.replace(gatewayMsgId, hot, failed(hot))) {
                 return true;
-            } catch (JsonProcessingException e) {
-                logger.error("Failed to process MessageState in markAsFailed", e);
             }
         }
-        return false;
+        DlrRecord stored = shard.dlrRecords.get(gatewayMsgId);
+        if (stored == null) {
+            return false;
+        }
+        shard.dlrRecords.put(gatewayMsgId, failed(stored));
+        return true;
+    }
+
+    private static DlrRecord failed(DlrRecord stored) {
+        MessageState state = new MessageState(stored.state());
+        state.setStatus(MessageState.MessageStatus.FAILED);
+        state.setTimestamp(System.currentTimeMillis());
+        return new DlrRecord(state, stored.createdAt(), stored.linkedAt(), stored.expiresAt(), stored.linkExpiresAt());
     }
 
     /**
-     * Persist a DLR that could not be pushed to the SMPP client.
+     * Persist a DLR that could not be pushed to the SMPP client, waiting for the commit if
+     * {@code dlr.unpushed.waitForCommit} is set.
      */
     public boolean saveUnpushedDlr(StandardMessage msg) {
-        checkExpiry();
-        if (unpushedDlrStore == null || unpushedDlrIndex == null || msg == null || msg.type != StandardMessage.MSG_DLR ||
+        return saveUnpushedDlr(msg, getConfigBoolean(_unpushedWaitForCommit));
+    }
+
+    /**
+     * Persist a DLR that could not be pushed to the SMPP client.
+     *
+     * @param waitForCommit return once the DLR is committed to the store, rather than within
+     *                      {@code dlr.commit.maxDelayMillis} after returning
+     */
+    public boolean saveUnpushedDlr(StandardMessage msg, boolean waitForCommit) {
+        if (shards == null || msg == null || msg.type != StandardMessage.MSG_DLR ||
                 msg.systemId == null || msg.systemId.isBlank()) {
             return false;
         }
 
         String key = getUnpushedDlrKey(msg);
-        synchronized (unpushedDlrStateLock) {
+        UnpushedDlr dlr = UnpushedDlr.fromMessage(msg);
+        dlr.savedAt = System.currentTimeMillis();
+        dlr.expiresAt = expiresAt(dlr.savedAt, getRetentionMillis(_unpushedRetention, dlr.accountId));
+        dlr.sequence = unpushedDlrSequence.incrementAndGet();
+        DlrStoreShard shard = shardFor(msg.systemId);
+        synchronized (shard.unpushedDlrStateLock) {
+            shard.batchLock.lock();
             try {
-                unpushedDlrStore.put(key, mapper.writeValueAsString(UnpushedDlr.fromMessage(msg)));
-                unpushedDlrTimestamps.put(key, System.currentTimeMillis());
-                addKeyToUnpushedDlrIndex(msg.systemId, key);
-                commitStore();
-                logger.info("Saved unpushed DLR key: {}", key);
-                return true;
-            } catch (JsonProcessingException e) {
-                logger.error("Failed to serialize unpushed DLR key: {}", key, e);
-                return false;
+                UnpushedDlr previous = shard.unpushedDlrStore.put(key, dlr);
+                if (previous != null) {
+                    shard.expiryIndex.remove(expiryKey(previous.expiresAt, UNPUSHED_EXPIRY, key));
+                    shard.unpushedDlrQueue.remove(queueKey(previous, key));
+                }
+                shard.expiryIndex.put(expiryKey(dlr.expiresAt, UNPUSHED_EXPIRY, key), Boolean.TRUE);
+                shard.unpushedDlrQueue.put(queueKey(dlr, key), Boolean.TRUE);
+            } finally {
+                shard.batchLock.unlock();
             }
         }
+        shard.requestCommit(waitForCommit);
+        logger.info("Saved unpushed DLR key: {}", key);
+        return true;
     }
 
     /**
      * Load unpushed DLRs for one SMPP systemId without marking them for replay.
      */
     public List<StandardMessage> getUnpushedDlrs(String systemId) {
-        return loadUnpushedDlrs(systemId, false);
+        return loadUnpushedDlrs(systemId, null, false, 0).messages();
     }
 
     /**
      * Load and claim unpushed DLRs for replay. Claimed entries are hidden from later claims until removed or released.
      */
     public List<StandardMessage> claimUnpushedDlrs(String systemId) {
-        return loadUnpushedDlrs(systemId, true);
+        return loadUnpushedDlrs(systemId, null, true, 0).messages();
     }
 
-    private List<StandardMessage> loadUnpushedDlrs(String systemId, boolean claimForReplay) {
-        checkExpiry();
+    /**
+     * Claim at most {@code limit} unpushed DLRs for replay, oldest first.
+     */
+    public List<StandardMessage> claimUnpushedDlrs(String systemId, int limit) {
+        return loadUnpushedDlrs(systemId, null, true, limit).messages();
+    }
+
+    /**
+     * Claim at most {@code limit} unpushed DLRs for replay, oldest first, starting after {@code cursor}. Replay passes
+     * the {@link UnpushedDlrPage#nextCursor()} of each page to claim the next one, so a backlog is streamed with one
+     * range scan instead of being materialized at once or scanned again for every page.
+     *
+     * @param cursor null for the first page
+     */
+    public UnpushedDlrPage claimUnpushedDlrs(String systemId, String cursor, int limit) {
+        return loadUnpushedDlrs(systemId, cursor, true, limit);
+    }
+
+    private UnpushedDlrPage loadUnpushedDlrs(String systemId, String cursor, boolean claimForReplay, int limit) {
         List<StandardMessage> messages = new ArrayList<>();
-        if (unpushedDlrStore == null || unpushedDlrIndex == null || systemId == null || systemId.isBlank()) {
-            return messages;
+        if (shards == null || systemId == null || systemId.isBlank()) {
+            return new UnpushedDlrPage(messages, null);
         }
+        DlrStoreShard shard = shardFor(systemId);
 
+        String prefix = systemId + QUEUE_SEPARATOR;
+        // the least key after the cursor is the cursor followed by the least char
+        String from = cursor != null && cursor.startsWith(prefix) ? cursor + QUEUE_SEPARATOR : prefix;
+        String nextCursor = null;
         boolean changed = false;
-        synchronized (unpushedDlrStateLock) {
-            for (String key : getUnpushedDlrKeys(systemId)) {
-                if (claimForReplay && claimedUnpushedDlrKeys.contains(key)) {
-                    continue;
-                }
-
-                String msgJson = unpushedDlrStore.get(key);
-                if (msgJson == null) {
-                    removeKeyFromUnpushedDlrIndex(systemId, key);
-                    changed = true;
-                    continue;
-                }
-                try {
-                    UnpushedDlr dlr = mapper.readValue(msgJson, UnpushedDlr.class);
-                    if (isUnpushedDlrForConnection(dlr, systemId)) {
-                        if (!claimForReplay || claimedUnpushedDlrKeys.add(key)) {
-                            messages.add(dlr.toMessage());
-                        }
-                    } else {
-                        removeKeyFromUnpushedDlrIndex(systemId, key);
+        synchronized (shard.unpushedDlrStateLock) {
+            shard.batchLock.lock();
+            try {
+                String lastKey = null;
+                Iterator<String> queued = keysFrom(shard.unpushedDlrQueue, from);
+                while (queued.hasNext()) {
+                    String queueKey = queued.next();
+                    if (!queueKey.startsWith(prefix)) {
+                        break;
+                    }
+                    if (limit > 0 && messages.size() >= limit) {
+                        nextCursor = lastKey;
+                        break;
+                    }
+                    lastKey = queueKey;
+                    String key = queueKey.substring(prefix.length() + QUEUE_POSITION_LENGTH);
+                    if (claimForReplay && shard.claimedUnpushedDlrKeys.contains(key)) {
+                        continue;
+                    }
+                    UnpushedDlr dlr = shard.unpushedDlrStore.get(key);
+                    if (dlr == null) {
+                        // missing, or a legacy row that could not be parsed
+                        shard.unpushedDlrStore.remove(key);
+                        shard.unpushedDlrQueue.remove(queueKey);
+                        shard.claimedUnpushedDlrKeys.remove(key);
                         changed = true;
+                    } else if (!claimForReplay || shard.claimedUnpushedDlrKeys.add(key)) {
+                        messages.add(dlr.toMessage());
                     }
-                } catch (JsonProcessingException e) {
-                    logger.error("Failed to deserialize unpushed DLR key: {}. Removing corrupt entry", key, e);
-                    unpushedDlrStore.remove(key);
-                    unpushedDlrTimestamps.remove(key);
-                    claimedUnpushedDlrKeys.remove(key);
-                    removeKeyFromUnpushedDlrIndex(systemId, key);
-                    changed = true;
                 }
-            }
-            if (changed) {
-                commitStore();
+            } finally {
+                shard.batchLock.unlock();
             }
         }
+        if (changed) {
+            shard.requestCommit(false);
+        }
 
-        return messages;
+        return new UnpushedDlrPage(messages, nextCursor);
     }
 
     /**
      * Remove a replayed DLR from all unpushed-DLR maps.
      */
     public boolean removeUnpushedDlr(StandardMessage msg) {
-        if (unpushedDlrStore == null || unpushedDlrIndex == null || msg == null || msg.systemId == null || msg.systemId.isBlank()) {
+        if (shards == null || msg == null || msg.systemId == null || msg.systemId.isBlank()) {
             return false;
         }
 
         String key = getUnpushedDlrKey(msg);
-        synchronized (unpushedDlrStateLock) {
-            final boolean removed = unpushedDlrStore.remove(key) != null;
-            unpushedDlrTimestamps.remove(key);
-            claimedUnpushedDlrKeys.remove(key);
-            removeKeyFromUnpushedDlrIndex(msg.systemId, key);
-            if (removed) {
-                commitStore();
+        DlrStoreShard shard = shardFor(msg.systemId);
+        UnpushedDlr removed;
+        synchronized (shard.unpushedDlrStateLock) {
+            shard.batchLock.lock();
+            try {
+                removed = shard.unpushedDlrStore.remove(key);
+                if (removed != null) {
+                    shard.expiryIndex.remove(expiryKey(removed.expiresAt, UNPUSHED_EXPIRY, key));
+                    shard.unpushedDlrQueue.remove(queueKey(removed, key));
+                }
+            } finally {
+                shard.batchLock.unlock();
             }
-            return removed;
+            shard.claimedUnpushedDlrKeys.remove(key);
         }
+        if (removed == null) {
+            return false;
+        }
+        shard.requestCommit(false);
+        return true;
     }
 
     /**
      * Make a claimed but not yet removed DLR eligible for a later replay attempt.
      */
     public void releaseUnpushedDlrClaim(StandardMessage msg) {
-        if (msg == null || msg.systemId == null || msg.systemId.isBlank()) {
+        if (shards == null || msg == null || msg.systemId == null || msg.systemId.isBlank()) {
             return;
         }
 
-        synchronized (unpushedDlrStateLock) {
-            claimedUnpushedDlrKeys.remove(getUnpushedDlrKey(msg));
+        DlrStoreShard shard = shardFor(msg.systemId);
+        synchronized (shard.unpushedDlrStateLock) {
+            shard.claimedUnpushedDlrKeys.remove(getUnpushedDlrKey(msg));
         }
     }
 
-    private boolean isUnpushedDlrForConnection(UnpushedDlr dlr, String systemId) {
-        return dlr != null && dlr.systemId != null && dlr.systemId.equals(systemId);
-    }
-
     private String getUnpushedDlrKey(StandardMessage msg) {
         return String.join("|",
                 nullToEmpty(msg.systemId),
@@ -443,132 +1195,425 @@ public class InMemoryDlrService {
                 String.valueOf(msg.msgId));
     }
 
-    private void addKeyToUnpushedDlrIndex(String systemId, String key) throws JsonProcessingException {
-        List<String> keys = getUnpushedDlrKeys(systemId);
-        if (!keys.contains(key)) {
-            keys.add(key);
-            unpushedDlrIndex.put(systemId, mapper.writeValueAsString(keys));
+    /**
+     * @return the key of the DLR in {@code unpushedDlrQueue}
+     */
+    static String queueKey(UnpushedDlr dlr, String key) {
+        StringBuilder queueKey = new StringBuilder(dlr.systemId.length() + 1 + QUEUE_POSITION_LENGTH + key.length());
+        queueKey.append(dlr.systemId).append(QUEUE_SEPARATOR);
+        appendPadded(queueKey, dlr.savedAt, EXPIRY_TIME_DIGITS).append('|');
+        appendPadded(queueKey, dlr.sequence, SEQUENCE_DIGITS).append('|');
+        return queueKey.append(key).toString();
+    }
+
+    /**
+     * @return the keys of an ordered map, an {@link MVMap} or a {@link NavigableMap}, from {@code from} on
+     */
+    @SuppressWarnings("unchecked")
+    private static Iterator<String> keysFrom(Map<String, ?> orderedMap, String from) {
+        if (orderedMap instanceof MVMap<?, ?>) {
+            return ((MVMap<String, ?>) orderedMap).keyIterator(from);
         }
+        return ((NavigableMap<String, ?>) orderedMap).tailMap(from, true).keySet().iterator();
     }
 
-    private List<String> getUnpushedDlrKeys(String systemId) {
-        String keysJson = unpushedDlrIndex.get(systemId);
-        if (keysJson == null || keysJson.isBlank()) {
-            return new ArrayList<>();
+    private String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    private void runExpiry() {
+        try {
+            int expired = expireDue(System.currentTimeMillis());
+            if (expired > 0) {
+                logger.debug("Processed {} due DLR expiry entries", expired);
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to expire DLR records", e);
         }
+    }
+
+    private void runCompaction() {
         try {
-            return new ArrayList<>(mapper.readValue(keysJson, STRING_LIST_TYPE));
-        } catch (JsonProcessingException e) {
-            logger.error("Failed to deserialize unpushed DLR index for systemId: {}. Clearing corrupt index", systemId, e);
-            unpushedDlrIndex.remove(systemId);
-            return new ArrayList<>();
+            int steps = compact(LocalTime.now());
+            if (steps > 0) {
+                logger.debug("Compacted the DLR store in {} steps", steps);
+            }
+        } catch (Exception e) {
+            logger.warn("Failed to compact the DLR store", e);
         }
     }
 
-    private void removeKeyFromUnpushedDlrIndex(String systemId, String key) {
-        if (systemId == null || unpushedDlrIndex == null) {
-            return;
+    /**
+     * Compact each shard whose chunks are less than {@code dlr.compaction.targetFillRate} percent full, if
+     * {@code now} is within {@code dlr.compaction.window}. Each step rewrites the live pages of the least full chunks
+     * and commits them, and the steps are spaced so that no more than {@code dlr.compaction.maxWriteBytesPerSecond}
+     * are rewritten, until the shards are full enough or {@code dlr.compaction.maxDurationMillis} is over. Writers only
+     * wait for the commit of a step, like for any other commit.
+     *
+     * @return the number of steps that rewrote pages
+     */
+    int compact(LocalTime now) {
+        if (shards == null || !inWindow(getConfigString(_compactionWindow), now)) {
+            return 0;
         }
-        List<String> keys = getUnpushedDlrKeys(systemId);
-        if (!keys.remove(key)) {
-            return;
+        int targetFillRate = (int) Math.clamp(getConfigLong(_compactionTargetFillRate), 0, 100);
+        long bytesPerSecond = Math.max(1, getConfigLong(_compactionMaxWriteRate));
+        int stepBytes = (int) Math.clamp(bytesPerSecond / COMPACTION_STEPS_PER_SECOND, MIN_COMPACTION_STEP_BYTES, Integer.MAX_VALUE);
+        long stepNanos = TimeUnit.SECONDS.toNanos(1) * stepBytes / bytesPerSecond;
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(getConfigLong(_compactionMaxDuration));
+        int steps = 0;
+        for (DlrStoreShard shard : shards) {
+            while (System.nanoTime() - deadline < 0 && (compactor == null || !compactor.isShutdown())) {
+                long stepStart = System.nanoTime();
+                if (!shard.compact(targetFillRate, stepBytes)) {
+                    break;
+                }
+                steps++;
+                LockSupport.parkNanos(stepNanos - (System.nanoTime() - stepStart));
+            }
         }
-        if (keys.isEmpty()) {
-            unpushedDlrIndex.remove(systemId);
-            return;
+        if (steps > 0) {
+            compactionTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        }
+        return steps;
+    }
+
+    /**
+     * A malformed window is never entered, so that a typo does not compact at peak time.
+     *
+     * @param window {@code HH:mm-HH:mm} in local time, which may span midnight, or blank for any time
+     * @return whether {@code now} is within the window
+     */
+    static boolean inWindow(String window, LocalTime now) {
+        if (window == null || window.isBlank()) {
+            return true;
         }
+        String[] times = window.trim().split("-");
+        LocalTime from;
+        LocalTime to;
         try {
-            unpushedDlrIndex.put(systemId, mapper.writeValueAsString(keys));
-        } catch (JsonProcessingException e) {
-            logger.error("Failed to serialize unpushed DLR index for systemId: {}. Clearing index", systemId, e);
-            unpushedDlrIndex.remove(systemId);
+            if (times.length != 2) {
+                throw new DateTimeParseException("expected HH:mm-HH:mm", window, 0);
+            }
+            from = LocalTime.parse(times[0].trim());
+            to = LocalTime.parse(times[1].trim());
+        } catch (DateTimeParseException e) {
+            logger.warn("Ignoring malformed {}={}, expected HH:mm-HH:mm", _compactionWindow[0], window);
+            return false;
         }
+        return from.isAfter(to) ? !now.isBefore(from) || now.isBefore(to) : !now.isBefore(from) && now.isBefore(to);
     }
 
-    private String getSystemIdFromUnpushedDlrKey(String key) {
-        int separator = key.indexOf('|');
-        return separator >= 0 ? key.substring(0, separator) : key;
+    private void runHotTierFlush() {
+        try {
+            flushHotTier(System.currentTimeMillis() - hotTierWriteBehindMillis);
+        } catch (Exception e) {
+            logger.warn("Failed to write the DLR hot tier to the store", e);
+        }
     }
 
-    private String nullToEmpty(String value) {
-        return value == null ? "" : value;
+    /**
+     * Write the hot records and correlations that became hot at or before {@code hotBefore} to the store with their
+     * expiry index entries, and drop them from the hot tier. An entry that was resolved or changed since it was queued
+     * is left to its own queue entry.
+     */
+    void flushHotTier(long hotBefore) {
+        if (shards == null) {
+            return;
+        }
+        for (DlrStoreShard shard : shards) {
+            DlrStoreShard.HotKey next;
+            while ((next = shard.hotRecordQueue.peek()) != null && next.since() <= hotBefore) {
+                shard.hotRecordQueue.poll();
+                long since = next.since();
+                shard.hotRecords.computeIfPresent(next.key(), (gatewayMsgId, record) -> {
+                    if (record.createdAt() != since) {
+                        return record;
+                    }
+                    // not a write batch, which could deadlock with a batch waiting for this key. The expiry entry is
+                    // written first, so a commit in between leaves at most an entry that is dropped when it is due
+                    shard.expiryIndex.put(expiryKey(record.expiresAt(), RECORD_EXPIRY, gatewayMsgId), Boolean.TRUE);
+                    shard.dlrRecords.put(gatewayMsgId, record);
+                    return null;
+                });
+            }
+            while ((next = shard.hotCorrelationQueue.peek()) != null && next.since() <= hotBefore) {
+                shard.hotCorrelationQueue.poll();
+                long since = next.since();
+                shard.hotCorrelations.computeIfPresent(next.key(), (operatorMsgId, correlation) -> {
+                    if (correlation.linkedAt() != since) {
+                        return correlation;
+                    }
+                    shard.expiryIndex.put(expiryKey(correlation.linkExpiresAt(), CORRELATION_EXPIRY, operatorMsgId), Boolean.TRUE);
+                    // the filter counts a correlation once per tier it is in
+                    if (shard.correlationIndex.put(operatorMsgId, correlation.gatewayMsgId()) != null) {
+                        removeFromFilter(operatorMsgId);
+                    }
+                    return null;
+                });
+            }
+        }
     }
 
-    private void commitStore() {
-        if (store != null && !store.isClosed()) {
-            store.commit();
+    /**
+     * Remove the records, correlations and unpushed DLRs that expire at or before {@code now}, in expiry order,
+     * stopping after {@code dlr.expiry.batchSize} entries or {@code dlr.expiry.budgetMillis} of each shard. What is
+     * left is due in the next run. An index entry whose row was removed, or expires at a later time, is dropped on its
+     * own.
+     *
+     * @return the number of due expiry index entries processed
+     */
+    int expireDue(long now) {
+        expirePendingLinks(now);
+        if (shards == null) {
+            return 0;
+        }
+        flushHotTier(now - hotTierWriteBehindMillis);
+        long batchSize = getConfigLong(_expiryBatchSize);
+        long budgetNanos = TimeUnit.MILLISECONDS.toNanos(getConfigLong(_expiryBudget));
+        int processed = 0;
+        for (DlrStoreShard shard : shards) {
+            processed += expireDue(shard, now, batchSize, System.nanoTime() + budgetNanos);
         }
+        return processed;
     }
 
-    private synchronized void checkExpiry() {
-        long now = System.currentTimeMillis();
-        if (now - lastExpiryCheck < EXPIRY_CHECK_INTERVAL) {
-            return;
+    private int expireDue(DlrStoreShard shard, long now, long batchSize, long deadline) {
+        int processed = 0;
+        Iterator<String> keys = shard.expiryIndex.keySet().iterator();
+        while (processed < batchSize && keys.hasNext() && System.nanoTime() - deadline < 0) {
+            String key = keys.next();
+            long expiresAt = Long.parseLong(key, 0, EXPIRY_TIME_DIGITS, 10);
+            if (expiresAt > now) {
+                break;
+            }
+            String id = key.substring(EXPIRY_TIME_DIGITS + 3);
+            switch (key.charAt(EXPIRY_TIME_DIGITS + 1)) {
+                case RECORD_EXPIRY -> expireRecord(shard, key, expiresAt, id);
+                case CORRELATION_EXPIRY -> expireCorrelation(shard, key, expiresAt, id);
+                case UNPUSHED_EXPIRY -> expireUnpushedDlr(shard, key, expiresAt, id);
+                default -> shard.expiryIndex.remove(key);
+            }
+            processed++;
         }
-        lastExpiryCheck = now;
+        return processed;
+    }
 
-        if (primaryStore == null || primaryTimestamps == null) {
-            return;
+    private void expireRecord(DlrStoreShard shard, String key, long expiresAt, String gatewayMsgId) {
+        DlrRecord stored;
+        String operatorMsgId = null;
+        DlrStoreShard correlationShard = null;
+        shard.batchLock.lock();
+        try {
+            stored = shard.dlrRecords.get(gatewayMsgId);
+            if (stored != null && stored.expiresAt() == expiresAt) {
+                shard.dlrRecords.remove(gatewayMsgId);
+                operatorMsgId = stored.state().getOperatorMsgId();
+                correlationShard = operatorMsgId == null ? null : shardFor(operatorMsgId);
+                if (correlationShard == shard) {
+                    unindexCorrelation(shard, operatorMsgId, gatewayMsgId, stored.linkExpiresAt());
+                }
+                expiredRecords.increment();
+                logger.debug("Expired DLR record: {}", gatewayMsgId);
+            }
+            shard.expiryIndex.remove(key);
+        } finally {
+            shard.batchLock.unlock();
         }
-
-        for (String key : primaryTimestamps.keySet()) {
-            Long ts = primaryTimestamps.get(key);
-            if (ts != null && (now - ts) > SEVEN_DAYS_MILLIS) {
-                primaryStore.remove(key);
-                primaryTimestamps.remove(key);
-                logger.debug("Expired primary entry: {}", key);
+        if (correlationShard != null && correlationShard != shard) {
+            correlationShard.batchLock.lock();
+            try {
+                unindexCorrelation(correlationShard, operatorMsgId, gatewayMsgId, stored.linkExpiresAt());
+            } finally {
+                correlationShard.batchLock.unlock();
             }
         }
+    }
 
-        if (correlationIndex != null && correlationTimestamps != null) {
-            for (String key : correlationTimestamps.keySet()) {
-                Long ts = correlationTimestamps.get(key);
-                if (ts != null && (now - ts) > THREE_DAYS_MILLIS) {
-                    correlationIndex.remove(key);
-                    correlationTimestamps.remove(key);
-                    logger.debug("Expired correlation entry: {}", key);
-                }
+    private void unindexCorrelation(DlrStoreShard shard, String operatorMsgId, String gatewayMsgId, long linkExpiresAt) {
+        if (shard.correlationIndex.remove(operatorMsgId, gatewayMsgId)) {
+            removeFromFilter(operatorMsgId);
+        }
+        shard.expiryIndex.remove(expiryKey(linkExpiresAt, CORRELATION_EXPIRY, operatorMsgId));
+    }
+
+    private void expireCorrelation(DlrStoreShard shard, String key, long expiresAt, String operatorMsgId) {
+        shard.batchLock.lock();
+        try {
+            String gatewayMsgId = shard.correlationIndex.get(operatorMsgId);
+            DlrRecord stored = gatewayMsgId == null ? null : findRecord(gatewayMsgId);
+            // a record linked again later keeps its correlation until the later expiry
+            if (gatewayMsgId != null && (stored == null || stored.linkExpiresAt() <= expiresAt) &&
+                    shard.correlationIndex.remove(operatorMsgId, gatewayMsgId)) {
+                removeFromFilter(operatorMsgId);
+                expiredCorrelations.increment();
+                logger.debug("Expired correlation entry: {}", operatorMsgId);
             }
+            shard.expiryIndex.remove(key);
+        } finally {
+            shard.batchLock.unlock();
         }
+    }
 
-        boolean removedExpired = false;
-        if (unpushedDlrStore != null && unpushedDlrTimestamps != null) {
-            synchronized (unpushedDlrStateLock) {
-                for (String key : unpushedDlrTimestamps.keySet()) {
-                    Long ts = unpushedDlrTimestamps.get(key);
-                    if (ts != null && (now - ts) > SEVEN_DAYS_MILLIS) {
-                        unpushedDlrStore.remove(key);
-                        unpushedDlrTimestamps.remove(key);
-                        claimedUnpushedDlrKeys.remove(key);
-                        removeKeyFromUnpushedDlrIndex(getSystemIdFromUnpushedDlrKey(key), key);
-                        removedExpired = true;
-                        logger.debug("Expired unpushed DLR entry: {}", key);
-                    }
+    private void expireUnpushedDlr(DlrStoreShard shard, String key, long expiresAt, String unpushedDlrKey) {
+        synchronized (shard.unpushedDlrStateLock) {
+            shard.batchLock.lock();
+            try {
+                UnpushedDlr dlr = shard.unpushedDlrStore.get(unpushedDlrKey);
+                if (dlr != null && dlr.expiresAt == expiresAt) {
+                    shard.unpushedDlrStore.remove(unpushedDlrKey);
+                    shard.unpushedDlrQueue.remove(queueKey(dlr, unpushedDlrKey));
+                    shard.claimedUnpushedDlrKeys.remove(unpushedDlrKey);
+                    expiredUnpushedDlrs.increment();
+                    logger.debug("Expired unpushed DLR entry: {}", unpushedDlrKey);
                 }
+                shard.expiryIndex.remove(key);
+            } finally {
+                shard.batchLock.unlock();
             }
         }
-        if (removedExpired) {
-            commitStore();
+    }
+
+    static String expiryKey(long expiresAt, char kind, String id) {
+        StringBuilder key = new StringBuilder(EXPIRY_TIME_DIGITS + 3 + id.length());
+        return appendPadded(key, expiresAt, EXPIRY_TIME_DIGITS).append('|').append(kind).append('|').append(id).toString();
+    }
+
+    /**
+     * Append a non-negative number zero-padded to {@code digits}, so that the keys it starts sort by it.
+     */
+    private static StringBuilder appendPadded(StringBuilder key, long value, int digits) {
+        String number = Long.toString(value);
+        for (int i = number.length(); i < digits; i++) {
+            key.append('0');
         }
+        return key.append(number);
+    }
+
+    /**
+     * @return {@code from} plus the retention, or the latest expiry time if the retention is zero or less
+     */
+    private static long expiresAt(long from, long retentionMillis) {
+        return retentionMillis <= 0 || retentionMillis >= MAX_EXPIRES_AT - from ? MAX_EXPIRES_AT : from + retentionMillis;
+    }
+
+    /**
+     * @return the retention of the account, {@code <param>.<accountId>} if configured or else {@code param}
+     */
+    long getRetentionMillis(String[] param, String accountId) {
+        long retention = getConfigLong(param);
+        if (configurationHandler == null || accountId == null || accountId.isEmpty()) {
+            return retention;
+        }
+        return configurationHandler.getLongPrpt(param[0] + "." + accountId, retention);
+    }
+
+    private long getConfigLong(String[] param) {
+        return configurationHandler != null ? configurationHandler.getLongPrpt(param) : Long.parseLong(param[1]);
+    }
+
+    private String getConfigString(String[] param) {
+        return configurationHandler != null ? configurationHandler.getPrpt(param) : param[1];
+    }
+
+    private boolean getConfigBoolean(String[] param) {
+        return configurationHandler != null ? configurationHandler.getBlnPrpt(param) : Boolean.parseBoolean(param[1]);
+    }
+
+    public int getPendingLinksSize() {
+        return pendingLinks.size();
+    }
+
+    public int getPendingSavesSize() {
+        return pendingSaveCount.get();
     }
 
     public int getPrimaryStoreSize() {
-        return primaryStore != null ? primaryStore.size() : 0;
+        return sumOfShards(shard -> shard.dlrRecords.size() + shard.hotRecords.size());
     }
 
     public int getCorrelationIndexSize() {
-        return correlationIndex != null ? correlationIndex.size() : 0;
+        return sumOfShards(shard -> shard.correlationIndex.size() + shard.hotCorrelations.size());
+    }
+
+    public int getHotTierSize() {
+        return sumOfShards(shard -> shard.hotRecords.size() + shard.hotCorrelations.size());
     }
 
     public int getUnpushedDlrStoreSize() {
-        return unpushedDlrStore != null ? unpushedDlrStore.size() : 0;
+        return sumOfShards(shard -> shard.unpushedDlrStore.size());
+    }
+
+    public int getUnpushedDlrQueueSize() {
+        return sumOfShards(shard -> shard.unpushedDlrQueue.size());
     }
 
-    public int getUnpushedDlrIndexSize() {
-        return unpushedDlrIndex != null ? unpushedDlrIndex.size() : 0;
+    public int getExpiryIndexSize() {
+        return sumOfShards(shard -> shard.expiryIndex.size());
+    }
+
+    public long getStoreFileSize() {
+        long size = 0;
+        for (DlrStoreShard shard : shards == null ? new DlrStoreShard[0] : shards) {
+            size += shard.getFileSize();
+        }
+        return size;
+    }
+
+    /**
+     * @return the fill rate of the chunks of the least full shard, in percent
+     */
+    public int getStoreFillRate() {
+        int fillRate = 100;
+        for (DlrStoreShard shard : shards == null ? new DlrStoreShard[0] : shards) {
+            fillRate = Math.min(fillRate, shard.getChunksFillRate());
+        }
+        return fillRate;
+    }
+
+    public int getStoreChunkCount() {
+        return sumOfShards(DlrStoreShard::getChunkCount);
+    }
+
+    public int getShardCount() {
+        return shards != null ? shards.length : 0;
+    }
+
+    private int sumOfShards(ToIntFunction<DlrStoreShard> size) {
+        int sum = 0;
+        for (DlrStoreShard shard : shards == null ? new DlrStoreShard[0] : shards) {
+            if (shard.dlrRecords != null) {
+                sum += size.applyAsInt(shard);
+            }
+        }
+        return sum;
+    }
+
+    boolean hasUncommittedChanges() {
+        for (DlrStoreShard shard : shards == null ? new DlrStoreShard[0] : shards) {
+            if (shard.hasUncommittedChanges()) {
+                return true;
+            }
+        }
+        return false;
     }
 
     public boolean isPersistent() {
-        return store != null && !store.isClosed();
+        if (shards == null) {
+            return false;
+        }
+        for (DlrStoreShard shard : shards) {
+            if (!shard.isPersistent()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private record PendingLink(String gatewayMsgId, String operatorMsgId, long createdAt) {
+    }
+
+    private record PendingSave(MessageState state, CompletableFuture<Void> saved) {
     }
 }
@@ -40,6 +40,19 @@ public class MessageState implements Serializable {
         this.forwardDlrUrl = forwardDlrUrl;
     }
 
+    public MessageState(MessageState other) {
+        this.gatewayMsgId = other.gatewayMsgId;
+        this.accountId = other.accountId;
+        this.systemId = other.systemId;
+        this.sourceAddr = other.sourceAddr;
+        this.destAddr = other.destAddr;
+        this.operatorMsgId = other.operatorMsgId;
+        this.forwardDlrUrl = other.forwardDlrUrl;
+        this.reassembledParts = other.reassembledParts == null ? null : new ArrayList<>(other.reassembledParts);
+        this.status = other.status;
+        this.timestamp = other.timestamp;
+    }
+
     public String getGatewayMsgId() {
         return gatewayMsgId;
     }
@@ -22,6 +22,18 @@ public class UnpushedDlr implements Serializable {
     public boolean acked;
     public int priority;
     public List<String> reassembledParts;
+    /**
+     * when the DLR was saved as unpushed, in epoch millis
+     */
+    public long savedAt;
+    /**
+     * when the DLR expires, in epoch millis, or 0 if it was saved before expiry times were stored
+     */
+    public long expiresAt;
+    /**
+     * orders the DLRs of a systemId saved in the same millisecond
+     */
+    public long sequence;
 
     public UnpushedDlr() {
     }
@@ -0,0 +1,14 @@
+package gr.cytech.sendium.core.worker;
+
+import gr.cytech.sendium.core.message.StandardMessage;
+
+import java.util.List;
+
+/**
+ * A page of unpushed DLRs claimed for replay by {@link InMemoryDlrService#claimUnpushedDlrs(String, String, int)}.
+ *
+ * @param messages   the claimed DLRs, oldest first
+ * @param nextCursor where the next page starts, or null if the systemId has no more unpushed DLRs after this page
+ */
+public record UnpushedDlrPage(List<StandardMessage> messages, String nextCursor) {
+}
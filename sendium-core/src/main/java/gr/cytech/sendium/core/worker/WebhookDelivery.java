@@ -0,0 +1,51 @@
+package gr.cytech.sendium.core.worker;
+
+/**
+ * One HTTP request to a DLR or MO webhook, kept in the {@link WebhookOutbox} until it is delivered or dropped.
+ *
+ * @param kind        what is delivered, {@code DLR} or {@code MO}, for logging
+ * @param ref         what the delivery is about, the gateway message id of a DLR or the masked sender of an MO, for logging
+ * @param url         the final URL, with its placeholders replaced
+ * @param method      {@code GET} or {@code POST}
+ * @param contentType the content type of the body, or null without a body
+ * @param body        the body of a {@code POST}, or null
+ * @param createdAt   when the delivery was enqueued, in epoch millis
+ * @param attempts    the attempts started so far
+ * @param batch       {@link #JSON_BATCH} or {@link #NDJSON_BATCH} if the body is one item of a batch, which is posted
+ *                    along with the other items queued for the same URL, or null if the delivery is a request of its own
+ */
+public record WebhookDelivery(String kind, String ref, String url, String method, String contentType, String body, long createdAt,
+                              int attempts, String batch) {
+    /**
+     * a batch posted as a JSON array of its items
+     */
+    public static final String JSON_BATCH = "json";
+    /**
+     * a batch posted as newline-delimited JSON, one item per line
+     */
+    public static final String NDJSON_BATCH = "ndjson";
+
+    public static WebhookDelivery get(String kind, String ref, String url) {
+        return new WebhookDelivery(kind, ref, url, "GET", null, null, System.currentTimeMillis(), 0, null);
+    }
+
+    public static WebhookDelivery post(String kind, String ref, String url, String contentType, String body) {
+        return new WebhookDelivery(kind, ref, url, "POST", contentType, body, System.currentTimeMillis(), 0, null);
+    }
+
+    /**
+     * @param batch {@link #JSON_BATCH} or {@link #NDJSON_BATCH}
+     * @param item  the JSON of the item
+     */
+    public static WebhookDelivery batchItem(String kind, String ref, String url, String batch, String item) {
+        String contentType = NDJSON_BATCH.equals(batch) ? "application/x-ndjson" : "application/json";
+        return new WebhookDelivery(kind, ref, url, "POST", contentType, item, System.currentTimeMillis(), 0, batch);
+    }
+
+    /**
+     * @return this delivery with one more attempt started
+     */
+    WebhookDelivery nextAttempt() {
+        return new WebhookDelivery(kind, ref, url, method, contentType, body, createdAt, attempts + 1, batch);
+    }
+}
@@ -0,0 +1,67 @@
+package gr.cytech.sendium.core.worker;
+
+import org.h2.mvstore.DataUtils;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.BasicDataType;
+
+import java.nio.ByteBuffer;
+
+import static gr.cytech.sendium.core.worker.DlrRecordDataType.readString;
+import static gr.cytech.sendium.core.worker.DlrRecordDataType.stringMemory;
+import static gr.cytech.sendium.core.worker.DlrRecordDataType.writeString;
+
+/**
+ * MVStore value type of the deliveries of {@link WebhookOutbox}.
+ *
+ * <p>
+ * A delivery is written as a version byte followed by its fields in a fixed order, strings and numbers encoded as in
+ * {@link DlrRecordDataType}. The versions are those of the outbox file alone: a newer version only appends fields, and a
+ * row of an older version reads with the appended fields unset.
+ */
+final class WebhookDeliveryDataType extends BasicDataType<WebhookDelivery> {
+    static final WebhookDeliveryDataType INSTANCE = new WebhookDeliveryDataType();
+
+    static final byte VERSION_1 = 1;
+
+    private WebhookDeliveryDataType() {
+    }
+
+    @Override
+    public int getMemory(WebhookDelivery delivery) {
+        return 48 + stringMemory(delivery.kind()) + stringMemory(delivery.ref()) + stringMemory(delivery.url()) +
+                stringMemory(delivery.method()) + stringMemory(delivery.contentType()) + stringMemory(delivery.body()) +
+                stringMemory(delivery.batch());
+    }
+
+    @Override
+    public void write(WriteBuffer buff, WebhookDelivery delivery) {
+        buff.put(VERSION_1);
+        writeString(buff, delivery.kind());
+        writeString(buff, delivery.ref());
+        writeString(buff, delivery.url());
+        writeString(buff, delivery.method());
+        writeString(buff, delivery.contentType());
+        writeString(buff, delivery.body());
+        buff.putVarLong(delivery.createdAt());
+        buff.putVarInt(delivery.attempts());
+        writeString(buff, delivery.batch());
+    }
+
+    /**
+     * @throws IllegalStateException if the row was written by a newer version of Sendium
+     */
+    @Override
+    public WebhookDelivery read(ByteBuffer buff) {
+        byte version = buff.get();
+        if (version != VERSION_1) {
+            throw new IllegalStateException("Unknown webhook delivery version " + version);
+        }
+        return new WebhookDelivery(readString(buff), readString(buff), readString(buff), readString(buff), readString(buff),
+                readString(buff), DataUtils.readVarLong(buff), DataUtils.readVarInt(buff), readString(buff));
+    }
+
+    @Override
+    public WebhookDelivery[] createStorage(int size) {
+        return new WebhookDelivery[size];
+    }
+}
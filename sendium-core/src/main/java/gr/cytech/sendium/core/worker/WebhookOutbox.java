@@ -0,0 +1,979 @@
+package gr.cytech.sendium.core.worker;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gr.cytech.sendium.conf.SendiumConfigurationHandler;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Meter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Delivers the DLR and MO webhooks of {@link ForwardDlrService} and {@link ForwardMoService} at least once, across
+ * restarts.
+ *
+ * <p>
+ * Each {@link WebhookDelivery} is written to an H2 MVStore file, {@code data/webhook-outbox.db} unless
+ * {@code sendium.webhook.outbox.path} is set, before it is attempted. {@code deliveries} maps a delivery id to the
+ * delivery, and {@code due} orders the deliveries by the time of their next attempt, its keys being that time
+ * zero-padded, this separator and the id. The outbox falls back to in-memory maps if the file cannot be opened.
+ *
+ * <p>
+ * Before a delivery is attempted its attempt is counted and its next attempt moved ahead by its backoff, so a delivery
+ * still in flight when the process stops is retried after the restart. A failed attempt moves the next attempt to its
+ * backoff from the failure instead: a random delay of up to {@code webhook.outbox.retryIntervalMillis} doubled for
+ * every earlier attempt, at most {@code webhook.outbox.maxRetryIntervalMillis}, so that the retries of a failing
+ * endpoint spread out rather than arriving in lockstep. A delivered one is removed, one that failed
+ * {@code webhook.outbox.maxAttempts} times is dropped, and one older than {@code webhook.outbox.maxAge.*} for its kind
+ * expires.
+ *
+ * <p>
+ * Each endpoint, the host and port of the URL, has a queue of at most {@code webhook.outbox.endpointQueueSize}
+ * attempts, which are sent with {@link HttpClient#sendAsync} and at most {@code webhook.outbox.endpointMaxInFlight} at a
+ * time, so a burst of callbacks never sends more than that many concurrent requests to one slow endpoint, nor holds a
+ * thread per request. A new delivery is queued right away. When its endpoint's queue is full
+ * {@code webhook.outbox.queueFullPolicy} decides: {@code spill} leaves it in the outbox, {@code drop} drops it, and
+ * {@code block} makes the caller wait for room, at most {@link #MAX_BLOCK_MILLIS} before it spills. The
+ * {@code webhook-outbox-dispatcher} thread queues the due deliveries, spilled ones and retries, from the head of
+ * {@code due}, at most {@code webhook.outbox.batchSize} every {@code webhook.outbox.dispatchIntervalMillis}. A delivery
+ * whose endpoint's queue is full is moved to the next run, and one whose endpoint's circuit breaker is open to the end
+ * of the open period, so that the backlog of one endpoint never holds up the deliveries of the others.
+ *
+ * <p>
+ * Batch items, see {@link WebhookDelivery#batchItem}, queued for the same URL are posted together as one request of at
+ * most {@code webhook.outbox.batch.maxSize} items, once that many are queued or the first has waited
+ * {@code webhook.outbox.batch.lingerMillis}, and the batch counts as one request in flight. The receiver may answer with
+ * the indexes of the items it did not take, as in {@code {"failed":[1,4]}}, and only those are retried.
+ *
+ * <p>
+ * Each endpoint also has a circuit breaker. {@code webhook.outbox.breaker.failureThreshold} failures in a row open it,
+ * its queue is emptied and new deliveries stay in the outbox, so no request, thread or connection is spent on the
+ * endpoint. After {@code webhook.outbox.breaker.openMillis} it is half-open and lets one attempt through, which closes
+ * it when it succeeds and opens it again when it fails. A server error, a 429 or a failed connection counts as a
+ * failure; any other response shows the endpoint is up.
+ *
+ * <p>
+ * The backlog, the age of its oldest delivery, the requests in flight and the breaker state are exported per endpoint,
+ * along with the attempts by result and the breaker transitions. An endpoint left with nothing to do for
+ * {@code webhook.outbox.endpointIdleMillis} is forgotten and its meters removed, since clients choose the callback URLs.
+ */
+@ApplicationScoped
+public class WebhookOutbox {
+    public static final String[][] prms = {
+            {"webhook.outbox.maxAttempts", "20"}
+            , {"webhook.outbox.retryIntervalMillis", "1000"}
+            , {"webhook.outbox.dispatchIntervalMillis", "1000"}
+            , {"webhook.outbox.batchSize", "100"}
+            , {"webhook.outbox.endpointMaxInFlight", "8"}
+            , {"webhook.outbox.endpointQueueSize", "100"}
+            , {"webhook.outbox.queueFullPolicy", "spill"}
+            , {"webhook.outbox.maxRetryIntervalMillis", "300000"}
+            , {"webhook.outbox.maxAge.dlrMillis", "3600000"}
+            , {"webhook.outbox.maxAge.moMillis", "3600000"}
+            , {"webhook.outbox.breaker.failureThreshold", "5"}
+            , {"webhook.outbox.breaker.openMillis", "30000"}
+            , {"webhook.outbox.batch.maxSize", "100"}
+            , {"webhook.outbox.batch.lingerMillis", "50"}
+            , {"webhook.outbox.endpointIdleMillis", "600000"}
+    };
+    public static final String[] _maxAttempts = prms[0];
+    public static final String[] _retryInterval = prms[1];
+    public static final String[] _dispatchInterval = prms[2];
+    public static final String[] _batchSize = prms[3];
+    public static final String[] _endpointMaxInFlight = prms[4];
+    public static final String[] _endpointQueueSize = prms[5];
+    public static final String[] _queueFullPolicy = prms[6];
+    public static final String[] _maxRetryInterval = prms[7];
+    public static final String[] _dlrMaxAge = prms[8];
+    public static final String[] _moMaxAge = prms[9];
+    public static final String[] _breakerFailureThreshold = prms[10];
+    public static final String[] _breakerOpen = prms[11];
+    public static final String[] _batchMaxSize = prms[12];
+    public static final String[] _batchLinger = prms[13];
+    public static final String[] _endpointIdle = prms[14];
+
+    private static final Logger logger = LoggerFactory.getLogger(WebhookOutbox.class);
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(5);
+    /**
+     * a blocked caller waits at most as long as a request takes
+     */
+    private static final long MAX_BLOCK_MILLIS = REQUEST_TIMEOUT.toMillis();
+    /**
+     * due deliveries of endpoints that do not take them that a dispatcher run moves or skips before it gives up
+     */
+    private static final int MAX_SKIPPED_PER_RUN = 10_000;
+    private static final String DB_PATH_PROPERTY = "sendium.webhook.outbox.path";
+    private static final String DEFAULT_DB_PATH = "data/webhook-outbox.db";
+    /**
+     * due keys start with the time of the next attempt zero-padded to this many digits, so that they sort by it
+     */
+    private static final int TIME_DIGITS = 13;
+    private static final char SEPARATOR = '|';
+
+    @Inject
+    SendiumConfigurationHandler configurationHandler;
+    @Inject
+    MeterRegistry meterRegistry;
+    /**
+     * draws the backoff delays
+     */
+    Random random = new Random();
+
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    /**
+     * ids of the deliveries queued or in flight, which the dispatcher leaves alone
+     */
+    private final Set<String> active = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger inFlight = new AtomicInteger();
+
+    private MVStore store;
+    private Map<String, WebhookDelivery> deliveries;
+    private Map<String, Boolean> due;
+    private HttpClient httpClient;
+    private ScheduledExecutorService dispatcher;
+    private int maxAttempts;
+    private long retryIntervalMillis;
+    private long maxRetryIntervalMillis;
+    private long dlrMaxAgeMillis;
+    private long moMaxAgeMillis;
+    private long dispatchIntervalMillis;
+    private int batchSize;
+    private int endpointMaxInFlight;
+    private int endpointQueueSize;
+    private QueueFullPolicy queueFullPolicy;
+    private int breakerFailureThreshold;
+    private long breakerOpenMillis;
+    private int batchMaxSize;
+    private long batchLingerMillis;
+    private long endpointIdleMillis;
+    private volatile boolean stopping;
+
+    @PostConstruct
+    void init() {
+        if (configurationHandler != null) {
+            configurationHandler.loadDefaultParams(prms);
+        }
+        maxAttempts = (int) Math.clamp(getConfigLong(_maxAttempts), 1, Integer.MAX_VALUE);
+        retryIntervalMillis = Math.max(1, getConfigLong(_retryInterval));
+        maxRetryIntervalMillis = Math.max(retryIntervalMillis, getConfigLong(_maxRetryInterval));
+        dlrMaxAgeMillis = getConfigLong(_dlrMaxAge);
+        moMaxAgeMillis = getConfigLong(_moMaxAge);
+        dispatchIntervalMillis = Math.max(1, getConfigLong(_dispatchInterval));
+        batchSize = (int) Math.clamp(getConfigLong(_batchSize), 1, Integer.MAX_VALUE);
+        endpointMaxInFlight = (int) Math.clamp(getConfigLong(_endpointMaxInFlight), 1, Integer.MAX_VALUE);
+        endpointQueueSize = (int) Math.clamp(getConfigLong(_endpointQueueSize), 1, Integer.MAX_VALUE);
+        queueFullPolicy = queueFullPolicy();
+        breakerFailureThreshold = (int) Math.clamp(getConfigLong(_breakerFailureThreshold), 1, Integer.MAX_VALUE);
+        breakerOpenMillis = Math.max(1, getConfigLong(_breakerOpen));
+        // a batch is taken from the endpoint queue, so it never holds more items than the queue
+        batchMaxSize = (int) Math.clamp(getConfigLong(_batchMaxSize), 1, endpointQueueSize);
+        batchLingerMillis = Math.max(0, getConfigLong(_batchLinger));
+        endpointIdleMillis = Math.max(0, getConfigLong(_endpointIdle));
+        // keep-alive connections are pooled per host and reused, at most endpointMaxInFlight of them per endpoint
+        httpClient = HttpClient.newBuilder()
+                .connectTimeout(REQUEST_TIMEOUT)
+                .followRedirects(HttpClient.Redirect.NORMAL)
+                .executor(Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("webhook-delivery-", 0).factory()))
+                .build();
+
+        String dbPath = System.getProperty(DB_PATH_PROPERTY, DEFAULT_DB_PATH);
+        try {
+            File dbFile = new File(dbPath);
+            File dbDir = dbFile.getParentFile();
+            if (dbDir != null && !dbDir.exists() && dbDir.mkdirs()) {
+                logger.info("Created webhook outbox directory: {}", dbDir.getAbsolutePath());
+            }
+            store = new MVStore.Builder().fileName(dbPath).open();
+            deliveries = store.openMap("deliveries", new MVMap.Builder<String, WebhookDelivery>()
+                    .valueType(WebhookDeliveryDataType.INSTANCE));
+            due = store.openMap("due");
+        } catch (Exception e) {
+            logger.warn("Failed to open the webhook outbox {}, falling back to in-memory: ", dbPath, e);
+            store = null;
+            deliveries = new ConcurrentHashMap<>();
+            due = new ConcurrentSkipListMap<>();
+        }
+        recoverPendingDeliveries();
+
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, Thread.ofPlatform().daemon().name("webhook-outbox-dispatcher")
+                .factory());
+        // a lingering batch is retried after the restart rather than holding up the shutdown
+        executor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+        dispatcher = executor;
+        dispatcher.scheduleWithFixedDelay(this::runDispatch, 0, dispatchIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Index the deliveries left by the previous run, and schedule any that lost its due entry in a crash.
+     */
+    private void recoverPendingDeliveries() {
+        Set<String> scheduled = new HashSet<>();
+        for (String key : due.keySet()) {
+            scheduled.add(idOf(key));
+        }
+        long now = System.currentTimeMillis();
+        for (Map.Entry<String, WebhookDelivery> entry : deliveries.entrySet()) {
+            if (!scheduled.contains(entry.getKey())) {
+                due.put(dueKey(now, entry.getKey()), Boolean.TRUE);
+            }
+            endpoint(entry.getValue().url()).add(entry.getKey(), entry.getValue());
+        }
+        if (!deliveries.isEmpty()) {
+            logger.info("Webhook outbox has {} pending deliveries", deliveries.size());
+        }
+    }
+
+    /**
+     * @return the policy of {@code webhook.outbox.queueFullPolicy}, {@code spill} if it names none
+     */
+    private QueueFullPolicy queueFullPolicy() {
+        String policy = getConfigString(_queueFullPolicy);
+        if (policy == null || policy.isBlank()) {
+            return QueueFullPolicy.SPILL;
+        }
+        try {
+            return QueueFullPolicy.valueOf(policy.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            logger.warn("Unknown {} {}, expected spill, drop or block. Using spill", _queueFullPolicy[0], policy);
+            return QueueFullPolicy.SPILL;
+        }
+    }
+
+    @PreDestroy
+    void onStop() {
+        // queued attempts are not started anymore and are retried after the restart, like those still in flight
+        stopping = true;
+        if (dispatcher != null) {
+            dispatcher.shutdown();
+            try {
+                if (!dispatcher.awaitTermination(5, TimeUnit.SECONDS) || !awaitIdle(REQUEST_TIMEOUT.toMillis())) {
+                    logger.warn("Webhook outbox did not stop within 5 seconds");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (store != null) {
+            store.close();
+            store = null;
+            logger.info("Saved and closed the webhook outbox");
+        }
+    }
+
+    /**
+     * Store {@code delivery} and queue its first attempt, or apply {@code webhook.outbox.queueFullPolicy} if the queue of
+     * its endpoint is full. While the endpoint's circuit breaker is open the delivery stays in the outbox.
+     */
+    public void enqueue(WebhookDelivery delivery) {
+        Endpoint endpoint = endpoint(delivery.url());
+        long now = System.currentTimeMillis();
+        Admission admission = endpoint.tryReserve(endpointQueueSize, now);
+        if (admission == Admission.FULL && queueFullPolicy == QueueFullPolicy.BLOCK) {
+            admission = endpoint.awaitReserve(endpointQueueSize, MAX_BLOCK_MILLIS);
+        }
+        if (admission == Admission.FULL && queueFullPolicy == QueueFullPolicy.DROP) {
+            logger.warn("{} forward dropped for {}, the queue of {} is full", delivery.kind(), delivery.ref(), endpoint.name);
+            endpoint.dropped.increment();
+            return;
+        }
+        String id = UUID.randomUUID().toString();
+        endpoint.add(id, delivery);
+        if (admission == Admission.RESERVED) {
+            queue(endpoint, id, delivery, now);
+        } else {
+            deliveries.put(id, delivery);
+            due.put(dueKey(delivery.createdAt(), id), Boolean.TRUE);
+        }
+    }
+
+    private void runDispatch() {
+        try {
+            dispatch(System.currentTimeMillis());
+        } catch (Exception e) {
+            logger.error("Webhook outbox dispatch failed", e);
+        }
+    }
+
+    /**
+     * Queue the attempts of the deliveries due at {@code now}, at most {@code webhook.outbox.batchSize} of them, and
+     * expire those past their maximum age. Those of endpoints whose queue is full or whose circuit breaker is open are
+     * moved behind the deliveries due now, to when the endpoint may take them.
+     *
+     * @return the attempts queued
+     */
+    int dispatch(long now) {
+        // an endpoint whose breaker went half-open may still have queued attempts that nothing else starts
+        endpoints.values().forEach(this::drain);
+        evictIdleEndpoints(now);
+        int queued = 0;
+        int skipped = 0;
+        Iterator<String> keys = due.keySet().iterator();
+        while (queued < batchSize && skipped < MAX_SKIPPED_PER_RUN && !stopping && keys.hasNext()) {
+            String key = keys.next();
+            if (timeOf(key) > now) {
+                break;
+            }
+            String id = idOf(key);
+            WebhookDelivery delivery = deliveries.get(id);
+            if (delivery == null) {
+                due.remove(key);
+                continue;
+            }
+            Endpoint endpoint = endpoint(delivery.url());
+            if (isExpired(delivery, now)) {
+                logger.error("{} forward expired after {} attempts for {}", delivery.kind(), delivery.attempts(), delivery.ref());
+                deliveries.remove(id);
+                due.remove(key);
+                endpoint.remove(id, delivery);
+                endpoint.expired.increment();
+                continue;
+            }
+            if (active.contains(id)) {
+                skipped++;
+                continue;
+            }
+            if (endpoint.tryReserve(endpointQueueSize, now) != Admission.RESERVED) {
+                due.remove(key);
+                due.put(dueKey(endpoint.nextAdmission(now, dispatchIntervalMillis), id), Boolean.TRUE);
+                skipped++;
+                continue;
+            }
+            due.remove(key);
+            queue(endpoint, id, delivery, now);
+            queued++;
+        }
+        return queued;
+    }
+
+    /**
+     * Count the next attempt of a delivery whose endpoint has reserved a place in its queue, and queue it.
+     */
+    private void queue(Endpoint endpoint, String id, WebhookDelivery delivery, long now) {
+        WebhookDelivery next = delivery.nextAttempt();
+        // the linger of a batch is measured against the clock of drain
+        Attempt attempt = new Attempt(id, next, dueKey(now + backoff(next.attempts()), id), System.currentTimeMillis());
+        deliveries.put(id, next);
+        due.put(attempt.retryKey(), Boolean.TRUE);
+        active.add(id);
+        endpoint.push(attempt);
+        drain(endpoint);
+    }
+
+    /**
+     * Send the queued attempts of {@code endpoint} while it has fewer than {@code webhook.outbox.endpointMaxInFlight}
+     * requests in flight and its circuit breaker lets them through. Batch items queued for the same URL are sent as one
+     * request, once {@code webhook.outbox.batch.maxSize} of them are queued or the first has waited
+     * {@code webhook.outbox.batch.lingerMillis}.
+     */
+    private void drain(Endpoint endpoint) {
+        List<Attempt> attempts;
+        while (!stopping) {
+            long now = System.currentTimeMillis();
+            attempts = endpoint.poll(endpointMaxInFlight, now, batchMaxSize, batchLingerMillis);
+            if (attempts.isEmpty()) {
+                long lingerUntil = endpoint.takeLingerUntil();
+                if (lingerUntil > 0) {
+                    scheduleDrain(endpoint, lingerUntil - now);
+                }
+                return;
+            }
+            inFlight.incrementAndGet();
+            List<Attempt> sent = attempts;
+            try {
+                if (sent.getFirst().delivery().batch() == null) {
+                    httpClient.sendAsync(request(sent.getFirst().delivery()), HttpResponse.BodyHandlers.discarding())
+                            .whenComplete((response, failure) -> complete(endpoint, sent, response, null, failure));
+                } else {
+                    httpClient.sendAsync(batchRequest(sent), HttpResponse.BodyHandlers.ofString())
+                            .whenComplete((response, failure) -> complete(endpoint, sent, response, response != null ? response.body() : null,
+                                    failure));
+                }
+            } catch (RuntimeException e) {
+                complete(endpoint, sent, null, null, e);
+            }
+        }
+    }
+
+    private void scheduleDrain(Endpoint endpoint, long delayMillis) {
+        try {
+            dispatcher.schedule(() -> drain(endpoint), Math.max(1, delayMillis), TimeUnit.MILLISECONDS);
+        } catch (RuntimeException e) {
+            // shutting down, the queued attempts are retried after the restart
+            logger.debug("Webhook outbox is stopping, not draining {}", endpoint.name);
+        }
+    }
+
+    /**
+     * Complete the attempts of one request: all of them if it failed, and each that the receiver did not list as failed
+     * in the {@code failed} indexes of a batch response otherwise.
+     */
+    private void complete(Endpoint endpoint, List<Attempt> attempts, HttpResponse<?> response, String responseBody, Throwable failure) {
+        long now = System.currentTimeMillis();
+        try {
+            String error;
+            Set<Integer> failedItems = Set.of();
+            if (failure != null) {
+                Throwable cause = failure.getCause() != null ? failure.getCause() : failure;
+                error = cause.getClass().getSimpleName() + ": " + cause.getMessage();
+                endpoint.failed(now, breakerFailureThreshold, breakerOpenMillis, active);
+            } else {
+                int statusCode = response.statusCode();
+                error = statusCode >= 200 && statusCode < 400 ? null : "HTTP " + statusCode;
+                if (statusCode >= 500 || statusCode == 429) {
+                    endpoint.failed(now, breakerFailureThreshold, breakerOpenMillis, active);
+                } else {
+                    endpoint.succeeded();
+                }
+                if (error == null) {
+                    failedItems = failedItems(responseBody, attempts.size());
+                }
+            }
+            if (attempts.size() > 1) {
+                logger.info("{} batch of {} forwarded to {} with {} failed items", attempts.getFirst().delivery().kind(), attempts.size(),
+                        endpoint.name, error != null ? attempts.size() : failedItems.size());
+            }
+            for (int i = 0; i < attempts.size(); i++) {
+                complete(endpoint, attempts.get(i), error != null || !failedItems.contains(i) ? error : "rejected by the receiver", now,
+                        attempts.size() > 1);
+            }
+        } catch (RuntimeException e) {
+            // the outbox was closed meanwhile, the deliveries are retried after the restart
+            logger.warn("Failed to complete the {} forward of {} deliveries to {}", attempts.getFirst().delivery().kind(), attempts.size(),
+                    endpoint.name, e);
+        } finally {
+            for (Attempt attempt : attempts) {
+                active.remove(attempt.id());
+            }
+            endpoint.release(now);
+            inFlight.decrementAndGet();
+            drain(endpoint);
+        }
+    }
+
+    private void complete(Endpoint endpoint, Attempt attempt, String error, long now, boolean batched) {
+        WebhookDelivery delivery = attempt.delivery();
+        long retryAt = now + backoff(delivery.attempts());
+        if (error == null) {
+            if (batched) {
+                logger.debug("{} forwarded successfully for {}", delivery.kind(), delivery.ref());
+            } else {
+                logger.info("{} forwarded successfully for {}", delivery.kind(), delivery.ref());
+            }
+            remove(endpoint, attempt);
+            endpoint.delivered.increment();
+        } else if (delivery.attempts() >= maxAttempts || isExpired(delivery, retryAt)) {
+            logger.error("{} forward failed completely after {} attempts for {}. Last error: {}", delivery.kind(), delivery.attempts(),
+                    delivery.ref(), error);
+            remove(endpoint, attempt);
+            if (delivery.attempts() >= maxAttempts) {
+                endpoint.dropped.increment();
+            } else {
+                endpoint.expired.increment();
+            }
+        } else {
+            logger.warn("{} forward attempt {} failed for {}. Error: {}. Retrying in {}ms.", delivery.kind(), delivery.attempts(),
+                    delivery.ref(), error, retryAt - now);
+            due.remove(attempt.retryKey());
+            due.put(dueKey(retryAt, attempt.id()), Boolean.TRUE);
+            endpoint.retried.increment();
+        }
+    }
+
+    /**
+     * @return the indexes listed in the {@code failed} array of a batch response like {@code {"failed":[0,3]}}, none if the
+     *         body is empty or has no such array
+     */
+    static Set<Integer> failedItems(String responseBody, int items) {
+        if (responseBody == null || responseBody.isBlank()) {
+            return Set.of();
+        }
+        try {
+            JsonNode failed = MAPPER.readTree(responseBody).path("failed");
+            Set<Integer> indexes = new HashSet<>();
+            for (JsonNode index : failed) {
+                if (index.canConvertToInt() && index.intValue() >= 0 && index.intValue() < items) {
+                    indexes.add(index.intValue());
+                }
+            }
+            return indexes;
+        } catch (JsonProcessingException e) {
+            logger.warn("Ignoring a batch response that is not JSON: {}", e.getOriginalMessage());
+            return Set.of();
+        }
+    }
+
+    private void remove(Endpoint endpoint, Attempt attempt) {
+        deliveries.remove(attempt.id());
+        due.remove(attempt.retryKey());
+        endpoint.remove(attempt.id(), attempt.delivery());
+    }
+
+    /**
+     * @return a random delay of up to {@code webhook.outbox.retryIntervalMillis} doubled for each attempt before the
+     *         last of {@code attempts}, at most {@code webhook.outbox.maxRetryIntervalMillis}
+     */
+    long backoff(int attempts) {
+        double doubled = retryIntervalMillis * Math.pow(2, Math.max(0, attempts - 1));
+        long cap = (long) Math.min(maxRetryIntervalMillis, doubled);
+        return random.nextLong(cap + 1);
+    }
+
+    private boolean isExpired(WebhookDelivery delivery, long now) {
+        long maxAge = "MO".equals(delivery.kind()) ? moMaxAgeMillis : dlrMaxAgeMillis;
+        return maxAge > 0 && now - delivery.createdAt() > maxAge;
+    }
+
+    private static HttpRequest batchRequest(List<Attempt> attempts) {
+        WebhookDelivery first = attempts.getFirst().delivery();
+        boolean ndjson = WebhookDelivery.NDJSON_BATCH.equals(first.batch());
+        StringBuilder body = new StringBuilder(ndjson ? "" : "[");
+        for (int i = 0; i < attempts.size(); i++) {
+            if (i > 0 && !ndjson) {
+                body.append(',');
+            }
+            body.append(attempts.get(i).delivery().body());
+            if (ndjson) {
+                body.append('\n');
+            }
+        }
+        if (!ndjson) {
+            body.append(']');
+        }
+        return HttpRequest.newBuilder()
+                .uri(URI.create(first.url()))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Content-Type", first.contentType())
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString(), StandardCharsets.UTF_8))
+                .build();
+    }
+
+    private static HttpRequest request(WebhookDelivery delivery) {
+        HttpRequest.Builder request = HttpRequest.newBuilder()
+                .uri(URI.create(delivery.url()))
+                .timeout(REQUEST_TIMEOUT);
+        if (delivery.contentType() != null) {
+            request.header("Content-Type", delivery.contentType());
+        }
+        if (delivery.body() != null) {
+            request.method(delivery.method(), HttpRequest.BodyPublishers.ofString(delivery.body(), StandardCharsets.UTF_8));
+        } else {
+            request.method(delivery.method(), HttpRequest.BodyPublishers.noBody());
+        }
+        return request.build();
+    }
+
+    /**
+     * @return true once no request is in flight, false if one still is after {@code timeoutMillis}
+     */
+    boolean awaitIdle(long timeoutMillis) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (inFlight.get() > 0) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            Thread.sleep(5);
+        }
+        return true;
+    }
+
+    public boolean isPersistent() {
+        return store != null && !store.isClosed();
+    }
+
+    public int getBacklogSize() {
+        return deliveries.size();
+    }
+
+    /**
+     * @return the deliveries to {@code endpoint} not delivered or dropped yet
+     */
+    public int getBacklogSize(String endpoint) {
+        Endpoint stats = endpoints.get(endpoint);
+        return stats != null ? stats.pending.size() : 0;
+    }
+
+    private Endpoint endpoint(String url) {
+        long now = System.currentTimeMillis();
+        // used within the map, so that an eviction never takes an endpoint that is being looked up
+        return endpoints.compute(endpointOf(url), (name, endpoint) -> {
+            Endpoint used = endpoint != null ? endpoint : newEndpoint(name);
+            used.touch(now);
+            return used;
+        });
+    }
+
+    /**
+     * Forget the endpoints that have had no deliveries, queued attempts or requests in flight for
+     * {@code webhook.outbox.endpointIdleMillis} and whose circuit breaker is closed, and remove their meters. The
+     * endpoints come from callback URLs the clients choose, so they would otherwise pile up along with their meters.
+     */
+    private void evictIdleEndpoints(long now) {
+        for (Endpoint endpoint : endpoints.values()) {
+            endpoints.computeIfPresent(endpoint.name, (name, current) -> {
+                if (current != endpoint || !current.isIdle(now, endpointIdleMillis)) {
+                    return current;
+                }
+                logger.debug("Webhook endpoint {} is idle, removed its metrics", name);
+                current.meters.forEach(registry()::remove);
+                return null;
+            });
+        }
+    }
+
+    private MeterRegistry registry() {
+        return meterRegistry != null ? meterRegistry : Metrics.globalRegistry;
+    }
+
+    private Endpoint newEndpoint(String name) {
+        MeterRegistry registry = registry();
+        Counter[] transitions = new Counter[BreakerState.values().length];
+        for (BreakerState state : BreakerState.values()) {
+            transitions[state.ordinal()] = Counter.builder("sendium.webhook.outbox.breaker.transitions").tag("endpoint", name)
+                    .tag("state", state.name().toLowerCase(Locale.ROOT)).description("Circuit breaker state changes of a webhook endpoint")
+                    .register(registry);
+        }
+        Endpoint endpoint = new Endpoint(name,
+                counter(registry, name, "delivered", "Webhook deliveries that succeeded"),
+                counter(registry, name, "retried", "Webhook attempts that failed and are retried"),
+                counter(registry, name, "dropped", "Webhook deliveries dropped after their last attempt failed or when their queue was full"),
+                counter(registry, name, "expired", "Webhook deliveries dropped once older than their maximum age"),
+                transitions);
+        endpoint.meters.addAll(List.of(endpoint.delivered, endpoint.retried, endpoint.dropped, endpoint.expired));
+        endpoint.meters.addAll(List.of(transitions));
+        endpoint.meters.add(Gauge.builder("sendium.webhook.outbox.backlog", endpoint, e -> e.pending.size()).tag("endpoint", name)
+                .description("Webhook deliveries not delivered or dropped yet").register(registry));
+        endpoint.meters.add(Gauge.builder("sendium.webhook.outbox.age", endpoint, e -> e.oldestAge(System.currentTimeMillis())).tag("endpoint", name)
+                .baseUnit("milliseconds").description("Age of the oldest webhook delivery not delivered or dropped yet").register(registry));
+        endpoint.meters.add(Gauge.builder("sendium.webhook.outbox.inflight", endpoint, Endpoint::inFlight).tag("endpoint", name)
+                .description("Webhook requests in flight").register(registry));
+        endpoint.meters.add(Gauge.builder("sendium.webhook.outbox.breaker.state", endpoint, e -> e.state().ordinal()).tag("endpoint", name)
+                .description("Circuit breaker state of a webhook endpoint: 0 closed, 1 open, 2 half-open").register(registry));
+        return endpoint;
+    }
+
+    private static Counter counter(MeterRegistry registry, String endpoint, String result, String description) {
+        return Counter.builder("sendium.webhook.outbox.deliveries").tag("endpoint", endpoint).tag("result", result)
+                .description(description).register(registry);
+    }
+
+    /**
+     * @return the host and port of {@code url}, the endpoint its metrics are tagged with
+     */
+    static String endpointOf(String url) {
+        try {
+            URI uri = URI.create(url);
+            if (uri.getHost() == null) {
+                return "invalid";
+            }
+            return uri.getPort() < 0 ? uri.getHost() : uri.getHost() + ":" + uri.getPort();
+        } catch (IllegalArgumentException e) {
+            return "invalid";
+        }
+    }
+
+    private static String dueKey(long time, String id) {
+        String padded = Long.toString(Math.max(0, time));
+        return "0".repeat(Math.max(0, TIME_DIGITS - padded.length())) + padded + SEPARATOR + id;
+    }
+
+    private static long timeOf(String dueKey) {
+        return Long.parseLong(dueKey, 0, dueKey.indexOf(SEPARATOR), 10);
+    }
+
+    private static String idOf(String dueKey) {
+        return dueKey.substring(dueKey.indexOf(SEPARATOR) + 1);
+    }
+
+    private long getConfigLong(String[] param) {
+        return configurationHandler != null ? configurationHandler.getLongPrpt(param) : Long.parseLong(param[1]);
+    }
+
+    private String getConfigString(String[] param) {
+        return configurationHandler != null ? configurationHandler.getPrpt(param) : param[1];
+    }
+
+    enum QueueFullPolicy {
+        SPILL,
+        DROP,
+        BLOCK
+    }
+
+    /**
+     * in the order of the values of the {@code sendium.webhook.outbox.breaker.state} gauge
+     */
+    enum BreakerState {
+        CLOSED,
+        OPEN,
+        HALF_OPEN
+    }
+
+    private enum Admission {
+        RESERVED,
+        FULL,
+        /**
+         * the circuit breaker is open, or half-open with its trial attempt taken
+         */
+        REFUSED
+    }
+
+    /**
+     * A counted attempt of a delivery, the due key it was leased until and when it was queued.
+     */
+    private record Attempt(String id, WebhookDelivery delivery, String retryKey, long queuedAt) {
+    }
+
+    /**
+     * The queue, requests in flight and circuit breaker of one endpoint, its pending deliveries, ordered by creation
+     * time, and its meters. A place in the queue is reserved before the attempt is counted, so that the queue never
+     * grows past its size.
+     */
+    private static final class Endpoint {
+        final String name;
+        final ConcurrentSkipListSet<String> pending = new ConcurrentSkipListSet<>();
+        final Counter delivered;
+        final Counter retried;
+        final Counter dropped;
+        final Counter expired;
+        /**
+         * removed from the registry when the endpoint is evicted
+         */
+        final List<Meter> meters = new ArrayList<>();
+
+        private final Counter[] transitions;
+        private final ArrayDeque<Attempt> queue = new ArrayDeque<>();
+        private int reserved;
+        private int sending;
+        private BreakerState state = BreakerState.CLOSED;
+        private int failures;
+        private long openUntil;
+        private long lingerUntil;
+        private long wakeAt;
+        private long usedAt;
+
+        Endpoint(String name, Counter delivered, Counter retried, Counter dropped, Counter expired, Counter[] transitions) {
+            this.name = name;
+            this.delivered = delivered;
+            this.retried = retried;
+            this.dropped = dropped;
+            this.expired = expired;
+            this.transitions = transitions;
+        }
+
+        void add(String id, WebhookDelivery delivery) {
+            pending.add(dueKey(delivery.createdAt(), id));
+        }
+
+        void remove(String id, WebhookDelivery delivery) {
+            pending.remove(dueKey(delivery.createdAt(), id));
+        }
+
+        long oldestAge(long now) {
+            Iterator<String> oldest = pending.iterator();
+            return oldest.hasNext() ? Math.max(0, now - timeOf(oldest.next())) : 0;
+        }
+
+        synchronized Admission tryReserve(int queueSize, long now) {
+            if (!admits(now) || state == BreakerState.HALF_OPEN && reserved + sending > 0) {
+                return Admission.REFUSED;
+            }
+            if (reserved >= queueSize) {
+                return Admission.FULL;
+            }
+            reserved++;
+            return Admission.RESERVED;
+        }
+
+        /**
+         * @return when to offer a delivery again that {@link #tryReserve} did not take at {@code now}: the end of the
+         *     open period while the breaker is open, or after {@code retryMillis} while the queue is full or the trial
+         *     attempt of the half-open breaker is in flight
+         */
+        synchronized long nextAdmission(long now, long retryMillis) {
+            return state == BreakerState.OPEN && openUntil > now ? openUntil : now + retryMillis;
+        }
+
+        synchronized Admission awaitReserve(int queueSize, long timeoutMillis) {
+            long deadline = System.currentTimeMillis() + timeoutMillis;
+            try {
+                for (long left = timeoutMillis; reserved >= queueSize && left > 0; left = deadline - System.currentTimeMillis()) {
+                    wait(left);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return tryReserve(queueSize, System.currentTimeMillis());
+        }
+
+        synchronized void push(Attempt attempt) {
+            queue.add(attempt);
+        }
+
+        /**
+         * Take the next request to send, if fewer than {@code maxInFlight} requests are in flight and the breaker lets it
+         * through: the next queued attempt, or if it is a batch item, it and the items queued after it for the same URL,
+         * at most {@code batchMaxSize}. A batch of fewer items is only taken once its first item has waited
+         * {@code lingerMillis}, until then {@link #takeLingerUntil()} tells when.
+         *
+         * @return the attempts of the request, or none
+         */
+        synchronized List<Attempt> poll(int maxInFlight, long now, int batchMaxSize, long lingerMillis) {
+            Attempt head = queue.peek();
+            if (head == null || sending >= (state == BreakerState.CLOSED ? maxInFlight : 1) || !admits(now)) {
+                return List.of();
+            }
+            List<Attempt> attempts = new ArrayList<>();
+            if (head.delivery().batch() == null) {
+                attempts.add(queue.poll());
+            } else {
+                List<Attempt> items = batchItems(head, batchMaxSize);
+                long dueAt = head.queuedAt() + lingerMillis;
+                if (items.size() < batchMaxSize && now < dueAt && state == BreakerState.CLOSED) {
+                    if (wakeAt <= now || wakeAt > dueAt) {
+                        // no drain is scheduled before the batch is due yet
+                        wakeAt = dueAt;
+                        lingerUntil = dueAt;
+                    }
+                    return List.of();
+                }
+                Set<Attempt> taken = new HashSet<>(items);
+                queue.removeIf(taken::contains);
+                attempts.addAll(items);
+            }
+            sending++;
+            reserved -= attempts.size();
+            notifyAll();
+            return attempts;
+        }
+
+        /**
+         * @return the queued batch items for the URL of {@code head}, at most {@code batchMaxSize}
+         */
+        private List<Attempt> batchItems(Attempt head, int batchMaxSize) {
+            List<Attempt> items = new ArrayList<>();
+            for (Attempt attempt : queue) {
+                if (attempt.delivery().url().equals(head.delivery().url()) && head.delivery().batch().equals(attempt.delivery().batch())) {
+                    items.add(attempt);
+                    if (items.size() == batchMaxSize) {
+                        break;
+                    }
+                }
+            }
+            return items;
+        }
+
+        /**
+         * @return when a lingering batch is due to be taken, or 0 if none is lingering or a drain is already scheduled for it
+         */
+        synchronized long takeLingerUntil() {
+            long until = lingerUntil;
+            lingerUntil = 0;
+            return until;
+        }
+
+        synchronized void release(long now) {
+            sending--;
+            usedAt = Math.max(usedAt, now);
+        }
+
+        synchronized void touch(long now) {
+            usedAt = Math.max(usedAt, now);
+        }
+
+        /**
+         * @return whether the endpoint has had nothing to do for {@code idleMillis} and its breaker is closed
+         */
+        synchronized boolean isIdle(long now, long idleMillis) {
+            return pending.isEmpty() && queue.isEmpty() && reserved == 0 && sending == 0 && state == BreakerState.CLOSED &&
+                    now - usedAt >= idleMillis;
+        }
+
+        synchronized int inFlight() {
+            return sending;
+        }
+
+        synchronized BreakerState state() {
+            return state;
+        }
+
+        synchronized void succeeded() {
+            failures = 0;
+            if (state != BreakerState.CLOSED) {
+                transition(BreakerState.CLOSED);
+            }
+        }
+
+        /**
+         * Count a failure, and open the breaker if it was half-open or this is the {@code threshold}th failure in a row.
+         * The queued attempts are dropped from the queue and left to the dispatcher once they are due.
+         */
+        synchronized void failed(long now, int threshold, long openMillis, Set<String> active) {
+            failures++;
+            if (state == BreakerState.HALF_OPEN || state == BreakerState.CLOSED && failures >= threshold) {
+                transition(BreakerState.OPEN);
+                openUntil = now + openMillis;
+                for (Attempt attempt : queue) {
+                    active.remove(attempt.id());
+                }
+                reserved -= queue.size();
+                queue.clear();
+                notifyAll();
+            }
+        }
+
+        /**
+         * @return false while the breaker is open, moving it to half-open once it has been open long enough
+         */
+        private boolean admits(long now) {
+            if (state == BreakerState.OPEN) {
+                if (now < openUntil) {
+                    return false;
+                }
+                transition(BreakerState.HALF_OPEN);
+            }
+            return true;
+        }
+
+        private void transition(BreakerState to) {
+            logger.info("Circuit breaker of webhook endpoint {} is {}", name, to.name().toLowerCase(Locale.ROOT).replace('_', '-'));
+            state = to;
+            transitions[to.ordinal()].increment();
+        }
+    }
+}
@@ -5,6 +5,7 @@ import gr.cytech.sendium.core.queue.InMemoryQueueProvider;
 import gr.cytech.sendium.core.queue.QueueProvider;
 import gr.cytech.sendium.core.smpp.client.SmppClientHolder;
 import gr.cytech.sendium.core.worker.ForwardMoService;
+import gr.cytech.sendium.core.worker.IdempotencyService;
 import gr.cytech.sendium.core.worker.InMemoryDlrService;
 import io.quarkus.arc.DefaultBean;
 import jakarta.enterprise.context.ApplicationScoped;
@@ -28,6 +29,7 @@ public class WorkerResourceProvider {
     @Inject InMemoryDlrService dlrService;
     @Inject ForwardMoService forwardMoService;
     @Inject SmppClientHolder smppClientHolder;
+    @Inject IdempotencyService idempotencyService;
 
     public WorkerResourceProvider() {
     }
@@ -52,6 +54,10 @@ public class WorkerResourceProvider {
         return smppClientHolder;
     }
 
+    public IdempotencyService getIdempotencyService() {
+        return idempotencyService;
+    }
+
     public void registerHealthCheckReporter(HealthCheckReporter healthCheckReporter) {
     }
 
@@ -14,6 +14,7 @@ public final class MessageTrace {
     public static final String EVENT_DELIVER_FAILED = "message.deliver.failed";
     public static final String EVENT_DLR = "message.dlr";
     public static final String EVENT_DROPPED = "message.dropped";
+    public static final String EVENT_DUPLICATE = "message.duplicate";
     public static final String EVENT_DELIVERY_FAILED = "message.delivery.failed";
     public static final String EVENT_DELIVERY_RETRY = "message.delivery.retry";
     public static final String EVENT_ENQUEUED = "message.enqueued";
@@ -92,6 +92,9 @@ public class MessageUtil {
      * @return True if the provided message has a supported UDH format
      */
     public static boolean is8BitMessagePart(StandardMessage message) {
+        if (hasPartInfo(message)) {
+            return message.partInfo.reference().length() == 2;
+        }
         return hasUdh(message) && message.binheader.startsWith(UdhPrefix.BIT_8.value);
     }
 
@@ -103,6 +106,9 @@ public class MessageUtil {
      * @return True if the provided message has a supported UDH format
      */
     public static boolean is16BitMessagePart(StandardMessage message) {
+        if (hasPartInfo(message)) {
+            return message.partInfo.reference().length() == 4;
+        }
         return hasUdh(message) && message.binheader.startsWith(UdhPrefix.BIT_16.value);
     }
 
@@ -110,9 +116,18 @@ public class MessageUtil {
         return !Strings.isNullOrEmpty(message.binheader);
     }
 
+    /**
+     * The part information is only trusted while the message still carries the UDH it was parsed from.
+     */
+    private static boolean hasPartInfo(StandardMessage message) {
+        return message.partInfo != null && hasUdh(message);
+    }
+
     public static String getMessageReference(StandardMessage message) {
         String msgRefNum = null;
-        if (is8BitMessagePart(message)) {
+        if (hasPartInfo(message)) {
+            msgRefNum = message.partInfo.reference();
+        } else if (is8BitMessagePart(message)) {
             // The digits 6-8 contain the reference number of the 8 bit concatenated message.
             msgRefNum = message.binheader.substring(6, 8);
         } else if (is16BitMessagePart(message)) {
@@ -131,6 +146,9 @@ public class MessageUtil {
     }
 
     public static int getNumberOfCurrentPart(StandardMessage message) {
+        if (hasPartInfo(message)) {
+            return message.partInfo.part();
+        }
         if (is8BitMessagePart(message) || is16BitMessagePart(message)) {
             int length = message.binheader.length();
             return Integer.parseInt(message.binheader.substring(length - 2, length), 16);
@@ -139,6 +157,9 @@ public class MessageUtil {
     }
 
     public static int getNumberOfTotalParts(StandardMessage message) {
+        if (hasPartInfo(message)) {
+            return message.partInfo.total();
+        }
         if (is8BitMessagePart(message)) {
             return Integer.parseInt(message.binheader.substring(8, 10), 16);
         } else if (is16BitMessagePart(message)) {
@@ -0,0 +1,103 @@
+package gr.cytech.sendium.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket, implemented as a generic cell rate algorithm (GCRA).
+ *
+ * <p>
+ * The whole bucket state is a single "theoretical arrival time" kept in an {@link AtomicLong}, so acquiring is one
+ * CAS on the hot path and never blocks or parks the calling thread. This makes it safe to call from Netty event loop
+ * threads, unlike Guava's {@code RateLimiter} which synchronizes on every call.
+ *
+ * <p>
+ * {@code rate} is in permits per second and {@code burst} is the number of permits that can be taken at once after
+ * the bucket has been idle. A rate of zero or less means unlimited. A burst of zero or less defaults to one second
+ * worth of permits, which matches the behaviour of the {@code RateLimiter} it replaces.
+ */
+public final class TokenBucket {
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+    private static final Limits UNLIMITED = new Limits(0, 0, 0, 0);
+
+    private final AtomicLong theoreticalArrival;
+    private volatile Limits limits;
+
+    public TokenBucket(double rate, double burst) {
+        this.theoreticalArrival = new AtomicLong(System.nanoTime());
+        this.limits = Limits.of(rate, burst);
+    }
+
+    public static TokenBucket unlimited() {
+        return new TokenBucket(0, 0);
+    }
+
+    public void configure(double rate, double burst) {
+        this.limits = Limits.of(rate, burst);
+    }
+
+    public boolean tryAcquire() {
+        return tryAcquire(1);
+    }
+
+    public boolean tryAcquire(int permits) {
+        Limits current = limits;
+        if (current.intervalNanos == 0) {
+            return true;
+        }
+        long cost = current.intervalNanos * permits;
+        long now = System.nanoTime();
+        while (true) {
+            long tat = theoreticalArrival.get();
+            long newTat = Math.max(tat, now) + cost;
+            if (newTat - now > current.toleranceNanos) {
+                return false;
+            }
+            if (theoreticalArrival.compareAndSet(tat, newTat)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Give back permits taken by {@link #tryAcquire(int)}, e.g. when a later limit in a hierarchy rejected the request.
+     */
+    public void release(int permits) {
+        Limits current = limits;
+        if (current.intervalNanos == 0) {
+            return;
+        }
+        theoreticalArrival.addAndGet(-current.intervalNanos * permits);
+    }
+
+    public boolean isUnlimited() {
+        return limits.intervalNanos == 0;
+    }
+
+    public double getRate() {
+        return isUnlimited() ? Double.MAX_VALUE : limits.rate;
+    }
+
+    public double getBurst() {
+        return limits.burst;
+    }
+
+    @Override
+    public String toString() {
+        return isUnlimited() ? "TokenBucket{unlimited}" : "TokenBucket{rate=" + limits.rate + ", burst=" + limits.burst + "}";
+    }
+
+    private record Limits(double rate, double burst, long intervalNanos, long toleranceNanos) {
+        static Limits of(double rate, double burst) {
+            if (rate <= 0 || Double.isInfinite(rate) || Double.isNaN(rate)) {
+                return UNLIMITED;
+            }
+            long interval = (long) (NANOS_PER_SECOND / rate);
+            if (interval <= 0) {
+                return UNLIMITED;
+            }
+            double effectiveBurst = burst > 0 ? burst : Math.max(1, rate);
+            return new Limits(rate, effectiveBurst, interval, (long) (interval * effectiveBurst));
+        }
+    }
+}
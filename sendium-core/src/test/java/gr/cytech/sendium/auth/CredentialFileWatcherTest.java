@@ -90,6 +90,25 @@ class CredentialFileWatcherTest {
         assertThat(watcher.getValidCredentials()).containsKey("smpp-user");
     }
 
+    @Test
+    void reloadCredentialConfigurationForgetsCachedVerifications() throws Exception {
+        String hash = CredentialVerifier.hash("secret".toCharArray(), 1000);
+        Path file = tempDir.resolve("credentials.yml");
+        Files.writeString(file, """
+                credentials:
+                  - type: HTTP
+                    systemId: http-user
+                    password: "%s"
+                """.formatted(hash));
+        reload(file.toFile());
+        assertThat(CredentialVerifier.verify(watcher.getValidCredentials().get("http-user"), "secret", null)).isTrue();
+        assertThat(CredentialVerifier.cached()).isPositive();
+
+        reload(file.toFile());
+
+        assertThat(CredentialVerifier.cached()).isZero();
+    }
+
     @Test
     void getValidCredentialsReturnsEmptyBeforeLoadAndUnmodifiableAfterLoad() throws Exception {
         assertThat(watcher.getValidCredentials()).isEmpty();
@@ -0,0 +1,67 @@
+package gr.cytech.sendium.auth;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Verifications per second of {@link CredentialVerifier} for a plaintext password, for a hashed password with the
+ * default iterations computed every time, and for the same hashed password presented again while its verification is
+ * cached, which is what every request of a client but the first costs.
+ * Run with {@code mvn test -Dsendium.benchmarks=true -Dtest=CredentialVerifierBenchmarkTest}.
+ */
+@Tag("benchmark")
+@EnabledIfSystemProperty(named = "sendium.benchmarks", matches = "true")
+class CredentialVerifierBenchmarkTest {
+    private static final Logger logger = LoggerFactory.getLogger(CredentialVerifierBenchmarkTest.class);
+    private static final String PASSWORD = "correct horse battery staple";
+    private static final long MEASURE_NANOS = TimeUnit.SECONDS.toNanos(3);
+
+    @Test
+    void plaintextHashedAndCached() {
+        CredentialFileWatcher.Credential plaintext = credential(PASSWORD);
+        CredentialFileWatcher.Credential hashed = credential(CredentialVerifier.hash(PASSWORD.toCharArray(), CredentialVerifier.DEFAULT_ITERATIONS));
+
+        long plaintextRate = rate(() -> CredentialVerifier.verify(plaintext, PASSWORD, null));
+        long hashedRate = rate(() -> {
+            CredentialVerifier.invalidate();
+            return CredentialVerifier.verify(hashed, PASSWORD, null);
+        });
+        CredentialVerifier.invalidate();
+        long cachedRate = rate(() -> CredentialVerifier.verify(hashed, PASSWORD, null));
+
+        logger.info("verifications/s: plaintext {}, hashed {}, hashed and cached {}", plaintextRate, hashedRate, cachedRate);
+    }
+
+    private static long rate(Verification verification) {
+        // warm up before measuring
+        measure(verification, MEASURE_NANOS / 3);
+        return measure(verification, MEASURE_NANOS);
+    }
+
+    private static long measure(Verification verification, long nanos) {
+        long start = System.nanoTime();
+        long count = 0;
+        long elapsed;
+        do {
+            assertThat(verification.verify()).isTrue();
+            count++;
+            elapsed = System.nanoTime() - start;
+        } while (elapsed < nanos);
+        return count * TimeUnit.SECONDS.toNanos(1) / elapsed;
+    }
+
+    private static CredentialFileWatcher.Credential credential(String password) {
+        return new CredentialFileWatcher.Credential(CredentialFileWatcher.CredentialType.HTTP, "account", null, "bench", password, null, null);
+    }
+
+    private interface Verification {
+        boolean verify();
+    }
+}
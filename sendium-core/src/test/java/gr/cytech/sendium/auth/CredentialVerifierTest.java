@@ -0,0 +1,232 @@
+package gr.cytech.sendium.auth;
+
+import gr.cytech.sendium.conf.SendiumConfigurationHandler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CredentialVerifierTest {
+    private static final int ITERATIONS = 1000;
+
+    @BeforeEach
+    void setUp() {
+        CredentialVerifier.invalidate();
+    }
+
+    @AfterEach
+    void tearDown() {
+        CredentialVerifier.configure(configurationHandler());
+    }
+
+    @Test
+    void hashIsSaltedAndVerifiesOnlyItsPassword() {
+        String hash = CredentialVerifier.hash("secret".toCharArray(), ITERATIONS);
+
+        assertThat(hash).startsWith(CredentialVerifier.HASH_PREFIX + ITERATIONS + "$").doesNotContain("secret");
+        assertThat(CredentialVerifier.hash("secret".toCharArray(), ITERATIONS)).isNotEqualTo(hash);
+        assertThat(CredentialVerifier.isHash(hash)).isTrue();
+        assertThat(CredentialVerifier.verify(credential("user", hash), "secret", null)).isTrue();
+        assertThat(CredentialVerifier.verify(credential("user", hash), "Secret", null)).isFalse();
+        assertThat(CredentialVerifier.verify(credential("user", hash), "", null)).isFalse();
+    }
+
+    @Test
+    void plaintextPasswordsAreComparedAsBefore() {
+        assertThat(CredentialVerifier.isHash("secret")).isFalse();
+        assertThat(CredentialVerifier.verify(credential("user", "secret"), "secret", null)).isTrue();
+        assertThat(CredentialVerifier.verify(credential("user", "secret"), "secret2", null)).isFalse();
+        assertThat(CredentialVerifier.verify(credential("user", "secret"), null, null)).isFalse();
+        assertThat(CredentialVerifier.verify(credential("user", null), "secret", null)).isFalse();
+        assertThat(CredentialVerifier.cached()).isZero();
+    }
+
+    @Test
+    void malformedHashVerifiesNothing() {
+        assertThat(CredentialVerifier.verify(credential("user", CredentialVerifier.HASH_PREFIX + "1000$salt"), "secret", null)).isFalse();
+        assertThat(CredentialVerifier.verify(credential("user", CredentialVerifier.HASH_PREFIX + "many$c2FsdA$aGFzaA"), "secret", null)).isFalse();
+        assertThat(CredentialVerifier.verify(credential("user", CredentialVerifier.HASH_PREFIX + "1000$!!$aGFzaA"), "secret", null)).isFalse();
+    }
+
+    @Test
+    void onlySuccessfulVerificationsAreCached() {
+        String hash = CredentialVerifier.hash("secret".toCharArray(), ITERATIONS);
+
+        assertThat(CredentialVerifier.verify(credential("user", hash), "wrong", 0)).isFalse();
+        assertThat(CredentialVerifier.cached()).isZero();
+
+        assertThat(CredentialVerifier.verify(credential("user", hash), "secret", 0)).isTrue();
+        assertThat(CredentialVerifier.verify(credential("user", hash), "secret", 1)).isTrue();
+        assertThat(CredentialVerifier.cached()).isOne();
+
+        // a cached verification accepts neither another password nor the same password for another user or hash
+        assertThat(CredentialVerifier.verify(credential("user", hash), "wrong", 1)).isFalse();
+        assertThat(CredentialVerifier.verify(credential("other", hash), "secret", 1)).isTrue();
+        String newHash = CredentialVerifier.hash("changed".toCharArray(), ITERATIONS);
+        assertThat(CredentialVerifier.verify(credential("user", newHash), "secret", 1)).isFalse();
+        assertThat(CredentialVerifier.cached()).isEqualTo(2);
+    }
+
+    @Test
+    void expiredVerificationIsComputedAgain() {
+        String hash = CredentialVerifier.hash("secret".toCharArray(), ITERATIONS);
+        assertThat(CredentialVerifier.verify(credential("user", hash), "secret", 0)).isTrue();
+
+        assertThat(CredentialVerifier.verify(credential("user", hash), "secret", Long.MAX_VALUE / 2)).isTrue();
+        assertThat(CredentialVerifier.cached()).isOne();
+    }
+
+    @Test
+    void invalidateForgetsCachedVerifications() {
+        String hash = CredentialVerifier.hash("secret".toCharArray(), ITERATIONS);
+        assertThat(CredentialVerifier.verify(credential("user", hash), "secret", null)).isTrue();
+
+        CredentialVerifier.invalidate();
+
+        assertThat(CredentialVerifier.cached()).isZero();
+    }
+
+    @Test
+    void repeatedFailures_AreRejectedWithoutHashingUntilTheEndOfTheWindow() {
+        String hash = CredentialVerifier.hash("secret".toCharArray(), ITERATIONS);
+        assertThat(CredentialVerifier.verify(credential("cached", hash), "secret", 0)).isTrue();
+        for (int i = 0; i < 10; i++) {
+            assertThat(CredentialVerifier.verifyAsync(credential("user", hash), "wrong" + i, "10.0.0.1", 0).join()).isFalse();
+        }
+
+        // throttled: even the right password is not hashed, while a cached verification, other users and other addresses still pass
+        CompletableFuture<Boolean> throttled = CredentialVerifier.verifyAsync(credential("user", hash), "secret", "10.0.0.1", 1);
+        assertThat(throttled).isCompletedWithValue(false);
+        assertThat(CredentialVerifier.verify(credential("cached", hash), "secret", 1)).isTrue();
+        assertThat(CredentialVerifier.verifyAsync(credential("other", hash), "secret", "10.0.0.1", 1).join()).isTrue();
+        assertThat(CredentialVerifier.verifyAsync(credential("user", hash), "secret", "10.0.0.2", 1).join()).isTrue();
+        CredentialVerifier.invalidate();
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(CredentialVerifier.verifyAsync(credential("user", hash), "wrong" + i, "10.0.0.1", 0).join()).isFalse();
+        }
+        assertThat(CredentialVerifier.verifyAsync(credential("user", hash), "secret", "10.0.0.1", 60_000).join()).isTrue();
+    }
+
+    @Test
+    void concurrentVerificationsOfTheSameCredentials_ComputeOneHash() throws InterruptedException {
+        configureHashing(1, 10, 10);
+        CountDownLatch release = occupyHashingThread();
+        String hash = CredentialVerifier.hash("secret".toCharArray(), ITERATIONS);
+
+        CompletableFuture<Boolean> first = CredentialVerifier.verifyAsync(credential("user", hash), "secret", "10.0.0.1");
+        CompletableFuture<Boolean> second = CredentialVerifier.verifyAsync(credential("user", hash), "secret", "10.0.0.2");
+
+        assertThat(second).isSameAs(first).isNotDone();
+        assertThat(CredentialVerifier.hashingExecutor().getQueue()).hasSize(1);
+        release.countDown();
+        assertThat(first.join()).isTrue();
+        assertThat(CredentialVerifier.cached()).isOne();
+    }
+
+    @Test
+    void hashesBeingComputed_CountAgainstTheFailuresOfTheirSource() throws InterruptedException {
+        configureHashing(1, 10, 3);
+        CountDownLatch release = occupyHashingThread();
+        String hash = CredentialVerifier.hash("secret".toCharArray(), ITERATIONS);
+
+        List<CompletableFuture<Boolean>> guesses = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            guesses.add(CredentialVerifier.verifyAsync(credential("user", hash), "wrong" + i, "10.0.0.1"));
+        }
+        CompletableFuture<Boolean> fromOtherSource = CredentialVerifier.verifyAsync(credential("user", hash), "secret", "10.0.0.2");
+
+        assertThat(CredentialVerifier.verifyAsync(credential("user", hash), "wrong3", "10.0.0.1")).isCompletedWithValue(false);
+        assertThat(CredentialVerifier.hashingExecutor().getQueue()).hasSize(4);
+        release.countDown();
+        assertThat(guesses).allSatisfy(guess -> assertThat(guess.join()).isFalse());
+        assertThat(fromOtherSource.join()).isTrue();
+        assertThat(CredentialVerifier.verifyAsync(credential("user", hash), "wrong4", "10.0.0.1")).isCompletedWithValue(false);
+    }
+
+    @Test
+    void fullHashingQueue_RejectsThePassword() throws InterruptedException {
+        configureHashing(1, 1, 10);
+        CountDownLatch release = occupyHashingThread();
+        String hash = CredentialVerifier.hash("secret".toCharArray(), ITERATIONS);
+
+        CompletableFuture<Boolean> queued = CredentialVerifier.verifyAsync(credential("user", hash), "secret", "10.0.0.1");
+
+        assertThat(CredentialVerifier.verifyAsync(credential("other", hash), "secret", "10.0.0.1")).isCompletedWithValue(false);
+        release.countDown();
+        assertThat(queued.join()).isTrue();
+        assertThat(CredentialVerifier.verifyAsync(credential("other", hash), "secret", "10.0.0.1").join()).isTrue();
+    }
+
+    @Test
+    void plaintextAndCachedPasswordsAreVerifiedAtOnce() {
+        String hash = CredentialVerifier.hash("secret".toCharArray(), ITERATIONS);
+        assertThat(CredentialVerifier.verify(credential("user", hash), "secret", null)).isTrue();
+
+        assertThat(CredentialVerifier.verifyAsync(credential("user", "secret"), "secret", null)).isCompletedWithValue(true);
+        assertThat(CredentialVerifier.verifyAsync(credential("user", hash), "secret", null)).isCompletedWithValue(true);
+        assertThat(CredentialVerifier.verifyAsync(null, "secret", null)).isCompletedWithValue(false);
+    }
+
+    @Test
+    void configureReadsTheCacheParameters() {
+        SendiumConfigurationHandler config = configurationHandler();
+        config.set(CredentialVerifier._cacheMaxEntries[0], "1");
+        CredentialVerifier.configure(config);
+        String hash = CredentialVerifier.hash("secret".toCharArray(), ITERATIONS);
+
+        assertThat(CredentialVerifier.verify(credential("user", hash), "secret", 0)).isTrue();
+        assertThat(CredentialVerifier.verify(credential("other", hash), "secret", 0)).isTrue();
+
+        assertThat(CredentialVerifier.cached()).isOne();
+    }
+
+    private static void configureHashing(int threads, int maxQueued, int maxFailures) {
+        SendiumConfigurationHandler config = configurationHandler();
+        config.set(CredentialVerifier._hashingThreads[0], String.valueOf(threads));
+        config.set(CredentialVerifier._hashingMaxQueued[0], String.valueOf(maxQueued));
+        config.set(CredentialVerifier._maxFailures[0], String.valueOf(maxFailures));
+        CredentialVerifier.configure(config);
+    }
+
+    /**
+     * @return the latch to count down to let the only hashing thread go
+     */
+    private static CountDownLatch occupyHashingThread() throws InterruptedException {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CredentialVerifier.hashingExecutor().execute(() -> {
+            started.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        assertThat(started.await(10, TimeUnit.SECONDS)).isTrue();
+        return release;
+    }
+
+    private static SendiumConfigurationHandler configurationHandler() {
+        SendiumConfigurationHandler config = new SendiumConfigurationHandler();
+        config.memoryConfiguration = new ConcurrentHashMap<>();
+        config.defaultsConfiguration = new ConcurrentHashMap<>();
+        config.overriddenDefaultsConfiguration = new ConcurrentHashMap<>();
+        config.currentStoreConfiguration = new ConcurrentHashMap<>();
+        config.listeners = new CopyOnWriteArraySet<>();
+        return config;
+    }
+
+    private static CredentialFileWatcher.Credential credential(String systemId, String password) {
+        return new CredentialFileWatcher.Credential(CredentialFileWatcher.CredentialType.HTTP, "account", null, systemId, password, null, null);
+    }
+}
@@ -0,0 +1,142 @@
+package gr.cytech.sendium.core.http;
+
+import gr.cytech.sendium.auth.CredentialFileWatcher;
+import gr.cytech.sendium.conf.SendiumConfigurationHandler;
+import gr.cytech.sendium.core.queue.InMemoryQueueProvider;
+import gr.cytech.sendium.core.worker.DlrServiceFixture;
+import gr.cytech.sendium.util.MessageTrace;
+import jakarta.ws.rs.core.Response;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Messages accepted per second by {@link KannelResource}, one {@code GET /sendsms} call per message against
+ * {@code POST /sendsms/bulk} calls of {@link #BATCH} messages each, with the DLR states saved to a persistent store
+ * with its default configuration, once with the {@code message.accepted} trace of each message logged and once
+ * without. The resource is called in-process, so this is the cost of accepting the messages only, without the HTTP
+ * round-trip per request that bulk submission saves as well.
+ * Run with {@code mvn test -Dsendium.benchmarks=true -Dtest=KannelBulkIngestBenchmarkTest}.
+ */
+@Tag("benchmark")
+@EnabledIfSystemProperty(named = "sendium.benchmarks", matches = "true")
+class KannelBulkIngestBenchmarkTest {
+    private static final Logger logger = LoggerFactory.getLogger(KannelBulkIngestBenchmarkTest.class);
+    private static final int MESSAGES = 100_000;
+    private static final int BATCH = 1000;
+    private static final String USERNAME = "bench";
+    private static final String PASSWORD = "secret";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void withMessageTrace() {
+        compareSingleAndBulk("necessary");
+    }
+
+    @Test
+    void withoutMessageTrace() {
+        compareSingleAndBulk("off");
+    }
+
+    private void compareSingleAndBulk(String traceMode) {
+        String oldDbPath = System.getProperty("sendium.dlr.db.path");
+        SendiumConfigurationHandler config = new SendiumConfigurationHandler();
+        config.memoryConfiguration = new ConcurrentHashMap<>();
+        config.defaultsConfiguration = new ConcurrentHashMap<>();
+        config.overriddenDefaultsConfiguration = new ConcurrentHashMap<>();
+        config.currentStoreConfiguration = new ConcurrentHashMap<>();
+        config.listeners = new CopyOnWriteArraySet<>();
+        config.set(MessageTrace.TRACE_MODE[0], traceMode);
+        List<byte[]> bodies = bulkBodies();
+        try {
+            KannelResource single = newResource(config, "single");
+            KannelResource bulk = newResource(config, "bulk");
+            // warm up both paths before measuring either
+            submitEach(single, MESSAGES / 10);
+            submitBulk(bulk, bodies.subList(0, bodies.size() / 10));
+            long singleNanos = submitEach(single, MESSAGES);
+            long bulkNanos = submitBulk(bulk, bodies);
+            DlrServiceFixture.stop(single.dlrService);
+            DlrServiceFixture.stop(bulk.dlrService);
+            logger.info("trace {}: single {} msg/s, bulk of {} {} msg/s ({}x)", traceMode, MESSAGES * 1_000_000_000L / singleNanos, BATCH,
+                    MESSAGES * 1_000_000_000L / bulkNanos, String.format("%.1f", (double) singleNanos / bulkNanos));
+        } finally {
+            if (oldDbPath == null) {
+                System.clearProperty("sendium.dlr.db.path");
+            } else {
+                System.setProperty("sendium.dlr.db.path", oldDbPath);
+            }
+        }
+    }
+
+    private KannelResource newResource(SendiumConfigurationHandler config, String name) {
+        System.setProperty("sendium.dlr.db.path", dir.resolve(name + ".db").toString());
+        CredentialFileWatcher credentials = mock(CredentialFileWatcher.class);
+        when(credentials.getValidCredentials()).thenReturn(Map.of(USERNAME,
+                new CredentialFileWatcher.Credential(CredentialFileWatcher.CredentialType.HTTP, USERNAME, null, USERNAME, PASSWORD, null, null)));
+        KannelResource resource = new KannelResource();
+        resource.configurationHandler = config;
+        resource.credentialFileWatcher = credentials;
+        resource.queueProvider = new InMemoryQueueProvider();
+        resource.dlrService = DlrServiceFixture.start(null);
+        resource.init();
+        return resource;
+    }
+
+    private static long submitEach(KannelResource resource, int messages) {
+        long start = System.nanoTime();
+        for (int i = 0; i < messages; i++) {
+            Response response = resource.receiveSms(USERNAME, PASSWORD, "Sender", "30690000" + i, "Hello+world+" + i, null, null, null, null,
+                    null, null, null, "http://callback.test/dlr?id=%s&type=%d", null, null, null, null, null, null, null, null, null, null, null).toCompletableFuture().join();
+            assertThat(response.getStatus()).isEqualTo(202);
+        }
+        long elapsed = System.nanoTime() - start;
+        assertThat(resource.queueProvider.getRouterQueue().size()).isEqualTo(messages);
+        resource.queueProvider.getRouterQueue().getInternalQueue().clear();
+        return elapsed;
+    }
+
+    private static long submitBulk(KannelResource resource, List<byte[]> bodies) {
+        long start = System.nanoTime();
+        for (byte[] body : bodies) {
+            Response response = resource.receiveSmsBulk(USERNAME, PASSWORD, null, null, new ByteArrayInputStream(body), null);
+            assertThat(response.getStatus()).isEqualTo(202);
+        }
+        long elapsed = System.nanoTime() - start;
+        assertThat(resource.queueProvider.getRouterQueue().size()).isEqualTo(bodies.size() * BATCH);
+        resource.queueProvider.getRouterQueue().getInternalQueue().clear();
+        return elapsed;
+    }
+
+    private static List<byte[]> bulkBodies() {
+        List<byte[]> bodies = new ArrayList<>();
+        for (int batch = 0; batch < MESSAGES / BATCH; batch++) {
+            StringBuilder sb = new StringBuilder("[");
+            for (int i = batch * BATCH; i < (batch + 1) * BATCH; i++) {
+                sb.append(i % BATCH == 0 ? "" : ",")
+                        .append("{\"from\":\"Sender\",\"to\":\"30690000").append(i).append("\",\"text\":\"Hello world ").append(i)
+                        .append("\",\"dlr-url\":\"http://callback.test/dlr?id=%s&type=%d\"}");
+            }
+            bodies.add(sb.append(']').toString().getBytes(StandardCharsets.UTF_8));
+        }
+        return bodies;
+    }
+}
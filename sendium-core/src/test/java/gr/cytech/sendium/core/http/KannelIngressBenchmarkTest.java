@@ -0,0 +1,198 @@
+package gr.cytech.sendium.core.http;
+
+import gr.cytech.sendium.auth.CredentialFileWatcher;
+import gr.cytech.sendium.conf.SendiumConfigurationHandler;
+import gr.cytech.sendium.core.queue.InMemoryQueueProvider;
+import gr.cytech.sendium.core.worker.DlrServiceFixture;
+import gr.cytech.sendium.core.worker.InMemoryDlrService;
+import gr.cytech.sendium.util.MessageTrace;
+import io.vertx.core.Vertx;
+import io.vertx.core.VertxOptions;
+import io.vertx.core.http.HttpServer;
+import io.vertx.core.http.HttpServerRequest;
+import jakarta.ws.rs.core.Response;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Requests per second and latencies of {@code GET /sendsms} at high concurrency over HTTP, with {@link KannelResource}
+ * served by an embedded Vert.x server with one event loop, as Quarkus serves it. Each run compares the endpoint handled
+ * on the event loop, as it is now, with the same endpoint dispatched the way a blocking JAX-RS method is: on a thread of
+ * a worker pool of {@link #WORKERS}, the Quarkus default, that waits until the message is accepted. It runs once with
+ * the DLR hot tier and once without, when every initial state is written to the store.
+ * Run with {@code mvn test -Dsendium.benchmarks=true -Dtest=KannelIngressBenchmarkTest}, and set the concurrency and
+ * the requests with {@code -Dsendium.ingress.concurrency=512 -Dsendium.ingress.requests=20000}. The client runs on the
+ * same machine, so on few cores it takes much of the CPU.
+ */
+@Tag("benchmark")
+@EnabledIfSystemProperty(named = "sendium.benchmarks", matches = "true")
+class KannelIngressBenchmarkTest {
+    private static final Logger logger = LoggerFactory.getLogger(KannelIngressBenchmarkTest.class);
+    private static final int CONCURRENCY = Integer.getInteger("sendium.ingress.concurrency", 512);
+    private static final int REQUESTS = Integer.getInteger("sendium.ingress.requests", 20_000);
+    private static final int WORKERS = 200;
+    private static final String USERNAME = "bench";
+    private static final String PASSWORD = "secret";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void withHotTier() throws Exception {
+        compareBlockingAndNonBlocking("hot tier", "100000");
+    }
+
+    @Test
+    void withoutHotTier() throws Exception {
+        compareBlockingAndNonBlocking("store", "0");
+    }
+
+    private void compareBlockingAndNonBlocking(String name, String hotTierMaxEntries) throws Exception {
+        String oldDbPath = System.getProperty("sendium.dlr.db.path");
+        SendiumConfigurationHandler config = new SendiumConfigurationHandler();
+        config.memoryConfiguration = new ConcurrentHashMap<>();
+        config.defaultsConfiguration = new ConcurrentHashMap<>();
+        config.overriddenDefaultsConfiguration = new ConcurrentHashMap<>();
+        config.currentStoreConfiguration = new ConcurrentHashMap<>();
+        config.listeners = new CopyOnWriteArraySet<>();
+        config.set(MessageTrace.TRACE_MODE[0], "off");
+        config.set(InMemoryDlrService._hotTierMaxEntries[0], hotTierMaxEntries);
+        HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+        try {
+            for (boolean blocking : new boolean[]{true, false}) {
+                System.setProperty("sendium.dlr.db.path", dir.resolve(name.replace(' ', '-') + "-" + blocking + ".db").toString());
+                KannelResource resource = newResource(config);
+                Vertx vertx = Vertx.vertx(new VertxOptions().setEventLoopPoolSize(1).setWorkerPoolSize(WORKERS));
+                HttpServer server = vertx.createHttpServer()
+                        .requestHandler(request -> handle(vertx, resource, request, blocking))
+                        .listen(0, "127.0.0.1").toCompletionStage().toCompletableFuture().get();
+                try {
+                    // warm up before measuring
+                    run(client, server.actualPort(), REQUESTS / 10);
+                    long[] latencies = new long[REQUESTS];
+                    long start = System.nanoTime();
+                    run(client, server.actualPort(), latencies);
+                    long elapsed = System.nanoTime() - start;
+                    Arrays.sort(latencies);
+                    logger.info("{} {}: {} requests at concurrency {}: {} req/s, latency p50:{}ms p99:{}ms max:{}ms, server threads:{}", name,
+                            blocking ? "worker pool" : "event loop", REQUESTS, CONCURRENCY, REQUESTS * TimeUnit.SECONDS.toNanos(1) / elapsed,
+                            percentile(latencies, 0.50), percentile(latencies, 0.99), percentile(latencies, 1), serverThreads());
+                    assertThat(resource.queueProvider.getRouterQueue().size()).isEqualTo(REQUESTS + REQUESTS / 10);
+                } finally {
+                    server.close().toCompletionStage().toCompletableFuture().get();
+                    vertx.close().toCompletionStage().toCompletableFuture().get();
+                    DlrServiceFixture.stop(resource.dlrService);
+                }
+            }
+        } finally {
+            if (oldDbPath == null) {
+                System.clearProperty("sendium.dlr.db.path");
+            } else {
+                System.setProperty("sendium.dlr.db.path", oldDbPath);
+            }
+        }
+    }
+
+    private static KannelResource newResource(SendiumConfigurationHandler config) {
+        CredentialFileWatcher credentials = mock(CredentialFileWatcher.class);
+        when(credentials.getValidCredentials()).thenReturn(Map.of(USERNAME,
+                new CredentialFileWatcher.Credential(CredentialFileWatcher.CredentialType.HTTP, USERNAME, null, USERNAME, PASSWORD, null, null)));
+        KannelResource resource = new KannelResource();
+        resource.configurationHandler = config;
+        resource.credentialFileWatcher = credentials;
+        resource.queueProvider = new InMemoryQueueProvider();
+        resource.dlrService = DlrServiceFixture.start(config);
+        resource.init();
+        return resource;
+    }
+
+    private static void handle(Vertx vertx, KannelResource resource, HttpServerRequest request, boolean blocking) {
+        if (blocking) {
+            vertx.executeBlocking(() -> receiveSms(resource, request).toCompletableFuture().join(), false)
+                    .onComplete(response -> respond(request, response.result()));
+        } else {
+            receiveSms(resource, request).thenAccept(response -> respond(request, response));
+        }
+    }
+
+    private static CompletionStage<Response> receiveSms(KannelResource resource, HttpServerRequest request) {
+        return resource.receiveSms(request.getParam("username"), request.getParam("password"), request.getParam("from"),
+                request.getParam("to"), request.getParam("text"), null, null, null, null, null, null, null, request.getParam("dlr-url"), null,
+                null, null, null, null, null, null, null, null, null, request);
+    }
+
+    private static void respond(HttpServerRequest request, Response response) {
+        request.response().setStatusCode(response.getStatus()).end(String.valueOf(response.getEntity()));
+    }
+
+    private static void run(HttpClient client, int port, int requests) throws Exception {
+        run(client, port, new long[requests]);
+    }
+
+    /**
+     * Send the requests from {@link #CONCURRENCY} clients, each sending its next request once the last was answered.
+     */
+    private static void run(HttpClient client, int port, long[] latencies) throws Exception {
+        AtomicInteger next = new AtomicInteger();
+        try (ExecutorService clients = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int c = 0; c < CONCURRENCY; c++) {
+                futures.add(clients.submit(() -> {
+                    for (int i = next.getAndIncrement(); i < latencies.length; i = next.getAndIncrement()) {
+                        HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/sendsms?username=" + USERNAME +
+                                        "&password=" + PASSWORD + "&from=Sender&to=30690000" + i + "&text=Hello+world+" + i +
+                                        "&dlr-url=http%3A%2F%2Fcallback.test%2Fdlr%3Fid%3D%25s"))
+                                .timeout(Duration.ofSeconds(60))
+                                .build();
+                        long start = System.nanoTime();
+                        HttpResponse<String> response = client.send(request, HttpResponse.BodyHandlers.ofString());
+                        latencies[i] = System.nanoTime() - start;
+                        assertThat(response.statusCode()).isEqualTo(202);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+    }
+
+    /**
+     * @return the live event loop and worker threads of Vert.x
+     */
+    private static long serverThreads() {
+        return Thread.getAllStackTraces().keySet().stream().filter(thread -> thread.getName().startsWith("vert.x-")).count();
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        return TimeUnit.NANOSECONDS.toMillis(sorted[Math.min(sorted.length - 1, (int) (sorted.length * percentile))]);
+    }
+}
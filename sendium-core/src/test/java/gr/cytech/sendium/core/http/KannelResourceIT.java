@@ -14,6 +14,9 @@ import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import utils.CaptorWorker;
 
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 
 import static io.restassured.RestAssured.given;
@@ -190,6 +193,41 @@ class KannelResourceIT {
                 .body(org.hamcrest.Matchers.equalTo("Invalid credentials"));
     }
 
+    @Test
+    @DisplayName("Should verify a hashed password off the event loop and route the message")
+    void testHashedPassword() throws InterruptedException {
+        given()
+                .queryParam("to", "123456789")
+                .queryParam("text", "Hello")
+                .queryParam("from", "Sender")
+                .queryParam("username", "test3")
+                .queryParam("password", passwordKannel)
+                .when()
+                .get("/sendsms")
+                .then()
+                .statusCode(202);
+
+        var capturedMsg = captorWorker.captures.poll(10, TimeUnit.SECONDS);
+        assertThat(capturedMsg).isNotNull();
+        assertThat(capturedMsg.body).isEqualTo("Hello");
+    }
+
+    @Test
+    @DisplayName("Should return 401 Unauthorized when the password does not match the hash")
+    void testInvalidHashedPassword() {
+        given()
+                .queryParam("to", "123456789")
+                .queryParam("from", "Sender")
+                .queryParam("text", "Hello")
+                .queryParam("username", "test3")
+                .queryParam("password", "wrong")
+                .when()
+                .get("/sendsms")
+                .then()
+                .statusCode(401)
+                .body(org.hamcrest.Matchers.equalTo("Invalid credentials"));
+    }
+
     @Test
     @DisplayName("Should return 401 Unauthorized when password is missing")
     void testMissingPassword() {
@@ -283,4 +321,202 @@ class KannelResourceIT {
         assertThat(state.get().getForwardDlrUrl()).isEqualTo("http://callback.test/dlr?id=%I&status=%d");
         assertThat(state.get().getStatus()).isEqualTo(MessageState.MessageStatus.ACCEPTED);
     }
+
+    @Test
+    @DisplayName("Should answer a retry with the same Idempotency-Key with the first serial and not enqueue it again")
+    void testIdempotencyKeyHeaderDeduplicatesRetries() throws InterruptedException {
+        String serial = sendWithIdempotencyKey("retry-header-1", "Idempotency-Key")
+                .then()
+                .statusCode(202)
+                .header(KannelResource.IDEMPOTENT_REPLAYED, org.hamcrest.Matchers.nullValue())
+                .extract()
+                .asString();
+
+        sendWithIdempotencyKey("retry-header-1", "Idempotency-Key")
+                .then()
+                .statusCode(202)
+                .header(KannelResource.IDEMPOTENT_REPLAYED, "true")
+                .body(org.hamcrest.Matchers.equalTo(serial));
+
+        var capturedMsg = captorWorker.captures.poll(10, TimeUnit.SECONDS);
+        assertNotNull(capturedMsg);
+        assertEquals(serial, capturedMsg.serial);
+        assertThat(captorWorker.captures.poll(1, TimeUnit.SECONDS)).isNull();
+    }
+
+    @Test
+    @DisplayName("Should accept submissions with different idempotency-key parameters")
+    void testDifferentIdempotencyKeysAreAccepted() throws InterruptedException {
+        String first = sendWithIdempotencyKey("retry-param-1", null).then().statusCode(202).extract().asString();
+        String second = sendWithIdempotencyKey("retry-param-2", null).then().statusCode(202).extract().asString();
+
+        assertThat(second).isNotEqualTo(first);
+        assertNotNull(captorWorker.captures.poll(10, TimeUnit.SECONDS));
+        assertNotNull(captorWorker.captures.poll(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    @DisplayName("Should answer bulk messages with an idempotency key already used with the first serial")
+    void testBulkIdempotencyKey() throws InterruptedException {
+        String body = "[{\"from\":\"Sender\",\"to\":\"666\",\"text\":\"once\",\"idempotency-key\":\"bulk-1\"},"
+                + "{\"from\":\"Sender\",\"to\":\"666\",\"text\":\"once\",\"idempotency-key\":\"bulk-1\"}]";
+        String serial = given()
+                .queryParam("username", usernamekannel)
+                .queryParam("password", passwordKannel)
+                .contentType("application/json")
+                .body(body)
+                .when()
+                .post("/sendsms/bulk")
+                .then()
+                .statusCode(202)
+                .body("accepted", org.hamcrest.Matchers.equalTo(1))
+                .body("duplicates", org.hamcrest.Matchers.equalTo(1))
+                .body("results[1].duplicate", org.hamcrest.Matchers.equalTo(true))
+                .extract()
+                .path("results[0].serial");
+
+        given()
+                .queryParam("username", usernamekannel)
+                .queryParam("password", passwordKannel)
+                .contentType("application/json")
+                .body(body)
+                .when()
+                .post("/sendsms/bulk")
+                .then()
+                .statusCode(202)
+                .body("accepted", org.hamcrest.Matchers.equalTo(0))
+                .body("duplicates", org.hamcrest.Matchers.equalTo(2))
+                .body("results.serial", org.hamcrest.Matchers.everyItem(org.hamcrest.Matchers.equalTo(serial)));
+
+        assertNotNull(captorWorker.captures.poll(10, TimeUnit.SECONDS));
+        assertThat(captorWorker.captures.poll(1, TimeUnit.SECONDS)).isNull();
+    }
+
+    @Test
+    @DisplayName("Should enqueue every message of a JSON array and return their serials")
+    void testBulkJsonArray() throws InterruptedException {
+        List<String> serials = given()
+                .queryParam("username", usernamekannel)
+                .queryParam("password", passwordKannel)
+                .contentType("application/json")
+                .body("[{\"from\":\"Sender\",\"to\":\"111\",\"text\":\"Hello & 1\",\"dlr-url\":\"http://callback.test/dlr?id=%s\"},"
+                        + "{\"from\":\"Sender\",\"to\":\"222\",\"text\":\"Hello 2\",\"coding\":2,\"priority\":3}]")
+                .when()
+                .post("/sendsms/bulk")
+                .then()
+                .statusCode(202)
+                .body("accepted", org.hamcrest.Matchers.equalTo(2))
+                .body("rejected", org.hamcrest.Matchers.equalTo(0))
+                .extract()
+                .path("results.serial");
+
+        assertThat(serials.size()).isEqualTo(2);
+        Map<String, StandardMessage> captured = new HashMap<>();
+        for (int i = 0; i < 2; i++) {
+            var capturedMsg = captorWorker.captures.poll(10, TimeUnit.SECONDS);
+            assertNotNull(capturedMsg, "Message was not routed to the captor worker in time");
+            captured.put(capturedMsg.to, capturedMsg);
+        }
+        assertThat(captured.get("111").serial).isEqualTo(serials.get(0));
+        assertThat(captured.get("111").body).isEqualTo("Hello & 1");
+        assertThat(captured.get("222").serial).isEqualTo(serials.get(1));
+        assertThat(captured.get("222").dcs).isEqualTo(StandardMessage.DCS_16BIT);
+        assertThat(captured.get("222").priority).isEqualTo(3);
+
+        var state = dlrService.getState(serials.get(0));
+        assertThat(state).isPresent();
+        assertThat(state.get().getAccountId()).isEqualTo(usernamekannel);
+        assertThat(state.get().getForwardDlrUrl()).isEqualTo("http://callback.test/dlr?id=%s");
+    }
+
+    @Test
+    @DisplayName("Should enqueue newline-delimited JSON messages")
+    void testBulkNdjson() throws InterruptedException {
+        given()
+                .queryParam("user", usernamekannel)
+                .queryParam("pass", passwordKannel)
+                .contentType(KannelResource.NDJSON)
+                .body("{\"from\":\"Sender\",\"to\":\"333\",\"text\":\"line 1\"}\n{\"from\":\"Sender\",\"to\":\"444\",\"text\":\"line 2\"}\n")
+                .when()
+                .post("/sendsms/bulk")
+                .then()
+                .statusCode(202)
+                .body("accepted", org.hamcrest.Matchers.equalTo(2));
+
+        assertNotNull(captorWorker.captures.poll(10, TimeUnit.SECONDS));
+        assertNotNull(captorWorker.captures.poll(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    @DisplayName("Should reject invalid messages one by one and enqueue the rest")
+    void testBulkPartialRejection() throws InterruptedException {
+        given()
+                .queryParam("username", usernamekannel)
+                .queryParam("password", passwordKannel)
+                .contentType("application/json")
+                .body("[{\"from\":\"Sender\",\"text\":\"no recipient\"},{\"from\":\"Sender\",\"to\":\"555\",\"text\":\"ok\"},null]")
+                .when()
+                .post("/sendsms/bulk")
+                .then()
+                .statusCode(202)
+                .body("accepted", org.hamcrest.Matchers.equalTo(1))
+                .body("rejected", org.hamcrest.Matchers.equalTo(2))
+                .body("results[0].error", org.hamcrest.Matchers.equalTo("Missing 'to' parameter"))
+                .body("results[0].serial", org.hamcrest.Matchers.nullValue())
+                .body("results[1].serial", org.hamcrest.Matchers.notNullValue())
+                .body("results[2].error", org.hamcrest.Matchers.equalTo("Missing message"));
+
+        var capturedMsg = captorWorker.captures.poll(10, TimeUnit.SECONDS);
+        assertNotNull(capturedMsg);
+        assertEquals("555", capturedMsg.to);
+    }
+
+    @Test
+    @DisplayName("Should return 401 UNAUTHORIZED for a bulk submission with invalid credentials")
+    void testBulkInvalidCredentials() {
+        given()
+                .queryParam("username", usernamekannel)
+                .queryParam("password", "wrong")
+                .contentType("application/json")
+                .body("[{\"from\":\"Sender\",\"to\":\"111\",\"text\":\"Hello\"}]")
+                .when()
+                .post("/sendsms/bulk")
+                .then()
+                .statusCode(401);
+    }
+
+    @Test
+    @DisplayName("Should return 400 BAD REQUEST and enqueue nothing for malformed JSON")
+    void testBulkMalformedJson() throws InterruptedException {
+        given()
+                .queryParam("username", usernamekannel)
+                .queryParam("password", passwordKannel)
+                .contentType("application/json")
+                .body("[{\"from\":\"Sender\",\"to\":\"111\",\"text\":\"Hello\"},{\"from\":")
+                .when()
+                .post("/sendsms/bulk")
+                .then()
+                .statusCode(400)
+                .body(org.hamcrest.Matchers.startsWith("Invalid message 1"));
+
+        assertThat(captorWorker.captures.poll(1, TimeUnit.SECONDS)).isNull();
+    }
+
+    /**
+     * @param header the header to send the key in, or null to send it as the {@code idempotency-key} parameter
+     */
+    private io.restassured.response.Response sendWithIdempotencyKey(String key, String header) {
+        var request = given()
+                .queryParam("to", "987654321")
+                .queryParam("text", "Hello")
+                .queryParam("from", "Sender")
+                .queryParam("username", usernamekannel)
+                .queryParam("password", passwordKannel);
+        if (header == null) {
+            request.queryParam("idempotency-key", key);
+        } else {
+            request.header(header, key);
+        }
+        return request.when().get("/sendsms");
+    }
 }
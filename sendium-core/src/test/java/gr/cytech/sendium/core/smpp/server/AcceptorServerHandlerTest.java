@@ -0,0 +1,46 @@
+package gr.cytech.sendium.core.smpp.server;
+
+import com.cloudhopper.smpp.SmppServerHandler;
+import com.cloudhopper.smpp.SmppServerSession;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.verify;
+
+@ExtendWith(MockitoExtension.class)
+class AcceptorServerHandlerTest {
+    @Mock
+    SmppServerHandler delegate;
+    @Mock
+    SmppServerSession session;
+
+    @Test
+    void sessionIdsOfAllAcceptorsAreDistinct() {
+        int acceptors = 4;
+        Set<Long> ids = new HashSet<>();
+        for (int i = 0; i < acceptors; i++) {
+            var handler = new AcceptorServerHandler(delegate, i, acceptors);
+            for (long id = 1; id <= 100; id++) {
+                assertThat(ids.add(handler.toSharedSessionId(id))).isTrue();
+            }
+        }
+        assertThat(ids).hasSize(400);
+    }
+
+    @Test
+    void delegatesWithTheSharedSessionId() throws Exception {
+        var handler = new AcceptorServerHandler(delegate, 2, 3);
+
+        handler.sessionCreated(5L, session, null);
+        handler.sessionDestroyed(5L, session);
+
+        verify(delegate).sessionCreated(17L, session, null);
+        verify(delegate).sessionDestroyed(17L, session);
+    }
+}
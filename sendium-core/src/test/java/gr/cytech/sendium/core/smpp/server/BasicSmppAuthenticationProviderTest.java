@@ -3,6 +3,7 @@ package gr.cytech.sendium.core.smpp.server;
 import com.cloudhopper.smpp.SmppConstants;
 import com.cloudhopper.smpp.type.SmppProcessingException;
 import gr.cytech.sendium.auth.CredentialFileWatcher;
+import gr.cytech.sendium.auth.CredentialVerifier;
 import gr.cytech.sendium.external.WorkerResourceProvider;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -97,6 +98,25 @@ class BasicSmppAuthenticationProviderTest {
         assertEquals(SmppConstants.STATUS_INVPASWD, ex.getErrorCode());
     }
 
+    @Test
+    void authenticate_HashedPassword() throws SmppProcessingException {
+        CredentialFileWatcher.Credential validCred = new CredentialFileWatcher.Credential(
+                CredentialFileWatcher.CredentialType.SMPP,
+                "account-123",
+                null,
+                "systemId123",
+                CredentialVerifier.hash("correctPassword".toCharArray(), 1000),
+                null,
+                null
+        );
+        when(credentialFileWatcher.getValidCredentials()).thenReturn(Map.of("systemId123", validCred));
+
+        assertEquals("systemId123", authProvider.authenticate("systemId123", "correctPassword", "192.168.1.1").getSystemId());
+        SmppProcessingException ex = assertThrows(SmppProcessingException.class, () ->
+                authProvider.authenticate("systemId123", "wrongPassword", "192.168.1.1"));
+        assertEquals(SmppConstants.STATUS_INVPASWD, ex.getErrorCode());
+    }
+
     @Test
     void authenticate_IPNotWhitelisted_ThrowsSmppProcessingException() {
         CredentialFileWatcher.Credential validCred = new CredentialFileWatcher.Credential(
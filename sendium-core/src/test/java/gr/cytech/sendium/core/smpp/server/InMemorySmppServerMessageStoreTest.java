@@ -3,6 +3,7 @@ package gr.cytech.sendium.core.smpp.server;
 import gr.cytech.sendium.core.message.StandardMessage;
 import gr.cytech.sendium.core.worker.InMemoryDlrService;
 import gr.cytech.sendium.core.worker.MessageState;
+import gr.cytech.sendium.core.worker.UnpushedDlrPage;
 import gr.cytech.sendium.external.WorkerResourceProvider;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -16,6 +17,7 @@ import org.mockito.quality.Strictness;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.Mockito.*;
@@ -153,7 +155,8 @@ class InMemorySmppServerMessageStoreTest {
         dlr.type = StandardMessage.MSG_DLR;
         dlr.owner_id = "account1";
         dlr.systemId = "sys1";
-        when(dlrService.claimUnpushedDlrs("sys1")).thenReturn(List.of(dlr));
+        when(worker.getReachableSystemIds()).thenReturn(Set.of("sys1"));
+        when(dlrService.claimUnpushedDlrs("sys1", null, 500)).thenReturn(new UnpushedDlrPage(List.of(dlr), null));
         when(worker.enqueueNoExceptions(dlr)).thenReturn(true);
 
         messageStore.onClientConnected("sys1");
@@ -166,7 +169,8 @@ class InMemorySmppServerMessageStoreTest {
     void onClientConnected_LeavesDlrStoredWhenReEnqueueFails() {
         StandardMessage dlr = new StandardMessage();
         dlr.type = StandardMessage.MSG_DLR;
-        when(dlrService.claimUnpushedDlrs("sys1")).thenReturn(List.of(dlr));
+        when(worker.getReachableSystemIds()).thenReturn(Set.of("sys1"));
+        when(dlrService.claimUnpushedDlrs("sys1", null, 500)).thenReturn(new UnpushedDlrPage(List.of(dlr), null));
         when(worker.enqueueNoExceptions(dlr)).thenReturn(false);
 
         messageStore.onClientConnected("sys1");
@@ -174,4 +178,81 @@ class InMemorySmppServerMessageStoreTest {
         verify(dlrService, never()).removeUnpushedDlr(any());
         verify(dlrService).releaseUnpushedDlrClaim(dlr);
     }
+
+    @Test
+    void onClientConnected_StreamsBacklogPageByPage() {
+        StandardMessage dlr1 = dlr("sys1", "gw-1");
+        StandardMessage dlr2 = dlr("sys1", "gw-2");
+        StandardMessage dlr3 = dlr("sys1", "gw-3");
+        when(worker.getReplayPageSize()).thenReturn(2);
+        when(worker.getReachableSystemIds()).thenReturn(Set.of("sys1"));
+        when(dlrService.claimUnpushedDlrs("sys1", null, 2)).thenReturn(new UnpushedDlrPage(List.of(dlr1, dlr2), "cursor-2"));
+        when(dlrService.claimUnpushedDlrs("sys1", "cursor-2", 2)).thenReturn(new UnpushedDlrPage(List.of(dlr3), null));
+        when(worker.enqueueNoExceptions(any())).thenReturn(true);
+
+        messageStore.onClientConnected("sys1");
+
+        verify(dlrService).claimUnpushedDlrs("sys1", null, 2);
+        verify(dlrService).claimUnpushedDlrs("sys1", "cursor-2", 2);
+        verify(dlrService).removeUnpushedDlr(dlr1);
+        verify(dlrService).removeUnpushedDlr(dlr2);
+        verify(dlrService).removeUnpushedDlr(dlr3);
+    }
+
+    @Test
+    void onClientConnected_StopsAndReleasesClaimsWhenSystemIdUnbinds() {
+        StandardMessage dlr1 = dlr("sys1", "gw-1");
+        StandardMessage dlr2 = dlr("sys1", "gw-2");
+        when(worker.getReplayPageSize()).thenReturn(2);
+        when(worker.getReachableSystemIds()).thenReturn(Set.of());
+        when(dlrService.claimUnpushedDlrs("sys1", null, 2)).thenReturn(new UnpushedDlrPage(List.of(dlr1, dlr2), "cursor-2"));
+
+        messageStore.onClientConnected("sys1");
+
+        verify(worker, never()).enqueueNoExceptions(any());
+        verify(dlrService).releaseUnpushedDlrClaim(dlr1);
+        verify(dlrService).releaseUnpushedDlrClaim(dlr2);
+        verify(dlrService, times(1)).claimUnpushedDlrs(eq("sys1"), any(), eq(2));
+    }
+
+    @Test
+    void onClientConnected_ReleasesRestOfPageWhenReEnqueueFails() {
+        StandardMessage dlr1 = dlr("sys1", "gw-1");
+        StandardMessage dlr2 = dlr("sys1", "gw-2");
+        when(worker.getReplayPageSize()).thenReturn(2);
+        when(worker.getReachableSystemIds()).thenReturn(Set.of("sys1"));
+        when(dlrService.claimUnpushedDlrs("sys1", null, 2)).thenReturn(new UnpushedDlrPage(List.of(dlr1, dlr2), "cursor-2"));
+        when(worker.enqueueNoExceptions(dlr1)).thenReturn(false);
+
+        messageStore.onClientConnected("sys1");
+
+        verify(worker, never()).enqueueNoExceptions(dlr2);
+        verify(dlrService).releaseUnpushedDlrClaim(dlr1);
+        verify(dlrService).releaseUnpushedDlrClaim(dlr2);
+        verify(dlrService, times(1)).claimUnpushedDlrs(eq("sys1"), any(), eq(2));
+    }
+
+    @Test
+    void replayPacer_IsSharedBySessionsOfTheSameSystemId() {
+        when(worker.getReplayRate()).thenReturn(200.0);
+
+        var pacer = messageStore.replayPacer("sys1");
+        assertSame(pacer, messageStore.replayPacer("sys1"));
+        assertNotSame(pacer, messageStore.replayPacer("sys2"));
+
+        when(worker.getReplayRate()).thenReturn(50.0);
+        assertSame(pacer, messageStore.replayPacer("sys1"));
+        assertEquals(50.0, pacer.getRate());
+
+        when(worker.getReplayRate()).thenReturn(0.0);
+        assertNull(messageStore.replayPacer("sys1"));
+    }
+
+    private StandardMessage dlr(String systemId, String serial) {
+        StandardMessage dlr = new StandardMessage();
+        dlr.type = StandardMessage.MSG_DLR;
+        dlr.systemId = systemId;
+        dlr.serial = serial;
+        return dlr;
+    }
 }
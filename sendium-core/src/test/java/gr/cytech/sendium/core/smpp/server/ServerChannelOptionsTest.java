@@ -0,0 +1,77 @@
+package gr.cytech.sendium.core.smpp.server;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.epoll.EpollChannelOption;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ServerChannelOptionsTest {
+
+    @Test
+    void appliesOptionsToTheServerBootstrap() {
+        var bootstrap = new ServerBootstrap();
+        var options = new ServerChannelOptions(true, true, 65536, 131072, 0, 64 * 1024, true, 1024);
+
+        options.applyTo(bootstrap);
+
+        var config = bootstrap.config();
+        assertThat(config.options())
+                .containsEntry(EpollChannelOption.SO_REUSEPORT, true)
+                .containsEntry(ChannelOption.SO_BACKLOG, 1024);
+        assertThat(config.options().get(ChannelOption.ALLOCATOR)).isInstanceOf(PooledByteBufAllocator.class);
+        assertThat(config.childOptions())
+                .containsEntry(ChannelOption.TCP_NODELAY, true)
+                .containsEntry(ChannelOption.SO_RCVBUF, 65536)
+                .containsEntry(ChannelOption.SO_SNDBUF, 131072);
+        var waterMark = (WriteBufferWaterMark) config.childOptions().get(ChannelOption.WRITE_BUFFER_WATER_MARK);
+        assertThat(waterMark.high()).isEqualTo(64 * 1024);
+        assertThat(waterMark.low()).isEqualTo(32 * 1024);
+    }
+
+    @Test
+    void zeroSizesKeepTheDefaults() {
+        var bootstrap = new ServerBootstrap();
+        var options = new ServerChannelOptions(false, false, 0, 0, 0, 0, false, 0);
+
+        options.applyTo(bootstrap);
+
+        var config = bootstrap.config();
+        assertThat(config.options()).isEmpty();
+        assertThat(config.childOptions()).containsOnlyKeys(ChannelOption.TCP_NODELAY);
+    }
+
+    @Test
+    void appliesOptionsToTheBootstrapAServerExposes() {
+        var server = new ServerWithBootstrap();
+
+        assertThat(new ServerChannelOptions(true, true, 0, 0, 0, 0, false, 0).applyTo(server)).isTrue();
+        assertThat(server.getServerBootstrap().config().options()).containsEntry(EpollChannelOption.SO_REUSEPORT, true);
+    }
+
+    @Test
+    void serverWithoutABootstrap_KeepsTheDefaults() {
+        assertThat(new ServerChannelOptions(true, true, 0, 0, 0, 0, false, 0).applyTo(new Object())).isFalse();
+    }
+
+    @Test
+    void lowWaterMarkIsCappedByTheHighWaterMark() {
+        var bootstrap = new ServerBootstrap();
+        new ServerChannelOptions(false, true, 0, 0, 10_000, 8_000, false, 0).applyTo(bootstrap);
+
+        var waterMark = (WriteBufferWaterMark) bootstrap.config().childOptions().get(ChannelOption.WRITE_BUFFER_WATER_MARK);
+        assertThat(waterMark.low()).isEqualTo(8_000);
+        assertThat(waterMark.high()).isEqualTo(8_000);
+    }
+
+    public static class ServerWithBootstrap {
+        private final ServerBootstrap bootstrap = new ServerBootstrap();
+
+        public ServerBootstrap getServerBootstrap() {
+            return bootstrap;
+        }
+    }
+}
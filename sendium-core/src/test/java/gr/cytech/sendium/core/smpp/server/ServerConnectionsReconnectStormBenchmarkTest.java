@@ -0,0 +1,96 @@
+package gr.cytech.sendium.core.smpp.server;
+
+import com.cloudhopper.smpp.SmppConstants;
+import gr.cytech.sendium.core.message.StandardMessage;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Simulates hundreds of ESMEs reconnecting at once after a network blip: every client repeatedly binds and unbinds
+ * against the same {@link ServerConnections} while the statistics are being printed.
+ * Run with {@code mvn test -Dsendium.benchmarks=true -Dtest=ServerConnectionsReconnectStormBenchmarkTest}.
+ */
+@Tag("benchmark")
+@EnabledIfSystemProperty(named = "sendium.benchmarks", matches = "true")
+class ServerConnectionsReconnectStormBenchmarkTest {
+    private static final Logger logger = LoggerFactory.getLogger(ServerConnectionsReconnectStormBenchmarkTest.class);
+
+    private static final int ACCOUNTS = 200;
+    private static final int SESSIONS_PER_ACCOUNT = 4;
+    private static final int IPS = 50;
+    private static final int RECONNECTS = 100;
+    private static final int THREADS = 32;
+
+    @Test
+    void reconnectStorm() throws Exception {
+        ServerConnections connections = new ServerConnections();
+        List<SmppServerSessionHandler<StandardMessage>> handlers = new ArrayList<>();
+        for (int a = 0; a < ACCOUNTS; a++) {
+            for (int s = 0; s < SESSIONS_PER_ACCOUNT; s++) {
+                handlers.add(ServerConnectionsTest.mockHandler("account-" + a, "10.0." + (a % IPS) + ".1"));
+            }
+        }
+
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<long[]>> results = new ArrayList<>();
+        long elapsed;
+        try (ExecutorService executor = Executors.newFixedThreadPool(THREADS)) {
+            for (int t = 0; t < THREADS; t++) {
+                int offset = t;
+                results.add(executor.submit(() -> {
+                    start.await();
+                    long[] latencies = new long[RECONNECTS * (handlers.size() / THREADS + 1)];
+                    int n = 0;
+                    for (int r = 0; r < RECONNECTS; r++) {
+                        for (int i = offset; i < handlers.size(); i += THREADS) {
+                            var handler = handlers.get(i);
+                            long begin = System.nanoTime();
+                            int status = connections.addConnection(handler.getAccountId(), handler,
+                                    SESSIONS_PER_ACCOUNT * ACCOUNTS / IPS, SESSIONS_PER_ACCOUNT);
+                            latencies[n++] = System.nanoTime() - begin;
+                            if (status == SmppConstants.STATUS_OK) {
+                                connections.removeConnection(handler);
+                            }
+                        }
+                        if (offset == 0 && r % 20 == 0) {
+                            connections.getStatistics();
+                        }
+                    }
+                    return Arrays.copyOf(latencies, n);
+                }));
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            for (var result : results) {
+                result.get();
+            }
+            elapsed = System.nanoTime() - begin;
+        }
+
+        long[] all = results.stream().flatMapToLong(f -> Arrays.stream(f.resultNow())).sorted().toArray();
+        logger.info("reconnect storm: binds:{} threads:{} elapsed:{}ms binds/sec:{} p50:{}us p99:{}us max:{}us",
+                all.length, THREADS, TimeUnit.NANOSECONDS.toMillis(elapsed),
+                all.length * TimeUnit.SECONDS.toNanos(1) / Math.max(1, elapsed),
+                TimeUnit.NANOSECONDS.toMicros(all[all.length / 2]),
+                TimeUnit.NANOSECONDS.toMicros(all[(int) (all.length * 0.99)]),
+                TimeUnit.NANOSECONDS.toMicros(all[all.length - 1]));
+
+        assertThat(connections.connections).isEmpty();
+        assertThat(connections.conPerIPCounters).isEmpty();
+        assertThat(connections.conPerAccountCounters).isEmpty();
+    }
+}
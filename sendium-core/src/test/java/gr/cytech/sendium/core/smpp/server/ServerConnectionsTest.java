@@ -0,0 +1,242 @@
+package gr.cytech.sendium.core.smpp.server;
+
+import com.cloudhopper.smpp.SmppBindType;
+import com.cloudhopper.smpp.SmppConstants;
+import com.cloudhopper.smpp.SmppSession;
+import com.cloudhopper.smpp.SmppSessionConfiguration;
+import com.cloudhopper.smpp.impl.DefaultSmppSessionCounters;
+import gr.cytech.sendium.core.message.StandardMessage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mockito.junit.jupiter.MockitoSettings;
+import org.mockito.quality.Strictness;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+@ExtendWith(MockitoExtension.class)
+@MockitoSettings(strictness = Strictness.LENIENT)
+class ServerConnectionsTest {
+
+    @Mock private SmppServerWorker<StandardMessage> worker;
+
+    private ServerConnections connections;
+
+    @BeforeEach
+    void setUp() {
+        when(worker.getMaxRate(anyString())).thenReturn(2.0);
+        when(worker.getMaxBurst(anyString())).thenReturn(2.0);
+    }
+
+    @Test
+    void tryAcquireRate_SharesAccountBucketAcrossSessions() {
+        connections = new ServerConnections(worker);
+        var first = addHandler("account-a", "10.0.0.1");
+        var second = addHandler("account-a", "10.0.0.2");
+
+        assertThat(connections.tryAcquireRate(first)).isTrue();
+        assertThat(connections.tryAcquireRate(second)).isTrue();
+        assertThat(connections.tryAcquireRate(first)).isFalse();
+        assertThat(connections.tryAcquireRate(second)).isFalse();
+        assertThat(connections.getThrottledCount("account-a")).isEqualTo(2);
+    }
+
+    @Test
+    void tryAcquireRate_AccountsDoNotShareBuckets() {
+        connections = new ServerConnections(worker);
+        var accountA = addHandler("account-a", "10.0.0.1");
+        var accountB = addHandler("account-b", "10.0.0.1");
+
+        assertThat(connections.tryAcquireRate(accountA)).isTrue();
+        assertThat(connections.tryAcquireRate(accountA)).isTrue();
+        assertThat(connections.tryAcquireRate(accountA)).isFalse();
+
+        assertThat(connections.tryAcquireRate(accountB)).isTrue();
+        assertThat(connections.getThrottledCount("account-b")).isZero();
+    }
+
+    @Test
+    void tryAcquireRate_RebindingDoesNotRefillTheBurstOrResetTheCounter() {
+        connections = new ServerConnections(worker);
+        var first = addHandler("account-a", "10.0.0.1");
+        assertThat(connections.tryAcquireRate(first)).isTrue();
+        assertThat(connections.tryAcquireRate(first)).isTrue();
+        assertThat(connections.tryAcquireRate(first)).isFalse();
+
+        connections.removeConnection(first);
+        assertThat(connections.connections).isEmpty();
+        var second = addHandler("account-a", "10.0.0.1");
+
+        assertThat(connections.tryAcquireRate(second)).isFalse();
+        assertThat(connections.getThrottledCount("account-a")).isEqualTo(2);
+    }
+
+    @Test
+    void tryAcquireRate_PerIpLimitAppliesAcrossAccountsAndRefundsWiderLimits() {
+        when(worker.getMaxRate(anyString())).thenReturn(0.0);
+        when(worker.getMaxBurst(anyString())).thenReturn(0.0);
+        when(worker.getMaxRatePerIP()).thenReturn(1.0);
+        when(worker.getMaxBurstPerIP()).thenReturn(1.0);
+        when(worker.getServerMaxRate()).thenReturn(1.0);
+        when(worker.getServerMaxBurst()).thenReturn(2.0);
+        connections = new ServerConnections(worker);
+        var accountA = addHandler("account-a", "10.0.0.1");
+        var accountB = addHandler("account-b", "10.0.0.1");
+        var accountC = addHandler("account-c", "10.0.0.9");
+
+        assertThat(connections.tryAcquireRate(accountA)).isTrue();
+        assertThat(connections.tryAcquireRate(accountB)).isFalse();
+        // the server permit taken by the rejected request was returned, so another ip can still use it
+        assertThat(connections.tryAcquireRate(accountC)).isTrue();
+        assertThat(connections.tryAcquireRate(accountC)).isFalse();
+        assertThat(connections.getThrottledCount("account-b")).isEqualTo(1);
+        assertThat(connections.getThrottledCount("account-c")).isEqualTo(1);
+    }
+
+    @Test
+    void removeConnection_DropsIpBucketWithLastConnection() {
+        when(worker.getMaxRatePerIP()).thenReturn(10.0);
+        connections = new ServerConnections(worker);
+        var handler = addHandler("account-a", "10.0.0.1");
+        assertThat(connections.ipRateBuckets).containsKey("10.0.0.1");
+
+        connections.removeConnection(handler);
+
+        assertThat(connections.ipRateBuckets).isEmpty();
+    }
+
+    @Test
+    void configMaxRate_ReconfiguresAccountBucket() {
+        connections = new ServerConnections(worker);
+        addHandler("account-a", "10.0.0.1");
+        when(worker.getMaxRate("account-a")).thenReturn(50.0);
+
+        connections.configMaxRate("account-a");
+
+        assertThat(connections.getAccountRate("account-a")).isEqualTo(50.0);
+    }
+
+    @Test
+    void addConnection_ConcurrentBindsNeverExceedLimits() throws Exception {
+        connections = new ServerConnections(worker);
+        int binds = 64;
+        List<SmppServerSessionHandler<StandardMessage>> handlers = new ArrayList<>();
+        for (int i = 0; i < binds; i++) {
+            handlers.add(mockHandler("account-" + (i % 2), "10.0.0.1"));
+        }
+        AtomicInteger accepted = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        try (ExecutorService executor = Executors.newFixedThreadPool(8)) {
+            for (var handler : handlers) {
+                executor.submit(() -> {
+                    start.await();
+                    if (connections.addConnection(handler.getAccountId(), handler, 10, 3) == SmppConstants.STATUS_OK) {
+                        accepted.incrementAndGet();
+                    }
+                    return null;
+                });
+            }
+            start.countDown();
+        }
+
+        assertThat(accepted.get()).isEqualTo(6);
+        assertThat(connections.getConnectionsSizeForIP("10.0.0.1")).isEqualTo(6);
+        assertThat(connections.getConnectionsSizeFromAccount("account-0")).isEqualTo(3);
+        assertThat(connections.getConnectionsSizeFromAccount("account-1")).isEqualTo(3);
+    }
+
+    @Test
+    void addConnection_RejectsWithStatusOfTheExceededLimit() {
+        connections = new ServerConnections(worker);
+        assertThat(connections.addConnection("account-a", mockHandler("account-a", "10.0.0.1"), 1, 0)).isEqualTo(SmppConstants.STATUS_OK);
+
+        assertThat(connections.addConnection("account-b", mockHandler("account-b", "10.0.0.1"), 1, 0))
+                .isEqualTo(VendorSpecificConstants.STATUS_MAXCONSPERIP);
+        assertThat(connections.addConnection("account-a", mockHandler("account-a", "10.0.0.2"), 0, 1))
+                .isEqualTo(VendorSpecificConstants.STATUS_MAXCONSPERUSER);
+        // the ip slot reserved before the account limit rejected the bind was given back
+        assertThat(connections.getConnectionsSizeForIP("10.0.0.2")).isZero();
+        assertThat(connections.conPerIPCounters).doesNotContainKey("10.0.0.2");
+    }
+
+    @Test
+    void addConnection_EnforcesTheServerLimitOverAllAcceptors() {
+        when(worker.getMaxConnections()).thenReturn(2);
+        connections = new ServerConnections(worker);
+        var first = mockHandler("account-a", "10.0.0.1");
+        assertThat(connections.addConnection("account-a", first, 0, 0)).isEqualTo(SmppConstants.STATUS_OK);
+        assertThat(connections.addConnection("account-b", mockHandler("account-b", "10.0.0.2"), 0, 0)).isEqualTo(SmppConstants.STATUS_OK);
+
+        assertThat(connections.addConnection("account-c", mockHandler("account-c", "10.0.0.3"), 0, 0)).isEqualTo(SmppConstants.STATUS_BINDFAIL);
+        assertThat(connections.conPerIPCounters).doesNotContainKey("10.0.0.3");
+
+        connections.removeConnection(first);
+        assertThat(connections.getConnectionsSize()).isOne();
+        assertThat(connections.addConnection("account-c", mockHandler("account-c", "10.0.0.3"), 0, 0)).isEqualTo(SmppConstants.STATUS_OK);
+    }
+
+    @Test
+    void removeConnection_ReleasesSlotsOnlyOnce() {
+        connections = new ServerConnections(worker);
+        var first = addHandler("account-a", "10.0.0.1");
+        addHandler("account-a", "10.0.0.1");
+
+        assertThat(connections.removeConnection(first)).isTrue();
+        assertThat(connections.removeConnection(first)).isFalse();
+
+        assertThat(connections.getConnectionsSizeForIP("10.0.0.1")).isEqualTo(1);
+        assertThat(connections.getConnectionsSizeFromAccount("account-a")).isEqualTo(1);
+        assertThat(connections.hasConnections("account-a")).isTrue();
+    }
+
+    @Test
+    void removeConnection_DropsAccountAndCountersWithLastConnection() {
+        connections = new ServerConnections(worker);
+        var handler = addHandler("account-a", "10.0.0.1");
+
+        connections.removeConnection(handler);
+
+        assertThat(connections.connections).isEmpty();
+        assertThat(connections.conPerIPCounters).isEmpty();
+        assertThat(connections.conPerAccountCounters).isEmpty();
+    }
+
+    private SmppServerSessionHandler<StandardMessage> addHandler(String accountId, String ip) {
+        var handler = mockHandler(accountId, ip);
+        connections.addConnection(accountId, handler);
+        return handler;
+    }
+
+    /**
+     * stub-only mocks do not record invocations, so they can be hammered from many threads by the benchmarks
+     */
+    @SuppressWarnings("unchecked")
+    static SmppServerSessionHandler<StandardMessage> mockHandler(String accountId, String ip) {
+        SmppServerSessionHandler<StandardMessage> handler = mock(SmppServerSessionHandler.class, withSettings().stubOnly());
+        SmppSession session = mock(SmppSession.class, withSettings().stubOnly());
+        SmppSessionConfiguration configuration = mock(SmppSessionConfiguration.class, withSettings().stubOnly());
+        when(handler.getSession()).thenReturn(session);
+        when(handler.getAccountId()).thenReturn(accountId);
+        when(session.getConfiguration()).thenReturn(configuration);
+        when(session.getBindType()).thenReturn(SmppBindType.TRANSCEIVER);
+        when(session.getLocalType()).thenReturn(SmppSession.Type.SERVER);
+        when(session.getCounters()).thenReturn(new DefaultSmppSessionCounters());
+        when(configuration.getHost()).thenReturn(ip);
+        when(configuration.getName()).thenReturn(accountId);
+        when(configuration.getSystemId()).thenReturn(accountId);
+        return handler;
+    }
+}
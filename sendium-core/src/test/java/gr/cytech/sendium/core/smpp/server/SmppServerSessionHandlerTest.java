@@ -1,12 +1,16 @@
 package gr.cytech.sendium.core.smpp.server;
 
+import com.cloudhopper.commons.charset.CharsetUtil;
+import com.cloudhopper.smpp.PduAsyncResponse;
 import com.cloudhopper.smpp.SmppConstants;
 import com.cloudhopper.smpp.SmppSession;
 import com.cloudhopper.smpp.SmppSessionConfiguration;
+import com.cloudhopper.smpp.pdu.DeliverSm;
 import com.cloudhopper.smpp.pdu.SubmitSm;
 import com.cloudhopper.smpp.pdu.SubmitSmResp;
 import com.cloudhopper.smpp.tlv.Tlv;
 import com.cloudhopper.smpp.type.SmppProcessingException;
+import gr.cytech.sendium.core.message.MessagePartInfo;
 import gr.cytech.sendium.core.message.StandardMessage;
 import gr.cytech.sendium.core.smpp.util.SmppServerUtil;
 import org.junit.jupiter.api.BeforeEach;
@@ -22,6 +26,7 @@ import java.sql.Timestamp;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
@@ -39,9 +44,6 @@ class SmppServerSessionHandlerTest {
 
     @BeforeEach
     void setUp() {
-        // Mock the max rate for the RateLimiter initialization in the constructor
-        when(worker.getMaxRate(any())).thenReturn(100.0);
-
         // Setup session configuration to return a valid account ID to pass getAccountId() check
         when(session.getConfiguration()).thenReturn(sessionConfiguration);
         when(sessionConfiguration.getName()).thenReturn("test-account");
@@ -139,6 +141,38 @@ class SmppServerSessionHandlerTest {
         assertThat(result.udh()).isEqualTo("050003010201");
         assertThat(result.text()).isEqualTo("Hello");
         assertThat(result.smType()).isEqualTo(StandardMessage.MSG_TEXT);
+        assertThat(result.partInfo()).isEqualTo(new MessagePartInfo("01", 2, 1));
+    }
+
+    @Test
+    void validateShortMessage_whenUdhLengthExceedsData_shouldEnqueueInvalidLengthResponse() throws Exception {
+        SubmitSm submitSm = new SubmitSm();
+        submitSm.setDataCoding(SmppConstants.DATA_CODING_DEFAULT);
+        submitSm.setEsmClass(SmppConstants.ESM_CLASS_UDHI_MASK);
+        submitSm.setShortMessage(new byte[]{0x0A, 0x00, 0x03, 0x01});
+
+        SmppServerUtil.ValidatedMessageBody result = handler.validateShortMessage(submitSm);
+
+        ArgumentCaptor<SubmitSmResp> respCaptor = ArgumentCaptor.forClass(SubmitSmResp.class);
+        verify(worker).enqueueOut(respCaptor.capture());
+        assertThat(result).isNull();
+        assertThat(respCaptor.getValue().getCommandStatus()).isEqualTo(SmppConstants.STATUS_INVMSGLEN);
+    }
+
+    @Test
+    void validateShortMessage_whenUcs2WithUdh_shouldDecodeBodyInPlace() throws Exception {
+        SubmitSm submitSm = new SubmitSm();
+        submitSm.setDataCoding(SmppConstants.DATA_CODING_UCS2);
+        submitSm.setEsmClass(SmppConstants.ESM_CLASS_UDHI_MASK);
+        submitSm.setShortMessage(new byte[]{0x06, 0x08, 0x04, 0x12, 0x34, 0x02, 0x02, 0x03, (byte) 0xA9, 0x00, 0x41});
+        when(worker.getCharsetUcs2()).thenReturn(CharsetUtil.NAME_UCS_2);
+
+        SmppServerUtil.ValidatedMessageBody result = handler.validateShortMessage(submitSm);
+
+        assertThat(result.text()).isEqualTo("\u03a9A");
+        assertThat(result.udh()).isEqualTo("06080412340202");
+        assertThat(result.smType()).isEqualTo(StandardMessage.MSG_UCS2);
+        assertThat(result.partInfo()).isEqualTo(new MessagePartInfo("1234", 2, 2));
     }
 
     @Test
@@ -153,4 +187,42 @@ class SmppServerSessionHandlerTest {
         assertThat(result).isNull();
         assertThat(respCaptor.getValue().getCommandStatus()).isEqualTo(SmppConstants.STATUS_INVSCHED);
     }
+
+    @Test
+    void tryAcquirePushCredits_whenWindowFull_shouldRejectUntilResponseReleasesCredit() {
+        when(worker.getPushWindow(any())).thenReturn(2);
+        var pushHandler = new SmppServerSessionHandler<>(worker, 1L, session, sessionContext, submitProcessor);
+        DeliverSm deliverSm = new DeliverSm();
+        PduAsyncResponse asyncResponse = mock(PduAsyncResponse.class);
+        when(asyncResponse.getRequest()).thenReturn(deliverSm);
+        when(asyncResponse.getResponse()).thenReturn(deliverSm.createResponse());
+
+        assertThat(pushHandler.tryAcquirePushCredits(2)).isTrue();
+        assertThat(pushHandler.tryAcquirePushCredits(1)).isFalse();
+        pushHandler.fireExpectedPduResponseReceived(asyncResponse);
+
+        assertThat(pushHandler.getPushInFlight()).isEqualTo(1);
+        assertThat(pushHandler.tryAcquirePushCredits(1)).isTrue();
+    }
+
+    @Test
+    void tryAcquirePushCredits_whenRequestLargerThanWindow_shouldOnlyAdmitOnIdleSession() {
+        when(worker.getPushWindow(any())).thenReturn(2);
+        var pushHandler = new SmppServerSessionHandler<>(worker, 1L, session, sessionContext, submitProcessor);
+
+        assertThat(pushHandler.tryAcquirePushCredits(3)).isTrue();
+        assertThat(pushHandler.tryAcquirePushCredits(1)).isFalse();
+        pushHandler.releasePushCredits(3);
+        assertThat(pushHandler.getPushInFlight()).isZero();
+    }
+
+    @Test
+    void pushWindow_isCappedBySessionWindow() {
+        when(worker.getPushWindow(any())).thenReturn(100);
+        when(sessionConfiguration.getWindowSize()).thenReturn(10);
+
+        var pushHandler = new SmppServerSessionHandler<>(worker, 1L, session, sessionContext, submitProcessor);
+
+        assertThat(pushHandler.getPushWindow()).isEqualTo(10);
+    }
 }
@@ -0,0 +1,61 @@
+package gr.cytech.sendium.core.smpp.server;
+
+import gr.cytech.sendium.conf.SendiumConfigurationHandler;
+import gr.cytech.sendium.core.message.StandardMessage;
+import gr.cytech.sendium.core.queue.Queue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SmppServerWorkerAccountSettingsTest {
+    private SendiumConfigurationHandler config;
+    private SmppServerWorker<StandardMessage> worker;
+
+    @BeforeEach
+    void setUp() {
+        config = new SendiumConfigurationHandler();
+        config.memoryConfiguration = new ConcurrentHashMap<>();
+        config.defaultsConfiguration = new ConcurrentHashMap<>();
+        config.overriddenDefaultsConfiguration = new ConcurrentHashMap<>();
+        config.currentStoreConfiguration = new ConcurrentHashMap<>();
+        config.listeners = new CopyOnWriteArraySet<>();
+        worker = new SmppServerWorker<>(config, "smpp", new Queue<StandardMessage>());
+    }
+
+    @Test
+    void accountValue_OverridesTheDefaultForThatAccountOnly() {
+        config.set(worker._defaultPushWindow[0], "10");
+        config.set(worker._defaultPushRate[0], "20");
+        config.set(accountKey(worker._defaultPushWindow, "account-a"), "3");
+        config.set(accountKey(worker._defaultPushRate, "account-a"), "4.5");
+        config.set(accountKey(worker._defaultMaxRate, "account-a"), "100");
+        config.set(accountKey(worker._defaultMaxBurst, "account-a"), "50");
+
+        assertThat(worker.getPushWindow("account-a")).isEqualTo(3);
+        assertThat(worker.getPushRate("account-a")).isEqualTo(4.5);
+        assertThat(worker.getMaxRate("account-a")).isEqualTo(100);
+        assertThat(worker.getMaxBurst("account-a")).isEqualTo(50);
+
+        assertThat(worker.getPushWindow("account-b")).isEqualTo(10);
+        assertThat(worker.getPushRate("account-b")).isEqualTo(20);
+        assertThat(worker.getMaxRate("account-b")).isEqualTo(Double.MAX_VALUE);
+        assertThat(worker.getMaxBurst("account-b")).isZero();
+    }
+
+    @Test
+    void accountOfKey_FindsTheAccountOfAnOverrideButNotOfTheDefault() {
+        String[][] params = {worker._defaultPushWindow, worker._defaultPushRate};
+
+        assertThat(SmppServerWorker.accountOfKey(accountKey(worker._defaultPushRate, "account.a"), params)).isEqualTo("account.a");
+        assertThat(SmppServerWorker.accountOfKey(worker._defaultPushRate[0], params)).isNull();
+        assertThat(SmppServerWorker.accountOfKey(accountKey(worker._defaultMaxRate, "account-a"), params)).isNull();
+    }
+
+    private static String accountKey(String[] param, String accountId) {
+        return param[0].replace(".default", "." + accountId);
+    }
+}
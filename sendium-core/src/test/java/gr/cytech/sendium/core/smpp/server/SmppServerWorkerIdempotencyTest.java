@@ -0,0 +1,174 @@
+package gr.cytech.sendium.core.smpp.server;
+
+import com.cloudhopper.smpp.SmppConstants;
+import com.cloudhopper.smpp.pdu.Pdu;
+import com.cloudhopper.smpp.pdu.SubmitSm;
+import com.cloudhopper.smpp.pdu.SubmitSmResp;
+import com.cloudhopper.smpp.tlv.Tlv;
+import gr.cytech.sendium.conf.SendiumConfigurationProvider;
+import gr.cytech.sendium.core.message.StandardMessage;
+import gr.cytech.sendium.core.queue.Queue;
+import gr.cytech.sendium.core.worker.IdempotencyService;
+import gr.cytech.sendium.external.WorkerResourceProvider;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Answers;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SmppServerWorkerIdempotencyTest {
+    private static final short TAG = 0x1400;
+    private static final String KEY_HEX = "6F726465722D31";
+
+    private final Map<String, String> props = new HashMap<>();
+    private Queue<StandardMessage> routerQueue;
+    private IdempotencyService idempotency;
+    private TestSmppServerWorker worker;
+
+    @BeforeEach
+    void setUp() {
+        props.put("idempotency.tag", "0x1400");
+        routerQueue = new Queue<>();
+        idempotency = mock(IdempotencyService.class);
+        WorkerResourceProvider resources = mock(WorkerResourceProvider.class);
+        when(resources.getIdempotencyService()).thenReturn(idempotency);
+        worker = new TestSmppServerWorker(configurationProvider(), routerQueue, resources);
+    }
+
+    @Test
+    void duplicateSubmit_IsAnsweredWithTheFirstSerialAndNotRouted() {
+        when(idempotency.claim(eq("smpp:system-a"), eq(KEY_HEX), anyString())).thenReturn("first-serial");
+
+        worker.enqueueIn(inEvent(submitSm("order-1")));
+
+        assertThat(routerQueue.size()).isZero();
+        assertThat(worker.getInEventQueue()).isEmpty();
+        assertThat(worker.out).singleElement().isInstanceOfSatisfying(SubmitSmResp.class, resp -> {
+            assertThat(resp.getCommandStatus()).isEqualTo(SmppConstants.STATUS_OK);
+            assertThat(resp.getMessageId()).isEqualTo("first-serial");
+        });
+    }
+
+    @Test
+    void newSubmit_ClaimsItsKeyForItsSerialAndIsRouted() {
+        worker.enqueueIn(inEvent(submitSm("order-1")));
+
+        assertThat(routerQueue.size()).isEqualTo(1);
+        String serial = routerQueue.getInternalQueue().peek().serial;
+        verify(idempotency).claim("smpp:system-a", KEY_HEX, serial);
+        assertThat(worker.out).singleElement().isInstanceOfSatisfying(SubmitSmResp.class,
+                resp -> assertThat(resp.getMessageId()).isEqualTo(serial));
+    }
+
+    @Test
+    void partsOfAConcatenatedSubmit_AreClaimedEachForItsSegment() {
+        MessagePartsHandler<StandardMessage> parts = mock(MessagePartsHandler.class);
+        worker.setMessagePartsHandler(parts);
+        when(idempotency.claim(eq("smpp:system-a"), eq(KEY_HEX + ":account-a:2A:2"), anyString())).thenReturn(null, "second-serial");
+
+        worker.enqueueIn(inEvent(submitSm("order-1"), "0500032A0201"));
+        worker.enqueueIn(inEvent(submitSm("order-1"), "0500032A0202"));
+        worker.enqueueIn(inEvent(submitSm("order-1"), "0500032A0202"));
+
+        verify(idempotency).claim(eq("smpp:system-a"), eq(KEY_HEX + ":account-a:2A:1"), anyString());
+        verify(parts, times(2)).addMessagePart(any());
+        assertThat(worker.out).hasSize(3).allSatisfy(resp -> assertThat(resp.getCommandStatus()).isEqualTo(SmppConstants.STATUS_OK));
+        assertThat(((SubmitSmResp) worker.out.get(0)).getMessageId()).isNotEqualTo("second-serial");
+        assertThat(((SubmitSmResp) worker.out.get(2)).getMessageId()).isEqualTo("second-serial");
+    }
+
+    @Test
+    void submitWithoutTheTagOrWithoutATagConfigured_IsNotDeduplicated() {
+        worker.enqueueIn(inEvent(submitSm(null)));
+
+        props.put("idempotency.tag", "");
+        worker.configIdempotencyTag();
+        worker.enqueueIn(inEvent(submitSm("order-1")));
+
+        verify(idempotency, never()).claim(anyString(), anyString(), anyString());
+        assertThat(routerQueue.size()).isEqualTo(2);
+    }
+
+    @Test
+    void invalidTag_DisablesDeduplication() {
+        props.put("idempotency.tag", "0x10000");
+        worker.configIdempotencyTag();
+
+        assertThat(worker.idempotencyKey(submitSm("order-1"))).isNull();
+    }
+
+    private static SubmitSm submitSm(String idempotencyKey) {
+        SubmitSm submitSm = new SubmitSm();
+        if (idempotencyKey != null) {
+            submitSm.setOptionalParameter(new Tlv(TAG, idempotencyKey.getBytes(StandardCharsets.US_ASCII)));
+        }
+        return submitSm;
+    }
+
+    private static InEvent<StandardMessage> inEvent(SubmitSm submitSm) {
+        return inEvent(submitSm, null);
+    }
+
+    private static InEvent<StandardMessage> inEvent(SubmitSm submitSm, String udh) {
+        StandardMessage message = new StandardMessage();
+        message.owner_id = "account-a";
+        message.systemId = "system-a";
+        message.from = "sender";
+        message.to = "306900000001";
+        message.type = StandardMessage.MSG_TEXT;
+        message.body = "Hello";
+        message.binheader = udh;
+        return new InEvent<>(message, submitSm, 0, new Timestamp(System.currentTimeMillis()));
+    }
+
+    /**
+     * @return a provider that answers the defaults of the parameters, unless they are set in {@link #props}
+     */
+    private SendiumConfigurationProvider configurationProvider() {
+        return mock(SendiumConfigurationProvider.class, invocation -> {
+            if (invocation.getArguments().length != 1 || !(invocation.getArgument(0) instanceof String[] param)) {
+                return Answers.RETURNS_DEFAULTS.answer(invocation);
+            }
+            String value = props.getOrDefault(param[0], param[1]);
+            Class<?> type = invocation.getMethod().getReturnType();
+            if (type == int.class) {
+                return Integer.parseInt(value);
+            } else if (type == long.class) {
+                return Long.parseLong(value);
+            } else if (type == boolean.class) {
+                return Boolean.parseBoolean(value);
+            }
+            return value;
+        });
+    }
+
+    private static class TestSmppServerWorker extends SmppServerWorker<StandardMessage> {
+        private final List<Pdu> out = new ArrayList<>();
+
+        TestSmppServerWorker(SendiumConfigurationProvider configurationProvider, Queue<StandardMessage> routerQueue,
+                             WorkerResourceProvider resources) {
+            super(configurationProvider, "smpp", routerQueue);
+            this.workerResources = resources;
+        }
+
+        @Override
+        public void enqueueOut(Pdu event) {
+            out.add(event);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package gr.cytech.sendium.core.smpp.server;
+
+import com.cloudhopper.smpp.SmppServerSession;
+import com.cloudhopper.smpp.pdu.DeliverSm;
+import com.cloudhopper.smpp.pdu.Pdu;
+import gr.cytech.sendium.conf.SendiumConfigurationProvider;
+import gr.cytech.sendium.core.message.StandardMessage;
+import gr.cytech.sendium.core.queue.Queue;
+import gr.cytech.sendium.external.WorkerResourceProvider;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.Answers;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class SmppServerWorkerPushTest {
+    private final Map<String, String> props = new HashMap<>();
+    private Queue<StandardMessage> routerQueue;
+    private SmppServerSessionHandler<StandardMessage> handler;
+    private TestSmppServerWorker worker;
+
+    @BeforeEach
+    void setUp() {
+        props.put("push.backoffMillis", "60000");
+        routerQueue = new Queue<>();
+        WorkerResourceProvider resources = mock(WorkerResourceProvider.class);
+        when(resources.charMappingOut(any(), any())).thenAnswer(invocation -> invocation.getArgument(1));
+        worker = new TestSmppServerWorker(configurationProvider(), routerQueue, resources);
+        worker.maxRetries = 2;
+
+        SmppServerSession session = mock(SmppServerSession.class);
+        when(session.isBound()).thenReturn(true);
+        handler = mock(SmppServerSessionHandler.class);
+        when(handler.getSession()).thenReturn(session);
+        worker.bindHandler = mock(SmppServerBindHandler.class);
+        when(worker.bindHandler.isConnectionReachable(anyString())).thenReturn(true);
+        when(worker.bindHandler.getHandlerForSending(anyString(), any())).thenReturn(handler);
+    }
+
+    @Test
+    void fullPushWindow_DefersTheMessageWithoutUsingUpRetries() {
+        when(handler.tryAcquirePushCredits(anyInt())).thenReturn(false);
+        StandardMessage message = moMessage();
+
+        int attempts = worker.maxRetries * 3;
+        for (int i = 0; i < attempts; i++) {
+            worker.new Worker(0).setMessage(message).handleMessage();
+        }
+
+        assertThat(worker.out).isEmpty();
+        assertThat(worker.delayQ).hasSize(attempts).allSatisfy(delayed -> assertThat(delayed.getMessage()).isSameAs(message));
+        assertThat(worker.failedMsgCounter).isEmpty();
+        assertThat(routerQueue.size()).isZero();
+        assertThat(message.rtxCnt).isZero();
+        assertThat(message.body).isEqualTo("Hello");
+    }
+
+    @Test
+    void pushCredit_SendsTheMessage() {
+        when(handler.tryAcquirePushCredits(anyInt())).thenReturn(true);
+
+        worker.new Worker(0).setMessage(moMessage()).handleMessage();
+
+        assertThat(worker.out).singleElement().isInstanceOf(DeliverSm.class);
+        assertThat(worker.delayQ).isEmpty();
+    }
+
+    private static StandardMessage moMessage() {
+        StandardMessage message = new StandardMessage();
+        message.msgId = 1;
+        message.owner_id = "account-a";
+        message.from = "306900000001";
+        message.to = "sender";
+        message.type = StandardMessage.MSG_TEXT;
+        message.body = "Hello";
+        return message;
+    }
+
+    /**
+     * @return a provider that answers the defaults of the parameters, unless they are set in {@link #props}
+     */
+    private SendiumConfigurationProvider configurationProvider() {
+        return mock(SendiumConfigurationProvider.class, invocation -> {
+            if (invocation.getArguments().length != 1 || !(invocation.getArgument(0) instanceof String[] param)) {
+                return Answers.RETURNS_DEFAULTS.answer(invocation);
+            }
+            String value = props.getOrDefault(param[0], param[1]);
+            Class<?> type = invocation.getMethod().getReturnType();
+            if (type == int.class) {
+                return Integer.parseInt(value);
+            } else if (type == long.class) {
+                return Long.parseLong(value);
+            } else if (type == boolean.class) {
+                return Boolean.parseBoolean(value);
+            }
+            return value;
+        });
+    }
+
+    private static class TestSmppServerWorker extends SmppServerWorker<StandardMessage> {
+        private final List<Pdu> out = new ArrayList<>();
+
+        TestSmppServerWorker(SendiumConfigurationProvider configurationProvider, Queue<StandardMessage> routerQueue,
+                             WorkerResourceProvider resources) {
+            super(configurationProvider, "smpp", routerQueue);
+            this.workerResources = resources;
+        }
+
+        @Override
+        public void enqueueOut(Pdu event) {
+            out.add(event);
+        }
+
+        @Override
+        protected List<DeliverSm> generateDeliverSmForMO(StandardMessage pMsg) {
+            return List.of(new DeliverSm());
+        }
+    }
+}
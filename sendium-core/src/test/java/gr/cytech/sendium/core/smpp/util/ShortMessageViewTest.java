@@ -0,0 +1,62 @@
+package gr.cytech.sendium.core.smpp.util;
+
+import com.cloudhopper.commons.charset.CharsetUtil;
+import gr.cytech.sendium.core.message.MessagePartInfo;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ShortMessageViewTest {
+
+    @Test
+    void withoutUdhiTheWholeDataIsTheBody() {
+        var view = ShortMessageView.of("Hello".getBytes(StandardCharsets.ISO_8859_1), false);
+
+        assertThat(view.hasUdh()).isFalse();
+        assertThat(view.getUdhHex()).isNull();
+        assertThat(view.getPartInfo()).isNull();
+        assertThat(view.decodeBody(CharsetUtil.NAME_GSM)).isEqualTo("Hello");
+    }
+
+    @Test
+    void udhIsAddressedByOffsetAndBodyDecodedForEveryCharset() {
+        byte[] data = {0x05, 0x00, 0x03, 0x2A, 0x03, 0x02, 'H', 'i', '!'};
+        var view = ShortMessageView.of(data, true);
+
+        assertThat(view.getUdhHex()).isEqualTo("0500032A0302");
+        assertThat(view.getBodyLength()).isEqualTo(3);
+        assertThat(view.getBodyHex()).isEqualTo("486921");
+        assertThat(view.getPartInfo()).isEqualTo(new MessagePartInfo("2A", 3, 2));
+        assertThat(view.decodeBody(CharsetUtil.NAME_ISO_8859_1)).isEqualTo("Hi!");
+        assertThat(view.decodeBody(CharsetUtil.NAME_GSM)).isEqualTo("Hi!");
+    }
+
+    @Test
+    void decodesLikeTheCloudhopperCharsets() {
+        byte[] body = {0x03, (byte) 0xA9, 0x00, 0x41, 0x20, (byte) 0xAC};
+        byte[] data = new byte[body.length + 1];
+        System.arraycopy(body, 0, data, 1, body.length);
+        var view = ShortMessageView.of(data, true);
+
+        assertThat(view.decodeBody(CharsetUtil.NAME_UCS_2)).isEqualTo(CharsetUtil.decode(body, CharsetUtil.NAME_UCS_2));
+        assertThat(view.decodeBody(CharsetUtil.NAME_ISO_8859_1)).isEqualTo(CharsetUtil.decode(body, CharsetUtil.NAME_ISO_8859_1));
+    }
+
+    @Test
+    void udhThatIsNotOnlyAConcatElementHasNoPartInfo() {
+        // port addressing followed by 8 bit concatenation
+        byte[] data = {0x0B, 0x05, 0x04, 0x0B, (byte) 0x84, 0x23, (byte) 0xF0, 0x00, 0x03, 0x01, 0x02, 0x01, 0x00};
+        var view = ShortMessageView.of(data, true);
+
+        assertThat(view.hasUdh()).isTrue();
+        assertThat(view.getPartInfo()).isNull();
+    }
+
+    @Test
+    void rejectsUdhLongerThanTheData() {
+        assertThat(ShortMessageView.of(new byte[]{0x05, 0x00, 0x03}, true)).isNull();
+        assertThat(ShortMessageView.of(new byte[0], true)).isNull();
+    }
+}
@@ -0,0 +1,109 @@
+package gr.cytech.sendium.core.worker;
+
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.function.IntFunction;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Cost per callback of building the DLR and MO callback URLs and the MO form body, with the replace chains that
+ * {@link ForwardDlrService} and {@link ForwardMoService} used before and with their compiled {@link CallbackTemplate}s.
+ * Run with {@code mvn test -Dsendium.benchmarks=true -Dtest=CallbackTemplateBenchmarkTest}.
+ */
+@Tag("benchmark")
+@EnabledIfSystemProperty(named = "sendium.benchmarks", matches = "true")
+class CallbackTemplateBenchmarkTest {
+    private static final Logger logger = LoggerFactory.getLogger(CallbackTemplateBenchmarkTest.class);
+    private static final int WARMUP = 500_000;
+    private static final int ITERATIONS = 2_000_000;
+    private static final String DLR_URL = "https://client.example.com/sms/dlr?account=acme&id=%s&type=%d&source=sendium";
+    private static final String MO_URL = "https://client.example.com/sms/mo?from=%p&to=%P&text=%a&time=%t&gw=%i&smsc=%I&coding=%o";
+
+    private final ForwardDlrService dlrService = new ForwardDlrService();
+    private final ForwardMoService moService = new ForwardMoService();
+
+    @Test
+    void compareReplaceAndCompiled() {
+        ForwardMoService.MoContext[] mos = new ForwardMoService.MoContext[1024];
+        for (int i = 0; i < mos.length; i++) {
+            mos[i] = new ForwardMoService.MoContext("30690000" + i, "54321", "Hello world, reply " + i + " & win 100%!",
+                    "2026-10-19 12:00:00." + i, "smppclient.operator-a", "operator-a", (byte) 0);
+        }
+        for (int i = 0; i < mos.length; i++) {
+            assertThat(moService.buildForwardUrl(MO_URL, mos[i])).isEqualTo(replaceMoUrl(MO_URL, mos[i]));
+            assertThat(moService.buildFormBody(mos[i])).isEqualTo(replaceFormBody(mos[i]));
+            assertThat(dlrService.buildForwardUrl(DLR_URL, "gw-" + i, 1)).isEqualTo(replaceDlrUrl(DLR_URL, "gw-" + i, 1));
+        }
+
+        compare("dlr url", i -> replaceDlrUrl(DLR_URL, "gw-" + i, 1), i -> dlrService.buildForwardUrl(DLR_URL, "gw-" + i, 1));
+        compare("mo url", i -> replaceMoUrl(MO_URL, mos[i & 1023]), i -> moService.buildForwardUrl(MO_URL, mos[i & 1023]));
+        compare("mo form", i -> replaceFormBody(mos[i & 1023]), i -> moService.buildFormBody(mos[i & 1023]));
+    }
+
+    private void compare(String name, IntFunction<String> replace, IntFunction<String> compiled) {
+        run(replace, WARMUP);
+        run(compiled, WARMUP);
+        long replaceNanos = run(replace, ITERATIONS);
+        long compiledNanos = run(compiled, ITERATIONS);
+        logger.info("{}: replace {}ns/op, compiled {}ns/op", name, replaceNanos / ITERATIONS, compiledNanos / ITERATIONS);
+        assertThat(compiledNanos).isPositive();
+    }
+
+    private static long run(IntFunction<String> build, int iterations) {
+        long length = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            length += build.apply(i).length();
+        }
+        long elapsed = System.nanoTime() - start;
+        assertThat(length).isPositive();
+        return elapsed;
+    }
+
+    private static String replaceDlrUrl(String baseUrl, String msgId, int kannelType) {
+        String result = baseUrl.replace("%d", String.valueOf(kannelType));
+        return result.replace("%s", msgId != null ? msgId : "");
+    }
+
+    private static String replaceMoUrl(String template, ForwardMoService.MoContext ctx) {
+        String result = template.replace("%p", urlEncode(ctx.from()));
+        result = result.replace("%P", urlEncode(ctx.to()));
+        result = result.replace("%a", urlEncode(ctx.text()));
+        result = result.replace("%t", urlEncode(ctx.timestamp()));
+        result = result.replace("%i", urlEncode(ctx.ingateway()));
+        result = result.replace("%I", urlEncode(ctx.messageCenter()));
+        return result.replace("%o", String.valueOf(ctx.dataCoding()));
+    }
+
+    private static String replaceFormBody(ForwardMoService.MoContext ctx) {
+        StringBuilder sb = new StringBuilder();
+        appendParam(sb, "from", ctx.from());
+        appendParam(sb, "to", ctx.to());
+        appendParam(sb, "text", ctx.text());
+        appendParam(sb, "timestamp", ctx.timestamp());
+        appendParam(sb, "ingateway", ctx.ingateway());
+        appendParam(sb, "message_center", ctx.messageCenter());
+        appendParam(sb, "coding", String.valueOf(ctx.dataCoding()));
+        if (!sb.isEmpty()) {
+            sb.setLength(sb.length() - 1);
+        }
+        return sb.toString();
+    }
+
+    private static void appendParam(StringBuilder sb, String key, String value) {
+        if (value != null && !value.isEmpty()) {
+            sb.append(URLEncoder.encode(key, StandardCharsets.UTF_8)).append('=').append(URLEncoder.encode(value, StandardCharsets.UTF_8)).append('&');
+        }
+    }
+
+    private static String urlEncode(String value) {
+        return value != null ? URLEncoder.encode(value, StandardCharsets.UTF_8) : "";
+    }
+}
@@ -0,0 +1,88 @@
+package gr.cytech.sendium.core.worker;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CallbackTemplateTest {
+    private final CallbackTemplate.Syntax syntax = new CallbackTemplate.Syntax("ab", "b");
+
+    @Test
+    void render_ReplacesEveryPlaceholderWithItsValue() {
+        CallbackTemplate template = syntax.compile("http://example.com/cb?a=%a&b=%b&again=%a");
+
+        assertEquals("http://example.com/cb?a=x+y&b=x y&again=x+y", template.render("x y", "x y"));
+    }
+
+    @Test
+    void render_LeavesOtherPercentSequencesAndNullValuesOut() {
+        CallbackTemplate template = syntax.compile("%%a%c%25%b%");
+
+        assertEquals("%1%c%25%", template.render("1", null));
+    }
+
+    @Test
+    void render_WithoutPlaceholders_IsTheTemplate() {
+        assertEquals("http://example.com/cb", syntax.compile("http://example.com/cb").render("1", "2"));
+        assertEquals("", syntax.compile("").render("1", "2"));
+    }
+
+    @Test
+    void compile_ReusesTheTemplateCompiledForTheSameText() {
+        CallbackTemplate template = syntax.compile("http://example.com/cb?a=%a");
+
+        assertSame(template, syntax.compile(new String("http://example.com/cb?a=%a")));
+        assertNotSame(template, syntax.compile("http://example.com/cb?a=%a&b=%b"));
+    }
+
+    @Test
+    void compile_KeepsAtMostMaxCachedTemplates() {
+        for (int i = 0; i < CallbackTemplate.MAX_CACHED * 2; i++) {
+            assertEquals("http://example.com/" + i + "?a=1", syntax.compile("http://example.com/" + i + "?a=%a").render("1", null));
+        }
+
+        assertTrue(syntax.cached() <= CallbackTemplate.MAX_CACHED);
+    }
+
+    @Test
+    void syntaxRender_RendersLikeTheCompiledTemplateWithoutCachingIt() {
+        for (String template : new String[]{"http://example.com/cb?a=%a&b=%b&again=%a", "%%a%c%25%b%", "http://example.com/cb", "", "%"}) {
+            assertEquals(syntax.compile(template).render("x y", null), new CallbackTemplate.Syntax("ab", "b").render(template, "x y", null));
+        }
+
+        CallbackTemplate.Syntax uncached = new CallbackTemplate.Syntax("ab", "b");
+        assertEquals("http://example.com/cb?a=x+y&b=x y", uncached.render("http://example.com/cb?a=%a&b=%b", "x y", "x y"));
+        assertEquals(0, uncached.cached());
+    }
+
+    @Test
+    void syntax_RejectsRawCharactersThatAreNotPlaceholders() {
+        assertThrows(IllegalArgumentException.class, () -> new CallbackTemplate.Syntax("ab", "c"));
+    }
+
+    @Test
+    void appendEncoded_EncodesLikeUrlEncoder() {
+        Random random = new Random(42);
+        for (int i = 0; i < 10_000; i++) {
+            char[] chars = new char[random.nextInt(12)];
+            for (int c = 0; c < chars.length; c++) {
+                chars[c] = switch (random.nextInt(4)) {
+                    case 0 -> (char) random.nextInt(128);
+                    case 1 -> (char) (0x80 + random.nextInt(0x780));
+                    case 2 -> (char) random.nextInt(Character.MAX_VALUE + 1);
+                    default -> (char) (Character.MIN_SURROGATE + random.nextInt(Character.MAX_SURROGATE - Character.MIN_SURROGATE + 1));
+                };
+            }
+            String value = new String(chars);
+            StringBuilder sb = new StringBuilder();
+
+            CallbackTemplate.appendEncoded(sb, value);
+
+            assertEquals(URLEncoder.encode(value, StandardCharsets.UTF_8), sb.toString(), value);
+        }
+    }
+}
@@ -0,0 +1,52 @@
+package gr.cytech.sendium.core.worker;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CountingBloomFilterTest {
+
+    @Test
+    void addedKeys_MightBeContainedUntilRemoved() {
+        CountingBloomFilter filter = new CountingBloomFilter(1000, 0.01);
+        for (int i = 0; i < 1000; i++) {
+            filter.add("op-" + i);
+        }
+
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(filter.mightContain("op-" + i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            filter.remove("op-" + i);
+        }
+        assertFalse(filter.mightContain("op-1"));
+    }
+
+    @Test
+    void keyAddedTwice_StaysUntilRemovedTwice() {
+        CountingBloomFilter filter = new CountingBloomFilter(100, 0.01);
+        filter.add("op-1");
+        filter.add("op-1");
+
+        filter.remove("op-1");
+        assertTrue(filter.mightContain("op-1"));
+        filter.remove("op-1");
+        assertFalse(filter.mightContain("op-1"));
+    }
+
+    @Test
+    void unknownKeys_AreRejectedAtAboutTheConfiguredRate() {
+        CountingBloomFilter filter = new CountingBloomFilter(10_000, 0.01);
+        for (int i = 0; i < 10_000; i++) {
+            filter.add("op-" + i);
+        }
+
+        int falsePositives = 0;
+        for (int i = 0; i < 100_000; i++) {
+            if (filter.mightContain("unknown-" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 2_000, "false positives: " + falsePositives);
+    }
+}
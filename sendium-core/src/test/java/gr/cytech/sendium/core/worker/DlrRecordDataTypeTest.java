@@ -0,0 +1,186 @@
+package gr.cytech.sendium.core.worker;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.h2.mvstore.WriteBuffer;
+import org.h2.mvstore.type.ObjectDataType;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DlrRecordDataTypeTest {
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    @Test
+    void messageStateRoundTrip() {
+        var state = new MessageState("gw-1", "account", "sys", "from", "tó ελληνικά", "http://dlr");
+        state.setOperatorMsgId("op-1");
+        state.setStatus(MessageState.MessageStatus.SENT);
+        state.setTimestamp(1_700_000_000_123L);
+        state.setReassembledParts(List.of("p1", "p2"));
+
+        var read = roundTrip(DlrRecordDataType.MESSAGE_STATE, state);
+
+        assertThat(read).usingRecursiveComparison().isEqualTo(state);
+    }
+
+    @Test
+    void messageStateWithNullsRoundTrip() {
+        var state = new MessageState("gw-1", null, null, null, null);
+        state.setStatus(null);
+
+        var read = roundTrip(DlrRecordDataType.MESSAGE_STATE, state);
+
+        assertThat(read).usingRecursiveComparison().isEqualTo(state);
+        assertThat(read.getReassembledParts()).isNull();
+        assertThat(read.getStatus()).isNull();
+    }
+
+    @Test
+    void unpushedDlrRoundTrip() {
+        var dlr = new UnpushedDlr();
+        dlr.systemId = "sys";
+        dlr.accountId = "account";
+        dlr.from = "from";
+        dlr.to = "to";
+        dlr.serial = "serial";
+        dlr.msgId = -5;
+        dlr.state = 2;
+        dlr.errcode = null;
+        dlr.acked = true;
+        dlr.priority = 3;
+        dlr.reassembledParts = List.of();
+        dlr.savedAt = 1_700_000_000_000L;
+        dlr.expiresAt = 1_700_604_800_000L;
+        dlr.sequence = 42;
+
+        var read = roundTrip(DlrRecordDataType.UNPUSHED_DLR, dlr);
+
+        assertThat(read).usingRecursiveComparison().isEqualTo(dlr);
+    }
+
+    @Test
+    void dlrRecordRoundTrip() {
+        var state = new MessageState("gw-1", "account", "sys", "from", "to", null);
+        state.setOperatorMsgId("op-1");
+        var dlrRecord = new DlrRecord(state, 1_700_000_000_000L, 1_700_000_001_000L, 1_700_604_800_000L, 1_700_259_201_000L);
+
+        var read = roundTrip(DlrRecordDataType.DLR_RECORD, dlrRecord);
+
+        assertThat(read).usingRecursiveComparison().isEqualTo(dlrRecord);
+    }
+
+    @Test
+    void dlrRecordOfFirstFormatReadsWithoutExpiryTimes() {
+        var state = new MessageState("gw-1", "account", "sys", "from", "to", null);
+        var buff = new WriteBuffer();
+        DlrRecordDataType.DLR_RECORD.write(buff, new DlrRecord(state, 1_700_000_000_000L, 0, 0, 0));
+        ByteBuffer written = buff.getBuffer().flip();
+        // a first format row is the same row without the trailing expiry times
+        written.put(0, DlrRecordDataType.FORMAT_V1).limit(written.limit() - 2);
+
+        var read = DlrRecordDataType.DLR_RECORD.read(written);
+
+        assertThat(read.state()).usingRecursiveComparison().isEqualTo(state);
+        assertThat(read.createdAt()).isEqualTo(1_700_000_000_000L);
+        assertThat(read.expiresAt()).isZero();
+        assertThat(read.linkExpiresAt()).isZero();
+        assertThat(written.remaining()).isZero();
+    }
+
+    @Test
+    void unpushedDlrOfFirstFormatReadsWithoutSavedAt() {
+        var dlr = new UnpushedDlr();
+        dlr.systemId = "sys";
+        dlr.serial = "serial";
+        dlr.savedAt = 123;
+        var buff = new WriteBuffer();
+        DlrRecordDataType.UNPUSHED_DLR.write(buff, dlr);
+        ByteBuffer written = buff.getBuffer().flip();
+        // a first format row is the same row without the trailing savedAt, expiresAt and sequence
+        written.put(0, DlrRecordDataType.FORMAT_V1).limit(written.limit() - 3);
+
+        var read = DlrRecordDataType.UNPUSHED_DLR.read(written);
+
+        assertThat(read.serial).isEqualTo("serial");
+        assertThat(read.savedAt).isZero();
+        assertThat(written.remaining()).isZero();
+    }
+
+    @Test
+    void unpushedDlrOfSecondFormatReadsWithoutExpiresAt() {
+        var dlr = new UnpushedDlr();
+        dlr.systemId = "sys";
+        dlr.savedAt = 123;
+        var buff = new WriteBuffer();
+        DlrRecordDataType.UNPUSHED_DLR.write(buff, dlr);
+        ByteBuffer written = buff.getBuffer().flip();
+        written.put(0, DlrRecordDataType.FORMAT_V2).limit(written.limit() - 2);
+
+        var read = DlrRecordDataType.UNPUSHED_DLR.read(written);
+
+        assertThat(read.savedAt).isEqualTo(123);
+        assertThat(read.expiresAt).isZero();
+        assertThat(written.remaining()).isZero();
+    }
+
+    @Test
+    void unpushedDlrOfThirdFormatReadsWithoutSequence() {
+        var dlr = new UnpushedDlr();
+        dlr.systemId = "sys";
+        dlr.expiresAt = 456;
+        var buff = new WriteBuffer();
+        DlrRecordDataType.UNPUSHED_DLR.write(buff, dlr);
+        ByteBuffer written = buff.getBuffer().flip();
+        written.put(0, DlrRecordDataType.FORMAT_V3).limit(written.limit() - 1);
+
+        var read = DlrRecordDataType.UNPUSHED_DLR.read(written);
+
+        assertThat(read.expiresAt).isEqualTo(456);
+        assertThat(read.sequence).isZero();
+        assertThat(written.remaining()).isZero();
+    }
+
+    @Test
+    void readsLegacyJsonRows() throws Exception {
+        var state = new MessageState("gw-1", "account", "sys", "from", "to", null);
+        state.setOperatorMsgId("op-1");
+        var buff = new WriteBuffer();
+        new ObjectDataType().write(buff, mapper.writeValueAsString(state));
+
+        var read = DlrRecordDataType.MESSAGE_STATE.read(buff.getBuffer().flip());
+
+        assertThat(read).usingRecursiveComparison().isEqualTo(state);
+    }
+
+    @Test
+    void unparsableLegacyRowIsReadAsNull() {
+        var buff = new WriteBuffer();
+        new ObjectDataType().write(buff, "not json");
+
+        assertThat(DlrRecordDataType.UNPUSHED_DLR.read(buff.getBuffer().flip())).isNull();
+    }
+
+    @Test
+    void binaryRecordIsSmallerThanJson() throws Exception {
+        var state = new MessageState("6f1c2a7e-4c1b-4a51-9a0c-1e2d3c4b5a69", "account", "sys", "306900000000", "306911111111", null);
+        state.setOperatorMsgId("0A1B2C3D4E");
+        var binary = new WriteBuffer();
+        DlrRecordDataType.MESSAGE_STATE.write(binary, state);
+        var json = new WriteBuffer();
+        new ObjectDataType().write(json, mapper.writeValueAsString(state));
+
+        assertThat(binary.position()).isLessThan(json.position() / 2);
+    }
+
+    private static <T> T roundTrip(DlrRecordDataType<T> type, T record) {
+        var buff = new WriteBuffer();
+        type.write(buff, record);
+        ByteBuffer read = buff.getBuffer().flip();
+        T result = type.read(read);
+        assertThat(read.remaining()).isZero();
+        return result;
+    }
+}
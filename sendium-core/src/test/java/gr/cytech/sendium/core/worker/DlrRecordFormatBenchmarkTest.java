@@ -0,0 +1,115 @@
+package gr.cytech.sendium.core.worker;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Compares the JSON string rows of earlier versions with the binary rows of {@link DlrRecordDataType}: write and
+ * resolve (read and remove) throughput of the primary map and the size of the store file.
+ * Run with {@code mvn test -Dsendium.benchmarks=true -Dtest=DlrRecordFormatBenchmarkTest}.
+ */
+@Tag("benchmark")
+@EnabledIfSystemProperty(named = "sendium.benchmarks", matches = "true")
+class DlrRecordFormatBenchmarkTest {
+    private static final Logger logger = LoggerFactory.getLogger(DlrRecordFormatBenchmarkTest.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final int RECORDS = 200_000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void jsonVersusBinary() throws Exception {
+        long jsonSize = run("json", dir.resolve("json.db"), new Format() {
+            MVMap<String, String> map;
+
+            public void open(MVStore store) {
+                map = store.openMap("primaryStore");
+            }
+
+            public void put(MessageState state) throws Exception {
+                map.put(state.getGatewayMsgId(), mapper.writeValueAsString(state));
+            }
+
+            public MessageState resolve(String gatewayMsgId) throws Exception {
+                return mapper.readValue(map.remove(gatewayMsgId), MessageState.class);
+            }
+        });
+        long binarySize = run("binary", dir.resolve("binary.db"), new Format() {
+            MVMap<String, MessageState> map;
+
+            public void open(MVStore store) {
+                map = store.openMap("primaryStore", new MVMap.Builder<String, MessageState>().valueType(DlrRecordDataType.MESSAGE_STATE));
+            }
+
+            public void put(MessageState state) {
+                map.put(state.getGatewayMsgId(), state);
+            }
+
+            public MessageState resolve(String gatewayMsgId) {
+                return map.remove(gatewayMsgId);
+            }
+        });
+
+        assertThat(binarySize).isLessThan(jsonSize);
+    }
+
+    private long run(String name, Path file, Format format) throws Exception {
+        long writeNanos;
+        long size;
+        try (MVStore store = new MVStore.Builder().fileName(file.toString()).open()) {
+            format.open(store);
+            long begin = System.nanoTime();
+            for (int i = 0; i < RECORDS; i++) {
+                format.put(state(i));
+            }
+            store.commit();
+            writeNanos = System.nanoTime() - begin;
+        }
+        size = Files.size(file);
+
+        long resolveNanos;
+        try (MVStore store = new MVStore.Builder().fileName(file.toString()).open()) {
+            format.open(store);
+            long begin = System.nanoTime();
+            for (int i = 0; i < RECORDS; i++) {
+                assertThat(format.resolve("gw-" + i)).isNotNull();
+            }
+            store.commit();
+            resolveNanos = System.nanoTime() - begin;
+        }
+
+        logger.info("{}: records:{} writes/sec:{} resolves/sec:{} file:{}KB", name, RECORDS,
+                RECORDS * TimeUnit.SECONDS.toNanos(1) / writeNanos, RECORDS * TimeUnit.SECONDS.toNanos(1) / resolveNanos,
+                size / 1024);
+        return size;
+    }
+
+    private static MessageState state(int i) {
+        var state = new MessageState("gw-" + i, "account-" + (i % 50), "sys-" + (i % 50), "Sender", "3069" + (10_000_000 + i), null);
+        state.setOperatorMsgId(Integer.toHexString(i * 31));
+        state.setStatus(MessageState.MessageStatus.SENT);
+        return state;
+    }
+
+    private interface Format {
+        void open(MVStore store);
+
+        void put(MessageState state) throws Exception;
+
+        MessageState resolve(String gatewayMsgId) throws Exception;
+    }
+}
@@ -0,0 +1,26 @@
+package gr.cytech.sendium.core.worker;
+
+import gr.cytech.sendium.conf.SendiumConfigurationHandler;
+
+/**
+ * Starts and stops an {@link InMemoryDlrService} outside the container, for tests of other packages.
+ */
+public final class DlrServiceFixture {
+    private DlrServiceFixture() {
+    }
+
+    /**
+     * @param config the configuration of the service, or null for its defaults
+     * @return a service started on the store at the {@code sendium.dlr.db.path} system property
+     */
+    public static InMemoryDlrService start(SendiumConfigurationHandler config) {
+        InMemoryDlrService service = new InMemoryDlrService();
+        service.configurationHandler = config;
+        service.init();
+        return service;
+    }
+
+    public static void stop(InMemoryDlrService service) {
+        service.onStop();
+    }
+}
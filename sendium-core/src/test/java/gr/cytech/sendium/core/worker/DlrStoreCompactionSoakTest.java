@@ -0,0 +1,117 @@
+package gr.cytech.sendium.core.worker;
+
+import gr.cytech.sendium.conf.SendiumConfigurationHandler;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * DLR latency while the store is compacted: concurrent writers save, link and resolve records for a while, keeping
+ * every twentieth one so that the chunks of the store are left sparse, once without and once with compaction running
+ * every 200ms. The hot tier is disabled so that every record goes through the store.
+ * Run with {@code mvn test -Dsendium.benchmarks=true -Dtest=DlrStoreCompactionSoakTest}.
+ */
+@Tag("benchmark")
+@EnabledIfSystemProperty(named = "sendium.benchmarks", matches = "true")
+class DlrStoreCompactionSoakTest {
+    private static final Logger logger = LoggerFactory.getLogger(DlrStoreCompactionSoakTest.class);
+    private static final int THREADS = 4;
+    private static final long RUN_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void compactionDoesNotRaiseP99Latency() throws Exception {
+        String oldDbPath = System.getProperty("sendium.dlr.db.path");
+        try {
+            long[] without = run(false);
+            long[] with = run(true);
+            // within a millisecond or twice the latency without compaction, whichever is more
+            assertThat(with[0]).isLessThanOrEqualTo(Math.max(without[0] * 2, without[0] + TimeUnit.MILLISECONDS.toNanos(1)));
+            assertThat(with[1]).isLessThan(without[1]);
+        } finally {
+            if (oldDbPath == null) {
+                System.clearProperty("sendium.dlr.db.path");
+            } else {
+                System.setProperty("sendium.dlr.db.path", oldDbPath);
+            }
+        }
+    }
+
+    /**
+     * @return the p99 latency in nanos of a resolved DLR, and the size of the store file at the end
+     */
+    private long[] run(boolean compaction) throws Exception {
+        System.setProperty("sendium.dlr.db.path", dir.resolve("dlr-" + compaction + ".db").toString());
+        SendiumConfigurationHandler config = mock(SendiumConfigurationHandler.class);
+        when(config.getLongPrpt(any(String[].class))).thenAnswer(invocation -> Long.parseLong(invocation.<String[]>getArgument(0)[1]));
+        when(config.getLongPrpt(anyString(), anyLong())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(config.getLongPrpt(InMemoryDlrService._hotTierMaxEntries)).thenReturn(0L);
+        when(config.getLongPrpt(InMemoryDlrService._compactionInterval)).thenReturn(compaction ? 200L : 0L);
+        InMemoryDlrService dlrService = new InMemoryDlrService();
+        dlrService.configurationHandler = config;
+        dlrService.init();
+        // the default retention of 45 seconds would keep every chunk of a short run from being rewritten
+        dlrService.shards[0].store.setRetentionTime(1000);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            long end = System.currentTimeMillis() + RUN_MILLIS;
+            List<Future<long[]>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    long[] latencies = new long[1 << 20];
+                    int resolved = 0;
+                    for (int i = 0; System.currentTimeMillis() < end && resolved < latencies.length; i++) {
+                        String id = thread + "-" + i;
+                        dlrService.saveInitialState(new MessageState("gw-" + id, "sys-" + thread, "from", "to", null));
+                        dlrService.linkOperatorId("gw-" + id, "op-" + id);
+                        if (i % 20 != 0) {
+                            long start = System.nanoTime();
+                            assertThat(dlrService.resolveAndRemoveDlr("op-" + id, 1)).isPresent();
+                            latencies[resolved++] = System.nanoTime() - start;
+                        }
+                    }
+                    return Arrays.copyOf(latencies, resolved);
+                }));
+            }
+            long[] latencies = new long[0];
+            for (Future<long[]> future : futures) {
+                long[] thread = future.get(RUN_MILLIS * 2, TimeUnit.MILLISECONDS);
+                long[] all = Arrays.copyOf(latencies, latencies.length + thread.length);
+                System.arraycopy(thread, 0, all, latencies.length, thread.length);
+                latencies = all;
+            }
+            Arrays.sort(latencies);
+            long p50 = latencies[latencies.length / 2];
+            long p99 = latencies[(int) (latencies.length * 0.99)];
+            long fileSize = dlrService.getStoreFileSize();
+            logger.info("compaction:{} resolved:{} p50:{}us p99:{}us fillRate:{}% chunks:{} file:{}KB", compaction, latencies.length,
+                    p50 / 1000, p99 / 1000, dlrService.getStoreFillRate(), dlrService.getStoreChunkCount(), fileSize / 1024);
+            return new long[]{p99, fileSize};
+        } finally {
+            executor.shutdownNow();
+            dlrService.onStop();
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package gr.cytech.sendium.core.worker;
+
+import gr.cytech.sendium.conf.SendiumConfigurationHandler;
+import gr.cytech.sendium.core.message.StandardMessage;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class DlrStoreResharderTest {
+    private Path dbPath;
+    private String oldDbPath;
+    private InMemoryDlrService dlrService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        oldDbPath = System.getProperty("sendium.dlr.db.path");
+        dbPath = Files.createTempFile("dlr-reshard-test", ".db");
+        Files.deleteIfExists(dbPath);
+        System.setProperty("sendium.dlr.db.path", dbPath.toString());
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        if (dlrService != null) {
+            dlrService.onStop();
+        }
+        if (oldDbPath == null) {
+            System.clearProperty("sendium.dlr.db.path");
+        } else {
+            System.setProperty("sendium.dlr.db.path", oldDbPath);
+        }
+        InMemoryDlrServiceTest.deleteStoreFiles(dbPath);
+    }
+
+    @Test
+    void reshard_MovesEveryEntryToItsShardAndBack() {
+        start(1);
+        for (int i = 0; i < 50; i++) {
+            dlrService.saveInitialState(new MessageState("gw-" + i, "systemId", "from", "to", null));
+            dlrService.linkOperatorId("gw-" + i, "op-" + i);
+        }
+        List<String> serials = List.of(saveDlr("sys-a"), saveDlr("sys-a"), saveDlr("sys-b"));
+        dlrService.onStop();
+
+        assertThat(DlrStoreResharder.reshard(dbPath.toFile(), 4)).isEqualTo(103);
+
+        assertThat(dbPath).doesNotExist();
+        assertThat(Path.of(dbPath + ".resharded")).exists();
+        start(4);
+        assertThat(dlrService.isPersistent()).isTrue();
+        assertThat(dlrService.getPrimaryStoreSize()).isEqualTo(50);
+        assertThat(dlrService.getExpiryIndexSize()).isEqualTo(103);
+        assertThat(dlrService.getUnpushedDlrs("sys-a")).extracting(dlr -> dlr.serial).containsExactly(serials.get(0), serials.get(1));
+        assertThat(dlrService.resolveAndRemoveDlr("op-0", 1)).isPresent();
+        dlrService.onStop();
+
+        assertThat(DlrStoreResharder.reshard(dbPath.toFile(), 1)).isEqualTo(101);
+
+        start(1);
+        assertThat(dlrService.isPersistent()).isTrue();
+        assertThat(dlrService.getPrimaryStoreSize()).isEqualTo(49);
+        assertThat(dlrService.getState("gw-7").orElseThrow().getOperatorMsgId()).isEqualTo("op-7");
+        assertThat(dlrService.getUnpushedDlrs("sys-b")).extracting(dlr -> dlr.serial).containsExactly(serials.get(2));
+        dlrService.expireDue(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(8));
+        assertThat(dlrService.getExpiryIndexSize()).isZero();
+    }
+
+    @Test
+    void reshard_RefusesStoresOfEarlierVersions() throws Exception {
+        try (MVStore legacy = MVStore.open(dbPath.toString())) {
+            MVMap<String, String> primary = legacy.openMap("primaryStore");
+            primary.put("gw-legacy", "{}");
+        }
+        File dbFile = dbPath.toFile();
+
+        assertThatThrownBy(() -> DlrStoreResharder.reshard(dbFile, 4))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("primaryStore");
+        assertThat(dbPath).exists();
+        assertThat(DlrStoreShard.existingShards(dbFile)).isEqualTo(1);
+    }
+
+    @Test
+    void reshard_WithoutStoreFails() {
+        File dbFile = dbPath.toFile();
+
+        assertThatThrownBy(() -> DlrStoreResharder.reshard(dbFile, 2))
+                .isInstanceOf(IllegalStateException.class)
+                .hasMessageContaining("No DLR store");
+    }
+
+    private void start(int shards) {
+        SendiumConfigurationHandler config = mock(SendiumConfigurationHandler.class);
+        when(config.getLongPrpt(any(String[].class))).thenAnswer(invocation -> Long.parseLong(invocation.<String[]>getArgument(0)[1]));
+        when(config.getLongPrpt(anyString(), anyLong())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(config.getLongPrpt(InMemoryDlrService._expiryInterval)).thenReturn(TimeUnit.HOURS.toMillis(1));
+        when(config.getLongPrpt(InMemoryDlrService._shards)).thenReturn((long) shards);
+        dlrService = new InMemoryDlrService();
+        dlrService.configurationHandler = config;
+        dlrService.init();
+    }
+
+    private String saveDlr(String systemId) {
+        StandardMessage dlr = new StandardMessage();
+        dlr.type = StandardMessage.MSG_DLR;
+        dlr.systemId = systemId;
+        dlr.serial = "serial-" + System.nanoTime();
+        dlr.state = StandardMessage.DLR_STAT_DELIVRD;
+        dlr.errcode = "0";
+        dlrService.saveUnpushedDlr(dlr, false);
+        return dlr.serial;
+    }
+}
@@ -0,0 +1,111 @@
+package gr.cytech.sendium.core.worker;
+
+import gr.cytech.sendium.conf.SendiumConfigurationHandler;
+import gr.cytech.sendium.core.message.StandardMessage;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Throughput of the DLR store by shard count: concurrent writers save, link and resolve records, and every tenth
+ * message also saves an unpushed DLR that waits for its commit.
+ * Run with {@code mvn test -Dsendium.benchmarks=true -Dtest=DlrStoreShardingBenchmarkTest}.
+ */
+@Tag("benchmark")
+@EnabledIfSystemProperty(named = "sendium.benchmarks", matches = "true")
+class DlrStoreShardingBenchmarkTest {
+    private static final Logger logger = LoggerFactory.getLogger(DlrStoreShardingBenchmarkTest.class);
+    private static final int THREADS = 16;
+    private static final int MESSAGES_PER_THREAD = 5_000;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void throughputByShardCount() throws Exception {
+        String oldDbPath = System.getProperty("sendium.dlr.db.path");
+        try {
+            for (int shards : new int[]{1, 2, 4, 8}) {
+                run(shards);
+            }
+        } finally {
+            if (oldDbPath == null) {
+                System.clearProperty("sendium.dlr.db.path");
+            } else {
+                System.setProperty("sendium.dlr.db.path", oldDbPath);
+            }
+        }
+    }
+
+    private void run(int shards) throws Exception {
+        System.setProperty("sendium.dlr.db.path", dir.resolve("dlr-" + shards + ".db").toString());
+        SendiumConfigurationHandler config = mock(SendiumConfigurationHandler.class);
+        when(config.getLongPrpt(any(String[].class))).thenAnswer(invocation -> Long.parseLong(invocation.<String[]>getArgument(0)[1]));
+        when(config.getLongPrpt(anyString(), anyLong())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(config.getLongPrpt(InMemoryDlrService._shards)).thenReturn((long) shards);
+        InMemoryDlrService dlrService = new InMemoryDlrService();
+        dlrService.configurationHandler = config;
+        dlrService.init();
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            long begin = System.nanoTime();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < THREADS; t++) {
+                int thread = t;
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < MESSAGES_PER_THREAD; i++) {
+                        String id = thread + "-" + i;
+                        dlrService.saveInitialState(new MessageState("gw-" + id, "sys-" + thread, "from", "to", null));
+                        dlrService.linkOperatorId("gw-" + id, "op-" + id);
+                        if (i % 10 == 0) {
+                            dlrService.saveUnpushedDlr(dlr("sys-" + thread, id), true);
+                        }
+                    }
+                    for (int i = 0; i < MESSAGES_PER_THREAD; i++) {
+                        assertThat(dlrService.resolveAndRemoveDlr("op-" + thread + "-" + i, 1)).isPresent();
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(10, TimeUnit.MINUTES);
+            }
+            long nanos = System.nanoTime() - begin;
+
+            assertThat(dlrService.getPrimaryStoreSize()).isZero();
+            long messages = (long) THREADS * MESSAGES_PER_THREAD;
+            logger.info("shards:{} threads:{} messages:{} messages/sec:{} file:{}KB", shards, THREADS, messages,
+                    messages * TimeUnit.SECONDS.toNanos(1) / nanos, dlrService.getStoreFileSize() / 1024);
+        } finally {
+            executor.shutdownNow();
+            dlrService.onStop();
+        }
+    }
+
+    private static StandardMessage dlr(String systemId, String id) {
+        StandardMessage dlr = new StandardMessage();
+        dlr.type = StandardMessage.MSG_DLR;
+        dlr.systemId = systemId;
+        dlr.serial = "serial-" + id;
+        dlr.state = StandardMessage.DLR_STAT_DELIVRD;
+        dlr.errcode = "0";
+        return dlr;
+    }
+}
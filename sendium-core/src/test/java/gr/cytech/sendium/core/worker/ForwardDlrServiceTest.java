@@ -1,9 +1,15 @@
 package gr.cytech.sendium.core.worker;
 
+import gr.cytech.sendium.conf.SendiumConfigurationHandler;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
 class ForwardDlrServiceTest {
 
@@ -85,4 +91,43 @@ class ForwardDlrServiceTest {
         MessageState state = new MessageState("msg-1", "system", "from", "to", "   ");
         assertDoesNotThrow(() -> forwardDlrService.forwardDlr(state));
     }
-}
\ No newline at end of file
+
+    @Test
+    void forwardDlr_WithoutABatchUrl_EnqueuesAGet() {
+        forwardDlrService.webhookOutbox = mock(WebhookOutbox.class);
+        MessageState state = new MessageState("msg-1", "acc-1", "system", "from", "to", "http://example.com/dlr?id=%s&type=%d");
+        state.setStatus(MessageState.MessageStatus.DELIVERED);
+
+        forwardDlrService.forwardDlr(state);
+
+        ArgumentCaptor<WebhookDelivery> delivery = ArgumentCaptor.forClass(WebhookDelivery.class);
+        verify(forwardDlrService.webhookOutbox).enqueue(delivery.capture());
+        assertEquals("GET", delivery.getValue().method());
+        assertEquals("http://example.com/dlr?id=msg-1&type=1", delivery.getValue().url());
+        assertNull(delivery.getValue().batch());
+    }
+
+    @Test
+    void forwardDlr_WithABatchUrlForTheAccount_EnqueuesABatchItem() {
+        forwardDlrService.webhookOutbox = mock(WebhookOutbox.class);
+        forwardDlrService.configurationHandler = mock(SendiumConfigurationHandler.class);
+        when(forwardDlrService.configurationHandler.getPrpt(ForwardDlrService._batchUrl)).thenReturn("");
+        when(forwardDlrService.configurationHandler.getPrpt(ForwardDlrService._batchFormat)).thenReturn("json");
+        when(forwardDlrService.configurationHandler.getPrpt(anyString(), anyString())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(forwardDlrService.configurationHandler.getPrpt("dlr.forward.batch.url.acc-1", "")).thenReturn("http://example.com/dlrs");
+        when(forwardDlrService.configurationHandler.getPrpt("dlr.forward.batch.format.acc-1", "json")).thenReturn("ndjson");
+        MessageState state = new MessageState("msg-1", "acc-1", "system", "from", "to", "http://example.com/dlr?id=%s&type=%d");
+        state.setStatus(MessageState.MessageStatus.FAILED);
+        state.setTimestamp(1000);
+
+        forwardDlrService.forwardDlr(state);
+
+        ArgumentCaptor<WebhookDelivery> delivery = ArgumentCaptor.forClass(WebhookDelivery.class);
+        verify(forwardDlrService.webhookOutbox).enqueue(delivery.capture());
+        assertEquals("POST", delivery.getValue().method());
+        assertEquals("http://example.com/dlrs", delivery.getValue().url());
+        assertEquals(WebhookDelivery.NDJSON_BATCH, delivery.getValue().batch());
+        assertEquals("{\"id\":\"msg-1\",\"type\":2,\"status\":\"FAILED\",\"from\":\"from\",\"to\":\"to\",\"timestamp\":1000,"
+                + "\"url\":\"http://example.com/dlr?id=msg-1&type=2\"}", delivery.getValue().body());
+    }
+}
@@ -0,0 +1,76 @@
+package gr.cytech.sendium.core.worker;
+
+import gr.cytech.sendium.conf.SendiumConfigurationHandler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdempotencyServiceTest {
+    private SendiumConfigurationHandler config;
+    private SimpleMeterRegistry meters;
+    private IdempotencyService service;
+
+    @BeforeEach
+    void setUp() {
+        config = new SendiumConfigurationHandler();
+        config.memoryConfiguration = new ConcurrentHashMap<>();
+        config.defaultsConfiguration = new ConcurrentHashMap<>();
+        config.overriddenDefaultsConfiguration = new ConcurrentHashMap<>();
+        config.currentStoreConfiguration = new ConcurrentHashMap<>();
+        config.listeners = new CopyOnWriteArraySet<>();
+        meters = new SimpleMeterRegistry();
+        service = new IdempotencyService();
+        service.configurationHandler = config;
+        service.meterRegistry = meters;
+        service.init();
+    }
+
+    @Test
+    void duplicateKey_ReturnsTheFirstSerialAndIsCounted() {
+        String first = UUID.randomUUID().toString();
+
+        assertNull(service.claim("http:user", "order-1", first));
+        assertEquals(first, service.claim("http:user", "order-1", UUID.randomUUID().toString()));
+        assertEquals(1, service.getSize());
+        assertEquals(1, meters.get("sendium.idempotency.duplicates").counter().count());
+        assertEquals(1, meters.get("sendium.idempotency.entries").gauge().value());
+    }
+
+    @Test
+    void sameKey_InAnotherScope_IsNotADuplicate() {
+        assertNull(service.claim("http:user", "order-1", UUID.randomUUID().toString()));
+        assertNull(service.claim("http:other", "order-1", UUID.randomUUID().toString()));
+        assertNull(service.claim("smpp:user", "order-1", UUID.randomUUID().toString()));
+        // the scope and the key are separated, so that they cannot run into each other
+        assertNull(service.claim("http:use", "rorder-1", UUID.randomUUID().toString()));
+    }
+
+    @Test
+    void releasedKey_IsAcceptedAgain() {
+        String first = UUID.randomUUID().toString();
+        service.claim("http:user", "order-1", first);
+
+        service.release("http:user", "order-1", first);
+
+        String retry = UUID.randomUUID().toString();
+        assertNull(service.claim("http:user", "order-1", retry));
+        assertEquals(retry, service.claim("http:user", "order-1", UUID.randomUUID().toString()));
+    }
+
+    @Test
+    void emptyKeyOrDisabled_IsNeverADuplicate() {
+        assertNull(service.claim("http:user", null, UUID.randomUUID().toString()));
+        assertNull(service.claim("http:user", "", UUID.randomUUID().toString()));
+
+        config.set(IdempotencyService._enabled[0], "false");
+        assertNull(service.claim("http:user", "order-1", UUID.randomUUID().toString()));
+        assertNull(service.claim("http:user", "order-1", UUID.randomUUID().toString()));
+        assertEquals(0, service.getSize());
+    }
+}
@@ -0,0 +1,122 @@
+package gr.cytech.sendium.core.worker;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class IdempotencyWindowTest {
+    private static final long WINDOW = 7000;
+
+    @Test
+    void secondClaim_ReturnsTheSerialOfTheFirst() {
+        IdempotencyWindow window = new IdempotencyWindow(WINDOW, 1000, 4);
+        UUID first = UUID.randomUUID();
+
+        assertNull(window.claim(1, 2, first, 0));
+        assertEquals(first, window.claim(1, 2, UUID.randomUUID(), 10));
+        assertNull(window.claim(1, 3, UUID.randomUUID(), 10));
+        assertNull(window.claim(2, 2, UUID.randomUUID(), 10));
+        assertEquals(3, window.size());
+    }
+
+    @Test
+    void zeroKey_IsAKeyLikeAnyOther() {
+        IdempotencyWindow window = new IdempotencyWindow(WINDOW, 1000, 1);
+        UUID first = UUID.randomUUID();
+
+        assertNull(window.claim(0, 0, first, 0));
+        assertEquals(first, window.claim(0, 0, UUID.randomUUID(), 0));
+    }
+
+    @Test
+    void claim_IsRememberedForTheWindowAndForgottenWithinATickAfter() {
+        IdempotencyWindow window = new IdempotencyWindow(WINDOW, 1000, 1);
+        UUID first = UUID.randomUUID();
+        // ticks are a seventh of the window, so a key claimed at the start of one is forgotten 8 ticks later
+        assertNull(window.claim(1, 2, first, 0));
+
+        assertEquals(first, window.claim(1, 2, UUID.randomUUID(), WINDOW));
+        assertEquals(first, window.claim(1, 2, UUID.randomUUID(), WINDOW + 999));
+        UUID second = UUID.randomUUID();
+        assertNull(window.claim(1, 2, second, WINDOW + 1000));
+        assertEquals(1, window.size());
+        assertEquals(second, window.claim(1, 2, UUID.randomUUID(), WINDOW + 1000));
+    }
+
+    @Test
+    void release_ForgetsTheClaimOfTheSameSerialOnly() {
+        IdempotencyWindow window = new IdempotencyWindow(WINDOW, 1000, 1);
+        UUID first = UUID.randomUUID();
+        window.claim(1, 2, first, 0);
+
+        assertFalse(window.release(1, 2, UUID.randomUUID(), 0));
+        assertTrue(window.release(1, 2, first, 0));
+        assertFalse(window.release(1, 2, first, 0));
+        assertEquals(0, window.size());
+
+        UUID retry = UUID.randomUUID();
+        assertNull(window.claim(1, 2, retry, 1));
+        assertEquals(retry, window.claim(1, 2, UUID.randomUUID(), 1));
+    }
+
+    @Test
+    void releasedKey_ClaimedInALaterTick_IsFoundInTheLaterOne() {
+        IdempotencyWindow window = new IdempotencyWindow(WINDOW, 1000, 1);
+        UUID first = UUID.randomUUID();
+        window.claim(1, 2, first, 0);
+        window.release(1, 2, first, 0);
+
+        UUID retry = UUID.randomUUID();
+        assertNull(window.claim(1, 2, retry, 3000));
+        assertEquals(retry, window.claim(1, 2, UUID.randomUUID(), 3000));
+    }
+
+    @Test
+    void manyKeys_GrowTheTablesAndAreAllFound() {
+        IdempotencyWindow window = new IdempotencyWindow(WINDOW, 1_000_000, 4);
+        List<UUID> serials = new ArrayList<>();
+        for (int i = 0; i < 50_000; i++) {
+            UUID serial = UUID.randomUUID();
+            serials.add(serial);
+            // every other key is released again, leaving released slots among the live ones
+            assertNull(window.claim(i * 0x9E3779B97F4A7C15L, i, serial, i / 10));
+            if (i % 2 == 1) {
+                assertTrue(window.release(i * 0x9E3779B97F4A7C15L, i, serial, i / 10));
+            }
+        }
+
+        for (int i = 0; i < 50_000; i++) {
+            UUID found = window.claim(i * 0x9E3779B97F4A7C15L, i, UUID.randomUUID(), 5000);
+            if (i % 2 == 0) {
+                assertEquals(serials.get(i), found);
+            } else {
+                assertNull(found);
+            }
+        }
+        assertEquals(50_000, window.size());
+        assertEquals(0, window.evicted());
+    }
+
+    @Test
+    void fullShard_EvictsItsOldestGeneration() {
+        IdempotencyWindow window = new IdempotencyWindow(WINDOW, 10, 1);
+        UUID oldest = UUID.randomUUID();
+        window.claim(0, 1, oldest, 0);
+        for (int i = 2; i <= 10; i++) {
+            window.claim(0, i, UUID.randomUUID(), 1000);
+        }
+        assertEquals(10, window.size());
+
+        assertNull(window.claim(0, 11, UUID.randomUUID(), 2000));
+
+        assertEquals(10, window.size());
+        assertEquals(1, window.evicted());
+        assertNull(window.claim(0, 1, UUID.randomUUID(), 2000));
+        assertEquals(10, window.evicted());
+        assertEquals(2, window.size());
+    }
+}
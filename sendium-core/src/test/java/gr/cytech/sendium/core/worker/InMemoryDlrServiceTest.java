@@ -1,18 +1,40 @@
 package gr.cytech.sendium.core.worker;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gr.cytech.sendium.conf.SendiumConfigurationHandler;
 import gr.cytech.sendium.core.message.StandardMessage;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.time.LocalTime;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
 
 class InMemoryDlrServiceTest {
 
@@ -41,7 +63,7 @@ class InMemoryDlrServiceTest {
             System.setProperty("sendium.dlr.db.path", oldDbPath);
         }
         if (dbPath != null) {
-            Files.deleteIfExists(dbPath);
+            deleteStoreFiles(dbPath);
         }
     }
 
@@ -87,6 +109,110 @@ class InMemoryDlrServiceTest {
         assertEquals(MessageState.MessageStatus.SENT, retrieved.get().getStatus());
     }
 
+    @Test
+    void linkOperatorId_BeforeInitialState_DoesNotWaitAndCompletesOnSave() {
+        long start = System.nanoTime();
+        dlrService.linkOperatorId("gw-early", "op-early");
+
+        assertTrue(System.nanoTime() - start < TimeUnit.MILLISECONDS.toNanos(100));
+        assertEquals(1, dlrService.getPendingLinksSize());
+        assertEquals(0, dlrService.getCorrelationIndexSize());
+
+        dlrService.saveInitialState(new MessageState("gw-early", "systemId", "from", "to", null));
+
+        assertEquals(0, dlrService.getPendingLinksSize());
+        MessageState linked = dlrService.getState("gw-early").orElseThrow();
+        assertEquals("op-early", linked.getOperatorMsgId());
+        assertEquals(MessageState.MessageStatus.SENT, linked.getStatus());
+        assertTrue(dlrService.resolveAndRemoveDlr("op-early", 1).isPresent());
+    }
+
+    @Test
+    void linkOperatorId_PendingLinksAreBounded() {
+        SendiumConfigurationHandler config = defaultConfiguration();
+        when(config.getLongPrpt(InMemoryDlrService._maxPendingLinks)).thenReturn(2L);
+        restartWith(config);
+
+        dlrService.linkOperatorId("gw-1", "op-1");
+        dlrService.linkOperatorId("gw-2", "op-2");
+        dlrService.linkOperatorId("gw-3", "op-3");
+
+        assertEquals(2, dlrService.getPendingLinksSize());
+    }
+
+    @Test
+    void linkOperatorId_ExpiredPendingLinksAreDropped() throws Exception {
+        SendiumConfigurationHandler config = defaultConfiguration();
+        when(config.getLongPrpt(InMemoryDlrService._pendingLinksTtl)).thenReturn(1L);
+        restartWith(config);
+
+        dlrService.linkOperatorId("gw-1", "op-1");
+        Thread.sleep(5);
+        dlrService.linkOperatorId("gw-2", "op-2");
+
+        assertEquals(1, dlrService.getPendingLinksSize());
+        dlrService.saveInitialState(new MessageState("gw-1", "systemId", "from", "to", null));
+        assertNull(dlrService.getState("gw-1").orElseThrow().getOperatorMsgId());
+    }
+
+    @Test
+    void expireDue_DropsOnlyThePendingLinksPastTheirTtl() throws Exception {
+        SendiumConfigurationHandler config = defaultConfiguration();
+        when(config.getLongPrpt(InMemoryDlrService._maxPendingLinks)).thenReturn(3L);
+        when(config.getLongPrpt(InMemoryDlrService._pendingLinksTtl)).thenReturn(1000L);
+        restartWith(config);
+        long start = System.currentTimeMillis();
+
+        dlrService.linkOperatorId("gw-1", "op-1");
+        dlrService.linkOperatorId("gw-completed", "op-completed");
+        dlrService.saveInitialState(new MessageState("gw-completed", "systemId", "from", "to", null));
+        Thread.sleep(100);
+        dlrService.linkOperatorId("gw-2", "op-2");
+        dlrService.linkOperatorId("gw-3", "op-3");
+
+        dlrService.expireDue(start + 1050);
+
+        assertEquals(2, dlrService.getPendingLinksSize());
+        dlrService.saveInitialState(new MessageState("gw-1", "systemId", "from", "to", null));
+        dlrService.saveInitialState(new MessageState("gw-2", "systemId", "from", "to", null));
+        assertNull(dlrService.getState("gw-1").orElseThrow().getOperatorMsgId());
+        assertEquals("op-2", dlrService.getState("gw-2").orElseThrow().getOperatorMsgId());
+        assertEquals("op-completed", dlrService.getState("gw-completed").orElseThrow().getOperatorMsgId());
+    }
+
+    @Test
+    void linkOperatorId_RacingWithSaveLinksEveryMessageOnce() throws Exception {
+        int messages = 2000;
+        CountDownLatch start = new CountDownLatch(1);
+        try (ExecutorService executor = Executors.newFixedThreadPool(4)) {
+            List<Future<?>> futures = new ArrayList<>();
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < messages; i++) {
+                    dlrService.saveInitialState(new MessageState("gw-" + i, "systemId", "from", "to", null));
+                }
+                return null;
+            }));
+            futures.add(executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < messages; i++) {
+                    dlrService.linkOperatorId("gw-" + i, "op-" + i);
+                }
+                return null;
+            }));
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+
+        assertEquals(0, dlrService.getPendingLinksSize());
+        assertEquals(messages, dlrService.getCorrelationIndexSize());
+        for (int i = 0; i < messages; i++) {
+            assertEquals("op-" + i, dlrService.getState("gw-" + i).orElseThrow().getOperatorMsgId());
+        }
+    }
+
     @Test
     void resolveAndRemoveDlr_ReturnsAndRemoves() {
         MessageState state = new MessageState("gw-123", "systemId", "from", "to", null);
@@ -160,7 +286,7 @@ class InMemoryDlrServiceTest {
         assertEquals(dlr.acked, stored.acked);
         assertEquals(dlr.priority, stored.priority);
         assertEquals(dlr.reassembledParts, stored.reassembledParts);
-        assertEquals(1, dlrService.getUnpushedDlrIndexSize());
+        assertEquals(1, dlrService.getUnpushedDlrQueueSize());
     }
 
     @Test
@@ -191,7 +317,7 @@ class InMemoryDlrServiceTest {
 
         List<StandardMessage> dlrs = dlrService.getUnpushedDlrs("sys1");
 
-        assertEquals(2, dlrService.getUnpushedDlrIndexSize());
+        assertEquals(2, dlrService.getUnpushedDlrQueueSize());
         assertTrue(dlrs.stream().anyMatch(msg -> sys1Dlr.serial.equals(msg.serial)));
         assertFalse(dlrs.stream().anyMatch(msg -> sys2Dlr.serial.equals(msg.serial)));
     }
@@ -206,7 +332,7 @@ class InMemoryDlrServiceTest {
 
         assertTrue(result);
         assertFalse(dlrs.stream().anyMatch(msg -> dlr.serial.equals(msg.serial)));
-        assertEquals(0, dlrService.getUnpushedDlrIndexSize());
+        assertEquals(0, dlrService.getUnpushedDlrQueueSize());
     }
 
     @Test
@@ -225,6 +351,49 @@ class InMemoryDlrServiceTest {
         assertEquals(dlr.serial, afterRelease.getFirst().serial);
     }
 
+    @Test
+    void claimUnpushedDlrs_WithLimitClaimsOnePageInInsertionOrder() {
+        StandardMessage first = createDlr("account1", "sys-page");
+        StandardMessage second = createDlr("account1", "sys-page");
+        StandardMessage third = createDlr("account1", "sys-page");
+        dlrService.saveUnpushedDlr(first);
+        dlrService.saveUnpushedDlr(second);
+        dlrService.saveUnpushedDlr(third);
+
+        List<StandardMessage> firstPage = dlrService.claimUnpushedDlrs("sys-page", 2);
+        List<StandardMessage> secondPage = dlrService.claimUnpushedDlrs("sys-page", 2);
+
+        assertEquals(List.of(first.serial, second.serial), firstPage.stream().map(m -> m.serial).toList());
+        assertEquals(List.of(third.serial), secondPage.stream().map(m -> m.serial).toList());
+        assertTrue(dlrService.claimUnpushedDlrs("sys-page", 2).isEmpty());
+    }
+
+    @Test
+    void claimUnpushedDlrs_WithCursorStreamsPagesInSaveOrder() {
+        List<String> serials = new ArrayList<>();
+        for (int i = 0; i < 25; i++) {
+            StandardMessage dlr = createDlr("account1", "sys-stream");
+            serials.add(dlr.serial);
+            dlrService.saveUnpushedDlr(dlr, false);
+        }
+        dlrService.saveUnpushedDlr(createDlr("account1", "sys-stream2"), false);
+
+        List<String> claimed = new ArrayList<>();
+        int pages = 0;
+        String cursor = null;
+        do {
+            UnpushedDlrPage page = dlrService.claimUnpushedDlrs("sys-stream", cursor, 10);
+            page.messages().forEach(msg -> claimed.add(msg.serial));
+            cursor = page.nextCursor();
+            pages++;
+        } while (cursor != null);
+
+        assertEquals(serials, claimed);
+        assertEquals(3, pages);
+        assertTrue(dlrService.claimUnpushedDlrs("sys-stream", null, 10).messages().isEmpty());
+        assertEquals(1, dlrService.getUnpushedDlrs("sys-stream2").size());
+    }
+
     @Test
     void unpushedDlrs_SurviveRestart() throws Exception {
         StandardMessage dlr = createDlr("account-restart", "sys-restart");
@@ -239,6 +408,108 @@ class InMemoryDlrServiceTest {
         assertTrue(dlrs.stream().anyMatch(msg -> dlr.serial.equals(msg.serial)));
     }
 
+    @Test
+    void legacyJsonRows_AreReadAndRewrittenAsBinary() throws Exception {
+        dlrService.onStop();
+        ObjectMapper mapper = new ObjectMapper();
+        MessageState legacyState = new MessageState("gw-legacy", "account", "sys", "from", "to", null);
+        UnpushedDlr legacyDlr = UnpushedDlr.fromMessage(createDlr("account", "sys-legacy"));
+        String dlrKey = String.join("|", legacyDlr.systemId, legacyDlr.serial, String.valueOf(legacyDlr.state), legacyDlr.errcode,
+                String.valueOf(legacyDlr.msgId));
+        try (MVStore legacy = MVStore.open(dbPath.toString())) {
+            MVMap<String, String> primary = legacy.openMap("primaryStore");
+            primary.put("gw-legacy", mapper.writeValueAsString(legacyState));
+            MVMap<String, String> unpushed = legacy.openMap("unpushedDlrStore");
+            unpushed.put(dlrKey, mapper.writeValueAsString(legacyDlr));
+            MVMap<String, Long> unpushedTimestamps = legacy.openMap("unpushedDlrTimestamps");
+            unpushedTimestamps.put(dlrKey, System.currentTimeMillis());
+            MVMap<String, String> index = legacy.openMap("unpushedDlrIndex");
+            index.put("sys-legacy", mapper.writeValueAsString(List.of(dlrKey)));
+        }
+
+        dlrService = new InMemoryDlrService();
+        dlrService.init();
+        assertEquals(1, dlrService.getPrimaryStoreSize());
+        assertEquals("sys", dlrService.getState("gw-legacy").orElseThrow().getSystemId());
+        assertEquals(List.of(legacyDlr.serial), dlrService.getUnpushedDlrs("sys-legacy").stream().map(m -> m.serial).toList());
+
+        dlrService.linkOperatorId("gw-legacy", "op-legacy");
+        dlrService.onStop();
+        dlrService = new InMemoryDlrService();
+        dlrService.init();
+
+        Optional<MessageState> resolved = dlrService.resolveAndRemoveDlr("op-legacy", 1);
+        assertTrue(resolved.isPresent());
+        assertEquals(MessageState.MessageStatus.DELIVERED, resolved.get().getStatus());
+        assertEquals(1, dlrService.getUnpushedDlrQueueSize());
+        dlrService.onStop();
+        try (MVStore store = MVStore.open(dbPath.toString())) {
+            assertFalse(store.hasMap("unpushedDlrIndex"));
+        }
+    }
+
+    @Test
+    void legacyTimestampMaps_AreMergedIntoRecordsAndDropped() throws Exception {
+        dlrService.onStop();
+        ObjectMapper mapper = new ObjectMapper();
+        long eightDaysAgo = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(8);
+        long fourDaysAgo = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(4);
+        MessageState expired = new MessageState("gw-expired", "sys", "from", "to", null);
+        MessageState linked = new MessageState("gw-linked", "sys", "from", "to", null);
+        linked.setOperatorMsgId("op-linked");
+        try (MVStore legacy = MVStore.open(dbPath.toString())) {
+            MVMap<String, String> primary = legacy.openMap("primaryStore");
+            primary.put("gw-expired", mapper.writeValueAsString(expired));
+            primary.put("gw-linked", mapper.writeValueAsString(linked));
+            MVMap<String, Long> primaryTimestamps = legacy.openMap("primaryTimestamps");
+            primaryTimestamps.put("gw-expired", eightDaysAgo);
+            primaryTimestamps.put("gw-linked", fourDaysAgo);
+            MVMap<String, String> correlation = legacy.openMap("correlationIndex");
+            correlation.put("op-linked", "gw-linked");
+            correlation.put("op-orphan", "gw-unknown");
+            MVMap<String, Long> correlationTimestamps = legacy.openMap("correlationTimestamps");
+            correlationTimestamps.put("op-linked", fourDaysAgo);
+            correlationTimestamps.put("op-orphan", fourDaysAgo);
+        }
+
+        dlrService = new InMemoryDlrService();
+        dlrService.init();
+        dlrService.expireDue(System.currentTimeMillis());
+
+        // the primary row expires after 7 days, the correlation after 3
+        assertTrue(dlrService.getState("gw-expired").isEmpty());
+        assertTrue(dlrService.getState("gw-linked").isPresent());
+        assertEquals(0, dlrService.getCorrelationIndexSize());
+        dlrService.onStop();
+        try (MVStore store = MVStore.open(dbPath.toString())) {
+            assertFalse(store.hasMap("primaryStore"));
+            assertFalse(store.hasMap("primaryTimestamps"));
+            assertFalse(store.hasMap("correlationTimestamps"));
+        }
+    }
+
+    @Test
+    void linkedRecordAndCorrelation_SurviveRestartTogether() {
+        dlrService.saveInitialState(new MessageState("gw-1", "systemId", "from", "to", null));
+        dlrService.linkOperatorId("gw-1", "op-1");
+        dlrService.onStop();
+
+        dlrService = new InMemoryDlrService();
+        dlrService.init();
+
+        assertEquals(1, dlrService.getCorrelationIndexSize());
+        assertEquals("op-1", dlrService.getState("gw-1").orElseThrow().getOperatorMsgId());
+    }
+
+    @Test
+    void getState_ReturnsCopyOfStoredState() {
+        dlrService.saveInitialState(new MessageState("gw-1", "systemId", "from", "to", null));
+
+        dlrService.getState("gw-1").orElseThrow().setStatus(MessageState.MessageStatus.FAILED);
+
+        assertEquals(MessageState.MessageStatus.ACCEPTED, dlrService.getState("gw-1").orElseThrow().getStatus());
+    }
+
     @Test
     void getPrimaryStoreSize_ReturnsCount() {
         dlrService.saveInitialState(new MessageState("gw-1", "systemId", "from", "to", null));
@@ -258,11 +529,556 @@ class InMemoryDlrServiceTest {
         assertEquals(2, dlrService.getCorrelationIndexSize());
     }
 
+    @Test
+    void expireDue_RemovesCorrelationsAndRecordsWhenTheyAreDue() {
+        SimpleMeterRegistry meters = restartWith(null);
+        long now = System.currentTimeMillis();
+        dlrService.saveInitialState(new MessageState("gw-1", "systemId", "from", "to", null));
+        dlrService.saveInitialState(new MessageState("gw-2", "systemId", "from", "to", null));
+        dlrService.linkOperatorId("gw-1", "op-1");
+        dlrService.flushHotTier(Long.MAX_VALUE);
+
+        assertEquals(0, dlrService.expireDue(now));
+        assertEquals(3, dlrService.getExpiryIndexSize());
+
+        dlrService.expireDue(now + TimeUnit.DAYS.toMillis(4));
+        assertEquals(0, dlrService.getCorrelationIndexSize());
+        assertEquals(2, dlrService.getPrimaryStoreSize());
+
+        dlrService.expireDue(now + TimeUnit.DAYS.toMillis(8));
+        assertEquals(0, dlrService.getPrimaryStoreSize());
+        assertEquals(0, dlrService.getExpiryIndexSize());
+        assertEquals(2, meters.counter("sendium.dlr.expired", "type", "record").count());
+        assertEquals(1, meters.counter("sendium.dlr.expired", "type", "correlation").count());
+    }
+
+    @Test
+    void expireDue_UsesRetentionOfTheAccount() {
+        SendiumConfigurationHandler config = defaultConfiguration();
+        when(config.getLongPrpt(eq("dlr.retention.recordMillis.short"), anyLong())).thenReturn(1000L);
+        restartWith(config);
+        long now = System.currentTimeMillis();
+        dlrService.saveInitialState(new MessageState("gw-short", "short", "sys", "from", "to", null));
+        dlrService.saveInitialState(new MessageState("gw-default", "other", "sys", "from", "to", null));
+
+        dlrService.expireDue(now + 5000);
+
+        assertTrue(dlrService.getState("gw-short").isEmpty());
+        assertTrue(dlrService.getState("gw-default").isPresent());
+    }
+
+    @Test
+    void expireDue_ProcessesAtMostOneBatchPerRun() {
+        SendiumConfigurationHandler config = defaultConfiguration();
+        when(config.getLongPrpt(InMemoryDlrService._expiryBatchSize)).thenReturn(2L);
+        restartWith(config);
+        for (int i = 0; i < 5; i++) {
+            dlrService.saveInitialState(new MessageState("gw-" + i, "systemId", "from", "to", null));
+        }
+        long later = System.currentTimeMillis() + TimeUnit.DAYS.toMillis(8);
+
+        assertEquals(2, dlrService.expireDue(later));
+        assertEquals(3, dlrService.getPrimaryStoreSize());
+        assertEquals(2, dlrService.expireDue(later));
+        assertEquals(1, dlrService.expireDue(later));
+        assertEquals(0, dlrService.getPrimaryStoreSize());
+    }
+
+    @Test
+    void expireDue_RemovesUnpushedDlrs() {
+        SimpleMeterRegistry meters = restartWith(null);
+        dlrService.saveUnpushedDlr(createDlr("account1", "sys1"));
+
+        dlrService.expireDue(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(8));
+
+        assertEquals(0, dlrService.getUnpushedDlrStoreSize());
+        assertEquals(0, dlrService.getUnpushedDlrQueueSize());
+        assertTrue(dlrService.getUnpushedDlrs("sys1").isEmpty());
+        assertEquals(1, meters.counter("sendium.dlr.expired", "type", "unpushed").count());
+    }
+
+    @Test
+    void resolvedAndRemovedEntries_LeaveNothingToExpire() {
+        StandardMessage dlr = createDlr("account1", "sys1");
+        dlrService.saveUnpushedDlr(dlr);
+        dlrService.saveInitialState(new MessageState("gw-1", "systemId", "from", "to", null));
+        dlrService.linkOperatorId("gw-1", "op-1");
+
+        dlrService.resolveAndRemoveDlr("op-1", 1);
+        dlrService.removeUnpushedDlr(dlr);
+
+        assertEquals(0, dlrService.getExpiryIndexSize());
+    }
+
+    @Test
+    void missingExpiryIndex_IsRebuiltOnStart() throws Exception {
+        dlrService.saveInitialState(new MessageState("gw-1", "systemId", "from", "to", null));
+        dlrService.linkOperatorId("gw-1", "op-1");
+        dlrService.onStop();
+        try (MVStore store = MVStore.open(dbPath.toString())) {
+            store.removeMap(store.openMap("dlrExpiryIndex"));
+        }
+
+        dlrService = new InMemoryDlrService();
+        dlrService.init();
+
+        assertEquals(2, dlrService.getExpiryIndexSize());
+        dlrService.expireDue(System.currentTimeMillis() + TimeUnit.DAYS.toMillis(8));
+        assertEquals(0, dlrService.getPrimaryStoreSize());
+        assertEquals(0, dlrService.getCorrelationIndexSize());
+    }
+
+    @Test
+    void saveUnpushedDlr_WaitingReturnsOnceCommitted() {
+        SimpleMeterRegistry meters = restartWith(null);
+
+        assertTrue(dlrService.saveUnpushedDlr(createDlr("account1", "sys1"), true));
+
+        assertFalse(dlrService.hasUncommittedChanges());
+        assertEquals(1, meters.timer("sendium.dlr.commit").count());
+    }
+
+    @Test
+    void saveUnpushedDlr_WaitingFailsWhenTheCommitFails() {
+        restartWith(null);
+        DlrStoreShard shard = dlrService.shards[0];
+        MVStore store = shard.store;
+        shard.store = spy(store);
+        doThrow(new IllegalStateException("disk full")).when(shard.store).commit();
+
+        IllegalStateException failure = assertThrows(IllegalStateException.class,
+                () -> dlrService.saveUnpushedDlr(createDlr("account1", "sys1"), true));
+        assertEquals("disk full", failure.getCause().getMessage());
+        assertTrue(store.hasUnsavedChanges());
+
+        shard.store = store;
+        assertTrue(dlrService.saveUnpushedDlr(createDlr("account1", "sys1"), true));
+        assertFalse(dlrService.hasUncommittedChanges());
+    }
+
+    @Test
+    void saveUnpushedDlr_NotWaitingIsCommittedWithinMaxDelay() throws Exception {
+        SendiumConfigurationHandler config = defaultConfiguration();
+        when(config.getLongPrpt(InMemoryDlrService._commitMaxDelay)).thenReturn(50L);
+        restartWith(config);
+
+        assertTrue(dlrService.saveUnpushedDlr(createDlr("account1", "sys1"), false));
+
+        long deadline = System.currentTimeMillis() + 5000;
+        while (dlrService.hasUncommittedChanges() && System.currentTimeMillis() < deadline) {
+            TimeUnit.MILLISECONDS.sleep(10);
+        }
+        assertFalse(dlrService.hasUncommittedChanges());
+    }
+
+    @Test
+    void saveUnpushedDlr_ConcurrentWaitingWritersShareCommits() throws Exception {
+        SimpleMeterRegistry meters = restartWith(null);
+        int threads = 8;
+        int perThread = 100;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < perThread; i++) {
+                        assertTrue(dlrService.saveUnpushedDlr(createDlr("account1", "sys1"), true));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get(30, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(threads * perThread, dlrService.getUnpushedDlrStoreSize());
+        assertFalse(dlrService.hasUncommittedChanges());
+        assertTrue(meters.timer("sendium.dlr.commit").count() < threads * perThread);
+        assertTrue(meters.summary("sendium.dlr.commit.batch.size").max() > 1);
+    }
+
+    @Test
+    void shardedStore_RoutesEveryKeyToItsShard() throws Exception {
+        SendiumConfigurationHandler config = defaultConfiguration();
+        when(config.getLongPrpt(InMemoryDlrService._shards)).thenReturn(4L);
+        dlrService.onStop();
+        deleteStoreFiles(dbPath);
+        restartWith(config);
+        for (int i = 0; i < 40; i++) {
+            dlrService.saveInitialState(new MessageState("gw-" + i, "systemId", "from", "to", null));
+            dlrService.linkOperatorId("gw-" + i, "op-" + i);
+            dlrService.saveUnpushedDlr(createDlr("account1", "sys" + i % 4), false);
+        }
+        dlrService.onStop();
+        for (int i = 0; i < 4; i++) {
+            assertTrue(Files.isRegularFile(DlrStoreShard.shardFile(dbPath.toFile(), i, 4).toPath()));
+        }
+        assertFalse(Files.exists(dbPath));
+
+        restartWith(config);
+
+        assertEquals(4, dlrService.getShardCount());
+        assertTrue(dlrService.isPersistent());
+        assertEquals(40, dlrService.getCorrelationIndexSize());
+        assertEquals(80, dlrService.getExpiryIndexSize() - dlrService.getUnpushedDlrStoreSize());
+        for (int i = 0; i < 4; i++) {
+            assertEquals(10, dlrService.claimUnpushedDlrs("sys" + i).size());
+        }
+        for (int i = 0; i < 40; i++) {
+            assertEquals("gw-" + i, dlrService.resolveAndRemoveDlr("op-" + i, 1).orElseThrow().getGatewayMsgId());
+        }
+        assertEquals(0, dlrService.getPrimaryStoreSize());
+        assertEquals(0, dlrService.getCorrelationIndexSize());
+    }
+
+    @Test
+    void shardedStore_ExpiresCorrelationsOfRecordsInOtherShards() throws Exception {
+        SendiumConfigurationHandler config = defaultConfiguration();
+        when(config.getLongPrpt(InMemoryDlrService._shards)).thenReturn(4L);
+        dlrService.onStop();
+        deleteStoreFiles(dbPath);
+        restartWith(config);
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 20; i++) {
+            dlrService.saveInitialState(new MessageState("gw-" + i, "systemId", "from", "to", null));
+            dlrService.linkOperatorId("gw-" + i, "op-" + i);
+        }
+
+        dlrService.expireDue(now + TimeUnit.DAYS.toMillis(4));
+        assertEquals(0, dlrService.getCorrelationIndexSize());
+        assertEquals(20, dlrService.getPrimaryStoreSize());
+
+        dlrService.expireDue(now + TimeUnit.DAYS.toMillis(8));
+        assertEquals(0, dlrService.getPrimaryStoreSize());
+        assertEquals(0, dlrService.getExpiryIndexSize());
+    }
+
+    @Test
+    void storeOfAnotherShardCount_FailsStartup() {
+        dlrService.saveInitialState(new MessageState("gw-1", "systemId", "from", "to", null));
+        SendiumConfigurationHandler config = defaultConfiguration();
+        when(config.getLongPrpt(InMemoryDlrService._shards)).thenReturn(4L);
+
+        IllegalStateException e = assertThrows(IllegalStateException.class, () -> restartWith(config));
+
+        assertTrue(e.getMessage().contains(InMemoryDlrService._shards[0]));
+        assertFalse(Files.exists(DlrStoreShard.shardFile(dbPath.toFile(), 0, 4).toPath()));
+        restartWith(null);
+        assertTrue(dlrService.getState("gw-1").isPresent());
+    }
+
+    @Test
+    void hotTier_ResolvesRecentDlrsWithoutWritingThemToTheStore() {
+        SimpleMeterRegistry meters = restartWith(hotTierConfiguration());
+        dlrService.saveInitialState(new MessageState("gw-1", "systemId", "from", "to", null));
+        dlrService.linkOperatorId("gw-1", "op-1");
+        assertEquals(2, dlrService.getHotTierSize());
+
+        assertTrue(dlrService.resolveAndRemoveDlr("op-1", 1).isPresent());
+
+        assertEquals(0, dlrService.getHotTierSize());
+        assertEquals(0, dlrService.getExpiryIndexSize());
+        assertEquals(1, meters.counter("sendium.dlr.lookups", "result", "hot").count());
+        assertEquals(0, meters.counter("sendium.dlr.lookups", "result", "store").count());
+    }
+
+    @Test
+    void hotTier_IsWrittenToTheStoreAfterTheWriteBehindDelay() {
+        SimpleMeterRegistry meters = restartWith(hotTierConfiguration());
+        long now = System.currentTimeMillis();
+        dlrService.saveInitialState(new MessageState("gw-1", "systemId", "from", "to", null));
+        dlrService.linkOperatorId("gw-1", "op-1");
+
+        dlrService.flushHotTier(now - 1);
+        assertEquals(2, dlrService.getHotTierSize());
+        dlrService.expireDue(now + TimeUnit.SECONDS.toMillis(5));
+
+        assertEquals(0, dlrService.getHotTierSize());
+        assertEquals(1, dlrService.getPrimaryStoreSize());
+        assertEquals(1, dlrService.getCorrelationIndexSize());
+        assertEquals(2, dlrService.getExpiryIndexSize());
+        assertTrue(dlrService.resolveAndRemoveDlr("op-1", 1).isPresent());
+        assertEquals(1, meters.counter("sendium.dlr.lookups", "result", "store").count());
+        assertEquals(0, dlrService.getExpiryIndexSize());
+    }
+
+    @Test
+    void hotTier_IsWrittenToTheStoreOnStop() {
+        restartWith(hotTierConfiguration());
+        dlrService.saveInitialState(new MessageState("gw-1", "systemId", "from", "to", null));
+        dlrService.linkOperatorId("gw-1", "op-1");
+
+        restartWith(null);
+
+        assertEquals(0, dlrService.getHotTierSize());
+        assertEquals("op-1", dlrService.getState("gw-1").orElseThrow().getOperatorMsgId());
+        assertTrue(dlrService.resolveAndRemoveDlr("op-1", 1).isPresent());
+    }
+
+    @Test
+    void hotTier_DisabledWritesEntriesToTheStoreRightAway() {
+        SendiumConfigurationHandler config = defaultConfiguration();
+        when(config.getLongPrpt(InMemoryDlrService._hotTierMaxEntries)).thenReturn(0L);
+        restartWith(config);
+
+        dlrService.saveInitialState(new MessageState("gw-1", "systemId", "from", "to", null));
+        dlrService.linkOperatorId("gw-1", "op-1");
+
+        assertEquals(0, dlrService.getHotTierSize());
+        assertEquals(2, dlrService.getExpiryIndexSize());
+    }
+
+    @Test
+    void saveInitialStates_WritesEachShardInOneBatchAndCompletesPendingLinks() throws Exception {
+        SendiumConfigurationHandler config = defaultConfiguration();
+        when(config.getLongPrpt(InMemoryDlrService._shards)).thenReturn(4L);
+        when(config.getLongPrpt(InMemoryDlrService._hotTierMaxEntries)).thenReturn(0L);
+        dlrService.onStop();
+        deleteStoreFiles(dbPath);
+        restartWith(config);
+        dlrService.linkOperatorId("gw-7", "op-7");
+        List<MessageState> states = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            states.add(new MessageState("gw-" + i, "systemId", "from", "to", "http://callback.test/dlr"));
+        }
+
+        dlrService.saveInitialStates(states);
+
+        assertEquals(20, dlrService.getPrimaryStoreSize());
+        assertEquals(21, dlrService.getExpiryIndexSize());
+        assertEquals(0, dlrService.getPendingLinksSize());
+        assertEquals("http://callback.test/dlr", dlrService.getState("gw-19").orElseThrow().getForwardDlrUrl());
+        assertEquals(MessageState.MessageStatus.SENT, dlrService.getState("gw-7").orElseThrow().getStatus());
+        assertEquals(1, dlrService.getCorrelationIndexSize());
+    }
+
+    @Test
+    void saveInitialStateAsync_SavesToTheHotTierRightAway() {
+        restartWith(hotTierConfiguration());
+        dlrService.linkOperatorId("gw-1", "op-1");
+
+        CompletableFuture<Void> saved = dlrService.saveInitialStateAsync(new MessageState("gw-1", "systemId", "from", "to", null));
+
+        assertTrue(saved.isDone());
+        assertEquals(2, dlrService.getHotTierSize());
+        assertEquals(0, dlrService.getPendingLinksSize());
+        assertEquals("op-1", dlrService.getState("gw-1").orElseThrow().getOperatorMsgId());
+    }
+
+    @Test
+    void saveInitialStateAsync_WritesToTheStoreInBatchesOffTheCaller() throws Exception {
+        SendiumConfigurationHandler config = defaultConfiguration();
+        when(config.getLongPrpt(InMemoryDlrService._hotTierMaxEntries)).thenReturn(0L);
+        restartWith(config);
+        List<CompletableFuture<Void>> saves = new ArrayList<>();
+
+        for (int i = 0; i < 100; i++) {
+            saves.add(dlrService.saveInitialStateAsync(new MessageState("gw-" + i, "systemId", "from", "to", null)));
+        }
+
+        CompletableFuture.allOf(saves.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        assertEquals(0, dlrService.getPendingSavesSize());
+        assertEquals(100, dlrService.getPrimaryStoreSize());
+        assertEquals(100, dlrService.getExpiryIndexSize());
+        assertTrue(dlrService.getState("gw-99").isPresent());
+    }
+
+    @Test
+    void saveInitialStateAsync_QueuedSavesAreWrittenOnStop() {
+        SendiumConfigurationHandler config = defaultConfiguration();
+        when(config.getLongPrpt(InMemoryDlrService._hotTierMaxEntries)).thenReturn(0L);
+        restartWith(config);
+        List<CompletableFuture<Void>> saves = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            saves.add(dlrService.saveInitialStateAsync(new MessageState("gw-" + i, "systemId", "from", "to", null)));
+        }
+
+        restartWith(null);
+
+        assertTrue(saves.stream().allMatch(CompletableFuture::isDone));
+        assertEquals(1000, dlrService.getPrimaryStoreSize());
+    }
+
+    @Test
+    void saveInitialStateAsync_RejectsSavesOnceTheQueueIsFull() throws Exception {
+        SendiumConfigurationHandler config = defaultConfiguration();
+        when(config.getLongPrpt(InMemoryDlrService._maxPendingSaves)).thenReturn(2L);
+        CountDownLatch storeAvailable = new CountDownLatch(1);
+        // the ingest thread is held up in its first batch while the saves are queued
+        when(config.getLongPrpt(InMemoryDlrService._recordRetention)).thenAnswer(invocation -> {
+            if (Thread.currentThread().getName().equals("dlr-store-ingest")) {
+                storeAvailable.await();
+            }
+            return Long.parseLong(InMemoryDlrService._recordRetention[1]);
+        });
+        restartWith(config);
+        List<CompletableFuture<Void>> saves = new ArrayList<>();
+
+        for (int i = 0; i < 10; i++) {
+            saves.add(dlrService.saveInitialStateAsync(new MessageState("gw-" + i, "systemId", "from", "to", null)));
+        }
+        assertTrue(dlrService.getPendingSavesSize() <= 2);
+        storeAvailable.countDown();
+
+        List<CompletableFuture<Void>> rejected = saves.stream().filter(CompletableFuture::isCompletedExceptionally).toList();
+        // up to two saves are in the batch the ingest thread holds, and two more are queued
+        assertTrue(rejected.size() >= 6);
+        ExecutionException e = assertThrows(ExecutionException.class, () -> rejected.getFirst().get());
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+        for (CompletableFuture<Void> save : saves) {
+            if (!save.isCompletedExceptionally()) {
+                save.get(10, TimeUnit.SECONDS);
+            }
+        }
+        assertEquals(10 - rejected.size(), dlrService.getPrimaryStoreSize());
+        assertEquals(0, dlrService.getPendingSavesSize());
+        dlrService.saveInitialStateAsync(new MessageState("gw-10", "systemId", "from", "to", null)).get(10, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void saveInitialStates_FillsTheHotTierFirst() {
+        SendiumConfigurationHandler config = defaultConfiguration();
+        when(config.getLongPrpt(InMemoryDlrService._hotTierMaxEntries)).thenReturn(2L);
+        restartWith(config);
+
+        dlrService.saveInitialStates(List.of(new MessageState("gw-1", "systemId", "from", "to", null),
+                new MessageState("gw-2", "systemId", "from", "to", null), new MessageState("gw-3", "systemId", "from", "to", null)));
+
+        assertEquals(2, dlrService.getHotTierSize());
+        assertEquals(1, dlrService.getExpiryIndexSize());
+        assertTrue(dlrService.getState("gw-1").isPresent());
+        assertTrue(dlrService.getState("gw-3").isPresent());
+    }
+
+    @Test
+    void operatorIdFilter_AnswersUnknownIdsWithoutLookup() {
+        SimpleMeterRegistry meters = restartWith(null);
+        dlrService.saveInitialState(new MessageState("gw-1", "systemId", "from", "to", null));
+        dlrService.linkOperatorId("gw-1", "op-1");
+        dlrService.resolveAndRemoveDlr("op-1", 1);
+
+        assertTrue(dlrService.resolveAndRemoveDlr("op-1", 1).isEmpty());
+        assertTrue(dlrService.resolveAndRemoveDlr("op-unknown", 1).isEmpty());
+
+        assertEquals(2, meters.counter("sendium.dlr.lookups", "result", "filtered").count());
+    }
+
+    @Test
+    void operatorIdFilter_IsRebuiltFromTheStoreOnStart() {
+        dlrService.saveInitialState(new MessageState("gw-1", "systemId", "from", "to", null));
+        dlrService.linkOperatorId("gw-1", "op-1");
+
+        SimpleMeterRegistry meters = restartWith(null);
+
+        assertTrue(dlrService.resolveAndRemoveDlr("op-1", 1).isPresent());
+        assertEquals(0, meters.counter("sendium.dlr.lookups", "result", "filtered").count());
+    }
+
+    @Test
+    void compact_RewritesSparseChunksUntilTheTargetFillRate() {
+        SendiumConfigurationHandler config = defaultConfiguration();
+        when(config.getLongPrpt(InMemoryDlrService._hotTierMaxEntries)).thenReturn(0L);
+        when(config.getLongPrpt(InMemoryDlrService._compactionInterval)).thenReturn(0L);
+        when(config.getLongPrpt(InMemoryDlrService._compactionMaxWriteRate)).thenReturn(1L << 30);
+        when(config.getLongPrpt(InMemoryDlrService._compactionMaxDuration)).thenReturn(3000L);
+        SimpleMeterRegistry meters = restartWith(config);
+        DlrStoreShard shard = dlrService.shards[0];
+        for (int i = 0; i < 10_000; i++) {
+            dlrService.saveInitialState(new MessageState("gw-" + i, "systemId", "from", "to", null));
+            dlrService.linkOperatorId("gw-" + i, "op-" + i);
+            if (i % 100 == 0) {
+                shard.commit();
+            }
+        }
+        for (int i = 0; i < 10_000; i++) {
+            if (i % 20 != 0) {
+                dlrService.resolveAndRemoveDlr("op-" + i, 1);
+            }
+        }
+        shard.commit();
+        // chunks are only rewritten and reused once they are older than the retention time and the versions kept,
+        // which a store under load passes within seconds
+        shard.store.setRetentionTime(0);
+        shard.store.setVersionsToKeep(0);
+        int chunks = dlrService.getStoreChunkCount();
+        assertTrue(dlrService.getStoreFillRate() < 10);
+
+        assertTrue(dlrService.compact(LocalTime.now()) > 0);
+
+        assertTrue(dlrService.getStoreFillRate() >= 50);
+        assertTrue(dlrService.getStoreChunkCount() < chunks);
+        assertEquals(500, dlrService.getPrimaryStoreSize());
+        assertTrue(dlrService.resolveAndRemoveDlr("op-20", 1).isPresent());
+        assertEquals(1, meters.timer("sendium.dlr.compaction").count());
+    }
+
+    @Test
+    void compact_OnlyRunsWithinItsWindow() {
+        SendiumConfigurationHandler config = defaultConfiguration();
+        when(config.getPrpt(InMemoryDlrService._compactionWindow)).thenReturn("01:00-05:00");
+        restartWith(config);
+
+        assertEquals(0, dlrService.compact(LocalTime.of(12, 0)));
+        assertTrue(InMemoryDlrService.inWindow("01:00-05:00", LocalTime.of(1, 0)));
+        assertFalse(InMemoryDlrService.inWindow("01:00-05:00", LocalTime.of(5, 0)));
+        assertTrue(InMemoryDlrService.inWindow("22:00-02:00", LocalTime.of(23, 30)));
+        assertTrue(InMemoryDlrService.inWindow("22:00-02:00", LocalTime.of(1, 30)));
+        assertFalse(InMemoryDlrService.inWindow("22:00-02:00", LocalTime.of(12, 0)));
+        assertTrue(InMemoryDlrService.inWindow("", LocalTime.of(12, 0)));
+        assertFalse(InMemoryDlrService.inWindow("1am-5am", LocalTime.of(3, 0)));
+    }
+
     @Test
     void isPersistent_TrueWhenDbAvailable() {
         assertTrue(dlrService.isPersistent());
     }
 
+    private SimpleMeterRegistry restartWith(SendiumConfigurationHandler config) {
+        dlrService.onStop();
+        SimpleMeterRegistry meters = new SimpleMeterRegistry();
+        dlrService = new InMemoryDlrService();
+        dlrService.configurationHandler = config;
+        dlrService.meterRegistry = meters;
+        dlrService.init();
+        return meters;
+    }
+
+    /**
+     * A configuration with the defaults of the service, and without background expiry runs during the test.
+     */
+    private SendiumConfigurationHandler defaultConfiguration() {
+        SendiumConfigurationHandler config = mock(SendiumConfigurationHandler.class);
+        when(config.getLongPrpt(any(String[].class))).thenAnswer(invocation -> Long.parseLong(invocation.<String[]>getArgument(0)[1]));
+        when(config.getLongPrpt(anyString(), anyLong())).thenAnswer(invocation -> invocation.getArgument(1));
+        when(config.getLongPrpt(InMemoryDlrService._expiryInterval)).thenReturn(TimeUnit.HOURS.toMillis(1));
+        return config;
+    }
+
+    /**
+     * The default configuration with the hot tier enabled.
+     */
+    private SendiumConfigurationHandler hotTierConfiguration() {
+        SendiumConfigurationHandler config = defaultConfiguration();
+        when(config.getLongPrpt(InMemoryDlrService._hotTierMaxEntries)).thenReturn(100_000L);
+        return config;
+    }
+
+    /**
+     * Delete the store file and the files of any shards or resharding next to it.
+     */
+    static void deleteStoreFiles(Path dbFile) throws Exception {
+        String name = dbFile.getFileName().toString();
+        String base = name.substring(0, name.lastIndexOf('.'));
+        try (var files = Files.list(dbFile.toAbsolutePath().getParent())) {
+            for (Path file : files.filter(file -> file.getFileName().toString().startsWith(base + "-") ||
+                    file.getFileName().toString().startsWith(name)).toList()) {
+                Files.deleteIfExists(file);
+            }
+        }
+    }
+
     private StandardMessage createDlr(String accountId, String systemId) {
         StandardMessage dlr = new StandardMessage();
         dlr.type = StandardMessage.MSG_DLR;
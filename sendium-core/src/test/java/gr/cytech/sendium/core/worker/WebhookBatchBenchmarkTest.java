@@ -0,0 +1,106 @@
+package gr.cytech.sendium.core.worker;
+
+import com.sun.net.httpserver.HttpServer;
+import gr.cytech.sendium.conf.SendiumConfigurationHandler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * DLR webhook throughput against a local HTTP sink: the same number of DLRs is forwarded through the outbox first one
+ * request each, and then batched as JSON arrays, and the time until the outbox is empty is compared. The enqueuers block
+ * for room in the endpoint queue, so that the outbox rather than its dispatcher sets the pace.
+ * Run with {@code mvn test -Dsendium.benchmarks=true -Dtest=WebhookBatchBenchmarkTest}.
+ */
+@Tag("benchmark")
+@EnabledIfSystemProperty(named = "sendium.benchmarks", matches = "true")
+class WebhookBatchBenchmarkTest {
+    private static final Logger logger = LoggerFactory.getLogger(WebhookBatchBenchmarkTest.class);
+    private static final int DLRS = 50_000;
+    private static final long TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void compareSingleAndBatched() throws Exception {
+        AtomicLong requests = new AtomicLong();
+        HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            requests.incrementAndGet();
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+        });
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        String oldDbPath = System.getProperty("sendium.webhook.outbox.path");
+        try {
+            String url = "http://127.0.0.1:" + server.getAddress().getPort();
+            for (String batch : new String[]{null, WebhookDelivery.JSON_BATCH}) {
+                requests.set(0);
+                System.setProperty("sendium.webhook.outbox.path", dir.resolve("outbox-" + batch + ".db").toString());
+                assertThat(run(url, batch, requests)).isPositive();
+            }
+        } finally {
+            server.stop(0);
+            if (oldDbPath == null) {
+                System.clearProperty("sendium.webhook.outbox.path");
+            } else {
+                System.setProperty("sendium.webhook.outbox.path", oldDbPath);
+            }
+        }
+    }
+
+    /**
+     * @return the DLRs delivered per second
+     */
+    private long run(String url, String batch, AtomicLong requests) throws Exception {
+        SendiumConfigurationHandler config = mock(SendiumConfigurationHandler.class);
+        when(config.getLongPrpt(any(String[].class))).thenAnswer(invocation -> Long.parseLong(invocation.<String[]>getArgument(0)[1]));
+        when(config.getPrpt(WebhookOutbox._queueFullPolicy)).thenReturn("block");
+        WebhookOutbox outbox = new WebhookOutbox();
+        outbox.configurationHandler = config;
+        outbox.meterRegistry = new SimpleMeterRegistry();
+        outbox.init();
+        assertThat(outbox.isPersistent()).isTrue();
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < DLRS; i++) {
+                String id = "gw-" + i;
+                if (batch == null) {
+                    outbox.enqueue(WebhookDelivery.get("DLR", id, url + "/dlr?id=" + id + "&type=1"));
+                } else {
+                    outbox.enqueue(WebhookDelivery.batchItem("DLR", id, url + "/dlrs", batch, "{\"id\":\"" + id + "\",\"type\":1}"));
+                }
+            }
+            long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+            while (outbox.getBacklogSize() > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(5);
+            }
+            assertThat(outbox.getBacklogSize()).isZero();
+            long elapsedMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            long perSecond = DLRS * 1000L / elapsedMillis;
+            logger.info("mode:{} dlrs:{} requests:{} elapsed:{}ms ({}/s)", batch == null ? "single" : batch, DLRS, requests.get(),
+                    elapsedMillis, perSecond);
+            return perSecond;
+        } finally {
+            outbox.onStop();
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package gr.cytech.sendium.core.worker;
+
+import org.h2.mvstore.WriteBuffer;
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class WebhookDeliveryDataTypeTest {
+
+    @Test
+    void deliveryRoundTrip() {
+        var delivery = new WebhookDelivery("DLR", "gw-1", "http://dlr.test/batch", "POST", "application/x-ndjson", "{\"id\":\"gw-1\"}",
+                1_700_000_000_123L, 3, WebhookDelivery.NDJSON_BATCH);
+
+        assertThat(roundTrip(delivery)).isEqualTo(delivery);
+    }
+
+    @Test
+    void deliveryWithNullsRoundTrip() {
+        var delivery = new WebhookDelivery("MO", "from: 306***12", "http://mo.test/?to=ελληνικά", "GET", null, null, 0, 0, null);
+
+        assertThat(roundTrip(delivery)).isEqualTo(delivery);
+    }
+
+    @Test
+    void rowsAreVersionedApartFromTheDlrStore() {
+        var buff = new WriteBuffer();
+        WebhookDeliveryDataType.INSTANCE.write(buff, WebhookDelivery.get("DLR", "gw-1", "http://dlr.test"));
+        ByteBuffer written = buff.getBuffer().flip();
+
+        assertThat(written.get(0)).isEqualTo(WebhookDeliveryDataType.VERSION_1);
+        written.put(0, (byte) (WebhookDeliveryDataType.VERSION_1 + 1));
+        assertThatThrownBy(() -> WebhookDeliveryDataType.INSTANCE.read(written)).isInstanceOf(IllegalStateException.class);
+    }
+
+    private static WebhookDelivery roundTrip(WebhookDelivery delivery) {
+        var buff = new WriteBuffer();
+        WebhookDeliveryDataType.INSTANCE.write(buff, delivery);
+        ByteBuffer read = buff.getBuffer().flip();
+        WebhookDelivery result = WebhookDeliveryDataType.INSTANCE.read(read);
+        assertThat(read.remaining()).isZero();
+        return result;
+    }
+}
@@ -0,0 +1,210 @@
+package gr.cytech.sendium.core.worker;
+
+import gr.cytech.sendium.conf.SendiumConfigurationHandler;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.io.TempDir;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import utils.WebhookSink;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.ThreadMXBean;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Load test of the callback path: DLRs and MOs are forwarded through {@link ForwardDlrService} and
+ * {@link ForwardMoService} at a target rate to a {@link WebhookSink}, first a healthy one and then one that answers
+ * with errors, timeouts and connection resets, until every callback was delivered. Each run reports the delivered
+ * throughput, the retries, the percentiles of the time from forwarding a callback to its successful delivery, and the
+ * peak heap and threads.
+ * Run with {@code mvn test -Dsendium.benchmarks=true -Dtest=WebhookLoadBenchmarkTest}, and set the rate and the
+ * duration with {@code -Dsendium.webhook.load.rate=300 -Dsendium.webhook.load.seconds=15}. The sink runs on the same
+ * machine, so keep the rate below what it can serve with the outbox, or the run measures the machine instead.
+ */
+@Tag("benchmark")
+@EnabledIfSystemProperty(named = "sendium.benchmarks", matches = "true")
+class WebhookLoadBenchmarkTest {
+    private static final Logger logger = LoggerFactory.getLogger(WebhookLoadBenchmarkTest.class);
+    private static final long RATE = Long.getLong("sendium.webhook.load.rate", 300);
+    private static final long SECONDS = Long.getLong("sendium.webhook.load.seconds", 15);
+    /**
+     * every this many callbacks one is an MO, the rest are DLRs
+     */
+    private static final int MO_EVERY = 5;
+    private static final long DRAIN_MILLIS = TimeUnit.MINUTES.toMillis(2);
+    private static final String MO_FROM_PREFIX = "3069";
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void healthyEndpoint() throws Exception {
+        try (WebhookSink sink = new WebhookSink()) {
+            sink.latency = WebhookSink.Latency.exponential(20);
+            run("healthy", sink);
+        }
+    }
+
+    @Test
+    void faultyEndpoint() throws Exception {
+        try (WebhookSink sink = new WebhookSink()) {
+            sink.latency = WebhookSink.Latency.exponential(50);
+            sink.errorRate = 0.05;
+            sink.timeoutRate = 0.01;
+            sink.resetRate = 0.01;
+            run("faulty", sink);
+        }
+    }
+
+    private void run(String name, WebhookSink sink) throws Exception {
+        int total = (int) (RATE * SECONDS);
+        long[] forwardedAt = new long[total];
+        Map<Integer, Long> deliveredAt = new ConcurrentHashMap<>();
+        sink.listener = request -> {
+            int seq = seqOf(request.uri().getRawQuery());
+            if (seq >= 0) {
+                deliveredAt.putIfAbsent(seq, request.answeredAt());
+            }
+        };
+
+        String oldDbPath = System.getProperty("sendium.webhook.outbox.path");
+        System.setProperty("sendium.webhook.outbox.path", dir.resolve("outbox-" + name + ".db").toString());
+        SimpleMeterRegistry meters = new SimpleMeterRegistry();
+        WebhookOutbox outbox = startOutbox(meters);
+        ForwardDlrService dlrService = new ForwardDlrService();
+        dlrService.webhookOutbox = outbox;
+        ForwardMoService moService = new ForwardMoService();
+        moService.webhookOutbox = outbox;
+        String dlrUrl = sink.url("/dlr?id=%s&type=%d");
+        String moUrl = sink.url("/mo?from=%p&to=%P");
+
+        MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        threads.resetPeakThreadCount();
+        AtomicLong peakHeap = new AtomicLong();
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor();
+        sampler.scheduleAtFixedRate(() -> peakHeap.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max), 0, 100,
+                TimeUnit.MILLISECONDS);
+        try {
+            long start = System.nanoTime();
+            for (int seq = 0; seq < total; seq++) {
+                long due = start + seq * TimeUnit.SECONDS.toNanos(1) / RATE;
+                long wait = due - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+                forwardedAt[seq] = System.nanoTime();
+                if (seq % MO_EVERY == 0) {
+                    moService.forwardMo(moUrl, new ForwardMoService.MoContext(MO_FROM_PREFIX + seq, "54321", "load " + seq, null, null, null,
+                            (byte) 0));
+                } else {
+                    MessageState state = new MessageState("gw-" + seq, "acc", "sys", "from", "to", dlrUrl);
+                    state.setStatus(MessageState.MessageStatus.DELIVERED);
+                    dlrService.forwardDlr(state);
+                }
+            }
+            long forwardNanos = System.nanoTime() - start;
+            long deadline = System.currentTimeMillis() + DRAIN_MILLIS;
+            while ((deliveredAt.size() < total || outbox.getBacklogSize() > 0) && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            long elapsedNanos = System.nanoTime() - start;
+
+            long[] latencies = new long[deliveredAt.size()];
+            int i = 0;
+            for (Map.Entry<Integer, Long> delivered : deliveredAt.entrySet()) {
+                latencies[i++] = delivered.getValue() - forwardedAt[delivered.getKey()];
+            }
+            Arrays.sort(latencies);
+            logger.info("{}: forwarded:{} in {}ms ({}/s) delivered:{} in {}ms ({}/s) retried:{} dropped:{} sink errors:{} timeouts:{} "
+                            + "resets:{}", name, total, TimeUnit.NANOSECONDS.toMillis(forwardNanos),
+                    total * TimeUnit.SECONDS.toNanos(1) / forwardNanos, latencies.length, TimeUnit.NANOSECONDS.toMillis(elapsedNanos),
+                    latencies.length * TimeUnit.SECONDS.toNanos(1) / elapsedNanos, count(meters, "retried"), count(meters, "dropped"),
+                    sink.errors.get(), sink.timeouts.get(), sink.resets.get());
+            logger.info("{}: latency p50:{}ms p95:{}ms p99:{}ms max:{}ms peak heap:{}MB peak threads:{}", name, percentile(latencies, 0.50),
+                    percentile(latencies, 0.95), percentile(latencies, 0.99), percentile(latencies, 1), peakHeap.get() / (1024 * 1024),
+                    threads.getPeakThreadCount());
+
+            assertThat(deliveredAt).hasSize(total);
+            assertThat(outbox.getBacklogSize()).isZero();
+        } finally {
+            sampler.shutdownNow();
+            outbox.onStop();
+            if (oldDbPath == null) {
+                System.clearProperty("sendium.webhook.outbox.path");
+            } else {
+                System.setProperty("sendium.webhook.outbox.path", oldDbPath);
+            }
+        }
+    }
+
+    /**
+     * An outbox that retries within a couple of seconds, and lets enough requests in flight for the sink latency at the
+     * target rate.
+     */
+    private static WebhookOutbox startOutbox(SimpleMeterRegistry meters) {
+        SendiumConfigurationHandler config = mock(SendiumConfigurationHandler.class);
+        when(config.getLongPrpt(any(String[].class))).thenAnswer(invocation -> Long.parseLong(invocation.<String[]>getArgument(0)[1]));
+        when(config.getLongPrpt(WebhookOutbox._retryInterval)).thenReturn(100L);
+        when(config.getLongPrpt(WebhookOutbox._maxRetryInterval)).thenReturn(2000L);
+        when(config.getLongPrpt(WebhookOutbox._dispatchInterval)).thenReturn(100L);
+        when(config.getLongPrpt(WebhookOutbox._batchSize)).thenReturn(1000L);
+        when(config.getLongPrpt(WebhookOutbox._endpointMaxInFlight)).thenReturn(256L);
+        when(config.getLongPrpt(WebhookOutbox._endpointQueueSize)).thenReturn(1000L);
+        when(config.getLongPrpt(WebhookOutbox._breakerOpen)).thenReturn(1000L);
+        when(config.getPrpt(WebhookOutbox._queueFullPolicy)).thenReturn("spill");
+        WebhookOutbox outbox = new WebhookOutbox();
+        outbox.configurationHandler = config;
+        outbox.meterRegistry = meters;
+        outbox.init();
+        return outbox;
+    }
+
+    /**
+     * @return the sequence number in the {@code id} of a DLR or the {@code from} of an MO callback, or -1
+     */
+    private static int seqOf(String query) {
+        for (String param : query.split("&")) {
+            if (param.startsWith("id=gw-")) {
+                return Integer.parseInt(param.substring("id=gw-".length()));
+            }
+            if (param.startsWith("from=" + MO_FROM_PREFIX)) {
+                return Integer.parseInt(param.substring(("from=" + MO_FROM_PREFIX).length()));
+            }
+        }
+        return -1;
+    }
+
+    private static long count(SimpleMeterRegistry meters, String result) {
+        double count = 0;
+        for (Counter counter : meters.find("sendium.webhook.outbox.deliveries").tag("result", result).counters()) {
+            count += counter.count();
+        }
+        return (long) count;
+    }
+
+    private static long percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0;
+        }
+        return TimeUnit.NANOSECONDS.toMillis(sorted[Math.min(sorted.length - 1, (int) (sorted.length * percentile))]);
+    }
+}
@@ -0,0 +1,515 @@
+package gr.cytech.sendium.core.worker;
+
+import com.sun.net.httpserver.HttpServer;
+import gr.cytech.sendium.conf.SendiumConfigurationHandler;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class WebhookOutboxTest {
+    private static final long RETRY_INTERVAL = TimeUnit.HOURS.toMillis(1);
+    /**
+     * the default of {@code webhook.outbox.endpointIdleMillis}
+     */
+    private static final long ENDPOINT_IDLE = TimeUnit.MINUTES.toMillis(10);
+
+    @TempDir
+    Path dir;
+
+    private final List<String> requests = new CopyOnWriteArrayList<>();
+    private volatile int status = 200;
+    private volatile String responseBody;
+    private volatile CountDownLatch responses = new CountDownLatch(0);
+    private long endpointMaxInFlight = 8;
+    private long endpointQueueSize = 100;
+    private String queueFullPolicy = "spill";
+    private long retryInterval = RETRY_INTERVAL;
+    private long maxRetryInterval = RETRY_INTERVAL;
+    private long dlrMaxAge = 0;
+    private long breakerFailureThreshold = 5;
+    private long breakerOpen = RETRY_INTERVAL;
+    private long batchMaxSize = 100;
+    private long batchLinger = 0;
+    private HttpServer server;
+    private String endpoint;
+    private String oldDbPath;
+    private WebhookOutbox outbox;
+    private SimpleMeterRegistry meters;
+
+    @BeforeEach
+    void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            requests.add(exchange.getRequestMethod() + " " + exchange.getRequestURI() + " " +
+                    exchange.getRequestHeaders().getFirst("Content-Type") + " " + body);
+            try {
+                responses.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] response = responseBody != null ? responseBody.getBytes(StandardCharsets.UTF_8) : new byte[0];
+            exchange.sendResponseHeaders(status, response.length > 0 ? response.length : -1);
+            exchange.getResponseBody().write(response);
+            exchange.close();
+        });
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+        endpoint = "127.0.0.1:" + server.getAddress().getPort();
+        oldDbPath = System.getProperty("sendium.webhook.outbox.path");
+        System.setProperty("sendium.webhook.outbox.path", dir.resolve("webhook-outbox.db").toString());
+        outbox = start();
+    }
+
+    @AfterEach
+    void tearDown() {
+        outbox.onStop();
+        server.stop(0);
+        if (oldDbPath == null) {
+            System.clearProperty("sendium.webhook.outbox.path");
+        } else {
+            System.setProperty("sendium.webhook.outbox.path", oldDbPath);
+        }
+    }
+
+    @Test
+    void delivery_IsSentRightAwayAndRemoved() throws Exception {
+        outbox.enqueue(WebhookDelivery.get("DLR", "gw-1", url("/dlr?id=gw-1&type=1")));
+
+        awaitRequests(1);
+
+        assertEquals("GET /dlr?id=gw-1&type=1 null ", requests.getFirst());
+        assertEquals(0, outbox.getBacklogSize());
+        assertEquals(1, deliveries("delivered"));
+        assertEquals(0, meters.get("sendium.webhook.outbox.backlog").tag("endpoint", endpoint).gauge().value());
+    }
+
+    @Test
+    void postDelivery_SendsItsBodyAndContentType() throws Exception {
+        outbox.enqueue(WebhookDelivery.post("MO", "from: 306***12", url("/mo"), "application/json", "{\"from\":\"3069\"}"));
+
+        awaitRequests(1);
+
+        assertEquals("POST /mo application/json {\"from\":\"3069\"}", requests.getFirst());
+        assertEquals(0, outbox.getBacklogSize());
+    }
+
+    @Test
+    void failedDelivery_IsRetriedWhenDueAndDroppedAfterTheLastAttempt() throws Exception {
+        status = 500;
+        outbox.enqueue(WebhookDelivery.get("DLR", "gw-1", url("/dlr")));
+        awaitRequests(1);
+
+        assertEquals(1, outbox.getBacklogSize(endpoint));
+        assertEquals(1, deliveries("retried"));
+        assertEquals(0, outbox.dispatch(System.currentTimeMillis()));
+
+        long now = System.currentTimeMillis();
+        assertEquals(1, outbox.dispatch(now + RETRY_INTERVAL));
+        awaitRequests(2);
+        assertEquals(1, outbox.dispatch(now + 2 * RETRY_INTERVAL));
+        awaitRequests(3);
+
+        assertEquals(0, outbox.getBacklogSize());
+        assertEquals(2, deliveries("retried"));
+        assertEquals(1, deliveries("dropped"));
+        assertEquals(0, outbox.dispatch(now + 10 * RETRY_INTERVAL));
+    }
+
+    @Test
+    void pendingDeliveries_SurviveARestart() throws Exception {
+        status = 503;
+        outbox.enqueue(WebhookDelivery.get("DLR", "gw-1", url("/dlr?id=gw-1")));
+        awaitRequests(1);
+        outbox.onStop();
+
+        outbox = start();
+        assertTrue(outbox.isPersistent());
+        assertEquals(1, outbox.getBacklogSize(endpoint));
+        assertTrue(meters.get("sendium.webhook.outbox.age").tag("endpoint", endpoint).gauge().value() >= 0);
+        status = 200;
+        assertEquals(1, outbox.dispatch(System.currentTimeMillis() + RETRY_INTERVAL));
+        awaitRequests(2);
+
+        assertEquals("GET /dlr?id=gw-1 null ", requests.get(1));
+        assertEquals(0, outbox.getBacklogSize());
+        assertEquals(1, deliveries("delivered"));
+    }
+
+    @Test
+    void requestsToOneEndpoint_AreLimitedToItsMaxInFlight() throws Exception {
+        endpointMaxInFlight = 2;
+        restart();
+        responses = new CountDownLatch(1);
+        for (int i = 0; i < 5; i++) {
+            outbox.enqueue(WebhookDelivery.get("DLR", "gw-" + i, url("/dlr?id=gw-" + i)));
+        }
+
+        awaitRequestsArrived(2);
+        Thread.sleep(200);
+        assertEquals(2, requests.size());
+        assertEquals(2, meters.get("sendium.webhook.outbox.inflight").tag("endpoint", endpoint).gauge().value());
+        assertEquals(5, outbox.getBacklogSize(endpoint));
+
+        responses.countDown();
+        awaitRequests(5);
+        assertEquals(0, outbox.getBacklogSize());
+        assertEquals(5, deliveries("delivered"));
+    }
+
+    @Test
+    void fullQueue_DropsNewDeliveriesWithTheDropPolicy() throws Exception {
+        endpointMaxInFlight = 1;
+        endpointQueueSize = 1;
+        queueFullPolicy = "drop";
+        restart();
+        responses = new CountDownLatch(1);
+        outbox.enqueue(WebhookDelivery.get("DLR", "gw-1", url("/dlr?id=gw-1")));
+        awaitRequestsArrived(1);
+        outbox.enqueue(WebhookDelivery.get("DLR", "gw-2", url("/dlr?id=gw-2")));
+
+        outbox.enqueue(WebhookDelivery.get("DLR", "gw-3", url("/dlr?id=gw-3")));
+
+        assertEquals(1, deliveries("dropped"));
+        assertEquals(2, outbox.getBacklogSize());
+        responses.countDown();
+        awaitRequests(2);
+        assertEquals(0, outbox.getBacklogSize());
+        assertEquals(2, deliveries("delivered"));
+    }
+
+    @Test
+    void fullQueue_SpillsNewDeliveriesToTheOutboxByDefault() throws Exception {
+        endpointMaxInFlight = 1;
+        endpointQueueSize = 1;
+        restart();
+        responses = new CountDownLatch(1);
+        outbox.enqueue(WebhookDelivery.get("DLR", "gw-1", url("/dlr?id=gw-1")));
+        awaitRequestsArrived(1);
+        outbox.enqueue(WebhookDelivery.get("DLR", "gw-2", url("/dlr?id=gw-2")));
+
+        outbox.enqueue(WebhookDelivery.get("DLR", "gw-3", url("/dlr?id=gw-3")));
+
+        assertEquals(0, deliveries("dropped"));
+        assertEquals(3, outbox.getBacklogSize());
+        long now = System.currentTimeMillis();
+        assertEquals(0, outbox.dispatch(now));
+        responses.countDown();
+        awaitRequests(2);
+        assertEquals(0, outbox.dispatch(now));
+        assertEquals(1, outbox.dispatch(now + RETRY_INTERVAL));
+        awaitRequests(3);
+        assertEquals("GET /dlr?id=gw-3 null ", requests.get(2));
+        assertEquals(0, outbox.getBacklogSize());
+    }
+
+    @Test
+    void backoff_DoublesWithEachAttemptUpToTheMaximum() {
+        retryInterval = 1000;
+        maxRetryInterval = 5000;
+        restart();
+
+        assertEquals(1000, outbox.backoff(1));
+        assertEquals(2000, outbox.backoff(2));
+        assertEquals(4000, outbox.backoff(3));
+        assertEquals(5000, outbox.backoff(4));
+        assertEquals(5000, outbox.backoff(100));
+        outbox.random = new Random() {
+            @Override
+            public long nextLong(long bound) {
+                return 0;
+            }
+        };
+        assertEquals(0, outbox.backoff(3));
+    }
+
+    @Test
+    void failedDelivery_ExpiresOnceItsNextAttemptIsPastTheMaxAgeOfItsKind() throws Exception {
+        dlrMaxAge = 1000;
+        restart();
+        status = 500;
+        outbox.enqueue(WebhookDelivery.get("DLR", "gw-1", url("/dlr")));
+        outbox.enqueue(WebhookDelivery.post("MO", "from: 306***12", url("/mo"), "application/json", "{}"));
+        awaitRequests(2);
+
+        assertEquals(1, deliveries("expired"));
+        assertEquals(1, deliveries("retried"));
+        assertEquals(1, outbox.getBacklogSize());
+    }
+
+    @Test
+    void circuitBreaker_OpensAfterFailuresInARowAndClosesAfterASuccessfulTrial() throws Exception {
+        breakerFailureThreshold = 2;
+        restart();
+        status = 500;
+        outbox.enqueue(WebhookDelivery.get("DLR", "gw-1", url("/dlr?id=gw-1")));
+        outbox.enqueue(WebhookDelivery.get("DLR", "gw-2", url("/dlr?id=gw-2")));
+        awaitRequests(2);
+
+        outbox.enqueue(WebhookDelivery.get("DLR", "gw-3", url("/dlr?id=gw-3")));
+        Thread.sleep(200);
+        assertEquals(2, requests.size());
+        assertEquals(3, outbox.getBacklogSize(endpoint));
+        assertEquals(1, breakerState());
+        assertEquals(1, transitions("open"));
+
+        status = 200;
+        long halfOpen = System.currentTimeMillis() + 2 * RETRY_INTERVAL;
+        assertEquals(1, outbox.dispatch(halfOpen));
+        assertEquals(2, breakerState());
+        awaitRequests(3);
+        assertEquals("GET /dlr?id=gw-3 null ", requests.get(2));
+        assertEquals(0, breakerState());
+        assertEquals(0, outbox.dispatch(halfOpen));
+        assertEquals(2, outbox.dispatch(halfOpen + RETRY_INTERVAL));
+        awaitRequests(5);
+
+        assertEquals(0, outbox.getBacklogSize());
+        assertEquals(1, transitions("half_open"));
+        assertEquals(1, transitions("closed"));
+    }
+
+    @Test
+    void openBreaker_DoesNotHoldUpTheDeliveriesOfOtherEndpoints() throws Exception {
+        breakerFailureThreshold = 1;
+        breakerOpen = 10 * RETRY_INTERVAL;
+        restart();
+        String deadUrl = "http://127.0.0.1:" + unusedPort() + "/dlr";
+        outbox.enqueue(WebhookDelivery.get("DLR", "dead-0", deadUrl));
+        outbox.awaitIdle(5000);
+        // more spilled deliveries of the dead endpoint than a dispatcher run skips, ahead of the one of the live endpoint
+        for (int i = 1; i <= 10_001; i++) {
+            outbox.enqueue(WebhookDelivery.get("DLR", "dead-" + i, deadUrl));
+        }
+        // a client error is retried, but does not open the breaker of the live endpoint
+        status = 404;
+        outbox.enqueue(WebhookDelivery.get("DLR", "gw-1", url("/dlr?id=gw-1")));
+        awaitRequests(1);
+        status = 200;
+        long now = System.currentTimeMillis();
+
+        assertEquals(0, outbox.dispatch(now + RETRY_INTERVAL));
+        assertEquals(1, outbox.dispatch(now + RETRY_INTERVAL));
+        awaitRequests(2);
+
+        assertEquals(1, deliveries("delivered"));
+        assertEquals(10_002, outbox.getBacklogSize());
+    }
+
+    @Test
+    void batchItems_ArePostedAsOneJsonArrayOnceTheBatchIsFull() throws Exception {
+        outbox.onStop();
+        batchMaxSize = 3;
+        batchLinger = RETRY_INTERVAL;
+        outbox = start();
+
+        for (int i = 1; i <= 3; i++) {
+            outbox.enqueue(WebhookDelivery.batchItem("DLR", "gw-" + i, url("/dlrs"), WebhookDelivery.JSON_BATCH, "{\"id\":\"gw-" + i + "\"}"));
+        }
+        awaitRequests(1);
+
+        assertEquals("POST /dlrs application/json [{\"id\":\"gw-1\"},{\"id\":\"gw-2\"},{\"id\":\"gw-3\"}]", requests.getFirst());
+        assertEquals(0, outbox.getBacklogSize());
+        assertEquals(3, deliveries("delivered"));
+    }
+
+    @Test
+    void batchItems_ArePostedAsNdjsonOnceTheFirstHasLingered() throws Exception {
+        outbox.onStop();
+        batchLinger = 200;
+        outbox = start();
+
+        outbox.enqueue(WebhookDelivery.batchItem("DLR", "gw-1", url("/dlrs"), WebhookDelivery.NDJSON_BATCH, "{\"id\":\"gw-1\"}"));
+        outbox.enqueue(WebhookDelivery.batchItem("DLR", "gw-2", url("/dlrs"), WebhookDelivery.NDJSON_BATCH, "{\"id\":\"gw-2\"}"));
+        assertEquals(0, requests.size());
+        awaitRequests(1);
+
+        assertEquals("POST /dlrs application/x-ndjson {\"id\":\"gw-1\"}\n{\"id\":\"gw-2\"}\n", requests.getFirst());
+        assertEquals(0, outbox.getBacklogSize());
+        assertEquals(2, deliveries("delivered"));
+    }
+
+    @Test
+    void batch_RetriesOnlyTheItemsTheReceiverReportsAsFailed() throws Exception {
+        outbox.onStop();
+        batchMaxSize = 3;
+        batchLinger = 50;
+        outbox = start();
+        responseBody = "{\"failed\":[1]}";
+
+        for (int i = 1; i <= 3; i++) {
+            outbox.enqueue(WebhookDelivery.batchItem("DLR", "gw-" + i, url("/dlrs"), WebhookDelivery.JSON_BATCH, "{\"id\":\"gw-" + i + "\"}"));
+        }
+        awaitRequests(1);
+
+        assertEquals(1, outbox.getBacklogSize(endpoint));
+        assertEquals(2, deliveries("delivered"));
+        assertEquals(1, deliveries("retried"));
+        assertEquals(0, transitions("open"));
+
+        responseBody = null;
+        assertEquals(1, outbox.dispatch(System.currentTimeMillis() + RETRY_INTERVAL));
+        awaitRequests(2);
+
+        assertEquals("POST /dlrs application/json [{\"id\":\"gw-2\"}]", requests.get(1));
+        assertEquals(0, outbox.getBacklogSize());
+        assertEquals(3, deliveries("delivered"));
+    }
+
+    @Test
+    void failedBatch_RetriesAllItsItems() throws Exception {
+        outbox.onStop();
+        batchMaxSize = 2;
+        batchLinger = RETRY_INTERVAL;
+        outbox = start();
+        status = 503;
+
+        outbox.enqueue(WebhookDelivery.batchItem("DLR", "gw-1", url("/dlrs"), WebhookDelivery.JSON_BATCH, "{\"id\":\"gw-1\"}"));
+        outbox.enqueue(WebhookDelivery.batchItem("DLR", "gw-2", url("/dlrs"), WebhookDelivery.JSON_BATCH, "{\"id\":\"gw-2\"}"));
+        awaitRequests(1);
+
+        assertEquals(2, outbox.getBacklogSize(endpoint));
+        assertEquals(2, deliveries("retried"));
+    }
+
+    @Test
+    void failedItems_AreTheValidIndexesOfTheFailedArray() {
+        assertEquals(Set.of(0, 2), WebhookOutbox.failedItems("{\"failed\":[0,2,7,-1,\"x\"]}", 3));
+        assertEquals(Set.of(), WebhookOutbox.failedItems("{\"accepted\":3}", 3));
+        assertEquals(Set.of(), WebhookOutbox.failedItems("OK", 3));
+        assertEquals(Set.of(), WebhookOutbox.failedItems(null, 3));
+    }
+
+    @Test
+    void idleEndpoint_IsForgottenAlongWithItsMeters() throws Exception {
+        outbox.enqueue(WebhookDelivery.get("DLR", "gw-1", url("/dlr")));
+        awaitRequests(1);
+        long now = System.currentTimeMillis();
+
+        outbox.dispatch(now);
+        assertEquals(1, deliveries("delivered"));
+
+        outbox.dispatch(now + ENDPOINT_IDLE);
+        assertTrue(meters.find("sendium.webhook.outbox.deliveries").tag("endpoint", endpoint).meters().isEmpty());
+        assertTrue(meters.find("sendium.webhook.outbox.backlog").tag("endpoint", endpoint).meters().isEmpty());
+        assertTrue(meters.find("sendium.webhook.outbox.breaker.transitions").tag("endpoint", endpoint).meters().isEmpty());
+
+        // a new delivery brings the endpoint back
+        outbox.enqueue(WebhookDelivery.get("DLR", "gw-2", url("/dlr")));
+        awaitRequests(2);
+        assertEquals(1, deliveries("delivered"));
+    }
+
+    @Test
+    void endpointWithPendingDeliveries_IsNotForgotten() throws Exception {
+        status = 500;
+        outbox.enqueue(WebhookDelivery.get("DLR", "gw-1", url("/dlr")));
+        awaitRequests(1);
+
+        assertEquals(0, outbox.dispatch(System.currentTimeMillis() + ENDPOINT_IDLE));
+
+        assertEquals(1, meters.get("sendium.webhook.outbox.backlog").tag("endpoint", endpoint).gauge().value());
+        assertEquals(1, deliveries("retried"));
+    }
+
+    @Test
+    void endpointOf_IsTheHostAndPort() {
+        assertEquals("example.com:8080", WebhookOutbox.endpointOf("http://example.com:8080/dlr?id=1"));
+        assertEquals("example.com", WebhookOutbox.endpointOf("https://example.com/mo"));
+        assertEquals("invalid", WebhookOutbox.endpointOf("not a url"));
+    }
+
+    private WebhookOutbox start() {
+        SendiumConfigurationHandler config = mock(SendiumConfigurationHandler.class);
+        when(config.getLongPrpt(any(String[].class))).thenAnswer(invocation -> Long.parseLong(invocation.<String[]>getArgument(0)[1]));
+        when(config.getLongPrpt(WebhookOutbox._maxAttempts)).thenReturn(3L);
+        when(config.getLongPrpt(WebhookOutbox._retryInterval)).thenReturn(retryInterval);
+        when(config.getLongPrpt(WebhookOutbox._maxRetryInterval)).thenReturn(maxRetryInterval);
+        when(config.getLongPrpt(WebhookOutbox._dlrMaxAge)).thenReturn(dlrMaxAge);
+        when(config.getLongPrpt(WebhookOutbox._moMaxAge)).thenReturn(0L);
+        when(config.getLongPrpt(WebhookOutbox._breakerFailureThreshold)).thenReturn(breakerFailureThreshold);
+        when(config.getLongPrpt(WebhookOutbox._breakerOpen)).thenReturn(breakerOpen);
+        when(config.getLongPrpt(WebhookOutbox._dispatchInterval)).thenReturn(RETRY_INTERVAL);
+        when(config.getLongPrpt(WebhookOutbox._endpointMaxInFlight)).thenReturn(endpointMaxInFlight);
+        when(config.getLongPrpt(WebhookOutbox._endpointQueueSize)).thenReturn(endpointQueueSize);
+        when(config.getPrpt(WebhookOutbox._queueFullPolicy)).thenReturn(queueFullPolicy);
+        when(config.getLongPrpt(WebhookOutbox._batchMaxSize)).thenReturn(batchMaxSize);
+        when(config.getLongPrpt(WebhookOutbox._batchLinger)).thenReturn(batchLinger);
+        meters = new SimpleMeterRegistry();
+        WebhookOutbox started = new WebhookOutbox();
+        started.configurationHandler = config;
+        started.meterRegistry = meters;
+        // the longest backoff, so that a retry is never due before the test moves the clock
+        started.random = new Random() {
+            @Override
+            public long nextLong(long bound) {
+                return bound - 1;
+            }
+        };
+        started.init();
+        return started;
+    }
+
+    private void restart() {
+        outbox.onStop();
+        outbox = start();
+    }
+
+    private static int unusedPort() throws IOException {
+        try (ServerSocket socket = new ServerSocket(0)) {
+            return socket.getLocalPort();
+        }
+    }
+
+    private String url(String path) {
+        return "http://" + endpoint + path;
+    }
+
+    private double deliveries(String result) {
+        return meters.get("sendium.webhook.outbox.deliveries").tag("endpoint", endpoint).tag("result", result).counter().count();
+    }
+
+    private double transitions(String state) {
+        return meters.get("sendium.webhook.outbox.breaker.transitions").tag("endpoint", endpoint).tag("state", state).counter().count();
+    }
+
+    private double breakerState() {
+        return meters.get("sendium.webhook.outbox.breaker.state").tag("endpoint", endpoint).gauge().value();
+    }
+
+    /**
+     * Wait until the server got {@code count} requests and their attempts finished.
+     */
+    private void awaitRequests(int count) throws InterruptedException {
+        awaitRequestsArrived(count);
+        assertTrue(outbox.awaitIdle(5000));
+    }
+
+    private void awaitRequestsArrived(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (requests.size() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(count, requests.size());
+    }
+}
@@ -1,5 +1,6 @@
 package gr.cytech.sendium.util;
 
+import gr.cytech.sendium.core.message.MessagePartInfo;
 import gr.cytech.sendium.core.message.StandardMessage;
 import org.junit.jupiter.api.Test;
 
@@ -32,6 +33,22 @@ class MessageUtilTest {
         assertThat(MessageUtil.getNumberOfCurrentPart(message)).isEqualTo(2);
     }
 
+    @Test
+    void udhHelpersUsePartInfoParsedOnIngress() {
+        StandardMessage message = messageWithUdh("0500037F0201");
+        message.owner_id = "account-a";
+        message.partInfo = new MessagePartInfo("7F", 3, 3);
+
+        assertThat(MessageUtil.is8BitMessagePart(message)).isTrue();
+        assertThat(MessageUtil.getMessageReference(message)).isEqualTo("account-a:7F");
+        assertThat(MessageUtil.getNumberOfTotalParts(message)).isEqualTo(3);
+        assertThat(MessageUtil.getNumberOfCurrentPart(message)).isEqualTo(3);
+
+        message.binheader = null;
+        assertThat(MessageUtil.is8BitMessagePart(message)).isFalse();
+        assertThat(MessageUtil.getNumberOfTotalParts(message)).isZero();
+    }
+
     @Test
     void udhHelpersReturnDefaultsWhenNoSupportedUdhExists() {
         StandardMessage message = new StandardMessage();
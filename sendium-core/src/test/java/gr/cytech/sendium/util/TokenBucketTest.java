@@ -0,0 +1,114 @@
+package gr.cytech.sendium.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TokenBucketTest {
+
+    @Test
+    void tryAcquire_AllowsBurstThenThrottles() {
+        TokenBucket bucket = new TokenBucket(1, 3);
+
+        assertThat(bucket.tryAcquire()).isTrue();
+        assertThat(bucket.tryAcquire()).isTrue();
+        assertThat(bucket.tryAcquire()).isTrue();
+        assertThat(bucket.tryAcquire()).isFalse();
+    }
+
+    @Test
+    void tryAcquire_DefaultBurstIsOneSecondOfPermits() {
+        TokenBucket bucket = new TokenBucket(5, 0);
+
+        int acquired = 0;
+        for (int i = 0; i < 10; i++) {
+            if (bucket.tryAcquire()) {
+                acquired++;
+            }
+        }
+
+        assertThat(bucket.getBurst()).isEqualTo(5);
+        assertThat(acquired).isEqualTo(5);
+    }
+
+    @Test
+    void tryAcquire_RefillsOverTime() throws Exception {
+        TokenBucket bucket = new TokenBucket(100, 1);
+        assertThat(bucket.tryAcquire()).isTrue();
+        assertThat(bucket.tryAcquire()).isFalse();
+
+        TimeUnit.MILLISECONDS.sleep(30);
+
+        assertThat(bucket.tryAcquire()).isTrue();
+    }
+
+    @Test
+    void release_ReturnsPermits() {
+        TokenBucket bucket = new TokenBucket(1, 2);
+        assertThat(bucket.tryAcquire(2)).isTrue();
+        assertThat(bucket.tryAcquire()).isFalse();
+
+        bucket.release(1);
+
+        assertThat(bucket.tryAcquire()).isTrue();
+    }
+
+    @Test
+    void zeroOrMaxRate_IsUnlimited() {
+        assertThat(TokenBucket.unlimited().isUnlimited()).isTrue();
+        assertThat(new TokenBucket(Double.MAX_VALUE, 0).isUnlimited()).isTrue();
+        TokenBucket bucket = new TokenBucket(0, 0);
+        for (int i = 0; i < 10_000; i++) {
+            assertThat(bucket.tryAcquire()).isTrue();
+        }
+    }
+
+    @Test
+    void configure_ChangesLimitsInPlace() {
+        TokenBucket bucket = TokenBucket.unlimited();
+
+        bucket.configure(1, 1);
+
+        assertThat(bucket.tryAcquire()).isTrue();
+        assertThat(bucket.tryAcquire()).isFalse();
+        assertThat(bucket.getRate()).isEqualTo(1);
+    }
+
+    @Test
+    void tryAcquire_NeverExceedsBurstUnderContention() throws Exception {
+        TokenBucket bucket = new TokenBucket(0.001, 100);
+        int threads = 8;
+        AtomicInteger acquired = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            for (int t = 0; t < threads; t++) {
+                executor.execute(() -> {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                    for (int i = 0; i < 1_000; i++) {
+                        if (bucket.tryAcquire()) {
+                            acquired.incrementAndGet();
+                        }
+                    }
+                });
+            }
+            start.countDown();
+        } finally {
+            executor.shutdown();
+            assertThat(executor.awaitTermination(10, TimeUnit.SECONDS)).isTrue();
+        }
+
+        assertThat(acquired.get()).isEqualTo(100);
+    }
+}
@@ -24,7 +24,10 @@ import com.cloudhopper.smpp.type.SmppInvalidArgumentException;
 import com.cloudhopper.smpp.type.SmppProcessingException;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.sun.net.httpserver.HttpServer;
+import gr.cytech.sendium.core.worker.DlrRecordDataType;
+import gr.cytech.sendium.core.worker.UnpushedDlr;
 import io.netty.channel.nio.NioEventLoopGroup;
+import org.h2.mvstore.MVMap;
 import org.h2.mvstore.MVStore;
 
 import java.io.IOException;
@@ -310,15 +313,17 @@ public class NativeE2eSmoke {
         Path dbPath = workDir.resolve("data").resolve("dlr-mvstore.db");
         require(Files.exists(dbPath), "DLR MVStore does not exist " + phase + ": " + dbPath);
         try (MVStore store = new MVStore.Builder().fileName(dbPath.toAbsolutePath().toString()).readOnly().open()) {
-            Map<String, String> dlrStore = store.openMap("unpushedDlrStore");
-            Map<String, String> dlrIndex = store.openMap("unpushedDlrIndex");
-            boolean present = dlrStore.values().stream().anyMatch(value -> value.contains("\"serial\":\"" + gatewayId + "\""));
+            Map<String, UnpushedDlr> dlrStore = store.openMap("unpushedDlrStore", new MVMap.Builder<String, UnpushedDlr>()
+                    .valueType(DlrRecordDataType.UNPUSHED_DLR));
+            Map<String, Boolean> dlrQueue = store.openMap("unpushedDlrQueue");
+            boolean present = dlrStore.values().stream().anyMatch(dlr -> dlr != null && gatewayId.equals(dlr.serial));
             require(present == expectedPresent,
                     "Unexpected unpushed DLR presence " + phase + " for gatewayId " + gatewayId
                             + ": " + present + " expected " + expectedPresent
-                            + " storeSize=" + dlrStore.size() + " indexSize=" + dlrIndex.size());
+                            + " storeSize=" + dlrStore.size() + " queueSize=" + dlrQueue.size());
             if (expectedPresent) {
-                require(dlrIndex.containsKey("smpp-user"), "Unpushed DLR index did not contain smpp-user " + phase);
+                require(dlrQueue.keySet().stream().anyMatch(key -> key.startsWith("smpp-user\u0000")),
+                        "Unpushed DLR queue did not contain smpp-user " + phase);
             }
         }
     }
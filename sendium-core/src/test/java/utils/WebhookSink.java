@@ -0,0 +1,128 @@
+package utils;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * An embedded HTTP server that stands in for the DLR and MO webhook endpoints of customers, to load-test the callback
+ * path on one machine.
+ *
+ * <p>
+ * Each request waits for a delay drawn from its {@link Latency}, and then is answered by one of these, drawn by their
+ * rates: a {@code 500}, no answer until {@link #timeoutMillis} has passed, which is longer than a callback may take, or
+ * a connection closed without a response, like a reset. Any other request gets a {@code 200} and is passed to the
+ * listener. Requests are handled on virtual threads, so a slow sink does not run out of threads.
+ */
+public class WebhookSink implements AutoCloseable {
+    public final AtomicLong received = new AtomicLong();
+    public final AtomicLong succeeded = new AtomicLong();
+    public final AtomicLong errors = new AtomicLong();
+    public final AtomicLong timeouts = new AtomicLong();
+    public final AtomicLong resets = new AtomicLong();
+    public volatile Latency latency = Latency.fixed(0);
+    public volatile double errorRate;
+    public volatile double timeoutRate;
+    public volatile double resetRate;
+    public volatile long timeoutMillis = 10_000;
+    public volatile Consumer<Request> listener = request -> {
+    };
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor();
+
+    public WebhookSink() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    /**
+     * @return the URL of {@code path} on the sink
+     */
+    public String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+            received.incrementAndGet();
+            sleep(latency.nextMillis());
+            double outcome = ThreadLocalRandom.current().nextDouble();
+            if (outcome < errorRate) {
+                errors.incrementAndGet();
+                exchange.sendResponseHeaders(500, -1);
+            } else if (outcome < errorRate + timeoutRate) {
+                timeouts.incrementAndGet();
+                sleep(timeoutMillis);
+                exchange.sendResponseHeaders(504, -1);
+            } else if (outcome < errorRate + timeoutRate + resetRate) {
+                // closing the exchange before the response headers closes the connection
+                resets.incrementAndGet();
+            } else {
+                succeeded.incrementAndGet();
+                exchange.sendResponseHeaders(200, -1);
+                listener.accept(new Request(exchange.getRequestMethod(), exchange.getRequestURI(), body, System.nanoTime()));
+            }
+        }
+    }
+
+    private static void sleep(long millis) {
+        if (millis <= 0) {
+            return;
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    /**
+     * A request the sink answered with a {@code 200}.
+     *
+     * @param answeredAt {@link System#nanoTime()} when it was answered
+     */
+    public record Request(String method, URI uri, String body, long answeredAt) {
+    }
+
+    /**
+     * The delays before the sink answers.
+     */
+    @FunctionalInterface
+    public interface Latency {
+        long nextMillis();
+
+        static Latency fixed(long millis) {
+            return () -> millis;
+        }
+
+        static Latency uniform(long minMillis, long maxMillis) {
+            return () -> ThreadLocalRandom.current().nextLong(minMillis, maxMillis + 1);
+        }
+
+        /**
+         * @return exponentially distributed delays with a mean of {@code meanMillis}, a few of them many times longer
+         */
+        static Latency exponential(long meanMillis) {
+            return () -> Math.round(-meanMillis * Math.log(1 - ThreadLocalRandom.current().nextDouble()));
+        }
+    }
+}